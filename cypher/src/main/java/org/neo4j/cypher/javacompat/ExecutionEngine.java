@@ -41,6 +41,17 @@ public class ExecutionEngine
         inner = new org.neo4j.cypher.ExecutionEngine( database );
     }
 
+    /**
+     * Creates an execution engine around the give graph database
+     * @param database The database to wrap
+     * @param planCacheSize The number of execution plans and parsed queries
+     * to keep cached
+     */
+    public ExecutionEngine( GraphDatabaseService database, int planCacheSize )
+    {
+        inner = new org.neo4j.cypher.ExecutionEngine( database, planCacheSize );
+    }
+
     /**
      * Executes a {@link Query} and returns an iterable that contains the result set
      * @param query The query to execute
@@ -65,4 +76,65 @@ public class ExecutionEngine
     {
         return new ExecutionResult(inner.execute(query, params));
     }
+
+    /**
+     * Parses and executes a query and returns an iterable that contains the
+     * result set. The parsed query is cached, so executing the same query
+     * text again doesn't parse it again.
+     * @param query The query to execute
+     * @return A ExecutionResult that contains the result set
+     * @throws org.neo4j.cypher.SyntaxException If the Query contains errors,
+     * a SyntaxException exception might be thrown
+     */
+    public ExecutionResult execute( String query ) throws SyntaxException
+    {
+        return new ExecutionResult(inner.execute( query ));
+    }
+
+    /**
+     * Parses and executes a query and returns an iterable that contains the
+     * result set. The parsed query is cached, so executing the same query
+     * text again doesn't parse it again.
+     * @param query The query to execute
+     * @param params Parameters for the query
+     * @return A ExecutionResult that contains the result set
+     * @throws org.neo4j.cypher.SyntaxException If the Query contains errors,
+     * a SyntaxException exception might be thrown
+     */
+    public ExecutionResult execute( String query, Map<String, Object> params) throws SyntaxException
+    {
+        return new ExecutionResult(inner.execute(query, params));
+    }
+
+    /**
+     * @return the number of executions that reused a cached execution plan
+     */
+    public long getPlanCacheHitCount()
+    {
+        return inner.planCacheHitCount();
+    }
+
+    /**
+     * @return the number of executions that had to build an execution plan
+     */
+    public long getPlanCacheMissCount()
+    {
+        return inner.planCacheMissCount();
+    }
+
+    /**
+     * @return the number of query texts that were found already parsed
+     */
+    public long getQueryCacheHitCount()
+    {
+        return inner.queryCacheHitCount();
+    }
+
+    /**
+     * @return the number of query texts that had to be parsed
+     */
+    public long getQueryCacheMissCount()
+    {
+        return inner.queryCacheMissCount();
+    }
 }
@@ -24,7 +24,10 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * Holds Cypher query result sets.
+ * Holds Cypher query result sets. The query is run as the rows are read,
+ * and reading a result again runs it again. Use {@link #buffered()} to keep
+ * the rows in memory if they are read more than once, for example both
+ * through {@link #columnAs(String)} and {@link #toString()}.
  */
 public class ExecutionResult implements Iterable<Map<String,Object>>
 {
@@ -51,6 +54,18 @@ public class ExecutionResult implements Iterable<Map<String,Object>>
         return inner.javaIterator();
     }
 
+    /**
+     * Returns a result keeping the rows of this one in memory as they are
+     * read, which can be read any number of times.
+     */
+    public ExecutionResult buffered()
+    {
+        return new ExecutionResult( inner.buffered() );
+    }
+
+    /**
+     * Returns the rows of this result as a text table.
+     */
     @Override
     public String toString()
     {
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher
+
+import collection.mutable.ArrayBuffer
+
+/**
+ * A result that keeps its rows in memory and can be traversed any number
+ * of times. Rows are pulled from source as they are first asked for, so
+ * source is read once, and only as far as the rows are read. Traversing
+ * the result again reads the kept rows before pulling any further ones.
+ */
+class BufferedExecutionResult(val symbols: SymbolTable, source: Iterator[Map[String, Any]]) extends ExecutionResult {
+  private val rows = new ArrayBuffer[Map[String, Any]]()
+
+  def iterator: Iterator[Map[String, Any]] = new Iterator[Map[String, Any]] {
+    private var position = 0
+
+    def hasNext: Boolean = BufferedExecutionResult.this.synchronized {
+      position < rows.size || pull()
+    }
+
+    def next(): Map[String, Any] = BufferedExecutionResult.this.synchronized {
+      if (!hasNext) {
+        Iterator.empty.next()
+      }
+      position += 1
+      rows(position - 1)
+    }
+  }
+
+  def buffered: ExecutionResult = this
+
+  private def pull(): Boolean = {
+    if (source.hasNext) {
+      rows += source.next()
+      true
+    } else {
+      false
+    }
+  }
+}
@@ -26,11 +26,25 @@ import org.neo4j.graphdb._
 import collection.Seq
 import java.lang.{Error, Iterable}
 import java.util.{Map => JavaMap}
+import org.neo4j.graphdb.index.IndexHits
+import parser.CypherParser
 
 
-class ExecutionEngine(graph: GraphDatabaseService) {
+/**
+ * Executes queries against a graph. The execution plan built for a query is
+ * cached, keyed by the query and the names of its parameters, and reused
+ * with new parameter values the next time the same query is executed.
+ * Queries given as text are parsed once and cached as well.
+ */
+class ExecutionEngine(graph: GraphDatabaseService, planCacheSize: Int) {
   checkScalaVersion()
 
+  def this(graph: GraphDatabaseService) = this (graph, ExecutionEngine.DEFAULT_PLAN_CACHE_SIZE)
+
+  private val queryParser = new CypherParser()
+  private val queryCache = new LruCache[String, Query](planCacheSize)
+  private val planCache = new LruCache[(Query, Set[String]), Pipe](planCacheSize)
+
   // This is here because the JavaAPI looks funny with default values
   @throws(classOf[SyntaxException])
   def execute(query: Query): ExecutionResult = execute(query, Map[String, Any]())
@@ -40,7 +54,39 @@ class ExecutionEngine(graph: GraphDatabaseService) {
   def execute(query: Query, map: JavaMap[String, Any]): ExecutionResult = execute(query, map.asScala.toMap)
 
   @throws(classOf[SyntaxException])
-  def execute(query: Query, params: Map[String, Any]): ExecutionResult = query match {
+  def execute(query: Query, params: Map[String, Any]): ExecutionResult = {
+    val plan = planCache.getOrElseUpdate((query, params.keySet), buildPlan(query, params.keySet))
+    new PipeExecutionResult(plan, params)
+  }
+
+  @throws(classOf[SyntaxException])
+  def execute(query: String): ExecutionResult = execute(query, Map[String, Any]())
+
+  @throws(classOf[SyntaxException])
+  def execute(query: String, map: JavaMap[String, Any]): ExecutionResult = execute(query, map.asScala.toMap)
+
+  @throws(classOf[SyntaxException])
+  def execute(query: String, params: Map[String, Any]): ExecutionResult = execute(parse(query), params)
+
+  @throws(classOf[SyntaxException])
+  def parse(query: String): Query = queryCache.getOrElseUpdate(query, queryParser.synchronized {
+    queryParser.parse(query)
+  })
+
+  def planCacheHitCount: Long = planCache.hitCount
+
+  def planCacheMissCount: Long = planCache.missCount
+
+  def queryCacheHitCount: Long = queryCache.hitCount
+
+  def queryCacheMissCount: Long = queryCache.missCount
+
+  def clearCaches() {
+    queryCache.clear()
+    planCache.clear()
+  }
+
+  private def buildPlan(query: Query, parameterNames: Set[String]): Pipe = query match {
     case Query(returns, start, matching, where, aggregation, sort, slice, namedPaths) => {
 
       val clauses = where match {
@@ -48,7 +94,7 @@ class ExecutionEngine(graph: GraphDatabaseService) {
         case Some(w) => w.atoms
       }
 
-      val paramPipe = new ParameterPipe(params)
+      val paramPipe = new ParameterPipe(parameterNames)
       val pipe = createSourcePumps(paramPipe, start.startItems.toList)
 
       var context = new CurrentContext(pipe, clauses)
@@ -82,7 +128,8 @@ class ExecutionEngine(graph: GraphDatabaseService) {
       sort match {
         case None =>
         case Some(s) => {
-          context.pipe = new SortPipe(context.pipe, s.sortItems.toList)
+          val maxRows = slice.flatMap(x => x.limit.map(_ + x.from.getOrElse(0)))
+          context.pipe = new SortPipe(context.pipe, s.sortItems.toList, maxRows)
         }
       }
 
@@ -93,9 +140,7 @@ class ExecutionEngine(graph: GraphDatabaseService) {
 
       val columns = returns.returnItems ++ aggregation.getOrElse(new Aggregation()).aggregationItems
 
-      val result = new ColumnFilterPipe(context.pipe, columns) with ExecutionResult
-
-      result
+      new ColumnFilterPipe(context.pipe, columns)
     }
   }
 
@@ -159,19 +204,24 @@ class ExecutionEngine(graph: GraphDatabaseService) {
       new StartPipe(lastPipe, varName, m => {
         val keyVal = key(m).toString
         val valueVal = value(m)
-        val indexHits: Iterable[Node] = graph.index.forNodes(idxName).get(keyVal, valueVal)
-        indexHits.asScala
+        closeable(graph.index.forNodes(idxName).get(keyVal, valueVal))
       })
 
     case NodeByIndexQuery(varName, idxName, query) =>
       new StartPipe(lastPipe, varName, m => {
         val queryText = query(m)
-        val indexHits: Iterable[Node] = graph.index.forNodes(idxName).query(queryText)
-        indexHits.asScala
+        closeable(graph.index.forNodes(idxName).query(queryText))
       })
 
-    case NodeById(varName, id) => new StartPipe(lastPipe, varName, m => makeLongSeq(id(m), varName).map(graph.getNodeById))
-    case RelationshipById(varName, ids@_*) => new StartPipe(lastPipe, varName, ids.map(graph.getRelationshipById))
+    case NodeById(varName, id) => new StartPipe(lastPipe, varName, m => makeLongSeq(id(m), varName).view.map(graph.getNodeById))
+    case RelationshipById(varName, ids@_*) => new StartPipe(lastPipe, varName, m => ids.view.map(graph.getRelationshipById))
+  }
+
+  private def closeable(indexHits: IndexHits[Node]): scala.Iterable[Node] = new scala.Iterable[Node] {
+    def iterator: Iterator[Node] = {
+      val hits: java.util.Iterator[Node] = indexHits
+      new ClosingIterator(hits.asScala, () => indexHits.close())
+    }
   }
 
   private def addFilters(context: CurrentContext): CurrentContext = {
@@ -228,4 +278,8 @@ class ExecutionEngine(graph: GraphDatabaseService) {
   }
 }
 
-private class CurrentContext(var pipe: Pipe, var clauses: Seq[Clause])
\ No newline at end of file
+object ExecutionEngine {
+  val DEFAULT_PLAN_CACHE_SIZE = 100
+}
+
+private class CurrentContext(var pipe: Pipe, var clauses: Seq[Clause])
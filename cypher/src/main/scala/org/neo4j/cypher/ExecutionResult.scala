@@ -22,30 +22,41 @@ package org.neo4j.cypher
 
 import scala.collection.JavaConverters._
 import org.neo4j.graphdb.{PropertyContainer, Relationship, NotFoundException, Node}
-import collection.Traversable
 
-trait ExecutionResult extends Traversable[Map[String, Any]] with StringExtras {
+/**
+ * The rows of an executed query. The query is run as the rows are asked
+ * for, and a result can be traversed any number of times. Use buffered to
+ * keep the rows in memory when a result is traversed more than once, so
+ * that the query only runs once.
+ */
+trait ExecutionResult extends Iterable[Map[String, Any]] with StringExtras {
   val symbols:SymbolTable
 
-  val columns: List[String] = symbols.identifiers.map(_.name).toList
+  lazy val columns: List[String] = symbols.identifiers.map(_.name).toList
 
   def javaColumns: java.util.List[String] = columns.asJava
 
-  def javaColumnAs[T](column: String) = columnAs[T](column).asJava
+  def javaColumnAs[T](column: String): java.util.Iterator[T] = columnAs[T](column).asJava
 
   def columnAs[T](column: String): Iterator[T] = {
-    this.map((map) => {
+    iterator.map((map) => {
       val item: Any = map.getOrElse(column, throw new NotFoundException("No column named '" + column + "' was found."))
       item.asInstanceOf[T]
-    }).toIterator
+    })
   }
 
-  def javaIterator: java.util.Iterator[java.util.Map[String, Any]] = this.map((m) => m.asJava).toIterator.asJava
+  def javaIterator: java.util.Iterator[java.util.Map[String, Any]] = iterator.map((m) => m.asJava).asJava
+
+  /**
+   * Returns a result that keeps the rows of this one in memory as they are
+   * read, which can be traversed any number of times.
+   */
+  def buffered: ExecutionResult
 
-  def calculateColumnSizes: Map[String, Int] = {
+  def calculateColumnSizes(rows: Traversable[Map[String, Any]]): Map[String, Int] = {
     val columnSizes = new scala.collection.mutable.HashMap[String, Int] ++ columns.map( name => name -> name.size)
 
-    this.foreach((m) => {
+    rows.foreach((m) => {
       m.foreach((kv) => {
         val length = text(kv._2).size
         if (!columnSizes.contains(kv._1) || columnSizes.get(kv._1).get < length) {
@@ -59,14 +70,15 @@ trait ExecutionResult extends Traversable[Map[String, Any]] with StringExtras {
   def dumpToString(): String = {
     val start = System.currentTimeMillis()
 
-    val columnSizes = calculateColumnSizes
+    val rows = toList
+    val columnSizes = calculateColumnSizes(rows)
 
     val headers = columns.map((c) => Map[String, Any](c -> c)).reduceLeft(_ ++ _)
     val headerLine: String = createString(columns, columnSizes, headers)
     val lineWidth: Int = headerLine.length - 2
     val --- = "+" + repeat("-", lineWidth) + "+"
 
-    val resultLines: Traversable[String] = map(createString(columns, columnSizes, _))
+    val resultLines: List[String] = rows.map(createString(columns, columnSizes, _))
     val timeTaken = System.currentTimeMillis() - start
     val footer = "%d rows, %d ms".format(resultLines.size, timeTaken)
 
@@ -81,6 +93,7 @@ trait ExecutionResult extends Traversable[Map[String, Any]] with StringExtras {
     lines.mkString("\r\n") + "\r\n" + footer
   }
 
+  override def toString(): String = "ExecutionResult" + columns.mkString("[", ", ", "]")
 
   def props(x: PropertyContainer): String = x.getPropertyKeys.asScala.map((key) => key + "->" + quoteString(x.getProperty(key))).mkString("{", ",", "}")
 
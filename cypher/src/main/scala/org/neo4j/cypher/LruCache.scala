@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.{Map => JavaMap, LinkedHashMap}
+
+/**
+ * A bounded, thread safe cache that evicts the least recently used entry
+ * once it holds more than maxSize entries. Values are created outside of
+ * the lock, so two threads missing on the same key at the same time may
+ * both create a value, of which the last one is kept.
+ */
+class LruCache[K, V](val maxSize: Int) {
+  if (maxSize < 0) {
+    throw new IllegalArgumentException("maxSize=" + maxSize)
+  }
+
+  private val map = new LinkedHashMap[K, V](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: JavaMap.Entry[K, V]) = size() > LruCache.this.maxSize
+  }
+
+  private val hits = new AtomicLong()
+  private val misses = new AtomicLong()
+
+  def getOrElseUpdate(key: K, create: => V): V = {
+    val cached = map.synchronized {
+      map.get(key)
+    }
+
+    if (cached != null) {
+      hits.incrementAndGet()
+      cached
+    } else {
+      misses.incrementAndGet()
+      val value = create
+      map.synchronized {
+        map.put(key, value)
+      }
+      value
+    }
+  }
+
+  def size: Int = map.synchronized {
+    map.size()
+  }
+
+  def clear() {
+    map.synchronized {
+      map.clear()
+    }
+  }
+
+  def hitCount: Long = hits.get
+
+  def missCount: Long = misses.get
+}
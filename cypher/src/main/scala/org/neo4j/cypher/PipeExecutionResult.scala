@@ -0,0 +1,37 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher
+
+import pipes.Pipe
+
+/**
+ * The result of running an execution plan. Rows are pulled from the plan
+ * as they are asked for and nothing is kept, so a result that is only
+ * partly read only does part of the work, and a result read once in a
+ * single pass never holds more than the row at hand. Each traversal runs
+ * the plan again, use buffered to run it once and keep the rows.
+ */
+class PipeExecutionResult(pipe: Pipe, params: Map[String, Any]) extends ExecutionResult {
+  val symbols = pipe.symbols
+
+  def iterator: Iterator[Map[String, Any]] = pipe.createResults(params)
+
+  def buffered: ExecutionResult = new BufferedExecutionResult(symbols, iterator)
+}
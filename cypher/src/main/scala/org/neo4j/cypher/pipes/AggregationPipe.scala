@@ -28,21 +28,21 @@ class AggregationPipe(source: Pipe, returnItems: Seq[ReturnItem], aggregations:
 
   aggregations.foreach(_.assertDependencies(source))
 
-  def foreach[U](f: Map[String, Any] => U) {
+  def createResults(params: Map[String, Any]): Iterator[Map[String, Any]] = {
     val result = collection.mutable.Map[Seq[Any], Seq[AggregationFunction]]()
     val valueNames = returnItems.map(_.columnName)
     val aggregationNames = aggregations.map(_.identifier.name)
 
-    source.foreach(m => {
+    source.createResults(params).foreach(m => {
       val groupValues = valueNames.map(m(_))
       val functions = result.getOrElseUpdate(groupValues, aggregations.map(_.createAggregationFunction))
       functions.foreach(func => func(m))
     })
 
-    result.foreach {
+    result.iterator.map {
       case (key, value: Seq[AggregationFunction]) => {
         val elems = valueNames.zip(key) ++ aggregationNames.zip(value.map(_.result))
-        f(elems.toMap)
+        elems.toMap
       }
     }
   }
@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.pipes
+
+/**
+ * An iterator over rows which can be closed before it has been exhausted.
+ * Closing it closes the iterators it reads from, down to the index hits of
+ * the start pipes, so a LIMIT that stops pulling rows doesn't leave index
+ * hits open. Exhausted index hits close themselves.
+ */
+class ClosingIterator[T](inner: Iterator[T], onClose: () => Unit) extends Iterator[T] {
+  private var closed = false
+
+  def hasNext: Boolean = !closed && inner.hasNext
+
+  def next(): T = if (closed) Iterator.empty.next() else inner.next()
+
+  def close() {
+    if (!closed) {
+      closed = true
+      onClose()
+    }
+  }
+}
+
+object ClosingIterator {
+  /**
+   * Rows made from the rows of source, closing them closes source.
+   */
+  def apply[T](rows: Iterator[T], source: Iterator[_]): ClosingIterator[T] = new ClosingIterator(rows, () => close(source))
+
+  /**
+   * Like flatMap, but closing the rows closes both source and the rows
+   * currently being read from f.
+   */
+  def flatMap[A, B](source: Iterator[A])(f: A => Iterator[B]): ClosingIterator[B] = {
+    var current: Iterator[B] = Iterator.empty
+
+    val rows = new Iterator[B] {
+      def hasNext: Boolean = {
+        while (!current.hasNext && source.hasNext) {
+          current = f(source.next())
+        }
+        current.hasNext
+      }
+
+      def next(): B = if (hasNext) current.next() else Iterator.empty.next()
+    }
+
+    new ClosingIterator(rows, () => {
+      close(current)
+      close(source)
+    })
+  }
+
+  def close(rows: Iterator[_]) {
+    rows match {
+      case closing: ClosingIterator[_] => closing.close()
+      case _ =>
+    }
+  }
+}
@@ -30,12 +30,11 @@ class ColumnFilterPipe(source: Pipe, returnItems: Seq[ReturnItem]) extends Pipe
     new SymbolTable(returnItemNames.map( name => mergedSymbols.get(name).getOrElse(throw new SyntaxException("Unbound Symbol "+name))))
   }
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    source.foreach(row => {
-      val filtered = row.filter((kv) => kv match {
-        case (name, _) => returnItemNames.exists(_ == name)
-      })
-      f.apply(filtered)
-    })
+  def createResults(params: Map[String, Any]): Iterator[Map[String, Any]] = {
+    val sourceResults = source.createResults(params)
+
+    ClosingIterator(sourceResults.map(row => {
+      returnItemNames.flatMap(name => row.get(name).map(name -> _)).toMap
+    }), sourceResults)
   }
 }
\ No newline at end of file
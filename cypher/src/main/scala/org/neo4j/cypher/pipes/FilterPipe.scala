@@ -26,9 +26,11 @@ import java.lang.String
 class FilterPipe(source: Pipe, where: Clause) extends Pipe {
   val symbols: SymbolTable = source.symbols
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    source.filter((row) => {
+  def createResults(params: Map[String, Any]): Iterator[Map[String, Any]] = {
+    val sourceResults = source.createResults(params)
+
+    ClosingIterator(sourceResults.filter((row) => {
       where.isMatch(row)
-    }).foreach(f)
+    }), sourceResults)
   }
 }
\ No newline at end of file
@@ -25,10 +25,10 @@ import org.neo4j.cypher.SymbolTable
 class JoinPipe(a: Pipe, b: Pipe) extends Pipe {
   val symbols: SymbolTable = a.symbols ++ b.symbols
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    a.foreach((aMap) => {
-      b.foreach((bMap) => {
-        f.apply(aMap ++ bMap)
+  def createResults(params: Map[String, Any]): Iterator[Map[String, Any]] = {
+    ClosingIterator.flatMap(a.createResults(params))((aMap) => {
+      b.createResults(params).map((bMap) => {
+        Row(aMap).bindAll(bMap)
       })
     })
   }
@@ -32,9 +32,10 @@ class MatchPipe(source: Pipe, patterns: Seq[Pattern]) extends Pipe {
     case _ => Seq()
   }))
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    source.foreach(sourcePipeRow => {
-      matchingContext.getMatches(sourcePipeRow).foreach(patternMatch => f(patternMatch ++ sourcePipeRow))
+  def createResults(params: Map[String, Any]): Iterator[Map[String, Any]] = {
+    ClosingIterator.flatMap(source.createResults(params))(sourcePipeRow => {
+      val row = Row(sourcePipeRow)
+      matchingContext.getMatches(sourcePipeRow).toIterator.map(patternMatch => row.bindAll(patternMatch -- sourcePipeRow.keys))
     })
   }
 }
\ No newline at end of file
@@ -25,9 +25,10 @@ import scala.collection.JavaConverters._
 import org.neo4j.cypher.commands._
 
 class NamedPathPipe(source: Pipe, path: NamedPath) extends Pipe {
-  def foreach[U](f: (Map[String, Any]) => U) {
+  def createResults(params: Map[String, Any]): Iterator[Map[String, Any]] = {
+    val sourceResults = source.createResults(params)
 
-    source.foreach(m => {
+    ClosingIterator(sourceResults.map(m => {
       def get(x:String):PropertyContainer = m(x).asInstanceOf[PropertyContainer]
       def getPath(x:String):Path = m(x).asInstanceOf[Path]
 
@@ -45,8 +46,8 @@ class NamedPathPipe(source: Pipe, path: NamedPath) extends Pipe {
 
       val pathImpl = new PathImpl(p: _*)
 
-      f( m + (path.pathName -> pathImpl) )
-    })
+      Row(m).bind(path.pathName, pathImpl)
+    }), sourceResults)
   }
 
   val symbols: SymbolTable = source.symbols.add(Seq(PathIdentifier(path.pathName)))
@@ -22,12 +22,14 @@ package org.neo4j.cypher.pipes
 import org.neo4j.cypher.SymbolTable
 import org.neo4j.cypher.commands.{Identifier, LiteralIdentifier}
 
-class ParameterPipe(params: Map[String, Any]) extends Pipe {
-  def foreach[U](f: (Map[String, Any]) => U) {
-    f(params)
-  }
+/**
+ * The source of every execution plan, emits a single row holding the
+ * parameters of the query.
+ */
+class ParameterPipe(parameterNames: Iterable[String]) extends Pipe {
+  def createResults(params: Map[String, Any]): Iterator[Map[String, Any]] = Iterator.single(Row(params))
 
-  val identifiers: Seq[Identifier] = params.keys.map(k => LiteralIdentifier(k)).toSeq
+  val identifiers: Seq[Identifier] = parameterNames.map(k => LiteralIdentifier(k)).toSeq
 
   val symbols: SymbolTable = new SymbolTable(identifiers)
-}
\ No newline at end of file
+}
@@ -25,11 +25,17 @@ import org.neo4j.cypher.SymbolTable
 /**
  * Pipe is a central part of Cypher. Most pipes are decorators - they
  * wrap another pipe. StartPipes are the only exception to this.
- * Pipes are combined to form an execution plan, and when iterated over,
- * the execute the query.
+ * Pipes are combined to form an execution plan, and when the results of
+ * the plan are pulled, they execute the query. Rows are produced lazily,
+ * so nothing is read from the graph that isn't asked for.
+ *
+ * An execution plan is shared by all executions of a query, so a pipe
+ * keeps no state of its own between calls to createResults.
  */
-abstract class Pipe extends Traversable[Map[String, Any]] {
+abstract class Pipe {
 
   def ++(other: Pipe): Pipe = new JoinPipe(this, other)
   val symbols:SymbolTable
+
+  def createResults(params: Map[String, Any]): Iterator[Map[String, Any]]
 }
\ No newline at end of file
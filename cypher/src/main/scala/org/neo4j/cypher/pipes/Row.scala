@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.pipes
+
+import collection.mutable.LinkedHashMap
+
+/**
+ * A row flowing through the pipes. Binding an identifier doesn't copy the
+ * row, the new row just links to the one it extends, so the cost of adding
+ * a column doesn't grow with the number of columns already bound. Lookups
+ * walk the chain, which is only as long as the number of pipes that bound
+ * something.
+ */
+sealed abstract class Row extends Map[String, Any] {
+  def bind(key: String, value: Any): Row = new BoundRow(this, key, value)
+
+  def bindAll(bindings: Map[String, Any]): Row = bindings.foldLeft(this: Row)((row, kv) => row.bind(kv._1, kv._2))
+
+  def +[B1 >: Any](kv: (String, B1)): Map[String, B1] = bind(kv._1, kv._2)
+
+  def -(key: String): Map[String, Any] = iterator.filter(_._1 != key).toMap
+
+  /**
+   * The bindings in the order they were bound in. A binding that hides an
+   * earlier one takes its place, so a row iterates like a map built by
+   * adding the same bindings one at a time.
+   */
+  def iterator: Iterator[(String, Any)] = {
+    var bound: List[BoundRow] = Nil
+    var base: MapRow = null
+    var row: Row = this
+    while (base == null) {
+      row match {
+        case b: BoundRow => {
+          bound = b :: bound
+          row = b.parent
+        }
+        case m: MapRow => base = m
+      }
+    }
+
+    val bindings = new LinkedHashMap[String, Any]()
+    bindings ++= base.underlying
+    bound.foreach(b => bindings(b.key) = b.value)
+    bindings.iterator
+  }
+}
+
+object Row {
+  def apply(map: Map[String, Any]): Row = map match {
+    case row: Row => row
+    case _ => new MapRow(map)
+  }
+}
+
+private class MapRow(val underlying: Map[String, Any]) extends Row {
+  def get(key: String): Option[Any] = underlying.get(key)
+
+  override def size: Int = underlying.size
+}
+
+private class BoundRow(val parent: Row, val key: String, val value: Any) extends Row {
+  def get(key: String): Option[Any] = if (key == this.key) Some(value) else parent.get(key)
+}
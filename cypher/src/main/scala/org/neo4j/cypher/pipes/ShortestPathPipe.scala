@@ -29,8 +29,8 @@ class ShortestPathPipe(source: Pipe, pipeName: String, startName: String, endNam
 
   def this(source:Pipe, ast:ShortestPath) = this(source, ast.pipeName, ast.startName, ast.endName, ast.relType, ast.dir, ast.maxDepth, ast.optional)
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    source.foreach(m => {
+  def createResults(params: Map[String, Any]): Iterator[Map[String, Any]] = {
+    ClosingIterator.flatMap(source.createResults(params))(m => {
       val err = (n:String) => throw new SyntaxException("Shortest path needs both ends of the path to be provided. Couldn't find " + n)
 
       val start = m.getOrElse(startName, err(startName)).asInstanceOf[Node]
@@ -47,9 +47,9 @@ class ShortestPathPipe(source: Pipe, pipeName: String, startName: String, endNam
       val findSinglePath = finder.findSinglePath(start, end)
 
       (findSinglePath, optional) match {
-        case (null, true) => f(m ++ Map(pipeName -> null))
-        case (null, false) =>
-        case (path, _) => f(m ++ Map(pipeName -> path))
+        case (null, true) => Iterator.single(Row(m).bind(pipeName, null))
+        case (null, false) => Iterator.empty
+        case (path, _) => Iterator.single(Row(m).bind(pipeName, path))
       }
     })
   }
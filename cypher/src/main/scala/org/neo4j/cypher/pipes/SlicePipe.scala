@@ -24,14 +24,44 @@ import org.neo4j.cypher.SymbolTable
 class SlicePipe(source:Pipe, skip:Option[Int], limit:Option[Int]) extends Pipe {
   val symbols: SymbolTable = source.symbols
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    val slicedResult = (skip, limit) match {
-      case (None, None) => source
-      case (Some(x), None) => source.drop(x)
-      case (None, Some(x)) => source.take(x)
-      case (Some(startAt), Some(count)) => source.slice(startAt, startAt + count)
+  def createResults(params: Map[String, Any]): Iterator[Map[String, Any]] = {
+    val sourceResults = source.createResults(params)
+
+    // the source is only pulled for the rows that are kept
+    (skip, limit) match {
+      case (None, None) => sourceResults
+      case (Some(x), None) => sourceResults.drop(x)
+      case (None, Some(x)) => limited(sourceResults, sourceResults, x)
+      case (Some(startAt), Some(count)) => limited(sourceResults.drop(startAt), sourceResults, count)
+    }
+  }
+
+  /**
+   * The first maxRows rows, the source is closed once they have been read
+   * since the rest of it won't be.
+   */
+  private def limited(rows: Iterator[Map[String, Any]], source: Iterator[Map[String, Any]], maxRows: Int): Iterator[Map[String, Any]] = {
+    var returned = 0
+
+    val limitedRows = new Iterator[Map[String, Any]] {
+      def hasNext: Boolean = {
+        if (returned < maxRows && rows.hasNext) {
+          true
+        } else {
+          ClosingIterator.close(source)
+          false
+        }
+      }
+
+      def next(): Map[String, Any] = {
+        if (!hasNext) {
+          Iterator.empty.next()
+        }
+        returned += 1
+        rows.next()
+      }
     }
 
-    slicedResult.foreach(f)
+    ClosingIterator(limitedRows, source)
   }
-}
\ No newline at end of file
+}
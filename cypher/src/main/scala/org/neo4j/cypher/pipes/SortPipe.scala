@@ -22,14 +22,58 @@ package org.neo4j.cypher.pipes
 import org.neo4j.cypher.{Comparer, SymbolTable}
 import scala.math.signum
 import org.neo4j.cypher.commands.SortItem
+import java.util.{Comparator, PriorityQueue}
+import scala.collection.JavaConverters._
+
+/**
+ * Sorts the rows of its source. When only the first maxRows rows are asked
+ * for (ORDER BY followed by LIMIT) just those are kept, in a bounded heap,
+ * instead of sorting all the rows.
+ */
+class SortPipe(source: Pipe, sortDescription: List[SortItem], maxRows: Option[Int]) extends Pipe with Comparer {
+  def this(source: Pipe, sortDescription: List[SortItem]) = this(source, sortDescription, None)
 
-class SortPipe(source: Pipe,sortDescription: List[SortItem]) extends Pipe with Comparer {
   val symbols: SymbolTable = source.symbols
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    val sorted = source.toList.sortWith((a, b) => compareBy (a,b,sortDescription))
+  def createResults(params: Map[String, Any]): Iterator[Map[String, Any]] = {
+    val sourceResults = source.createResults(params)
+
+    maxRows match {
+      case None => sourceResults.toList.sortWith((a, b) => compareBy(a, b, sortDescription)).iterator
+      case Some(n) => firstRows(sourceResults, n)
+    }
+  }
+
+  private def firstRows(rows: Iterator[Map[String, Any]], n: Int): Iterator[Map[String, Any]] = {
+    if (n <= 0) {
+      return Iterator.empty
+    }
+
+    // rows are paired with their position, which keeps the sort stable.
+    // The head of the heap is the row that sorts last among those kept.
+    val heap = new PriorityQueue[(Map[String, Any], Int)](math.min(n, 1024), new Comparator[(Map[String, Any], Int)] {
+      def compare(a: (Map[String, Any], Int), b: (Map[String, Any], Int)): Int = compareRows(b, a)
+    })
+
+    var position = 0
+    rows.foreach(row => {
+      val entry = (row, position)
+      position += 1
+      if (heap.size < n) {
+        heap.add(entry)
+      } else if (compareRows(entry, heap.peek) < 0) {
+        heap.poll()
+        heap.add(entry)
+      }
+    })
+
+    heap.asScala.toList.sortWith(compareRows(_, _) < 0).map(_._1).iterator
+  }
 
-    sorted.foreach(f)
+  private def compareRows(a: (Map[String, Any], Int), b: (Map[String, Any], Int)): Int = {
+    if (compareBy(a._1, b._1, sortDescription)) -1
+    else if (compareBy(b._1, a._1, sortDescription)) 1
+    else a._2 - b._2
   }
 
   def compareBy(a:Map[String, Any], b:Map[String, Any], order:Seq[SortItem]):Boolean = order match {
@@ -30,10 +30,11 @@ class StartPipe[T <: PropertyContainer](inner: Pipe, name: String, createSource:
 
   val symbols: SymbolTable = inner.symbols.add(Seq(symbolType))
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    inner.foreach(innerMap => {
-      createSource(innerMap).foreach((x) => {
-        f(innerMap ++ Map(name -> x))
+  def createResults(params: Map[String, Any]): Iterator[Map[String, Any]] = {
+    ClosingIterator.flatMap(inner.createResults(params))(innerMap => {
+      val innerRow = Row(innerMap)
+      createSource(innerMap).iterator.map((x) => {
+        innerRow.bind(name, x)
       })
     })
   }
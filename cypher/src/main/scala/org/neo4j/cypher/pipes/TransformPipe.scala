@@ -34,11 +34,17 @@ class TransformPipe(source: Pipe, returnItems: Seq[ReturnItem]) extends Pipe {
 
   returnItems.foreach(_.assertDependencies(source))
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    source.foreach(row => {
-      val projection: Map[String, Any] = returnItems.map( returnItem =>returnItem.columnName -> returnItem(row) ).toMap
-      f.apply(projection ++ row)
-    })
+  def createResults(params: Map[String, Any]): Iterator[Map[String, Any]] = {
+    val sourceResults = source.createResults(params)
+
+    ClosingIterator(sourceResults.map(row => {
+      returnItems.foldLeft(Row(row))((projection, returnItem) => {
+        if (row.contains(returnItem.columnName))
+          projection
+        else
+          projection.bind(returnItem.columnName, returnItem(row))
+      })
+    }), sourceResults)
   }
 }
 
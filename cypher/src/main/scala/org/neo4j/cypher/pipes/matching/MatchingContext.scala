@@ -34,11 +34,24 @@ class MatchingContext(patterns: Seq[Pattern], boundIdentifiers: SymbolTable) {
   }
 
   def getMatches(bindings: Map[String, Any]): Traversable[Map[String, Any]] = {
-    val (pinnedName, pinnedNode) = bindings.head
+    // rows also carry the query parameters, only graph elements are matched
+    val boundElements = bindings.filter(kv => patternGraph.contains(kv._1))
 
+    boundElements.find(_._2.isInstanceOf[Node]) match {
+      case Some((pinnedName, pinnedNode: Node)) => getMatches(boundElements, pinnedName, pinnedNode)
+
+      // the bound nodes of this row are optional ones that weren't found,
+      // so there's no node to start matching from
+      case _ if boundElements.values.forall(_ == null) => Seq()
+
+      case _ => throw new SyntaxException("Matching needs a bound node to start from, only relationships are bound: " + boundElements.keys.mkString(", "))
+    }
+  }
+
+  private def getMatches(boundElements: Map[String, Any], pinnedName: String, pinnedNode: Node): Traversable[Map[String, Any]] = {
     val pinnedPatternNode = patternGraph(pinnedName).asInstanceOf[PatternNode]
 
-    val boundPairs = bindings.map(kv => {
+    val boundPairs = boundElements.map(kv => {
       val patternElement = patternGraph(kv._1)
       val pair = kv._2 match {
         case node: Node => MatchingPair(patternElement, node)
@@ -48,9 +61,9 @@ class MatchingContext(patterns: Seq[Pattern], boundIdentifiers: SymbolTable) {
       kv._1 -> pair
     })
 
-    pinnedPatternNode.pin(pinnedNode.asInstanceOf[Node])
-
-    new PatternMatcher(pinnedPatternNode, boundPairs).map(matchedGraph => {
+    // the pattern graph is shared by all executions of a cached plan, so
+    // the start node is handed to the matcher instead of pinned in the graph
+    new PatternMatcher(pinnedPatternNode, pinnedNode, boundPairs).map(matchedGraph => {
       matchedGraph ++ createNullValuesForOptionalElements(matchedGraph)
     })
   }
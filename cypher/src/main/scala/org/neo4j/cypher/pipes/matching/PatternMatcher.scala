@@ -21,10 +21,10 @@ package org.neo4j.cypher.pipes.matching
 
 import org.neo4j.graphdb.Node
 
-class PatternMatcher(startPoint: PatternNode, bindings: Map[String, MatchingPair]) extends Traversable[Map[String, Any]] {
+class PatternMatcher(startPoint: PatternNode, startNode: Node, bindings: Map[String, MatchingPair]) extends Traversable[Map[String, Any]] {
 
   def foreach[U](f: (Map[String, Any]) => U) {
-    traverseNode(MatchingPair(startPoint, startPoint.pinnedEntity.get), Seq(), bindings.values.toSeq, f)
+    traverseNode(MatchingPair(startPoint, startNode), Seq(), bindings.values.toSeq, f)
   }
 
   private def traverseNode[U](current: MatchingPair,
@@ -31,6 +31,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.matchers.JUnitMatchers.containsString;
@@ -92,4 +93,19 @@ public class JavaExecutionEngineTests
         assertNull( n_column.next() );
         assertThat( result.toString(), containsString("null") );
     }
+
+    @Test
+    public void exampleWithQueryTextAndCachedPlan() throws Exception
+    {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put( "id", 0 );
+        engine.execute( "start n=({id}) return n", params );
+        ExecutionResult result = engine.execute( "start n=({id}) return n", params );
+
+        assertThat( asIterable( result.<Node>columnAs( "n" ) ), hasItem( db.getNodeById( 0 ) ) );
+        assertEquals( 1, engine.getQueryCacheMissCount() );
+        assertEquals( 1, engine.getQueryCacheHitCount() );
+        assertEquals( 1, engine.getPlanCacheMissCount() );
+        assertEquals( 1, engine.getPlanCacheHitCount() );
+    }
 }
@@ -876,6 +876,33 @@ class ExecutionEngineTest extends ExecutionEngineHelper {
     }
   }
 
+  @Test def resultShouldBeTraversableMoreThanOnce() {
+    val result = parseAndExecute("start n=(0) return n")
+
+    assertEquals(List(refNode), result.columnAs[Node]("n").toList)
+    assertEquals(List(refNode), result.columnAs[Node]("n").toList)
+    assertTrue(result.dumpToString().contains("1 rows"))
+  }
+
+  @Test def partlyReadBufferedResultShouldBeTraversableFromTheStart() {
+    val a = createNode()
+    val b = createNode()
+    val result = parseAndExecute("start n=(" + a.getId + ", " + b.getId + ") return n").buffered
+
+    val first = result.iterator
+    assertEquals(Map("n" -> a), first.next())
+
+    assertEquals(List(a, b), result.columnAs[Node]("n").toList)
+    assertEquals(Map("n" -> b), first.next())
+    assertFalse(first.hasNext)
+  }
+
+  @Test def dumpToStringShouldRunQueryOnce() {
+    val result = parseAndExecute("start n=(0) return n")
+
+    assertTrue(result.dumpToString().contains("Node[0]"))
+  }
+
   private def parseAndExecute(q: String): ExecutionResult = {
     val query = new CypherParser().parse(q)
     execute(query)
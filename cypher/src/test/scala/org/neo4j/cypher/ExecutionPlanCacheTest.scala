@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher
+
+import commands._
+import org.junit.Assert._
+import org.junit.Test
+import org.neo4j.graphdb.{Direction, Node}
+import java.util.concurrent.atomic.AtomicReference
+
+class ExecutionPlanCacheTest extends ExecutionEngineHelper {
+
+  @Test def shouldReusePlanWithNewParameters() {
+    createNode(Map("name" -> "Andres"))
+
+    val query = Query.
+      start(NodeById("a", 1)).
+      where(Equals(PropertyValue("a", "name"), ParameterValue("name")))
+      .returns(ValueReturnItem(EntityValue("a")))
+
+    assertEquals(0, execute(query, "name" -> "Tobias").toList.size)
+    assertEquals(1, execute(query, "name" -> "Andres").toList.size)
+
+    assertEquals(1, engine.planCacheMissCount)
+    assertEquals(1, engine.planCacheHitCount)
+  }
+
+  @Test def shouldBuildNewPlanForOtherParameterNames() {
+    createNode(Map("name" -> "Andres"))
+
+    val query = Query.
+      start(NodeById("a", 1)).
+      where(Equals(PropertyValue("a", "name"), ParameterValue("name")))
+      .returns(ValueReturnItem(EntityValue("a")))
+
+    execute(query, "name" -> "Andres").toList
+    execute(query, "name" -> "Andres", "other" -> 1).toList
+
+    assertEquals(2, engine.planCacheMissCount)
+    assertEquals(0, engine.planCacheHitCount)
+  }
+
+  @Test def shouldParseQueryTextOnce() {
+    createNodes("A")
+
+    val first = engine.execute("start pA = ({a}) return pA", Map[String, Any]("a" -> 1))
+    val second = engine.execute("start pA = ({a}) return pA", Map[String, Any]("a" -> 0))
+
+    assertEquals(List(Map("pA" -> node("A"))), first.toList)
+    assertEquals(List(Map("pA" -> refNode)), second.toList)
+    assertEquals(1, engine.queryCacheMissCount)
+    assertEquals(1, engine.queryCacheHitCount)
+    assertEquals(1, engine.planCacheHitCount)
+  }
+
+  @Test def shouldEvictLeastRecentlyUsedPlans() {
+    val smallEngine = new ExecutionEngine(graph, 1)
+
+    smallEngine.execute("start n=(0) return n").toList
+    smallEngine.execute("start m=(0) return m").toList
+    smallEngine.execute("start n=(0) return n").toList
+
+    assertEquals(3, smallEngine.planCacheMissCount)
+    assertEquals(0, smallEngine.planCacheHitCount)
+  }
+
+  @Test def shouldMatchFromBoundNodeOfPlanWithParameters() {
+    val List(a, b) = createNodes("A", "B")
+    relate(a, b, "KNOWS")
+
+    val query = Query.
+      start(NodeById("n", ParameterValue("start"))).
+      matches(RelatedTo("n", "friend", "r", "KNOWS", Direction.OUTGOING)).
+      where(Equals(PropertyValue("friend", "name"), ParameterValue("name"))).
+      returns(ValueReturnItem(EntityValue("friend")))
+
+    assertEquals(List(Map("friend" -> b)), execute(query, "start" -> a.getId, "name" -> "B").toList)
+    assertEquals(List(), execute(query, "start" -> a.getId, "name" -> "C").toList)
+    assertEquals(1, engine.planCacheHitCount)
+  }
+
+  @Test def shouldRunCachedPlanConcurrently() {
+    val List(a, b) = createNodes("A", "B")
+    (1 to 10).foreach(i => relate(a, createNode(), "KNOWS"))
+    relate(b, createNode(), "KNOWS")
+
+    val query = Query.
+      start(NodeById("n", ParameterValue("start"))).
+      matches(RelatedTo("n", "friend", "r", "KNOWS", Direction.OUTGOING)).
+      returns(ValueReturnItem(EntityValue("friend")))
+
+    assertEquals(10, execute(query, "start" -> a.getId).toList.size)
+
+    val failure = new AtomicReference[Throwable]()
+    val threads = (1 to 8).map(i => new Thread() {
+      override def run() {
+        try {
+          (1 to 50).foreach(round => {
+            val (start, expected) = if ((i + round) % 2 == 0) (a, 10) else (b, 1)
+            val result = engine.execute(query, Map[String, Any]("start" -> start.getId))
+            val found = result.columnAs[Node]("friend").toList
+            assertEquals(expected, found.size)
+          })
+        } catch {
+          case t: Throwable => failure.set(t)
+        }
+      }
+    })
+    threads.foreach(_.start())
+    threads.foreach(_.join())
+
+    assertNull(failure.get)
+    assertEquals(1, engine.planCacheMissCount)
+  }
+}
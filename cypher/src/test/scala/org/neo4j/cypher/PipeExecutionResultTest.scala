@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher
+
+import org.junit.Test
+import org.junit.Assert._
+import org.scalatest.junit.JUnitSuite
+import pipes.CountingPipe
+
+class PipeExecutionResultTest extends JUnitSuite {
+  @Test def shouldOnlyPullTheRowsThatAreRead() {
+    val pipe = new CountingPipe(100)
+    val result = new PipeExecutionResult(pipe, Map())
+
+    assertEquals(List(Map("x" -> 0), Map("x" -> 1)), result.iterator.take(2).toList)
+    assertEquals(2, pipe.pulled)
+  }
+
+  @Test def shouldRunThePlanAgainWhenTraversedAgain() {
+    val pipe = new CountingPipe(3)
+    val result = new PipeExecutionResult(pipe, Map())
+
+    assertEquals(3, result.toList.size)
+    assertEquals(3, result.toList.size)
+    assertEquals(6, pipe.pulled)
+  }
+
+  @Test def bufferedResultShouldRunThePlanOnce() {
+    val pipe = new CountingPipe(3)
+    val result = new PipeExecutionResult(pipe, Map()).buffered
+
+    assertEquals(List(0, 1, 2), result.columnAs[Int]("x").toList)
+    assertEquals(List(0, 1, 2), result.columnAs[Int]("x").toList)
+    assertEquals(3, result.size)
+    assertEquals(3, pipe.pulled)
+  }
+
+  @Test def bufferedResultShouldOnlyPullTheRowsThatAreRead() {
+    val pipe = new CountingPipe(100)
+    val result = new PipeExecutionResult(pipe, Map()).buffered
+
+    assertEquals(Map("x" -> 0), result.iterator.next())
+    assertEquals(List(Map("x" -> 0), Map("x" -> 1)), result.iterator.take(2).toList)
+    assertEquals(2, pipe.pulled)
+    assertSame(result, result.buffered)
+  }
+}
@@ -58,7 +58,7 @@ class AggregationPipeTest extends JUnitSuite {
     val grouping = List(CountStar())
     val aggregationPipe = new AggregationPipe(source, returnItems, grouping)
 
-    assertThat(aggregationPipe.toList.asJava, hasItems(
+    assertThat(aggregationPipe.createResults(Map()).toList.asJava, hasItems(
       Map("name" -> "Andres", "count(*)" -> 1),
       Map("name" -> "Peter", "count(*)" -> 1),
       Map("name" -> "Michael", "count(*)" -> 2)))
@@ -75,7 +75,7 @@ class AggregationPipeTest extends JUnitSuite {
     val grouping = List(ValueAggregationItem(Count((EntityValue("name")))))
     val aggregationPipe = new AggregationPipe(source, returnItems, grouping)
 
-    assertEquals(List(Map("count(name)" -> 3)), aggregationPipe.toList)
+    assertEquals(List(Map("count(name)" -> 3)), aggregationPipe.createResults(Map()).toList)
   }
 
 }
\ No newline at end of file
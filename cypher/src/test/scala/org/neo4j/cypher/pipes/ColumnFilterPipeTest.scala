@@ -32,6 +32,6 @@ class ColumnFilterPipeTest extends JUnitSuite {
     val columnPipe = new ColumnFilterPipe(source, returnItems)
 
     Assert.assertEquals(Set(NodeIdentifier("extractReturnItems")), columnPipe.symbols.identifiers)
-    Assert.assertEquals(List(Map("extractReturnItems" -> "bar")), columnPipe.toList)
+    Assert.assertEquals(List(Map("extractReturnItems" -> "bar")), columnPipe.createResults(Map()).toList)
   }
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.pipes
+
+import org.junit.Test
+import org.junit.Assert._
+import org.scalatest.junit.JUnitSuite
+
+class RowTest extends JUnitSuite {
+  @Test def shouldSeeBoundValues() {
+    val row = Row(Map("a" -> 1)).bind("b", 2)
+
+    assertEquals(Some(1), row.get("a"))
+    assertEquals(Some(2), row.get("b"))
+    assertEquals(None, row.get("c"))
+  }
+
+  @Test def laterBindingsShouldHideEarlierOnes() {
+    val row = Row(Map("a" -> 1)).bind("a", 2)
+
+    assertEquals(2, row("a"))
+    assertEquals(1, row.size)
+  }
+
+  @Test def shouldBeEqualToMapWithTheSameBindings() {
+    val row = Row(Map("a" -> 1)).bindAll(Map("b" -> 2, "c" -> null))
+
+    assertEquals(Map("a" -> 1, "b" -> 2, "c" -> null), row)
+    assertEquals(Map("a" -> 1, "b" -> 2, "c" -> null).hashCode(), row.hashCode())
+    assertEquals(Map("a" -> 1, "c" -> null), row - "b")
+  }
+
+  @Test def shouldIterateBindingsInTheOrderTheyWereBound() {
+    val row = Row(Map("a" -> 1)).bind("b", 2).bind("c", 3).bind("a", 4)
+
+    assertEquals(List("a" -> 4, "b" -> 2, "c" -> 3), row.toList)
+  }
+}
@@ -29,7 +29,7 @@ class ShortestPathPipeTest extends GraphDatabaseTestBase with Assertions {
     val source = new FakePipe(List(Map("a" -> a, "b" -> b)))
 
     val pipe = new ShortestPathPipe(source, "p", "a", "b", None, Direction.BOTH, Some(15), true)
-    pipe.head("p").asInstanceOf[Path]
+    pipe.createResults(Map()).next()("p").asInstanceOf[Path]
   }
 
   @Test def shouldReturnTheShortestPathBetweenTwoNodes() {
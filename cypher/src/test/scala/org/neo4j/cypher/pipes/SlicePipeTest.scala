@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.pipes
+
+import org.junit.Test
+import org.junit.Assert._
+import org.scalatest.junit.JUnitSuite
+import org.neo4j.cypher.SymbolTable
+
+class SlicePipeTest extends JUnitSuite {
+  @Test def limitShouldOnlyPullTheRowsItReturns() {
+    val source = new CountingPipe(100)
+    val slicePipe = new SlicePipe(source, None, Some(10))
+
+    assertEquals((0 until 10).map(i => Map("x" -> i)).toList, slicePipe.createResults(Map()).toList)
+    assertEquals(10, source.pulled)
+  }
+
+  @Test def skipAndLimitShouldOnlyPullTheRowsTheyNeed() {
+    val source = new CountingPipe(100)
+    val slicePipe = new SlicePipe(source, Some(5), Some(3))
+
+    assertEquals(List(Map("x" -> 5), Map("x" -> 6), Map("x" -> 7)), slicePipe.createResults(Map()).toList)
+    assertEquals(8, source.pulled)
+  }
+
+  @Test def limitShouldCloseTheSourceWhenItStopsPullingRows() {
+    val source = new CountingPipe(100)
+    val slicePipe = new SlicePipe(source, None, Some(10))
+
+    assertEquals(10, slicePipe.createResults(Map()).size)
+    assertTrue(source.closed)
+  }
+}
+
+class CountingPipe(count: Int) extends Pipe {
+  val symbols = new SymbolTable()
+  var pulled = 0
+
+  var closed = false
+
+  def createResults(params: Map[String, Any]): Iterator[Map[String, Any]] = new ClosingIterator((0 until count).iterator.map(i => {
+    pulled += 1
+    Map("x" -> i)
+  }), () => closed = true)
+}
@@ -30,14 +30,14 @@ class SortPipeTest extends JUnitSuite{
     val source = new FakePipe(List())
     val sortPipe = new SortPipe(source, List(SortItem(ValueReturnItem(EntityValue("x")), true)))
 
-    assertEquals(List(), sortPipe.toList)
+    assertEquals(List(), sortPipe.createResults(Map()).toList)
   }
 
   @Test def simpleSortingIsSupported() {
     val source = new FakePipe(List(Map("x" -> "B"), Map("x" -> "A")))
     val sortPipe = new SortPipe(source, List(SortItem(ValueReturnItem(EntityValue("x")), true)))
 
-    assertEquals(List(Map("x" -> "A"), Map("x" -> "B")), sortPipe.toList)
+    assertEquals(List(Map("x" -> "A"), Map("x" -> "B")), sortPipe.createResults(Map()).toList)
   }
 
   @Test def sortByTwoColumns() {
@@ -53,7 +53,7 @@ class SortPipeTest extends JUnitSuite{
     assertEquals(List(
       Map("x" -> "A", "y" -> 100),
       Map("x" -> "B", "y" -> 10),
-      Map("x" -> "B", "y" -> 20)), sortPipe.toList)
+      Map("x" -> "B", "y" -> 20)), sortPipe.createResults(Map()).toList)
   }
 
   @Test def sortByTwoColumnsWithOneDescending() {
@@ -69,7 +69,7 @@ class SortPipeTest extends JUnitSuite{
     assertEquals(List(
       Map("x" -> "A", "y" -> 100),
       Map("x" -> "B", "y" -> 20),
-      Map("x" -> "B", "y" -> 10)), sortPipe.toList)
+      Map("x" -> "B", "y" -> 10)), sortPipe.createResults(Map()).toList)
   }
 
   @Test def shouldHandleSortingWithNullValues() {
@@ -83,7 +83,35 @@ class SortPipeTest extends JUnitSuite{
     assertEquals(List(
       Map("y" -> 1),
       Map("y" -> 2),
-      Map("y" -> null)), sortPipe.toList)
+      Map("y" -> null)), sortPipe.createResults(Map()).toList)
+  }
+
+  @Test def shouldOnlyKeepTheFirstRowsWhenLimited() {
+    val source = new FakePipe(List(
+      Map("x" -> 5),
+      Map("x" -> 1),
+      Map("x" -> 4),
+      Map("x" -> 2),
+      Map("x" -> 3)))
+
+    val sortPipe = new SortPipe(source, List(SortItem(ValueReturnItem(EntityValue("x")), false)), Some(2))
+
+    assertEquals(List(Map("x" -> 5), Map("x" -> 4)), sortPipe.createResults(Map()).toList)
+  }
+
+  @Test def limitedSortShouldKeepRowsWithEqualKeysInOrder() {
+    val source = new FakePipe(List(
+      Map("x" -> "B", "y" -> 1),
+      Map("x" -> "A", "y" -> 2),
+      Map("x" -> "B", "y" -> 3),
+      Map("x" -> "A", "y" -> 4)))
+
+    val sortPipe = new SortPipe(source, List(SortItem(ValueReturnItem(EntityValue("x")), true)), Some(3))
+
+    assertEquals(List(
+      Map("x" -> "A", "y" -> 2),
+      Map("x" -> "A", "y" -> 4),
+      Map("x" -> "B", "y" -> 1)), sortPipe.createResults(Map()).toList)
   }
 
 }
@@ -91,7 +119,5 @@ class SortPipeTest extends JUnitSuite{
 class FakePipe(data: Seq[Map[String, Any]], val symbols: SymbolTable) extends Pipe {
   def this(data: Seq[Map[String, Any]]) = this (data, new SymbolTable())
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    data.foreach(f(_))
-  }
+  def createResults(params: Map[String, Any]): Iterator[Map[String, Any]] = data.iterator
 }
\ No newline at end of file
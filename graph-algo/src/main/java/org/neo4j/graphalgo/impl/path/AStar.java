@@ -20,20 +20,15 @@
 package org.neo4j.graphalgo.impl.path;
 
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
 
 import org.neo4j.graphalgo.CostEvaluator;
 import org.neo4j.graphalgo.EstimateEvaluator;
 import org.neo4j.graphalgo.PathFinder;
 import org.neo4j.graphalgo.WeightedPath;
+import org.neo4j.graphalgo.impl.util.DoubleComparator;
+import org.neo4j.graphalgo.impl.util.IndexedPriorityQueue;
 import org.neo4j.graphalgo.impl.util.PathImpl;
 import org.neo4j.graphalgo.impl.util.WeightedPathImpl;
 import org.neo4j.graphdb.Direction;
@@ -43,6 +38,9 @@ import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipExpander;
 import org.neo4j.helpers.collection.PrefetchingIterator;
+import org.neo4j.kernel.impl.util.LongHashSet;
+import org.neo4j.kernel.impl.util.LongLongHashMap;
+import org.neo4j.kernel.impl.util.LongObjectHashMap;
 
 public class AStar implements PathFinder<WeightedPath>
 {
@@ -70,13 +68,13 @@ public class AStar implements PathFinder<WeightedPath>
                 // Hit, return path
                 double weight = doer.score.get( node.getId() ).wayLength;
                 LinkedList<Relationship> rels = new LinkedList<Relationship>();
-                Relationship rel = graphDb.getRelationshipById( doer.cameFrom.get( node.getId() ) );
-                while ( rel != null )
+                long relId = doer.cameFrom.get( node.getId(), -1 );
+                while ( relId != -1 )
                 {
+                    Relationship rel = graphDb.getRelationshipById( relId );
                     rels.addFirst( rel );
                     node = rel.getOtherNode( node );
-                    Long nextRelId = doer.cameFrom.get( node.getId() );
-                    rel = nextRelId == null ? null : graphDb.getRelationshipById( nextRelId );
+                    relId = doer.cameFrom.get( node.getId(), -1 );
                 }
                 Path path = toPath( start, rels );
                 return new WeightedPathImpl( weight, path );
@@ -117,12 +115,11 @@ public class AStar implements PathFinder<WeightedPath>
         private final Node end;
         private Node lastNode;
         private boolean expand;
-        private final Set<Long> visitedNodes = new HashSet<Long>();
-        private final Set<Node> nextNodesSet = new HashSet<Node>();
-        private final TreeMap<Double, Collection<Node>> nextNodes =
-                new TreeMap<Double, Collection<Node>>();
-        private final Map<Long, Long> cameFrom = new HashMap<Long, Long>();
-        private final Map<Long, Data> score = new HashMap<Long, Data>();
+        private final LongHashSet visitedNodes = new LongHashSet();
+        private final IndexedPriorityQueue<Node, Double> nextNodes =
+                new IndexedPriorityQueue<Node, Double>( new DoubleComparator() );
+        private final LongLongHashMap cameFrom = new LongLongHashMap();
+        private final LongObjectHashMap<Data> score = new LongObjectHashMap<Data>();
         
         Doer( Node start, Node end )
         {
@@ -131,46 +128,15 @@ public class AStar implements PathFinder<WeightedPath>
             Data data = new Data();
             data.wayLength = 0;
             data.estimate = estimateEvaluator.getCost( start, end );
-            addNext( start, data.getFscore() );
+            this.nextNodes.offer( start.getId(), start, data.getFscore() );
             this.score.put( start.getId(), data );
         }
         
-        private void addNext( Node node, double fscore )
-        {
-            Collection<Node> nodes = this.nextNodes.get( fscore );
-            if ( nodes == null )
-            {
-                nodes = new HashSet<Node>();
-                this.nextNodes.put( fscore, nodes );
-            }
-            nodes.add( node );
-            this.nextNodesSet.add( node );
-        }
-
         private Node popLowestScoreNode()
         {
-            Iterator<Map.Entry<Double, Collection<Node>>> itr =
-                    this.nextNodes.entrySet().iterator();
-            if ( !itr.hasNext() )
-            {
-                return null;
-            }
-            
-            Map.Entry<Double, Collection<Node>> entry = itr.next();
-            Node node = entry.getValue().isEmpty() ? null : entry.getValue().iterator().next();
-            if ( node == null )
-            {
-                return null;
-            }
-            
+            Node node = this.nextNodes.poll();
             if ( node != null )
             {
-                entry.getValue().remove( node );
-                this.nextNodesSet.remove( node );
-                if ( entry.getValue().isEmpty() )
-                {
-                    this.nextNodes.remove( entry.getKey() );
-                }
                 this.visitedNodes.add( node.getId() );
             }
             return node;
@@ -196,37 +162,33 @@ public class AStar implements PathFinder<WeightedPath>
 
         private void expand()
         {
+            Data lastNodeData = this.score.get( this.lastNode.getId() );
             for ( Relationship rel : expander.expand( this.lastNode ) )
             {
                 Node node = rel.getOtherNode( this.lastNode );
-                if ( this.visitedNodes.contains( node.getId() ) )
+                long nodeId = node.getId();
+                if ( this.visitedNodes.contains( nodeId ) )
                 {
                     continue;
                 }
                 
-                Data lastNodeData = this.score.get( this.lastNode.getId() );
                 double tentativeGScore = lastNodeData.wayLength +
                         lengthEvaluator.getCost( rel, Direction.OUTGOING );
-                boolean isBetter = false;
-                double estimate = estimateEvaluator.getCost( node, this.end );
-                if ( !this.nextNodesSet.contains( node ) )
+                Data data = this.score.get( nodeId );
+                if ( data == null )
                 {
-                    addNext( node, estimate + tentativeGScore );
-                    isBetter = true;
+                    data = new Data();
+                    data.estimate = estimateEvaluator.getCost( node, this.end );
+                    this.score.put( nodeId, data );
                 }
-                else if ( tentativeGScore < this.score.get( node.getId() ).wayLength )
+                else if ( tentativeGScore >= data.wayLength )
                 {
-                    isBetter = true;
+                    continue;
                 }
                 
-                if ( isBetter )
-                {
-                    this.cameFrom.put( node.getId(), rel.getId() );
-                    Data data = new Data();
-                    data.wayLength = tentativeGScore;
-                    data.estimate = estimate;
-                    this.score.put( node.getId(), data );
-                }
+                data.wayLength = tentativeGScore;
+                this.cameFrom.put( nodeId, rel.getId() );
+                this.nextNodes.offer( nodeId, node, data.getFscore() );
             }
         }
     }
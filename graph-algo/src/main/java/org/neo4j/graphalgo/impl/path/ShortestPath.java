@@ -41,6 +41,8 @@ import org.neo4j.graphdb.RelationshipExpander;
 import org.neo4j.helpers.collection.IterableWrapper;
 import org.neo4j.helpers.collection.NestingIterator;
 import org.neo4j.helpers.collection.PrefetchingIterator;
+import org.neo4j.kernel.impl.util.LongHashSet;
+import org.neo4j.kernel.impl.util.LongObjectHashMap;
 
 /**
  * Find (all or one) simple shortest path(s) between two nodes. It starts
@@ -125,7 +127,7 @@ public class ShortestPath implements PathFinder<Path>
         }
 
         Hits hits = new Hits();
-        Collection<Long> sharedVisitedRels = new HashSet<Long>();
+        LongHashSet sharedVisitedRels = new LongHashSet();
         MutableInteger sharedFrozenDepth = new MutableInteger( MutableInteger.NULL );
         MutableBoolean sharedStop = new MutableBoolean();
         MutableInteger sharedCurrentDepth = new MutableInteger( 0 );
@@ -183,7 +185,7 @@ public class ShortestPath implements PathFinder<Path>
         }
         
         Node nextNode = directionData.next();
-        LevelData otherSideHit = otherSide.visitedNodes.get( nextNode );
+        LevelData otherSideHit = otherSide.visitedNodes.get( nextNode.getId() );
         if ( otherSideHit != null )
         {
             // This is a hit
@@ -230,8 +232,8 @@ public class ShortestPath implements PathFinder<Path>
         private int currentDepth;
         private Iterator<Relationship> nextRelationships;
         private final Collection<Node> nextNodes = new ArrayList<Node>();
-        private Map<Node, LevelData> visitedNodes = new HashMap<Node, LevelData>();
-        private final Collection<Long> sharedVisitedRels;
+        private final LongObjectHashMap<LevelData> visitedNodes = new LongObjectHashMap<LevelData>();
+        private final LongHashSet sharedVisitedRels;
         private Node lastParentTraverserNode;
         private final MutableInteger sharedFrozenDepth;
         private final MutableBoolean sharedStop;
@@ -240,12 +242,12 @@ public class ShortestPath implements PathFinder<Path>
         private boolean stop;
         private final RelationshipExpander expander;
         
-        DirectionData( Node startNode, Collection<Long> sharedVisitedRels,
+        DirectionData( Node startNode, LongHashSet sharedVisitedRels,
                 MutableInteger sharedFrozenDepth, MutableBoolean sharedStop,
                 MutableInteger sharedCurrentDepth, RelationshipExpander expander )
         {
             this.startNode = startNode;
-            this.visitedNodes.put( startNode, new LevelData( null, 0 ) );
+            this.visitedNodes.put( startNode.getId(), new LevelData( null, 0 ) );
             this.nextNodes.add( startNode );
             this.sharedFrozenDepth = sharedFrozenDepth;
             this.sharedStop = sharedStop;
@@ -298,12 +300,12 @@ public class ShortestPath implements PathFinder<Path>
                 }
                 
                 Node result = nextRel.getOtherNode( this.lastParentTraverserNode );
-                LevelData levelData = this.visitedNodes.get( result );
+                LevelData levelData = this.visitedNodes.get( result.getId() );
                 boolean createdLevelData = false;
                 if ( levelData == null )
                 {
                     levelData = new LevelData( nextRel, this.currentDepth );
-                    this.visitedNodes.put( result, levelData );
+                    this.visitedNodes.put( result.getId(), levelData );
                     createdLevelData = true;
                 }
                 
@@ -483,7 +485,7 @@ public class ShortestPath implements PathFinder<Path>
     
     private static Iterable<LinkedList<Relationship>> getPaths( Hit hit, DirectionData data )
     {
-        LevelData levelData = data.visitedNodes.get( hit.connectingNode );
+        LevelData levelData = data.visitedNodes.get( hit.connectingNode.getId() );
         if ( levelData.depth == 0 )
         {
             Collection<LinkedList<Relationship>> result = new ArrayList<LinkedList<Relationship>>();
@@ -506,7 +508,7 @@ public class ShortestPath implements PathFinder<Path>
             {
                 // One path...
                 Node otherNode = entry.rels.getFirst().getOtherNode( entry.node );
-                LevelData otherLevelData = data.visitedNodes.get( otherNode );
+                LevelData otherLevelData = data.visitedNodes.get( otherNode.getId() );
                 int counter = 0;
                 for ( long rel : otherLevelData.relsToHere )
                 {
@@ -546,7 +548,7 @@ public class ShortestPath implements PathFinder<Path>
     {
         boolean isHit( int depth );
         
-        boolean canVisitRelationship( Collection<Long> rels, Relationship rel );
+        boolean canVisitRelationship( LongHashSet rels, Relationship rel );
     }
     
     private static final HitDecider YES_HIT_DECIDER = new HitDecider()
@@ -556,7 +558,7 @@ public class ShortestPath implements PathFinder<Path>
             return true;
         }
         
-        public boolean canVisitRelationship( Collection<Long> rels, Relationship rel )
+        public boolean canVisitRelationship( LongHashSet rels, Relationship rel )
         {
             return true;
         }
@@ -576,7 +578,7 @@ public class ShortestPath implements PathFinder<Path>
             return this.depth == depth;
         }
         
-        public boolean canVisitRelationship( Collection<Long> rels, Relationship rel )
+        public boolean canVisitRelationship( LongHashSet rels, Relationship rel )
         {
             return rels.add( rel.getId() );
         }
@@ -225,10 +225,14 @@ public class Dijkstra<CostType> implements
         // This puts the start node into the queue
         protected void InitQueue()
         {
-            queue = new DijkstraPriorityQueueFibonacciImpl<CostType>(
+            queue = new DijkstraPriorityQueueIndexedImpl<CostType>(
                     costComparator );
-            queue.insertValue( startNode, startCost );
-            mySeen.put( startNode, startCost );
+            // The start node may not have been set yet
+            if ( startNode != null )
+            {
+                queue.insertValue( startNode, startCost );
+                mySeen.put( startNode, startCost );
+            }
         }
 
         public boolean hasNext()
@@ -258,10 +262,10 @@ public class Dijkstra<CostType> implements
                 HashMap<Node, CostType> otherSideDistances )
         {
             // Found a path?
-            if ( otherSideDistances.containsKey( currentNode ) )
+            CostType otherCost = otherSideDistances.get( currentNode );
+            if ( otherCost != null )
             {
                 // Is it better than previously found paths?
-                CostType otherCost = otherSideDistances.get( currentNode );
                 CostType newTotalCost = costAccumulator.addCosts( currentCost,
                         otherCost );
                 if ( foundPathsMiddleNodes == null )
@@ -336,13 +340,14 @@ public class Dijkstra<CostType> implements
                                         backwardsEdge ? Direction.INCOMING
                                                 : Direction.OUTGOING ) );
                         // Already done with target node?
-                        if ( myDistances.containsKey( target ) )
+                        CostType targetDistance = myDistances.get( target );
+                        if ( targetDistance != null )
                         {
                             // Have we found a better cost for a node which is
                             // already
                             // calculated?
                             if ( costComparator.compare(
-                                    myDistances.get( target ), newCost ) > 0 )
+                                    targetDistance, newCost ) > 0 )
                             {
                                 throw new RuntimeException(
                                         "Cycle with negative costs found." );
@@ -350,7 +355,7 @@ public class Dijkstra<CostType> implements
                             // Equally good path found?
                             else if ( calculateAllShortestPaths
                                       && costComparator.compare(
-                                              myDistances.get( target ),
+                                              targetDistance,
                                               newCost ) == 0 )
                             {
                                 // Put it in predecessors
@@ -376,12 +381,13 @@ public class Dijkstra<CostType> implements
                             continue;
                         }
                         // Have we found a better cost for this node?
-                        if ( !mySeen.containsKey( target )
-                             || costComparator.compare( mySeen.get( target ),
+                        CostType targetCost = mySeen.get( target );
+                        if ( targetCost == null
+                             || costComparator.compare( targetCost,
                                      newCost ) > 0 )
                         {
                             // Put it in the queue
-                            if ( !mySeen.containsKey( target ) )
+                            if ( targetCost == null )
                             {
                                 queue.insertValue( target, newCost );
                             }
@@ -404,7 +410,7 @@ public class Dijkstra<CostType> implements
                         // node?
                         else if ( calculateAllShortestPaths
                                   && costComparator.compare(
-                                          mySeen.get( target ), newCost ) == 0 )
+                                          targetCost, newCost ) == 0 )
                         {
                             // Put it in predecessors
                             List<Relationship> predList = predecessors.get( target );
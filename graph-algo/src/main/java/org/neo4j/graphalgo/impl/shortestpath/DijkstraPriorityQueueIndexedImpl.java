@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.shortestpath;
+
+import java.util.Comparator;
+
+import org.neo4j.graphalgo.impl.util.IndexedPriorityQueue;
+import org.neo4j.graphdb.Node;
+
+/**
+ * Implementation of {@link DijkstraPriorityQueue} using an
+ * {@link IndexedPriorityQueue} keyed by node id, which unlike the
+ * {@link DijkstraPriorityQueueFibonacciImpl} doesn't allocate a heap node
+ * and a map entry for each node.
+ * @param <CostType>
+ *            The datatype the path weights are represented by.
+ */
+public class DijkstraPriorityQueueIndexedImpl<CostType> implements
+    DijkstraPriorityQueue<CostType>
+{
+    private final IndexedPriorityQueue<Node,CostType> queue;
+
+    public DijkstraPriorityQueueIndexedImpl(
+        Comparator<CostType> costComparator )
+    {
+        queue = new IndexedPriorityQueue<Node,CostType>( costComparator );
+    }
+
+    public void insertValue( Node node, CostType value )
+    {
+        queue.offer( node.getId(), node, value );
+    }
+
+    public void decreaseValue( Node node, CostType newValue )
+    {
+        queue.offer( node.getId(), node, newValue );
+    }
+
+    public Node extractMin()
+    {
+        return queue.poll();
+    }
+
+    public Node peek()
+    {
+        return queue.peek();
+    }
+
+    public boolean isEmpty()
+    {
+        return queue.isEmpty();
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.neo4j.kernel.impl.util.LongLongHashMap;
+
+/**
+ * A binary heap of entities, e.g. nodes, each identified by a
+ * <CODE>long</CODE> key, e.g. the node id, by which the priority of an
+ * entity already in the queue can be decreased. The heap is kept in arrays
+ * and the positions of the keys in a primitive map, so there's no allocation
+ * per entity other than the priority itself.
+ *
+ * @param <E> the type of the entities
+ * @param <P> the type of the priorities, the lowest priority is polled first
+ */
+public class IndexedPriorityQueue<E, P>
+{
+    private final Comparator<? super P> comparator;
+    private final LongLongHashMap positions = new LongLongHashMap();
+    private long[] keys = new long[16];
+    private Object[] entities = new Object[16];
+    private Object[] priorities = new Object[16];
+    private int size;
+
+    public IndexedPriorityQueue( Comparator<? super P> comparator )
+    {
+        this.comparator = comparator;
+    }
+
+    /**
+     * Adds <CODE>entity</CODE> to the queue, or if an entity with
+     * <CODE>key</CODE> already is in the queue decreases its priority to
+     * <CODE>priority</CODE>, if that is lower.
+     *
+     * @return <CODE>true</CODE> if the entity was added or its priority
+     * decreased
+     */
+    public boolean offer( long key, E entity, P priority )
+    {
+        int position = (int) positions.get( key, -1 );
+        if ( position != -1 )
+        {
+            if ( comparator.compare( priority, priority( position ) ) >= 0 )
+            {
+                return false;
+            }
+            priorities[position] = priority;
+            siftUp( position );
+            return true;
+        }
+        if ( size == keys.length )
+        {
+            keys = Arrays.copyOf( keys, size << 1 );
+            entities = Arrays.copyOf( entities, size << 1 );
+            priorities = Arrays.copyOf( priorities, size << 1 );
+        }
+        set( size, key, entity, priority );
+        siftUp( size++ );
+        return true;
+    }
+
+    public boolean contains( long key )
+    {
+        return positions.containsKey( key );
+    }
+
+    /**
+     * @return the entity with the lowest priority, or <CODE>null</CODE> if
+     * the queue is empty
+     */
+    @SuppressWarnings( "unchecked" )
+    public E peek()
+    {
+        return size == 0 ? null : (E) entities[0];
+    }
+
+    /**
+     * @return the lowest priority in the queue, or <CODE>null</CODE> if the
+     * queue is empty
+     */
+    public P peekPriority()
+    {
+        return size == 0 ? null : priority( 0 );
+    }
+
+    /**
+     * Removes the entity with the lowest priority from the queue.
+     *
+     * @return the entity, or <CODE>null</CODE> if the queue is empty
+     */
+    @SuppressWarnings( "unchecked" )
+    public E poll()
+    {
+        if ( size == 0 )
+        {
+            return null;
+        }
+        E result = (E) entities[0];
+        positions.remove( keys[0] );
+        size--;
+        if ( size > 0 )
+        {
+            set( 0, keys[size], entities[size], priorities[size] );
+            siftDown( 0 );
+        }
+        entities[size] = null;
+        priorities[size] = null;
+        return result;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private P priority( int position )
+    {
+        return (P) priorities[position];
+    }
+
+    private void set( int position, long key, Object entity, Object priority )
+    {
+        keys[position] = key;
+        entities[position] = entity;
+        priorities[position] = priority;
+        positions.put( key, position );
+    }
+
+    private void siftUp( int position )
+    {
+        long key = keys[position];
+        Object entity = entities[position];
+        P priority = priority( position );
+        while ( position > 0 )
+        {
+            int parent = (position - 1) >>> 1;
+            if ( comparator.compare( priority, priority( parent ) ) >= 0 )
+            {
+                break;
+            }
+            set( position, keys[parent], entities[parent], priorities[parent] );
+            position = parent;
+        }
+        set( position, key, entity, priority );
+    }
+
+    private void siftDown( int position )
+    {
+        long key = keys[position];
+        Object entity = entities[position];
+        P priority = priority( position );
+        int half = size >>> 1;
+        while ( position < half )
+        {
+            int child = (position << 1) + 1;
+            int right = child + 1;
+            if ( right < size && comparator.compare( priority( right ), priority( child ) ) < 0 )
+            {
+                child = right;
+            }
+            if ( comparator.compare( priority, priority( child ) ) <= 0 )
+            {
+                break;
+            }
+            set( position, keys[child], entities[child], priorities[child] );
+            position = child;
+        }
+        set( position, key, entity, priority );
+    }
+}
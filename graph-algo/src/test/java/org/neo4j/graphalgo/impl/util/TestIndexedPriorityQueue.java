@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestIndexedPriorityQueue
+{
+    @Test
+    public void testDecreasePriority()
+    {
+        IndexedPriorityQueue<String, Double> queue =
+                new IndexedPriorityQueue<String, Double>( new DoubleComparator() );
+        assertTrue( queue.offer( 1, "a", 3d ) );
+        assertTrue( queue.offer( 2, "b", 2d ) );
+        assertTrue( queue.offer( 3, "c", 4d ) );
+        assertEquals( "b", queue.peek() );
+        assertFalse( queue.offer( 3, "c", 5d ) );
+        assertTrue( queue.offer( 3, "c", 1d ) );
+        assertEquals( 3, queue.size() );
+        assertEquals( 1d, queue.peekPriority(), 0 );
+        assertEquals( "c", queue.poll() );
+        assertFalse( queue.contains( 3 ) );
+        assertEquals( "b", queue.poll() );
+        assertEquals( "a", queue.poll() );
+        assertTrue( queue.isEmpty() );
+        assertNull( queue.poll() );
+    }
+
+    @Test
+    public void testPollsInPriorityOrder()
+    {
+        Random random = new Random( 1234 );
+        IndexedPriorityQueue<Long, Double> queue =
+                new IndexedPriorityQueue<Long, Double>( new DoubleComparator() );
+        double[] priorities = new double[1000];
+        for ( int i = 0; i < priorities.length; i++ )
+        {
+            priorities[i] = random.nextDouble();
+            queue.offer( i, (long) i, priorities[i] );
+        }
+        for ( int i = 0; i < priorities.length; i += 3 )
+        {
+            priorities[i] /= 2;
+            queue.offer( i, (long) i, priorities[i] );
+        }
+        double last = -1;
+        while ( !queue.isEmpty() )
+        {
+            double priority = queue.peekPriority();
+            long key = queue.poll();
+            assertEquals( priorities[(int) key], priority, 0 );
+            assertTrue( priority >= last );
+            last = priority;
+        }
+    }
+}
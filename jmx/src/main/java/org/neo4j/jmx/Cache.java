@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.jmx;
+
+@ManagementInterface( name = Cache.NAME )
+@Description( "Information about the caching in Neo4j" )
+public interface Cache
+{
+    final String NAME = "Cache";
+
+    @Description( "The type of cache used by Neo4j" )
+    String getCacheType();
+
+    @Description( "The number of node and relationship lookups served from the cache" )
+    long getHitCount();
+
+    @Description( "The number of node and relationship lookups that missed the cache" )
+    long getMissCount();
+
+    @Description( "The ratio of node and relationship lookups served from the cache" )
+    double getHitRatio();
+
+    @Description( "The number of cache hits that were materialized from off heap memory" )
+    long getOffHeapHitCount();
+
+    @Description( "The number of bytes of off heap memory used by the cache" )
+    long getOffHeapMemoryUsed();
+
+    @Description( "The maximum number of bytes of off heap memory the cache may use" )
+    long getOffHeapMemoryCapacity();
+}
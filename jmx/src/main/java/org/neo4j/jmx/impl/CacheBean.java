@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.jmx.impl;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.neo4j.helpers.Service;
+import org.neo4j.jmx.Cache;
+import org.neo4j.kernel.impl.cache.OffHeapCache;
+import org.neo4j.kernel.impl.core.NodeManager;
+
+@Service.Implementation( ManagementBeanProvider.class )
+public final class CacheBean extends ManagementBeanProvider
+{
+    public CacheBean()
+    {
+        super( Cache.class );
+    }
+
+    @Override
+    protected Neo4jMBean createMBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        return new CacheImpl( management );
+    }
+
+    private static class CacheImpl extends Neo4jMBean implements Cache
+    {
+        CacheImpl( ManagementData management ) throws NotCompliantMBeanException
+        {
+            super( management );
+            this.nodeManager = management.getKernelData().getConfig().getGraphDbModule().getNodeManager();
+        }
+
+        private final NodeManager nodeManager;
+
+        public String getCacheType()
+        {
+            return nodeManager.getCacheType().name();
+        }
+
+        public long getHitCount()
+        {
+            long hits = 0;
+            for ( org.neo4j.kernel.impl.cache.Cache<?, ?> cache : nodeManager.caches() )
+            {
+                hits += cache.hitCount();
+            }
+            return hits;
+        }
+
+        public long getMissCount()
+        {
+            long misses = 0;
+            for ( org.neo4j.kernel.impl.cache.Cache<?, ?> cache : nodeManager.caches() )
+            {
+                misses += cache.missCount();
+            }
+            return misses;
+        }
+
+        public double getHitRatio()
+        {
+            long hits = getHitCount();
+            long total = hits + getMissCount();
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        public long getOffHeapHitCount()
+        {
+            long hits = 0;
+            for ( org.neo4j.kernel.impl.cache.Cache<?, ?> cache : nodeManager.caches() )
+            {
+                if ( cache instanceof OffHeapCache<?> )
+                {
+                    hits += ( (OffHeapCache<?>) cache ).offHeapHitCount();
+                }
+            }
+            return hits;
+        }
+
+        public long getOffHeapMemoryUsed()
+        {
+            long used = 0;
+            for ( org.neo4j.kernel.impl.cache.Cache<?, ?> cache : nodeManager.caches() )
+            {
+                if ( cache instanceof OffHeapCache<?> )
+                {
+                    used += ( (OffHeapCache<?>) cache ).offHeapMemoryUsed();
+                }
+            }
+            return used;
+        }
+
+        public long getOffHeapMemoryCapacity()
+        {
+            long capacity = 0;
+            for ( org.neo4j.kernel.impl.cache.Cache<?, ?> cache : nodeManager.caches() )
+            {
+                if ( cache instanceof OffHeapCache<?> )
+                {
+                    capacity += ( (OffHeapCache<?>) cache ).offHeapCapacity();
+                }
+            }
+            return capacity;
+        }
+    }
+}
@@ -19,6 +19,8 @@
  */
 package org.neo4j.graphdb.traversal;
 
+import java.util.concurrent.ExecutorService;
+
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
@@ -165,6 +167,41 @@ public interface TraversalDescription
      */
     TraversalDescription breadthFirst();
 
+    /**
+     * Like {@link #breadthFirst()}, but the relationships of the positions
+     * of each depth are loaded in parallel by the threads of
+     * {@code executor}. The positions of a depth are returned while the
+     * relationships of the next depth are being loaded, the traverser itself
+     * is still used from one thread as usual.
+     * <p>
+     * The uniqueness filter and the {@link Evaluator}s are called by the
+     * thread using the traverser, so they don't need to be thread safe. The
+     * {@link RelationshipExpander} is called by the threads of
+     * {@code executor} at the same time though, which the expanders of
+     * {@link Traversal} are fine with. With {@code ordered} the positions are
+     * returned in the same order as for {@link #breadthFirst()} and the
+     * result is the same, otherwise the positions of a depth are returned in
+     * the order their relationships are loaded in, which lets the first
+     * positions be returned sooner but may make a global uniqueness keep
+     * another one of several positions reaching the same node.
+     * <p>
+     * The threads of {@code executor} don't take part in the transaction of
+     * the thread using the traverser, so relationships created or deleted in
+     * that transaction which isn't committed yet aren't seen by the
+     * traversal. The iterator of the {@link Traverser} is a
+     * {@link org.neo4j.helpers.collection.ClosableIterator}, close it to
+     * cancel the loading of relationships that hasn't started yet if the
+     * traversal isn't iterated to the end.
+     *
+     * @param executor the executor to expand the positions with, it's not
+     * shut down by the traversal.
+     * @param ordered whether or not to return the positions of each depth
+     * in the order of the positions they were expanded from.
+     * @return a new traversal description with the new modifications.
+     */
+    TraversalDescription parallelBreadthFirst( ExecutorService executor,
+            boolean ordered );
+
     /**
      * Adds {@code type} to the list of relationship types to traverse.
      * There's no priority or order in which types to traverse.
@@ -22,8 +22,10 @@ package org.neo4j.kernel;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
@@ -33,10 +35,12 @@ import org.neo4j.kernel.impl.core.LastCommittedTxIdSetter;
 import org.neo4j.kernel.impl.core.RelationshipTypeCreator;
 import org.neo4j.kernel.impl.nioneo.store.FileLock;
 import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
+import org.neo4j.kernel.impl.nioneo.store.ConcurrentIdGenerator;
 import org.neo4j.kernel.impl.nioneo.store.IdGenerator;
 import org.neo4j.kernel.impl.nioneo.store.IdGeneratorImpl;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.transaction.LockManager;
+import org.neo4j.kernel.impl.transaction.StripedLockManager;
 import org.neo4j.kernel.impl.transaction.TxFinishHook;
 import org.neo4j.kernel.impl.transaction.TxModule;
 import org.neo4j.kernel.impl.transaction.xaframework.DefaultLogBufferFactory;
@@ -56,6 +60,36 @@ public class CommonFactories
             }
         };
     }
+
+    public static LockManagerFactory stripedLockManagerFactory()
+    {
+        return new LockManagerFactory()
+        {
+            public LockManager create( TxModule txModule )
+            {
+                return new StripedLockManager( txModule.getTxManager() );
+            }
+        };
+    }
+
+    /**
+     * Returns the lock manager factory selected by
+     * {@link Config#LOCK_MANAGER_TYPE} in <CODE>params</CODE>.
+     */
+    public static LockManagerFactory lockManagerFactory( Map<String,String> params )
+    {
+        String type = params != null ? params.get( Config.LOCK_MANAGER_TYPE ) : null;
+        if ( type == null || type.equals( "default" ) )
+        {
+            return defaultLockManagerFactory();
+        }
+        if ( type.equals( "striped" ) )
+        {
+            return stripedLockManagerFactory();
+        }
+        throw new IllegalArgumentException( "Invalid " + Config.LOCK_MANAGER_TYPE
+            + " '" + type + "', valid are [default, striped]" );
+    }
     
     public static class DefaultIdGeneratorFactory implements IdGeneratorFactory
     {
@@ -90,6 +124,65 @@ public class CommonFactories
         return new DefaultIdGeneratorFactory();
     }
     
+    /**
+     * Id generator factory handing out {@link ConcurrentIdGenerator}s for
+     * the record and dynamic stores that get most of the id allocations,
+     * and plain {@link IdGeneratorImpl}s for the rest.
+     */
+    public static class ConcurrentIdGeneratorFactory extends DefaultIdGeneratorFactory
+    {
+        private static final Set<IdType> CONCURRENT_TYPES = EnumSet.of( IdType.NODE,
+            IdType.RELATIONSHIP, IdType.PROPERTY, IdType.STRING_BLOCK,
+            IdType.ARRAY_BLOCK, IdType.RELATIONSHIP_GROUP );
+        
+        private final Map<IdType, IdGenerator> generators = new HashMap<IdType, IdGenerator>();
+        
+        @Override
+        public IdGenerator open( String fileName, int grabSize, IdType idType,
+                long highestIdInUse )
+        {
+            if ( !CONCURRENT_TYPES.contains( idType ) )
+            {
+                return super.open( fileName, grabSize, idType, highestIdInUse );
+            }
+            IdGenerator generator = new ConcurrentIdGenerator(
+                new IdGeneratorImpl( fileName, grabSize, idType.getMaxValue() ) );
+            generators.put( idType, generator );
+            return generator;
+        }
+        
+        @Override
+        public IdGenerator get( IdType idType )
+        {
+            IdGenerator generator = generators.get( idType );
+            return generator != null ? generator : super.get( idType );
+        }
+    }
+    
+    public static IdGeneratorFactory concurrentIdGeneratorFactory()
+    {
+        return new ConcurrentIdGeneratorFactory();
+    }
+    
+    /**
+     * Returns the id generator factory selected by
+     * {@link Config#ID_GENERATOR_TYPE} in <CODE>params</CODE>.
+     */
+    public static IdGeneratorFactory idGeneratorFactory( Map<String,String> params )
+    {
+        String type = params != null ? params.get( Config.ID_GENERATOR_TYPE ) : null;
+        if ( type == null || type.equals( "default" ) )
+        {
+            return defaultIdGeneratorFactory();
+        }
+        if ( type.equals( "concurrent" ) )
+        {
+            return concurrentIdGeneratorFactory();
+        }
+        throw new IllegalArgumentException( "Invalid " + Config.ID_GENERATOR_TYPE
+            + " '" + type + "', valid are [default, concurrent]" );
+    }
+    
     public static RelationshipTypeCreator defaultRelationshipTypeCreator()
     {
         return new DefaultRelationshipTypeCreator();
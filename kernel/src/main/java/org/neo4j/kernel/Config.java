@@ -64,6 +64,14 @@ public class Config
      */
     @Documented
     public static final String USE_MEMORY_MAPPED_BUFFERS = "use_memory_mapped_buffers";
+    /**
+     * Boolean (one of true,false) defining whether the stores should use a
+     * window pool that lets concurrent readers look up mapped windows without
+     * taking a store wide lock. Mapped windows are then rebalanced by a
+     * background thread per store. The default is false.
+     */
+    @Documented
+    public static final String USE_CONCURRENT_WINDOW_POOL = "use_concurrent_window_pool";
     /** Print out the effective Neo4j configuration after startup */
     @Documented
     public static final String DUMP_CONFIGURATION = "dump_configuration";
@@ -73,6 +81,42 @@ public class Config
      */
     @Documented
     public static final String KEEP_LOGICAL_LOGS = "keep_logical_logs";
+    /**
+     * Let concurrently committing transactions share forces of the logical
+     * logs and the transaction log instead of each forcing the log on its
+     * own. A commit still doesn't return before its log entries are forced.
+     */
+    @Documented
+    public static final String GROUP_COMMIT = "group_commit";
+    /**
+     * The number of milliseconds a group commit may wait for more
+     * transactions to commit before forcing the log, defaults to 0 which
+     * only groups transactions that commit while the log is being forced.
+     */
+    @Documented
+    public static final String GROUP_COMMIT_MAX_DELAY = "group_commit_max_delay";
+    /**
+     * The number of commits after which a group commit stops waiting for
+     * more, see {@link #GROUP_COMMIT_MAX_DELAY}. Defaults to 100.
+     */
+    @Documented
+    public static final String GROUP_COMMIT_MAX_BATCH_SIZE = "group_commit_max_batch_size";
+    /**
+     * The number of milliseconds between refreshes of the lucene index
+     * searchers, which are then reopened by a background thread instead of
+     * by the first query after a commit. Queries may then see an index as it
+     * was up to this long ago. Defaults to 0, where queries always see the
+     * latest commit.
+     */
+    @Documented
+    public static final String INDEX_SEARCHER_REFRESH_INTERVAL = "index_searcher_refresh_interval";
+    /**
+     * The number of commits to an index after which its searcher is
+     * refreshed right away instead of at the next
+     * {@link #INDEX_SEARCHER_REFRESH_INTERVAL}, only used together with it.
+     */
+    @Documented
+    public static final String INDEX_SEARCHER_REFRESH_COMMITS = "index_searcher_refresh_commits";
     /** Enable a remote shell server which shell clients can log in to */
     @Documented
     public static final String ENABLE_REMOTE_SHELL = "enable_remote_shell";
@@ -131,10 +175,30 @@ public class Config
     public static final String NEO_STORE = "neo_store";
     /**
      * The type of cache to use for nodes and relationships, one of [weak, soft,
-     * none]
+     * strong, old, concurrent, offheap, none]
      */
     @Documented
     public static final String CACHE_TYPE = "cache_type";
+    /**
+     * The amount of direct memory the offheap cache type may use for nodes
+     * evicted from the heap, e.g. 32M (the default).
+     */
+    @Documented
+    public static final String NODE_CACHE_OFF_HEAP_SIZE = "node_cache_off_heap_size";
+    /**
+     * The amount of direct memory the offheap cache type may use for
+     * relationships evicted from the heap, e.g. 32M (the default).
+     */
+    @Documented
+    public static final String RELATIONSHIP_CACHE_OFF_HEAP_SIZE = "relationship_cache_off_heap_size";
+    /**
+     * String and array property values of at least this size, e.g. 4k (the
+     * default), are cached so that they can be dropped from memory on their
+     * own when memory runs low, while the node or relationship having them
+     * stays cached. Such a value is loaded again the next time it's read.
+     */
+    @Documented
+    public static final String LARGE_PROPERTY_VALUE_SIZE = "large_property_value_size";
     /**
      * The name of the Transaction Manager service to use as defined in the TM
      * service provider constructor, defaults to native.
@@ -149,6 +213,49 @@ public class Config
      */
     @Documented
     public static final String ALLOW_STORE_UPGRADE = "allow_store_upgrade";
+    /**
+     * Integer value defining the number of relationships a node can have
+     * before its relationships are stored in separate chains per
+     * relationship type and direction, so that getting the relationships of
+     * one type doesn't have to read the others. A node is converted the next
+     * time a relationship is added to it. Defaults to 0, which disables it.
+     * Enabling it for an existing store upgrades its node store, see
+     * {@link #ALLOW_STORE_UPGRADE}, after which it can't be opened by older
+     * versions.
+     */
+    @Documented
+    public static final String DENSE_NODE_THRESHOLD = "dense_node_threshold";
+    /**
+     * Milliseconds between the throughput reports written to the messages
+     * log while {@link org.neo4j.kernel.impl.batchinsert.BatchInserter#importGraph(Iterable, Iterable)}
+     * runs. Defaults to 10000, 0 only reports when the import is done.
+     */
+    @Documented
+    public static final String BATCH_IMPORT_REPORT_INTERVAL = "batch_import_report_interval";
+    /**
+     * The number of threads linking the relationship chains of the nodes
+     * when {@link org.neo4j.kernel.impl.batchinsert.BatchInserter#importGraph(Iterable, Iterable)}
+     * has read all input. Defaults to the number of available processors.
+     */
+    @Documented
+    public static final String BATCH_IMPORT_LINK_THREADS = "batch_import_link_threads";
+    /**
+     * The lock manager to use, one of [default, striped]. The striped lock
+     * manager spreads its locks over independently locked stripes and only
+     * does deadlock detection when a transaction has to wait, which scales
+     * better with many concurrent transactions.
+     */
+    @Documented
+    public static final String LOCK_MANAGER_TYPE = "lock_manager_type";
+    /**
+     * The id generators to use, one of [default, concurrent]. The
+     * concurrent id generators reserve ranges of node, relationship and
+     * property ids into stripes that threads allocate from, and reuse freed
+     * ids without taking a lock, which helps when many threads create data
+     * at once.
+     */
+    @Documented
+    public static final String ID_GENERATOR_TYPE = "id_generator_type";
     public static final String STRING_BLOCK_SIZE = "string_block_size";
     public static final String ARRAY_BLOCK_SIZE = "array_block_size";
     /**
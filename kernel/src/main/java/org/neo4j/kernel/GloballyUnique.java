@@ -19,22 +19,34 @@
  */
 package org.neo4j.kernel;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import org.neo4j.graphdb.traversal.TraversalBranch;
+import org.neo4j.kernel.impl.util.LongBitSet;
+import org.neo4j.kernel.impl.util.LongHashSet;
 
 class GloballyUnique extends AbstractUniquenessFilter
 {
-    private final Set<Long> visited = new HashSet<Long>();
+    // one of them is used, the bitmap if the highest id is known
+    private final LongHashSet visited;
+    private final LongBitSet visitedBits;
     
-    GloballyUnique( PrimitiveTypeFetcher type )
+    GloballyUnique( PrimitiveTypeFetcher type, Object highestId )
     {
         super( type );
+        if ( highestId != null )
+        {
+            visited = null;
+            visitedBits = new LongBitSet( ((Number) highestId).longValue() );
+        }
+        else
+        {
+            visited = new LongHashSet();
+            visitedBits = null;
+        }
     }
 
     public boolean check( TraversalBranch branch )
     {
-        return visited.add( type.getId( branch ) );
+        long id = type.getId( branch );
+        return visitedBits != null ? visitedBits.add( id ) : visited.add( id );
     }
 }
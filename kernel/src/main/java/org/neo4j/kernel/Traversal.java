@@ -36,6 +36,7 @@ import org.neo4j.graphdb.traversal.TraversalBranch;
 import org.neo4j.graphdb.traversal.TraversalDescription;
 import org.neo4j.helpers.Predicate;
 import org.neo4j.kernel.impl.traversal.FinalTraversalBranch;
+import org.neo4j.kernel.impl.traversal.PooledBranchOrdering;
 import org.neo4j.kernel.impl.traversal.TraversalDescriptionImpl;
 
 /**
@@ -334,6 +335,38 @@ public class Traversal
         return CommonBranchOrdering.PREORDER_BREADTH_FIRST;
     }
 
+    /**
+     * Returns a "preorder depth first" ordering policy like
+     * {@link #preorderDepthFirst()}, for which the traverser keeps the
+     * branches as entries of node id, relationship id and parent in
+     * primitive arrays instead of as {@link TraversalBranch} objects.
+     * {@link Node}s, {@link Relationship}s and {@link Path}s are only
+     * created for positions passed to evaluators or returned, which makes a
+     * difference for deep traversals or ones discarding many relationships
+     * because of uniqueness. The uniqueness filter is called with the same
+     * reused {@link TraversalBranch} each time, and mustn't keep it.
+     *
+     * @return a {@link BranchOrderingPolicy} for a preorder depth first
+     *         traversal with pooled branches.
+     */
+    public static BranchOrderingPolicy pooledDepthFirst()
+    {
+        return PooledBranchOrdering.PREORDER_DEPTH_FIRST;
+    }
+
+    /**
+     * Returns a "preorder breadth first" ordering policy like
+     * {@link #preorderBreadthFirst()}, with the branches kept the same way
+     * as for {@link #pooledDepthFirst()}.
+     *
+     * @return a {@link BranchOrderingPolicy} for a preorder breadth first
+     *         traversal with pooled branches.
+     */
+    public static BranchOrderingPolicy pooledBreadthFirst()
+    {
+        return PooledBranchOrdering.PREORDER_BREADTH_FIRST;
+    }
+
     /**
      * Returns a "postorder breadth first" ordering policy. A breadth first
      * selector always selects all positions on the current depth before
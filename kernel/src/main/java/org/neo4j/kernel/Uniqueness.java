@@ -31,13 +31,20 @@ public enum Uniqueness implements UniquenessFactory
     /**
      * A node cannot be traversed more than once. This is what the legacy
      * traversal framework does.
+     * <p>
+     * Optionally takes the highest node id in use, see
+     * {@link org.neo4j.kernel.impl.core.NodeManager#getHighestPossibleIdInUse(Class)}.
+     * The visited nodes are then kept in a bitmap with one bit per node
+     * id, instead of a hash table with an entry per visited node, which
+     * uses a lot less memory for traversals visiting a large part of the
+     * graph.
      */
     NODE_GLOBAL
     {
         public UniquenessFilter create( Object optionalParameter )
         {
-            acceptNull( optionalParameter );
-            return new GloballyUnique( PrimitiveTypeFetcher.NODE );
+            acceptIntegerOrNull( optionalParameter );
+            return new GloballyUnique( PrimitiveTypeFetcher.NODE, optionalParameter );
         }
     },
     /**
@@ -71,13 +78,15 @@ public enum Uniqueness implements UniquenessFactory
     },
     /**
      * A relationship cannot be traversed more than once, whereas nodes can.
+     * Like {@link Uniqueness#NODE_GLOBAL} it optionally takes the highest
+     * relationship id in use, to keep the visited relationships in a bitmap.
      */
     RELATIONSHIP_GLOBAL
     {
         public UniquenessFilter create( Object optionalParameter )
         {
-            acceptNull( optionalParameter );
-            return new GloballyUnique( PrimitiveTypeFetcher.RELATIONSHIP );
+            acceptIntegerOrNull( optionalParameter );
+            return new GloballyUnique( PrimitiveTypeFetcher.RELATIONSHIP, optionalParameter );
         }
     },
     /**
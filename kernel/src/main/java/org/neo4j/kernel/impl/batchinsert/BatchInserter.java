@@ -156,6 +156,27 @@ public interface BatchInserter
      */
     public Map<String,Object> getRelationshipProperties( long relId );
 
+    /**
+     * Imports a large number of nodes and relationships in one go, faster
+     * than creating them one by one. The input is read on the calling
+     * thread while property records are written, and relationships grouped
+     * by node, by other threads. The relationship and node records are then
+     * written sequentially, each once with its relationship chain already
+     * linked. Throughput of each stage is reported in the messages log.
+     * <p>
+     * Nodes keep the ids they're given, which must be increasing and above
+     * any node already in the store. Relationships can connect the nodes
+     * imported by the same call as well as nodes already in the store, and
+     * get consecutive ids in the order they are read. This batch inserter
+     * must not be used by other threads while the import runs.
+     *
+     * @param nodes the nodes to import, in increasing id order.
+     * @param relationships the relationships to import.
+     * @return the id of the first imported relationship.
+     */
+    public long importGraph( Iterable<InputNode> nodes,
+        Iterable<InputRelationship> relationships );
+
     /**
      * Shuts down this batch inserter syncing all changes that are still only 
      * in memory to disk. Failing to invoke this method may leave the Neo4j 
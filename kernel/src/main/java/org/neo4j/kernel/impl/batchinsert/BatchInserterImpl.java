@@ -49,11 +49,14 @@ import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.NodeStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
@@ -61,6 +64,7 @@ import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeStore;
 import org.neo4j.kernel.impl.nioneo.store.UnderlyingStorageException;
 import org.neo4j.kernel.impl.util.FileUtils;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 import org.neo4j.kernel.impl.util.StringLogger;
 
 public class BatchInserterImpl implements BatchInserter
@@ -69,6 +73,7 @@ public class BatchInserterImpl implements BatchInserter
     private static final long MAX_RELATIONSHIP_ID = IdType.RELATIONSHIP.getMaxValue();
 
     private final NeoStore neoStore;
+    private final NodeRecordBuffer nodeRecords;
     private final IndexStore indexStore;
     private final String storeDir;
 
@@ -79,6 +84,8 @@ public class BatchInserterImpl implements BatchInserter
     private final IdGeneratorFactory idGeneratorFactory;
 
     private final StringLogger msgLog;
+    private final long importReportInterval;
+    private final int importLinkThreads;
 
     public BatchInserterImpl( String storeDir )
     {
@@ -99,6 +106,8 @@ public class BatchInserterImpl implements BatchInserter
             params.put( entry.getKey(), entry.getValue() );
         }
         this.storeDir = storeDir;
+        this.importReportInterval = parseImportReportInterval( params );
+        this.importLinkThreads = parseImportLinkThreads( params );
         this.idGeneratorFactory = CommonFactories.defaultIdGeneratorFactory();
         params.put( IdGeneratorFactory.class, idGeneratorFactory );
         params.put( FileSystemAbstraction.class, CommonFactories.defaultFileSystemAbstraction() );
@@ -115,6 +124,8 @@ public class BatchInserterImpl implements BatchInserter
             throw new IllegalStateException( storeDir + " store is not cleanly shutdown." );
         }
         neoStore.makeStoreOk();
+        nodeRecords = new NodeRecordBuffer( neoStore.getNodeStore(),
+            NodeRecordBuffer.DEFAULT_SIZE );
         PropertyIndexData[] indexes =
             getPropertyIndexStore().getPropertyIndexes( 10000 );
         indexHolder = new PropertyIndexHolder( indexes );
@@ -125,6 +136,19 @@ public class BatchInserterImpl implements BatchInserter
         indexStore = new IndexStore( storeDir );
     }
 
+    private static long parseImportReportInterval( Map<Object,Object> params )
+    {
+        Object interval = params.get( Config.BATCH_IMPORT_REPORT_INTERVAL );
+        return interval != null ? Long.parseLong( interval.toString() ) : 10000;
+    }
+
+    private static int parseImportLinkThreads( Map<Object,Object> params )
+    {
+        Object threads = params.get( Config.BATCH_IMPORT_LINK_THREADS );
+        return threads != null ? Integer.parseInt( threads.toString() ) :
+            Runtime.getRuntime().availableProcessors();
+    }
+
     private void rejectAutoUpgrade( Map<String, String> stringParams )
     {
         if ( parseBoolean( stringParams.get( ALLOW_STORE_UPGRADE ) ) )
@@ -141,7 +165,7 @@ public class BatchInserterImpl implements BatchInserter
         nodeRecord.setInUse( true );
         nodeRecord.setCreated();
         nodeRecord.setNextProp( createPropertyChain( properties ) );
-        getNodeStore().updateRecord( nodeRecord );
+        nodeRecords.updateRecord( nodeRecord );
         return nodeId;
     }
 
@@ -157,7 +181,7 @@ public class BatchInserterImpl implements BatchInserter
         }
         long nodeId = id;
         NodeStore nodeStore = neoStore.getNodeStore();
-        if ( neoStore.getNodeStore().loadLightNode( nodeId ) )
+        if ( nodeRecords.loadLightNode( nodeId ) )
         {
             throw new IllegalArgumentException( "id=" + id + " already in use" );
         }
@@ -170,49 +194,158 @@ public class BatchInserterImpl implements BatchInserter
         nodeRecord.setInUse( true );
         nodeRecord.setCreated();
         nodeRecord.setNextProp( createPropertyChain( properties ) );
-        getNodeStore().updateRecord( nodeRecord );
+        nodeRecords.updateRecord( nodeRecord );
     }
 
     public long createRelationship( long node1, long node2, RelationshipType
         type, Map<String,Object> properties )
     {
         NodeRecord firstNode = getNodeRecord( node1 );
-        NodeRecord secondNode = getNodeRecord( node2 );
-        int typeId = typeHolder.getTypeId( type.name() );
-        if ( typeId == -1 )
-        {
-            typeId = createNewRelationshipType( type.name() );
-        }
+        NodeRecord secondNode = node1 == node2 ? firstNode : getNodeRecord( node2 );
+        int typeId = getOrCreateRelationshipTypeId( type.name() );
         long id = getRelationshipStore().nextId();
         RelationshipRecord record = new RelationshipRecord( id, node1, node2, typeId );
         record.setInUse( true );
         record.setCreated();
         connectRelationship( firstNode, secondNode, record );
-        getNodeStore().updateRecord( firstNode );
-        getNodeStore().updateRecord( secondNode );
+        incrementDegree( firstNode );
+        if ( secondNode != firstNode )
+        {
+            incrementDegree( secondNode );
+        }
+        nodeRecords.updateRecord( firstNode );
+        nodeRecords.updateRecord( secondNode );
         record.setNextProp( createPropertyChain( properties ) );
         getRelationshipStore().updateRecord( record );
         return id;
     }
 
+    public long importGraph( Iterable<InputNode> nodes,
+        Iterable<InputRelationship> relationships )
+    {
+        nodeRecords.flush();
+        try
+        {
+            return new ParallelImporter( this, neoStore, msgLog,
+                importReportInterval, importLinkThreads ).run( nodes, relationships );
+        }
+        finally
+        {
+            nodeRecords.flush();
+        }
+    }
+
+    int getOrCreateRelationshipTypeId( String name )
+    {
+        int typeId = typeHolder.getTypeId( name );
+        if ( typeId == -1 )
+        {
+            typeId = createNewRelationshipType( name );
+        }
+        return typeId;
+    }
+
+    private static void incrementDegree( NodeRecord node )
+    {
+        if ( node.getDegree() != NodeRecord.UNKNOWN_DEGREE )
+        {
+            node.setDegree( node.getDegree() + 1 );
+        }
+    }
+
+    // dense nodes are only appended to, nodes are never made dense here
     private void connectRelationship( NodeRecord firstNode,
             NodeRecord secondNode, RelationshipRecord rel )
     {
-        assert firstNode.getNextRel() != rel.getId();
-        assert secondNode.getNextRel() != rel.getId();
-        rel.setFirstNextRel( firstNode.getNextRel() );
-        rel.setSecondNextRel( secondNode.getNextRel() );
-        connect( firstNode, rel );
-        connect( secondNode, rel );
-        firstNode.setNextRel( rel.getId() );
-        secondNode.setNextRel( rel.getId() );
+        if ( firstNode.isDense() )
+        {
+            connectDense( firstNode, rel );
+        }
+        else
+        {
+            assert firstNode.getNextRel() != rel.getId();
+            rel.setFirstNextRel( firstNode.getNextRel() );
+            connect( firstNode, firstNode.getNextRel(), rel );
+            firstNode.setNextRel( rel.getId() );
+        }
+        if ( secondNode == firstNode )
+        {
+            rel.setSecondNextRel( rel.getFirstNextRel() );
+        }
+        else if ( secondNode.isDense() )
+        {
+            connectDense( secondNode, rel );
+        }
+        else
+        {
+            assert secondNode.getNextRel() != rel.getId();
+            rel.setSecondNextRel( secondNode.getNextRel() );
+            connect( secondNode, secondNode.getNextRel(), rel );
+            secondNode.setNextRel( rel.getId() );
+        }
+    }
+
+    // used by the import for the dense nodes already in the store, rel has
+    // its id and is written by the caller
+    void connectToDenseNode( long nodeId, RelationshipRecord rel )
+    {
+        NodeRecord node = nodeRecords.getRecord( nodeId );
+        connectDense( node, rel );
+        incrementDegree( node );
+        nodeRecords.updateRecord( node );
+    }
+
+    private void connectDense( NodeRecord node, RelationshipRecord rel )
+    {
+        RelationshipGroupRecord group = null;
+        long groupId = node.getNextRel();
+        while ( groupId != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipGroupRecord candidate = getRelationshipGroupStore().getRecord( groupId );
+            if ( candidate.getType() == rel.getType() )
+            {
+                group = candidate;
+                break;
+            }
+            groupId = candidate.getNext();
+        }
+        if ( group == null )
+        {
+            group = new RelationshipGroupRecord( getRelationshipGroupStore().nextId(),
+                rel.getType() );
+            group.setInUse( true );
+            group.setCreated();
+            group.setOwningNode( node.getId() );
+            group.setNext( node.getNextRel() );
+            node.setNextRel( group.getId() );
+        }
+        DirectionWrapper direction;
+        if ( rel.getFirstNode() == rel.getSecondNode() )
+        {
+            direction = DirectionWrapper.BOTH;
+            rel.setFirstNextRel( group.getFirst( direction ) );
+            rel.setSecondNextRel( group.getFirst( direction ) );
+        }
+        else if ( rel.getFirstNode() == node.getId() )
+        {
+            direction = DirectionWrapper.OUTGOING;
+            rel.setFirstNextRel( group.getFirst( direction ) );
+        }
+        else
+        {
+            direction = DirectionWrapper.INCOMING;
+            rel.setSecondNextRel( group.getFirst( direction ) );
+        }
+        connect( node, group.getFirst( direction ), rel );
+        group.setFirst( direction, rel.getId() );
+        getRelationshipGroupStore().updateRecord( group );
     }
 
-    private void connect( NodeRecord node, RelationshipRecord rel )
+    private void connect( NodeRecord node, long first, RelationshipRecord rel )
     {
-        if ( node.getNextRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        if ( first != Record.NO_NEXT_RELATIONSHIP.intValue() )
         {
-            RelationshipRecord nextRel = getRelationshipStore().getRecord( node.getNextRel() );
+            RelationshipRecord nextRel = getRelationshipStore().getRecord( first );
             boolean changed = false;
             if ( nextRel.getFirstNode() == node.getId() )
             {
@@ -240,7 +373,7 @@ public class BatchInserterImpl implements BatchInserter
             deletePropertyChain( record.getNextProp() );
         }
         record.setNextProp( createPropertyChain( properties ) );
-        getNodeStore().updateRecord( record );
+        nodeRecords.updateRecord( record );
     }
 
     public void setRelationshipProperties( long rel,
@@ -257,7 +390,7 @@ public class BatchInserterImpl implements BatchInserter
 
     public boolean nodeExists( long nodeId )
     {
-        return neoStore.getNodeStore().loadLightNode( nodeId );
+        return nodeRecords.loadLightNode( nodeId );
     }
 
     public Map<String,Object> getNodeProperties( long nodeId )
@@ -272,45 +405,53 @@ public class BatchInserterImpl implements BatchInserter
 
     public Iterable<Long> getRelationshipIds( long nodeId )
     {
-        NodeRecord nodeRecord = getNodeRecord( nodeId );
-        long nextRel = nodeRecord.getNextRel();
         List<Long> ids = new ArrayList<Long>();
-        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        for ( RelationshipRecord relRecord : getRelationshipRecords( nodeId ) )
         {
-            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
             ids.add( relRecord.getId() );
-            long firstNode = relRecord.getFirstNode();
-            long secondNode = relRecord.getSecondNode();
-            if ( firstNode == nodeId )
-            {
-                nextRel = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                nextRel = relRecord.getSecondNextRel();
-            }
-            else
-            {
-                throw new InvalidRecordException( "Node[" + nodeId +
-                    "] not part of firstNode[" + firstNode +
-                    "] or secondNode[" + secondNode + "]" );
-            }
         }
         return ids;
     }
 
     public Iterable<SimpleRelationship> getRelationships( long nodeId )
     {
-        NodeRecord nodeRecord = getNodeRecord( nodeId );
-        long nextRel = nodeRecord.getNextRel();
         List<SimpleRelationship> rels = new ArrayList<SimpleRelationship>();
-        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        for ( RelationshipRecord relRecord : getRelationshipRecords( nodeId ) )
         {
-            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
             RelationshipType type = new RelationshipTypeImpl(
                 typeHolder.getName( relRecord.getType() ) );
             rels.add( new SimpleRelationship( relRecord.getId(),
                 relRecord.getFirstNode(), relRecord.getSecondNode(), type ) );
+        }
+        return rels;
+    }
+
+    private List<RelationshipRecord> getRelationshipRecords( long nodeId )
+    {
+        NodeRecord nodeRecord = getNodeRecord( nodeId );
+        List<RelationshipRecord> rels = new ArrayList<RelationshipRecord>();
+        if ( !nodeRecord.isDense() )
+        {
+            addRelationshipChain( nodeId, nodeRecord.getNextRel(), rels );
+            return rels;
+        }
+        for ( RelationshipGroupRecord group :
+            getRelationshipGroupStore().getGroupChain( nodeRecord.getNextRel() ) )
+        {
+            addRelationshipChain( nodeId, group.getFirstOut(), rels );
+            addRelationshipChain( nodeId, group.getFirstIn(), rels );
+            addRelationshipChain( nodeId, group.getFirstLoop(), rels );
+        }
+        return rels;
+    }
+
+    private void addRelationshipChain( long nodeId, long nextRel,
+        List<RelationshipRecord> rels )
+    {
+        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
+            rels.add( relRecord );
             long firstNode = relRecord.getFirstNode();
             long secondNode = relRecord.getSecondNode();
             if ( firstNode == nodeId )
@@ -328,7 +469,6 @@ public class BatchInserterImpl implements BatchInserter
                     "] or secondNode[" + secondNode + "]" );
             }
         }
-        return rels;
     }
 
     public SimpleRelationship getRelationshipById( long relId )
@@ -353,6 +493,7 @@ public class BatchInserterImpl implements BatchInserter
     public void shutdown()
     {
         graphDbService.clearCaches();
+        nodeRecords.flush();
         neoStore.close();
         msgLog.logMessage( Thread.currentThread() + " Clean shutdown on BatchInserter(" + this + ")", true );
         StringLogger.close( storeDir );
@@ -392,7 +533,7 @@ public class BatchInserterImpl implements BatchInserter
         }
     }
 
-    private long createPropertyChain( Map<String,Object> properties )
+    long createPropertyChain( Map<String,Object> properties )
     {
         if ( properties == null )
         {
@@ -401,6 +542,7 @@ public class BatchInserterImpl implements BatchInserter
         PropertyStore propStore = getPropertyStore();
         List<PropertyRecord> propRecords = new ArrayList<PropertyRecord>();
         PropertyRecord prevRecord = null;
+        int slot = PropertyStore.BLOCKS_PER_RECORD;
         for ( Entry<String,Object> entry : properties.entrySet() )
         {
             int keyId = indexHolder.getKeyId( entry.getKey() );
@@ -408,19 +550,25 @@ public class BatchInserterImpl implements BatchInserter
             {
                 keyId = createNewPropertyIndex( entry.getKey() );
             }
-            long propertyId = propStore.nextId();
-            PropertyRecord propertyRecord = new PropertyRecord( propertyId );
-            propertyRecord.setInUse( true );
-            propertyRecord.setCreated();
-            propertyRecord.setKeyIndexId( keyId );
-            propStore.encodeValue( propertyRecord, entry.getValue() );
-            if ( prevRecord != null )
+            PropertyBlock block = new PropertyBlock();
+            block.setKeyIndexId( keyId );
+            propStore.encodeValue( block, entry.getValue() );
+            if ( slot == PropertyStore.BLOCKS_PER_RECORD )
             {
-                prevRecord.setPrevProp( propertyId );
-                propertyRecord.setNextProp( prevRecord.getId() );
+                long recordId = propStore.nextId();
+                PropertyRecord propertyRecord = new PropertyRecord( recordId );
+                propertyRecord.setInUse( true );
+                propertyRecord.setCreated();
+                if ( prevRecord != null )
+                {
+                    prevRecord.setPrevProp( recordId );
+                    propertyRecord.setNextProp( prevRecord.getId() );
+                }
+                propRecords.add( propertyRecord );
+                prevRecord = propertyRecord;
+                slot = 0;
             }
-            propRecords.add( propertyRecord );
-            prevRecord = propertyRecord;
+            prevRecord.setBlock( slot++, block );
         }
         // reverse order results in forward update to store
         for ( int i = propRecords.size() - 1; i >=0; i-- )
@@ -434,38 +582,40 @@ public class BatchInserterImpl implements BatchInserter
         return Record.NO_NEXT_PROPERTY.intValue();
     }
 
-    private void deletePropertyChain( long propertyId )
+    private void deletePropertyChain( long nextProp )
     {
         PropertyStore propStore = getPropertyStore();
-        PropertyRecord propertyRecord = propStore.getRecord( propertyId );
-        propertyRecord.setInUse( false );
-        for ( DynamicRecord record : propertyRecord.getValueRecords() )
+        while ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
         {
-            record.setInUse( false );
+            PropertyRecord propertyRecord = propStore.getRecord( nextProp );
+            nextProp = propertyRecord.getNextProp();
+            for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
+            {
+                propertyRecord.removeBlock( i );
+            }
+            propertyRecord.setInUse( false );
+            propStore.updateRecord( propertyRecord );
         }
-        propStore.updateRecord( propertyRecord );
     }
 
-    private Map<String,Object> getPropertyChain( long propertyId )
+    private Map<String,Object> getPropertyChain( long nextProp )
     {
         PropertyStore propStore = getPropertyStore();
-        PropertyRecord propertyRecord = propStore.getRecord( propertyId );
-        long nextProperty = -1;
         Map<String,Object> properties = new HashMap<String,Object>();
-        do
-        {
-            nextProperty = propertyRecord.getNextProp();
-            propStore.makeHeavy( propertyRecord );
-            String key = indexHolder.getStringKey(
-                propertyRecord.getKeyIndexId() );
-            Object value = propStore.getValue( propertyRecord );
-            properties.put( key, value );
-            if ( nextProperty != Record.NO_NEXT_PROPERTY.intValue() )
+        while ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
+        {
+            PropertyRecord propertyRecord = propStore.getLightRecord( nextProp );
+            for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
             {
-                propertyRecord =
-                    propStore.getRecord( propertyRecord.getNextProp() );
+                PropertyBlock block = propertyRecord.getBlock( i );
+                if ( block != null )
+                {
+                    String key = indexHolder.getStringKey( block.getKeyIndexId() );
+                    properties.put( key, propStore.getValue( block ) );
+                }
             }
-        } while ( nextProperty != Record.NO_NEXT_PROPERTY.intValue() );
+            nextProp = propertyRecord.getNextProp();
+        }
         return properties;
     }
 
@@ -535,6 +685,11 @@ public class BatchInserterImpl implements BatchInserter
         return neoStore.getRelationshipStore();
     }
 
+    private RelationshipGroupStore getRelationshipGroupStore()
+    {
+        return neoStore.getRelationshipGroupStore();
+    }
+
     private RelationshipTypeStore getRelationshipTypeStore()
     {
         return neoStore.getRelationshipTypeStore();
@@ -546,7 +701,7 @@ public class BatchInserterImpl implements BatchInserter
         {
             throw new NotFoundException( "id=" + id );
         }
-        return getNodeStore().getRecord( id );
+        return nodeRecords.getRecord( id );
     }
 
     private RelationshipRecord getRelationshipRecord( long id )
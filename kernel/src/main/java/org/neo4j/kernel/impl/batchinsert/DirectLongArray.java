@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.batchinsert;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * An array of <CODE>long</CODE>s indexed by <CODE>long</CODE>, kept in
+ * chunks of direct memory so that neither its length nor the heap limit
+ * how much it can hold. It grows a chunk at a time and the memory of a new
+ * chunk is zeroed.
+ * <p>
+ * Not thread safe, but threads may get and set values at different indexes
+ * concurrently as long as none of them grows the array.
+ */
+class DirectLongArray
+{
+    // 8MB chunks
+    static final int DEFAULT_CHUNK_SHIFT = 20;
+
+    private final int chunkShift;
+    private final int chunkMask;
+    private LongBuffer[] chunks = new LongBuffer[0];
+    private long length;
+
+    DirectLongArray()
+    {
+        this( DEFAULT_CHUNK_SHIFT );
+    }
+
+    /**
+     * @param chunkShift log2 of the number of values in a chunk
+     */
+    DirectLongArray( int chunkShift )
+    {
+        if ( chunkShift < 0 || chunkShift > 27 )
+        {
+            throw new IllegalArgumentException( "chunkShift=" + chunkShift );
+        }
+        this.chunkShift = chunkShift;
+        this.chunkMask = (1 << chunkShift) - 1;
+    }
+
+    long length()
+    {
+        return length;
+    }
+
+    /**
+     * Makes the array hold at least <CODE>required</CODE> values, the values
+     * added are <CODE>0</CODE>.
+     */
+    void ensureLength( long required )
+    {
+        if ( required <= length )
+        {
+            return;
+        }
+        long chunkCount = ((required - 1) >>> chunkShift) + 1;
+        if ( chunkCount > Integer.MAX_VALUE )
+        {
+            throw new IllegalArgumentException( "length=" + required );
+        }
+        int oldCount = chunks.length;
+        if ( chunkCount > oldCount )
+        {
+            chunks = Arrays.copyOf( chunks, (int) chunkCount );
+            for ( int i = oldCount; i < chunks.length; i++ )
+            {
+                chunks[i] = ByteBuffer.allocateDirect( 8 << chunkShift ).asLongBuffer();
+            }
+        }
+        length = required;
+    }
+
+    long get( long index )
+    {
+        checkIndex( index );
+        return chunks[(int) (index >>> chunkShift)].get( (int) index & chunkMask );
+    }
+
+    void set( long index, long value )
+    {
+        checkIndex( index );
+        chunks[(int) (index >>> chunkShift)].put( (int) index & chunkMask, value );
+    }
+
+    /**
+     * Sets the values from <CODE>from</CODE>, inclusive, to <CODE>to</CODE>,
+     * exclusive, to <CODE>value</CODE>.
+     */
+    void fill( long from, long to, long value )
+    {
+        for ( long index = from; index < to; index++ )
+        {
+            set( index, value );
+        }
+    }
+
+    private void checkIndex( long index )
+    {
+        if ( index < 0 || index >= length )
+        {
+            throw new ArrayIndexOutOfBoundsException( "index=" + index +
+                ", length=" + length );
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.batchinsert;
+
+import java.util.Map;
+
+/**
+ * A node to import with {@link BatchInserter#importGraph(Iterable, Iterable)},
+ * its id given by the caller.
+ */
+public class InputNode
+{
+    private final long id;
+    private final Map<String,Object> properties;
+
+    public InputNode( long id, Map<String,Object> properties )
+    {
+        this.id = id;
+        this.properties = properties;
+    }
+
+    public long getId()
+    {
+        return id;
+    }
+
+    public Map<String,Object> getProperties()
+    {
+        return properties;
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.batchinsert;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+
+/**
+ * Write-behind buffer for the node records changed by the batch inserter.
+ * Creating a relationship updates two nodes that are often far apart in
+ * the node store, so instead of writing each of them through the store
+ * their <CODE>nextRel</CODE> and <CODE>nextProp</CODE> pointers and their
+ * degree are kept in an open addressing hash table in direct memory. When
+ * the table is full, and on {@link #flush()}, the dirty records are written out in
+ * increasing id order, turning random node writes into sequential sweeps
+ * over the node store.
+ * <p>
+ * Records are read from the buffer if they're in it and from the store
+ * otherwise. Not thread safe, like the batch inserter itself.
+ */
+class NodeRecordBuffer
+{
+    static final int DEFAULT_SIZE = 256 * 1024;
+
+    private static final long EMPTY = -1;
+    private static final byte IN_USE = 0x1;
+    private static final byte DENSE = 0x2;
+
+    private final NodeStore store;
+    private final int maxSize;
+    private final int mask;
+    private final LongBuffer ids;
+    private final LongBuffer nextRels;
+    private final LongBuffer nextProps;
+    private final IntBuffer degrees;
+    private final ByteBuffer flags;
+    private int size;
+
+    /**
+     * @param store the node store records are read from and written to
+     * @param maxSize the number of dirty records to keep before flushing
+     */
+    NodeRecordBuffer( NodeStore store, int maxSize )
+    {
+        this.store = store;
+        this.maxSize = maxSize;
+        // at most half full to keep probe sequences short
+        int capacity = Integer.highestOneBit( Math.max( 2, maxSize ) * 2 - 1 ) * 2;
+        this.mask = capacity - 1;
+        this.ids = ByteBuffer.allocateDirect( capacity * 8 ).asLongBuffer();
+        this.nextRels = ByteBuffer.allocateDirect( capacity * 8 ).asLongBuffer();
+        this.nextProps = ByteBuffer.allocateDirect( capacity * 8 ).asLongBuffer();
+        this.degrees = ByteBuffer.allocateDirect( capacity * 4 ).asIntBuffer();
+        this.flags = ByteBuffer.allocateDirect( capacity );
+        clear();
+    }
+
+    private int slotFor( long id )
+    {
+        int slot = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        long current;
+        while ( (current = ids.get( slot )) != EMPTY && current != id )
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the record with id <CODE>id</CODE>, see
+     * {@link NodeStore#getRecord(long)}.
+     */
+    NodeRecord getRecord( long id )
+    {
+        int slot = slotFor( id );
+        if ( ids.get( slot ) == EMPTY )
+        {
+            return store.getRecord( id );
+        }
+        byte flag = flags.get( slot );
+        if ( (flag & IN_USE) == 0 )
+        {
+            // same as the store would do
+            return store.getRecord( id );
+        }
+        NodeRecord record = new NodeRecord( id );
+        record.setInUse( true );
+        record.setDense( (flag & DENSE) != 0 );
+        record.setNextRel( nextRels.get( slot ) );
+        record.setNextProp( nextProps.get( slot ) );
+        record.setDegree( degrees.get( slot ) );
+        return record;
+    }
+
+    /**
+     * Returns whether the node with id <CODE>id</CODE> is in use, see
+     * {@link NodeStore#loadLightNode(long)}.
+     */
+    boolean loadLightNode( long id )
+    {
+        int slot = slotFor( id );
+        if ( ids.get( slot ) == EMPTY )
+        {
+            return store.loadLightNode( id );
+        }
+        return (flags.get( slot ) & IN_USE) != 0;
+    }
+
+    /**
+     * Buffers <CODE>record</CODE>, flushing all buffered records first if
+     * the buffer is full.
+     */
+    void updateRecord( NodeRecord record )
+    {
+        int slot = slotFor( record.getId() );
+        if ( ids.get( slot ) == EMPTY )
+        {
+            if ( size == maxSize )
+            {
+                flush();
+                slot = slotFor( record.getId() );
+            }
+            ids.put( slot, record.getId() );
+            size++;
+        }
+        byte flag = 0;
+        if ( record.inUse() )
+        {
+            flag |= IN_USE;
+        }
+        if ( record.isDense() )
+        {
+            flag |= DENSE;
+        }
+        flags.put( slot, flag );
+        nextRels.put( slot, record.getNextRel() );
+        nextProps.put( slot, record.getNextProp() );
+        degrees.put( slot, record.getDegree() );
+    }
+
+    /**
+     * Writes all buffered records to the store in increasing id order.
+     */
+    void flush()
+    {
+        if ( size == 0 )
+        {
+            return;
+        }
+        long[] dirty = new long[size];
+        int count = 0;
+        for ( int slot = 0; slot <= mask; slot++ )
+        {
+            long id = ids.get( slot );
+            if ( id != EMPTY )
+            {
+                dirty[count++] = id;
+            }
+        }
+        Arrays.sort( dirty );
+        for ( long id : dirty )
+        {
+            int slot = slotFor( id );
+            byte flag = flags.get( slot );
+            NodeRecord record = new NodeRecord( id );
+            record.setInUse( (flag & IN_USE) != 0 );
+            record.setDense( (flag & DENSE) != 0 );
+            record.setNextRel( nextRels.get( slot ) );
+            record.setNextProp( nextProps.get( slot ) );
+            record.setDegree( degrees.get( slot ) );
+            store.updateRecord( record );
+        }
+        clear();
+    }
+
+    private void clear()
+    {
+        for ( int slot = 0; slot <= mask; slot++ )
+        {
+            ids.put( slot, EMPTY );
+        }
+        size = 0;
+    }
+
+    int size()
+    {
+        return size;
+    }
+}
@@ -0,0 +1,878 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.batchinsert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.nioneo.store.IdGeneratorImpl;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
+import org.neo4j.kernel.impl.nioneo.store.UnderlyingStorageException;
+import org.neo4j.kernel.impl.util.LongBitSet;
+import org.neo4j.kernel.impl.util.LongLongHashMap;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * Imports a stream of nodes followed by a stream of relationships through a
+ * pipeline of stages, each on its own thread and handing batches of records
+ * to the next:
+ * <ol>
+ * <li>The calling thread reads the input, checks node ids and resolves
+ * relationship types.</li>
+ * <li>A property stage writes the property chains of all records to the
+ * property store.</li>
+ * <li>A link stage keeps the relationships in direct memory as they arrive.
+ * Once the input is done it links them into chains, splitting the nodes
+ * into ranges linked by threads of their own, and writes the relationship
+ * store and then the node store in id order, every record written once and
+ * fully linked.</li>
+ * </ol>
+ * A node's chain holds its relationships in increasing id order, so walking
+ * it reads the relationship store forwards. Imported nodes are never dense.
+ * <p>
+ * Relationships may also connect nodes already in the store. The new part
+ * of such a node's chain is put in front of the part it already had, or,
+ * if the node is dense, each new relationship is added to its group like
+ * {@link BatchInserterImpl#createRelationship} does.
+ * <p>
+ * The link stage keeps about 64 bytes per relationship and 24 bytes per
+ * node in direct memory, nothing per record on the heap.
+ */
+class ParallelImporter
+{
+    static final int BATCH_SIZE = 10000;
+    private static final int QUEUE_SIZE = 4;
+    private static final long NOT_IMPORTED = -2;
+    private static final long NO_PREV = Record.NO_PREV_RELATIONSHIP.intValue();
+    private static final long NO_NEXT = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private static final long MAX_NODE_ID = IdType.NODE.getMaxValue();
+    private static final long MAX_RELATIONSHIP_ID = IdType.RELATIONSHIP.getMaxValue();
+    private static final Batch END = new Batch();
+
+    private final BatchInserterImpl inserter;
+    private final NeoStore neoStore;
+    private final StringLogger msgLog;
+    private final long reportInterval;
+    private final int linkThreads;
+
+    private final long firstNodeId;
+    private final long firstRelId;
+    // nodes are indexed from firstNodeId, the nodes already in the store
+    // that relationships connect get the indexes after the imported ones
+    private final LongBitSet importedNodes = new LongBitSet();
+    private long importedRange;
+    private final LongLongHashMap existingIndexes = new LongLongHashMap();
+    private final DirectLongArray existingIds = new DirectLongArray();
+    private final DirectLongArray existingNextRels = new DirectLongArray();
+    private final LongBitSet denseExisting = new LongBitSet();
+    private long existingCount;
+
+    private final Progress read = new Progress( "read" );
+    private final Progress properties = new Progress( "properties" );
+    private final Progress link = new Progress( "link" );
+
+    private final PropertyStage propertyStage = new PropertyStage();
+    private final LinkStage linkStage = new LinkStage();
+    private volatile boolean aborted;
+
+    ParallelImporter( BatchInserterImpl inserter, NeoStore neoStore,
+        StringLogger msgLog, long reportInterval, int linkThreads )
+    {
+        this.inserter = inserter;
+        this.neoStore = neoStore;
+        this.msgLog = msgLog;
+        this.reportInterval = reportInterval;
+        this.linkThreads = Math.max( 1, linkThreads );
+        this.firstNodeId = neoStore.getNodeStore().getHighId();
+        this.firstRelId = neoStore.getRelationshipStore().getHighId();
+    }
+
+    /**
+     * Runs the import, returning the id of the first imported relationship.
+     */
+    long run( Iterable<InputNode> nodes,
+        Iterable<InputRelationship> relationships )
+    {
+        msgLog.logMessage( "Importing nodes from id " + firstNodeId +
+            " and relationships from id " + firstRelId );
+        Reporter reporter = reportInterval > 0 ? new Reporter() : null;
+        propertyStage.start();
+        linkStage.start();
+        if ( reporter != null )
+        {
+            reporter.start();
+        }
+        boolean success = false;
+        try
+        {
+            readNodes( nodes );
+            readRelationships( relationships );
+            read.done();
+            submit( propertyStage, END );
+            await( propertyStage );
+            await( linkStage );
+            success = true;
+        }
+        finally
+        {
+            if ( !success )
+            {
+                abort( propertyStage );
+                abort( linkStage );
+            }
+            if ( reporter != null )
+            {
+                reporter.shutdown();
+            }
+        }
+        msgLog.logMessage( "Import done: " + read.summary() + ", " +
+            properties.summary() + ", " + link.summary(), true );
+        return firstRelId;
+    }
+
+    private void readNodes( Iterable<InputNode> nodes )
+    {
+        long previousId = firstNodeId - 1;
+        NodeBatch batch = new NodeBatch();
+        for ( InputNode node : nodes )
+        {
+            long id = node.getId();
+            if ( id <= previousId )
+            {
+                throw new IllegalArgumentException( "Node id " + id +
+                    " not above " + previousId + ", nodes must be imported " +
+                    "in increasing id order above the current high id" );
+            }
+            if ( id > MAX_NODE_ID )
+            {
+                throw new IllegalArgumentException( "id=" + id );
+            }
+            if ( id == IdGeneratorImpl.INTEGER_MINUS_ONE )
+            {
+                throw new IllegalArgumentException( "id " + id + " is reserved for internal use" );
+            }
+            previousId = id;
+            importedNodes.add( id - firstNodeId );
+            batch.add( id, node.getProperties() );
+            if ( batch.size == BATCH_SIZE )
+            {
+                submit( propertyStage, batch );
+                batch = new NodeBatch();
+            }
+        }
+        if ( batch.size > 0 )
+        {
+            submit( propertyStage, batch );
+        }
+        importedRange = previousId - firstNodeId + 1;
+    }
+
+    private void readRelationships( Iterable<InputRelationship> relationships )
+    {
+        long count = 0;
+        RelationshipBatch batch = new RelationshipBatch();
+        for ( InputRelationship rel : relationships )
+        {
+            if ( firstRelId + count > MAX_RELATIONSHIP_ID )
+            {
+                throw new IllegalArgumentException( "Unable to import more than " +
+                    count + " relationships above id " + firstRelId );
+            }
+            long startNode = nodeIndex( rel.getStartNode() );
+            long endNode = nodeIndex( rel.getEndNode() );
+            int typeId = inserter.getOrCreateRelationshipTypeId( rel.getType().name() );
+            batch.add( startNode, endNode, typeId, rel.getProperties() );
+            count++;
+            if ( batch.size == BATCH_SIZE )
+            {
+                submit( propertyStage, batch );
+                batch = new RelationshipBatch();
+            }
+        }
+        if ( batch.size > 0 )
+        {
+            submit( propertyStage, batch );
+        }
+    }
+
+    private long nodeIndex( long nodeId )
+    {
+        long index = nodeId - firstNodeId;
+        if ( index >= 0 )
+        {
+            if ( !importedNodes.contains( index ) )
+            {
+                throw new IllegalArgumentException( "Node[" + nodeId +
+                    "] neither imported nor in the store" );
+            }
+            return index;
+        }
+        return importedRange + existingIndex( nodeId );
+    }
+
+    // the node store is only read here, the link stage doesn't write it
+    // until all input has been read
+    private long existingIndex( long nodeId )
+    {
+        long index = existingIndexes.get( nodeId, -1 );
+        if ( index != -1 )
+        {
+            return index;
+        }
+        NodeStore nodeStore = neoStore.getNodeStore();
+        if ( nodeId < 0 || !nodeStore.loadLightNode( nodeId ) )
+        {
+            throw new IllegalArgumentException( "Node[" + nodeId +
+                "] neither imported nor in the store" );
+        }
+        NodeRecord record = nodeStore.getRecord( nodeId );
+        index = existingCount++;
+        existingIndexes.put( nodeId, index );
+        existingIds.ensureLength( existingCount );
+        existingNextRels.ensureLength( existingCount );
+        existingIds.set( index, nodeId );
+        existingNextRels.set( index, record.getNextRel() );
+        if ( record.isDense() )
+        {
+            denseExisting.add( index );
+        }
+        return index;
+    }
+
+    private long nodeId( long index )
+    {
+        return index < importedRange ? firstNodeId + index :
+            existingIds.get( index - importedRange );
+    }
+
+    private boolean isDenseExisting( long index )
+    {
+        return index >= importedRange && denseExisting.contains( index - importedRange );
+    }
+
+    private void submit( Stage stage, Batch batch )
+    {
+        if ( batch != END )
+        {
+            read.add( batch.size );
+        }
+        try
+        {
+            while ( !stage.queue.offer( batch, 100, TimeUnit.MILLISECONDS ) )
+            {
+                checkFailure();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.interrupted();
+            throw new UnderlyingStorageException( "Interrupted while importing", e );
+        }
+    }
+
+    private void await( Stage stage )
+    {
+        try
+        {
+            while ( stage.isAlive() )
+            {
+                checkFailure();
+                stage.join( 100 );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.interrupted();
+            throw new UnderlyingStorageException( "Interrupted while importing", e );
+        }
+        checkFailure();
+    }
+
+    private void checkFailure()
+    {
+        for ( Stage stage : new Stage[] { propertyStage, linkStage } )
+        {
+            Throwable failure = stage.failure;
+            if ( failure != null )
+            {
+                throw new UnderlyingStorageException( "Import failed in " +
+                    stage.getName(), failure );
+            }
+        }
+    }
+
+    // stages are not interrupted since that would close the store files
+    // they're writing to, instead they see the aborted flag and stop
+    private void abort( Stage stage )
+    {
+        aborted = true;
+        try
+        {
+            stage.join();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.interrupted();
+        }
+    }
+
+    private static class Batch
+    {
+        final List<Map<String,Object>> properties =
+            new ArrayList<Map<String,Object>>();
+        final long[] nextProps = new long[BATCH_SIZE];
+        int size;
+    }
+
+    private static class NodeBatch extends Batch
+    {
+        final long[] ids = new long[BATCH_SIZE];
+
+        void add( long id, Map<String,Object> props )
+        {
+            ids[size++] = id;
+            properties.add( props );
+        }
+    }
+
+    private static class RelationshipBatch extends Batch
+    {
+        final long[] startNodes = new long[BATCH_SIZE];
+        final long[] endNodes = new long[BATCH_SIZE];
+        final int[] types = new int[BATCH_SIZE];
+
+        void add( long startNode, long endNode, int type,
+            Map<String,Object> props )
+        {
+            startNodes[size] = startNode;
+            endNodes[size] = endNode;
+            types[size] = type;
+            properties.add( props );
+            size++;
+        }
+    }
+
+    private abstract class Stage extends Thread
+    {
+        final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>( QUEUE_SIZE );
+        volatile Throwable failure;
+
+        Stage( String name )
+        {
+            super( "BatchImport[" + name + "]" );
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                Batch batch;
+                while ( (batch = take()) != END )
+                {
+                    process( batch );
+                }
+                done();
+            }
+            catch ( InterruptedException e )
+            {
+                // aborted by the importing thread
+            }
+            catch ( Throwable t )
+            {
+                failure = t;
+            }
+        }
+
+        private Batch take() throws InterruptedException
+        {
+            Batch batch;
+            while ( (batch = queue.poll( 100, TimeUnit.MILLISECONDS )) == null )
+            {
+                checkAborted();
+            }
+            return batch;
+        }
+
+        abstract void process( Batch batch ) throws InterruptedException;
+
+        abstract void done() throws InterruptedException;
+
+        void forward( Stage next, Batch batch ) throws InterruptedException
+        {
+            while ( !next.queue.offer( batch, 100, TimeUnit.MILLISECONDS ) )
+            {
+                checkAborted();
+            }
+        }
+
+        void checkAborted() throws InterruptedException
+        {
+            if ( aborted )
+            {
+                throw new InterruptedException( "Import aborted" );
+            }
+        }
+    }
+
+    private class PropertyStage extends Stage
+    {
+        PropertyStage()
+        {
+            super( "properties" );
+        }
+
+        @Override
+        void process( Batch batch ) throws InterruptedException
+        {
+            for ( int i = 0; i < batch.size; i++ )
+            {
+                batch.nextProps[i] = inserter.createPropertyChain(
+                    batch.properties.get( i ) );
+            }
+            batch.properties.clear();
+            properties.add( batch.size );
+            forward( linkStage, batch );
+        }
+
+        @Override
+        void done() throws InterruptedException
+        {
+            properties.done();
+            forward( linkStage, END );
+        }
+    }
+
+    private class LinkStage extends Stage
+    {
+        // by node index, imported nodes only
+        private final DirectLongArray nodeProps = new DirectLongArray();
+        // relationships by index, the id is firstRelId + index
+        private final DirectLongArray relStart = new DirectLongArray();
+        private final DirectLongArray relEnd = new DirectLongArray();
+        private final DirectLongArray relType = new DirectLongArray();
+        private final DirectLongArray relProps = new DirectLongArray();
+        private long relCount;
+        // the links of the relationships, written by the linkers
+        private final DirectLongArray firstPrev = new DirectLongArray();
+        private final DirectLongArray firstNext = new DirectLongArray();
+        private final DirectLongArray secondPrev = new DirectLongArray();
+        private final DirectLongArray secondNext = new DirectLongArray();
+        // by node index, the first relationship id of the chain, the last
+        // end linked, see Linker, and the number of relationships
+        private final DirectLongArray firstRels = new DirectLongArray();
+        private final DirectLongArray lastEnds = new DirectLongArray();
+        private final DirectLongArray degrees = new DirectLongArray();
+
+        LinkStage()
+        {
+            super( "link" );
+        }
+
+        @Override
+        void process( Batch batch )
+        {
+            if ( batch instanceof NodeBatch )
+            {
+                addNodes( (NodeBatch) batch );
+            }
+            else
+            {
+                addRelationships( (RelationshipBatch) batch );
+            }
+        }
+
+        private void addNodes( NodeBatch batch )
+        {
+            long oldLength = nodeProps.length();
+            long length = batch.ids[batch.size - 1] - firstNodeId + 1;
+            nodeProps.ensureLength( length );
+            nodeProps.fill( oldLength, length, NOT_IMPORTED );
+            for ( int i = 0; i < batch.size; i++ )
+            {
+                nodeProps.set( batch.ids[i] - firstNodeId, batch.nextProps[i] );
+            }
+        }
+
+        private void addRelationships( RelationshipBatch batch )
+        {
+            long required = relCount + batch.size;
+            relStart.ensureLength( required );
+            relEnd.ensureLength( required );
+            relType.ensureLength( required );
+            relProps.ensureLength( required );
+            for ( int i = 0; i < batch.size; i++ )
+            {
+                relStart.set( relCount + i, batch.startNodes[i] );
+                relEnd.set( relCount + i, batch.endNodes[i] );
+                relType.set( relCount + i, batch.types[i] );
+                relProps.set( relCount + i, batch.nextProps[i] );
+            }
+            relCount = required;
+        }
+
+        @Override
+        void done() throws InterruptedException
+        {
+            linkChains();
+            writeRelationships();
+            joinExistingChains();
+            writeNodes();
+            link.done();
+        }
+
+        private void linkChains() throws InterruptedException
+        {
+            long nodeCount = importedRange + existingCount;
+            firstRels.ensureLength( nodeCount );
+            lastEnds.ensureLength( nodeCount );
+            degrees.ensureLength( nodeCount );
+            firstPrev.ensureLength( relCount );
+            firstNext.ensureLength( relCount );
+            secondPrev.ensureLength( relCount );
+            secondNext.ensureLength( relCount );
+            int threads = (int) Math.max( 1, Math.min( linkThreads, nodeCount ) );
+            long rangeSize = (nodeCount + threads - 1) / threads;
+            Linker[] linkers = new Linker[threads];
+            for ( int i = 0; i < threads; i++ )
+            {
+                linkers[i] = new Linker( i, i * rangeSize,
+                    Math.min( nodeCount, (i + 1) * rangeSize ) );
+                linkers[i].start();
+            }
+            for ( Linker linker : linkers )
+            {
+                linker.join();
+            }
+            checkAborted();
+            for ( Linker linker : linkers )
+            {
+                if ( linker.failure != null )
+                {
+                    throw new UnderlyingStorageException( "Linking failed in " +
+                        linker.getName(), linker.failure );
+                }
+            }
+        }
+
+        private void writeRelationships()
+        {
+            RelationshipStore relStore = neoStore.getRelationshipStore();
+            if ( relStore.getHighId() < firstRelId + relCount )
+            {
+                relStore.setHighId( firstRelId + relCount );
+            }
+            for ( long r = 0; r < relCount; r++ )
+            {
+                long startNode = relStart.get( r );
+                long endNode = relEnd.get( r );
+                RelationshipRecord record = new RelationshipRecord( firstRelId + r,
+                    nodeId( startNode ), nodeId( endNode ), (int) relType.get( r ) );
+                record.setInUse( true );
+                record.setCreated();
+                record.setNextProp( relProps.get( r ) );
+                boolean startDense = isDenseExisting( startNode );
+                boolean endDense = endNode != startNode && isDenseExisting( endNode );
+                if ( !startDense )
+                {
+                    record.setFirstPrevRel( firstPrev.get( r ) );
+                    record.setFirstNextRel( firstNext.get( r ) );
+                    if ( endNode == startNode )
+                    {
+                        record.setSecondPrevRel( firstPrev.get( r ) );
+                        record.setSecondNextRel( firstNext.get( r ) );
+                    }
+                }
+                else
+                {
+                    inserter.connectToDenseNode( record.getFirstNode(), record );
+                }
+                if ( endDense )
+                {
+                    inserter.connectToDenseNode( record.getSecondNode(), record );
+                }
+                else if ( endNode != startNode )
+                {
+                    record.setSecondPrevRel( secondPrev.get( r ) );
+                    record.setSecondNextRel( secondNext.get( r ) );
+                }
+                relStore.updateRecord( record );
+                link.add( 1 );
+            }
+        }
+
+        // the old chains of the nodes already in the store follow the new
+        // relationships, which the linkers have pointed to the old first
+        private void joinExistingChains()
+        {
+            RelationshipStore relStore = neoStore.getRelationshipStore();
+            NodeStore nodeStore = neoStore.getNodeStore();
+            for ( long i = 0; i < existingCount; i++ )
+            {
+                long index = importedRange + i;
+                long lastEnd = lastEnds.get( index );
+                if ( denseExisting.contains( i ) || lastEnd == 0 )
+                {
+                    continue;
+                }
+                long nodeId = existingIds.get( i );
+                long oldFirst = existingNextRels.get( i );
+                if ( oldFirst != NO_NEXT )
+                {
+                    long lastRel = firstRelId + ((lastEnd - 1) >>> 1);
+                    RelationshipRecord record = relStore.getRecord( oldFirst );
+                    if ( record.getFirstNode() == nodeId )
+                    {
+                        record.setFirstPrevRel( lastRel );
+                    }
+                    if ( record.getSecondNode() == nodeId )
+                    {
+                        record.setSecondPrevRel( lastRel );
+                    }
+                    relStore.updateRecord( record );
+                }
+                NodeRecord node = nodeStore.getRecord( nodeId );
+                node.setNextRel( firstRels.get( index ) );
+                if ( node.getDegree() != NodeRecord.UNKNOWN_DEGREE )
+                {
+                    node.setDegree( degree( node.getDegree() + degrees.get( index ) ) );
+                }
+                nodeStore.updateRecord( node );
+                link.add( 1 );
+            }
+        }
+
+        private void writeNodes()
+        {
+            NodeStore nodeStore = neoStore.getNodeStore();
+            if ( nodeStore.getHighId() < firstNodeId + importedRange )
+            {
+                nodeStore.setHighId( firstNodeId + importedRange );
+            }
+            for ( long n = 0; n < importedRange; n++ )
+            {
+                if ( nodeProps.get( n ) == NOT_IMPORTED )
+                {
+                    continue;
+                }
+                NodeRecord record = new NodeRecord( firstNodeId + n );
+                record.setInUse( true );
+                record.setCreated();
+                record.setNextProp( nodeProps.get( n ) );
+                record.setNextRel( lastEnds.get( n ) != 0 ? firstRels.get( n ) : NO_NEXT );
+                record.setDegree( degree( degrees.get( n ) ) );
+                nodeStore.updateRecord( record );
+                link.add( 1 );
+            }
+        }
+
+        private int degree( long degree )
+        {
+            return degree <= Integer.MAX_VALUE ? (int) degree : NodeRecord.UNKNOWN_DEGREE;
+        }
+
+        /**
+         * Links the ends of all relationships at the nodes in a range of
+         * node indexes, going through the relationships in id order once.
+         * Each end is only written by the linker of its node, so linkers
+         * of different ranges run concurrently without locking. The
+         * relationship ends at dense nodes already in the store are left
+         * to {@link BatchInserterImpl#connectToDenseNode}.
+         */
+        private class Linker extends Thread
+        {
+            private static final int FIRST = 0;
+            private static final int SECOND = 1;
+
+            private final long from;
+            private final long to;
+            volatile Throwable failure;
+
+            Linker( int number, long from, long to )
+            {
+                super( "BatchImport[link-" + number + "]" );
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            public void run()
+            {
+                try
+                {
+                    for ( long r = 0; r < relCount && !aborted; r++ )
+                    {
+                        long startNode = relStart.get( r );
+                        long endNode = relEnd.get( r );
+                        if ( owns( startNode ) )
+                        {
+                            link( startNode, r, FIRST );
+                        }
+                        if ( endNode != startNode && owns( endNode ) )
+                        {
+                            link( endNode, r, SECOND );
+                        }
+                    }
+                    for ( long n = from; n < to && !aborted; n++ )
+                    {
+                        long lastEnd = lastEnds.get( n );
+                        if ( lastEnd != 0 )
+                        {
+                            setNext( lastEnd, n < importedRange ? NO_NEXT :
+                                existingNextRels.get( n - importedRange ) );
+                        }
+                    }
+                }
+                catch ( Throwable t )
+                {
+                    failure = t;
+                }
+            }
+
+            private boolean owns( long node )
+            {
+                return node >= from && node < to && !isDenseExisting( node );
+            }
+
+            // the last end linked at a node is kept as (index << 1 | side) + 1,
+            // 0 when there is none
+            private void link( long node, long r, int side )
+            {
+                long lastEnd = lastEnds.get( node );
+                long id = firstRelId + r;
+                if ( lastEnd == 0 )
+                {
+                    firstRels.set( node, id );
+                    (side == FIRST ? firstPrev : secondPrev).set( r, NO_PREV );
+                }
+                else
+                {
+                    (side == FIRST ? firstPrev : secondPrev).set( r,
+                        firstRelId + ((lastEnd - 1) >>> 1) );
+                    setNext( lastEnd, id );
+                }
+                lastEnds.set( node, ((r << 1) | side) + 1 );
+                degrees.set( node, degrees.get( node ) + 1 );
+            }
+
+            private void setNext( long lastEnd, long next )
+            {
+                long r = (lastEnd - 1) >>> 1;
+                (((lastEnd - 1) & 1) == FIRST ? firstNext : secondNext).set( r, next );
+            }
+        }
+    }
+
+    private class Progress
+    {
+        private final String name;
+        private final long startTime = System.currentTimeMillis();
+        private final AtomicLong count = new AtomicLong();
+        private volatile long endTime;
+        private long lastCount;
+        private long lastTime = startTime;
+
+        Progress( String name )
+        {
+            this.name = name;
+        }
+
+        void add( long records )
+        {
+            count.addAndGet( records );
+        }
+
+        void done()
+        {
+            endTime = System.currentTimeMillis();
+        }
+
+        // only called from the reporter thread
+        String sinceLastReport( long now )
+        {
+            long current = count.get();
+            long rate = (current - lastCount) * 1000 / Math.max( 1, now - lastTime );
+            lastCount = current;
+            lastTime = now;
+            return name + " " + current + " (" + rate + "/s)";
+        }
+
+        String summary()
+        {
+            long time = Math.max( 1, endTime - startTime );
+            return name + " " + count.get() + " records in " + time + "ms (" +
+                count.get() * 1000 / time + "/s)";
+        }
+    }
+
+    private class Reporter extends Thread
+    {
+        private volatile boolean done = false;
+
+        Reporter()
+        {
+            super( "BatchImport[reporter]" );
+            setDaemon( true );
+        }
+
+        @Override
+        public void run()
+        {
+            while ( !done )
+            {
+                LockSupport.parkNanos( this, reportInterval * 1000 * 1000 );
+                if ( done )
+                {
+                    break;
+                }
+                long now = System.currentTimeMillis();
+                msgLog.logMessage( "Import progress: " + read.sinceLastReport( now ) +
+                    ", " + properties.sinceLastReport( now ) + ", " +
+                    link.sinceLastReport( now ), true );
+            }
+        }
+
+        void shutdown()
+        {
+            done = true;
+            LockSupport.unpark( this );
+            try
+            {
+                join();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.interrupted();
+            }
+        }
+    }
+}
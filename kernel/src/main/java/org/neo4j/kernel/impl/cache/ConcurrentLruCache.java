@@ -0,0 +1,409 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A concurrent cache with approximate least-recently-used eviction.
+ *
+ * The cache is divided into a number of segments, each holding its elements
+ * in a {@link ConcurrentHashMap} so that {@link #get(Object)} never takes a
+ * lock. Instead of reordering a list on every access, as {@link LruCache}
+ * does, a read only sets a reference bit on the element. When a segment
+ * exceeds its share of <CODE>maxSize</CODE> elements are evicted in CLOCK
+ * (second chance) order: elements in insertion order are skipped once if
+ * they have been read since they were last passed, the first one that
+ * hasn't is removed. Only {@link #put(Object, Object)}, eviction and
+ * {@link #resize(int)} lock, and only one segment at a time.
+ * <p>
+ * Since each segment is sized independently the number of elements in the
+ * cache can differ slightly from <CODE>maxSize</CODE> if keys don't
+ * spread evenly over the segments.
+ */
+public class ConcurrentLruCache<K,E> implements Cache<K,E>
+{
+    private static final int DEFAULT_SEGMENT_COUNT = 16;
+
+    private final String name;
+    private volatile int maxSize = 1000;
+    private volatile boolean resizing = false;
+    private volatile boolean adaptive = false;
+
+    private final AdaptiveCacheManager cacheManager;
+    private final Segment<K,E>[] segments;
+
+    /**
+     * Creates a concurrent LRU cache with the default number of segments. If
+     * <CODE>maxSize < 1</CODE> an IllegalArgumentException is thrown.
+     *
+     * @param name
+     *            name of cache
+     * @param maxSize
+     *            maximum size of this cache
+     * @param cacheManager
+     *            adaptive cache manager or null if adaptive caching not needed
+     */
+    public ConcurrentLruCache( String name, int maxSize,
+        AdaptiveCacheManager cacheManager )
+    {
+        this( name, maxSize, cacheManager, DEFAULT_SEGMENT_COUNT );
+    }
+
+    /**
+     * Creates a concurrent LRU cache. If <CODE>maxSize < 1</CODE> or
+     * <CODE>segmentCount < 1</CODE> an IllegalArgumentException is thrown.
+     *
+     * @param name
+     *            name of cache
+     * @param maxSize
+     *            maximum size of this cache
+     * @param cacheManager
+     *            adaptive cache manager or null if adaptive caching not needed
+     * @param segmentCount
+     *            number of independently locked segments, rounded up to the
+     *            closest power of two
+     */
+    public ConcurrentLruCache( String name, int maxSize,
+        AdaptiveCacheManager cacheManager, int segmentCount )
+    {
+        if ( name == null || maxSize < 1 || segmentCount < 1 )
+        {
+            throw new IllegalArgumentException( "maxSize=" + maxSize
+                + ", name=" + name + ", segmentCount=" + segmentCount );
+        }
+        this.name = name;
+        this.maxSize = maxSize;
+        this.cacheManager = cacheManager;
+        int count = Integer.highestOneBit( segmentCount );
+        if ( count < segmentCount )
+        {
+            count <<= 1;
+        }
+        @SuppressWarnings( "unchecked" )
+        Segment<K,E>[] segments = (Segment<K,E>[]) new Segment<?,?>[count];
+        this.segments = segments;
+        for ( int i = 0; i < segments.length; i++ )
+        {
+            segments[i] = new Segment<K,E>( this );
+        }
+    }
+
+    public String getName()
+    {
+        return this.name;
+    }
+
+    private Segment<K,E> segmentFor( K key )
+    {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & (segments.length - 1)];
+    }
+
+    int segmentMaxSize()
+    {
+        int segmentMax = (maxSize + segments.length - 1) / segments.length;
+        return segmentMax > 0 ? segmentMax : 1;
+    }
+
+    public void put( K key, E element )
+    {
+        if ( key == null || element == null )
+        {
+            throw new IllegalArgumentException( "key=" + key + ", element="
+                + element );
+        }
+        if ( segmentFor( key ).put( key, element ) )
+        {
+            adaptCache();
+        }
+    }
+
+    public E remove( K key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException( "Null parameter" );
+        }
+        return segmentFor( key ).remove( key );
+    }
+
+    public E get( K key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException();
+        }
+        return segmentFor( key ).get( key );
+    }
+
+    public void clear()
+    {
+        for ( Segment<K,E> segment : segments )
+        {
+            segment.clear();
+        }
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for ( Segment<K,E> segment : segments )
+        {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the maximum size of this cache.
+     *
+     * @return maximum size
+     */
+    public int maxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Changes the max size of the cache. If <CODE>newMaxSize</CODE> is less
+     * then <CODE>size()</CODE> each segment is shrunk, evicting elements in
+     * CLOCK order, until it fits its share of <CODE>newMaxSize</CODE>. For
+     * each element removed the {@link #elementCleaned} method is invoked.
+     * <p>
+     * If <CODE>newMaxSize</CODE> is less then <CODE>1</CODE> an
+     * {@link IllegalArgumentException} is thrown.
+     *
+     * @param newMaxSize
+     *            the new maximum size of the cache
+     */
+    public synchronized void resize( int newMaxSize )
+    {
+        if ( newMaxSize < 1 )
+        {
+            throw new IllegalArgumentException( "newMaxSize=" + newMaxSize );
+        }
+        resizing = true;
+        try
+        {
+            maxSize = newMaxSize;
+            int segmentMax = segmentMaxSize();
+            for ( Segment<K,E> segment : segments )
+            {
+                segment.evict( segmentMax );
+            }
+        }
+        finally
+        {
+            resizing = false;
+        }
+    }
+
+    void adaptCache()
+    {
+        if ( cacheManager != null )
+        {
+            cacheManager.adaptCache( this );
+        }
+    }
+
+    boolean isResizing()
+    {
+        return resizing;
+    }
+
+    public void elementCleaned( E element )
+    {
+    }
+
+    public boolean isAdaptive()
+    {
+        return adaptive;
+    }
+
+    public void setAdaptiveStatus( boolean status )
+    {
+        this.adaptive = status;
+    }
+
+    public void putAll( Map<K,E> map )
+    {
+        for ( Map.Entry<K,E> entry : map.entrySet() )
+        {
+            put( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    @Override
+    public long hitCount()
+    {
+        long hits = 0;
+        for ( Segment<K,E> segment : segments )
+        {
+            hits += segment.counter.getHitsCount();
+        }
+        return hits;
+    }
+
+    @Override
+    public long missCount()
+    {
+        long misses = 0;
+        for ( Segment<K,E> segment : segments )
+        {
+            misses += segment.counter.getMissCount();
+        }
+        return misses;
+    }
+
+    private static final class Element<K,E>
+    {
+        private final K key;
+        private final E value;
+        private volatile boolean referenced = false;
+
+        Element( K key, E value )
+        {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final class Segment<K,E>
+    {
+        private final ConcurrentLruCache<K,E> cache;
+        private final ConcurrentHashMap<K,Element<K,E>> elements =
+            new ConcurrentHashMap<K,Element<K,E>>();
+        // elements in insertion order, may contain replaced or removed
+        // elements which are skipped (and dropped) when the clock passes them
+        private final ArrayDeque<Element<K,E>> clock =
+            new ArrayDeque<Element<K,E>>();
+        private final HitCounter counter = HitCounter.create();
+
+        Segment( ConcurrentLruCache<K,E> cache )
+        {
+            this.cache = cache;
+        }
+
+        E get( K key )
+        {
+            Element<K,E> element = elements.get( key );
+            if ( element == null )
+            {
+                return counter.count( null );
+            }
+            if ( !element.referenced )
+            {
+                element.referenced = true;
+            }
+            return counter.count( element.value );
+        }
+
+        // locked so that a removal can't slip in between an eviction and
+        // the elementCleaned call for it
+        synchronized E remove( K key )
+        {
+            Element<K,E> element = elements.remove( key );
+            return element != null ? element.value : null;
+        }
+
+        /**
+         * @return <CODE>true</CODE> if the segment is over its size and the
+         *         cache should be adapted instead of evicting elements
+         */
+        synchronized boolean put( K key, E value )
+        {
+            Element<K,E> element = new Element<K,E>( key, value );
+            elements.put( key, element );
+            clock.addLast( element );
+            int segmentMax = cache.segmentMaxSize();
+            if ( elements.size() > segmentMax )
+            {
+                // synchronization miss with old value on resizing here is ok
+                if ( cache.isAdaptive() && !cache.isResizing() )
+                {
+                    return true;
+                }
+                evict( segmentMax );
+            }
+            else if ( clock.size() > elements.size() * 2 + 16 )
+            {
+                purgeClock();
+            }
+            return false;
+        }
+
+        synchronized void evict( int segmentMax )
+        {
+            // each element gets at most one second chance per call
+            int secondChances = elements.size();
+            while ( elements.size() > segmentMax )
+            {
+                Element<K,E> element = clock.pollFirst();
+                if ( element == null )
+                {
+                    break;
+                }
+                if ( elements.get( element.key ) != element )
+                {
+                    continue;
+                }
+                if ( element.referenced && secondChances-- > 0 )
+                {
+                    element.referenced = false;
+                    clock.addLast( element );
+                    continue;
+                }
+                if ( elements.remove( element.key, element ) )
+                {
+                    cache.elementCleaned( element.value );
+                }
+            }
+        }
+
+        private void purgeClock()
+        {
+            int count = clock.size();
+            for ( int i = 0; i < count; i++ )
+            {
+                Element<K,E> element = clock.pollFirst();
+                if ( elements.get( element.key ) == element )
+                {
+                    clock.addLast( element );
+                }
+            }
+        }
+
+        synchronized void clear()
+        {
+            elements.clear();
+            clock.clear();
+        }
+
+        int size()
+        {
+            return elements.size();
+        }
+    }
+}
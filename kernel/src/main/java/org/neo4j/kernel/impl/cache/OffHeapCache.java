@@ -0,0 +1,353 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.neo4j.helpers.Counter;
+
+/**
+ * A two tier cache for elements keyed by <CODE>long</CODE> that keeps the
+ * object graph on the java heap small. The first tier is a
+ * {@link ConcurrentLruCache} of live objects. Elements evicted from it are
+ * serialized by a {@link Codec} into an {@link OffHeapStore} instead of
+ * being dropped, and materialized again (and moved back to the first tier)
+ * the next time they're requested. Since the second tier is held in direct
+ * buffers a large cache doesn't have to be traced or copied by the garbage
+ * collector.
+ * <p>
+ * An element is only looked for in the second tier if it isn't in the
+ * first, so a stale serialized copy is harmless as long as a newer object
+ * for the same key is on the heap. Puts, removals, promotions from the
+ * second tier and spills to it are serialized per key by a set of striped
+ * locks. An evicted element is handed over in a map of pending spills and
+ * written off heap by the thread that evicted it once that thread no longer
+ * holds a lock of its own, a put or removal of the key meanwhile just drops
+ * it from that map.
+ */
+public class OffHeapCache<E> implements Cache<Long,E>
+{
+    /**
+     * Converts elements to and from their off heap form.
+     */
+    public interface Codec<E>
+    {
+        /**
+         * @return the key of <CODE>element</CODE>
+         */
+        long getKey( E element );
+
+        /**
+         * Serializes <CODE>element</CODE>. Returning <CODE>null</CODE> means
+         * the element can't be kept off heap and will just be dropped.
+         */
+        byte[] encode( E element );
+
+        /**
+         * Materializes an element from the remaining bytes of
+         * <CODE>source</CODE>, as written by {@link #encode(Object)}.
+         */
+        E decode( long key, ByteBuffer source );
+    }
+
+    private static final int LOCK_STRIPE_COUNT = 64;
+    private static final int OFF_HEAP_SEGMENT_COUNT = 16;
+
+    private final String name;
+    private final Codec<E> codec;
+    private final ConcurrentLruCache<Long,E> heap;
+    private final OffHeapStore offHeap;
+    // evicted from the heap but not yet written off heap
+    private final ConcurrentHashMap<Long,E> pendingSpills =
+        new ConcurrentHashMap<Long,E>();
+    private final Object[] locks = new Object[LOCK_STRIPE_COUNT];
+    private final HitCounter counter = HitCounter.create();
+    private final Counter offHeapHits = Counter.atomic();
+
+    /**
+     * @param name
+     *            name of cache
+     * @param maxSize
+     *            maximum number of elements kept on the heap
+     * @param offHeapSize
+     *            maximum number of bytes to allocate off heap
+     * @param codec
+     *            the codec used to move elements to and from off heap
+     *            memory
+     */
+    public OffHeapCache( String name, int maxSize, long offHeapSize,
+        Codec<E> codec )
+    {
+        if ( codec == null )
+        {
+            throw new IllegalArgumentException( "Null codec" );
+        }
+        this.name = name;
+        this.codec = codec;
+        this.heap = new ConcurrentLruCache<Long,E>( name, maxSize, null )
+        {
+            @Override
+            public void elementCleaned( E element )
+            {
+                // called with the heap segment lock held, the key lock of
+                // the element can't be taken here without risking deadlock
+                // with a thread holding it while putting to this segment
+                pendingSpills.put( OffHeapCache.this.codec.getKey( element ), element );
+            }
+        };
+        this.offHeap = new OffHeapStore( offHeapSize, OFF_HEAP_SEGMENT_COUNT );
+        for ( int i = 0; i < locks.length; i++ )
+        {
+            locks[i] = new Object();
+        }
+    }
+
+    private Object lockFor( long key )
+    {
+        return locks[(int) ( key & ( LOCK_STRIPE_COUNT - 1 ) )];
+    }
+
+    /**
+     * Writes the pending spills off heap, must be called without holding
+     * any of the key locks.
+     */
+    private void spillPending()
+    {
+        if ( pendingSpills.isEmpty() )
+        {
+            return;
+        }
+        for ( Long key : pendingSpills.keySet() )
+        {
+            synchronized ( lockFor( key ) )
+            {
+                E element = pendingSpills.remove( key );
+                if ( element != null )
+                {
+                    spill( key, element );
+                }
+            }
+        }
+    }
+
+    private void spill( long key, E element )
+    {
+        byte[] data = codec.encode( element );
+        if ( data == null )
+        {
+            offHeap.remove( key );
+        }
+        else
+        {
+            offHeap.put( key, data );
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void put( Long key, E element )
+    {
+        if ( key == null || element == null )
+        {
+            throw new IllegalArgumentException( "key=" + key + ", element="
+                + element );
+        }
+        synchronized ( lockFor( key ) )
+        {
+            pendingSpills.remove( key );
+            offHeap.remove( key );
+            heap.put( key, element );
+        }
+        spillPending();
+    }
+
+    public E remove( Long key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException( "Null parameter" );
+        }
+        synchronized ( lockFor( key ) )
+        {
+            E element = heap.remove( key );
+            pendingSpills.remove( key );
+            offHeap.remove( key );
+            return element;
+        }
+    }
+
+    public E get( Long key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException();
+        }
+        E element = heap.get( key );
+        if ( element != null )
+        {
+            return counter.count( element );
+        }
+        synchronized ( lockFor( key ) )
+        {
+            element = heap.get( key );
+            if ( element == null )
+            {
+                element = pendingSpills.remove( key );
+                if ( element == null )
+                {
+                    element = offHeap.take( key, codec );
+                    if ( element != null )
+                    {
+                        offHeapHits.inc();
+                    }
+                }
+                if ( element != null )
+                {
+                    heap.put( key, element );
+                }
+            }
+        }
+        spillPending();
+        return counter.count( element );
+    }
+
+    public void clear()
+    {
+        heap.clear();
+        pendingSpills.clear();
+        offHeap.clear();
+    }
+
+    /**
+     * Returns the number of elements in both tiers.
+     */
+    public int size()
+    {
+        return heap.size() + pendingSpills.size() + offHeap.size();
+    }
+
+    public void elementCleaned( E element )
+    {
+    }
+
+    /**
+     * Returns the maximum number of elements kept on the heap.
+     */
+    public int maxSize()
+    {
+        return heap.maxSize();
+    }
+
+    /**
+     * Changes the maximum number of elements kept on the heap, elements
+     * evicted by this are moved off heap.
+     */
+    public void resize( int newSize )
+    {
+        heap.resize( newSize );
+        spillPending();
+    }
+
+    public boolean isAdaptive()
+    {
+        return heap.isAdaptive();
+    }
+
+    public void setAdaptiveStatus( boolean status )
+    {
+        heap.setAdaptiveStatus( status );
+    }
+
+    public void putAll( Map<Long,E> map )
+    {
+        for ( Map.Entry<Long,E> entry : map.entrySet() )
+        {
+            put( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    @Override
+    public long hitCount()
+    {
+        return counter.getHitsCount();
+    }
+
+    @Override
+    public long missCount()
+    {
+        return counter.getMissCount();
+    }
+
+    /**
+     * Returns the number of hits that had to be materialized from off heap
+     * memory, these are included in {@link #hitCount()}.
+     */
+    public long offHeapHitCount()
+    {
+        return offHeapHits.count();
+    }
+
+    /**
+     * Returns the number of elements currently held off heap.
+     */
+    public int offHeapSize()
+    {
+        return offHeap.size();
+    }
+
+    /**
+     * Returns the number of bytes currently allocated off heap.
+     */
+    public long offHeapMemoryUsed()
+    {
+        return offHeap.memoryUsed();
+    }
+
+    /**
+     * Returns the maximum number of bytes this cache will allocate off heap.
+     */
+    public long offHeapCapacity()
+    {
+        return offHeap.capacity();
+    }
+
+    /**
+     * Returns the number of elements dropped from off heap memory to make
+     * room for others.
+     */
+    public long offHeapEvictionCount()
+    {
+        return offHeap.evictionCount();
+    }
+
+    /**
+     * Changes the maximum number of bytes this cache may allocate off heap.
+     * Elements currently held off heap are dropped.
+     */
+    public void setOffHeapCapacity( long bytes )
+    {
+        offHeap.resize( bytes );
+    }
+}
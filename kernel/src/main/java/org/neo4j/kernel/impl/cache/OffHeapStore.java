@@ -0,0 +1,325 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.nio.ByteBuffer;
+
+import org.neo4j.kernel.impl.util.LongLongHashMap;
+
+/**
+ * Stores serialized elements keyed by <CODE>long</CODE> in direct (off heap)
+ * byte buffers. Since neither the buffers nor the index (a primitive open
+ * addressing hash table) hold any objects per element the store adds close
+ * to nothing to the work of the garbage collector, no matter how many
+ * elements it holds.
+ * <p>
+ * The store is divided into segments, each with its own lock, index and a
+ * ring of equally sized slabs. Elements are appended to the current slab as
+ * <CODE>[key,length,data]</CODE> records. When the ring is full the oldest
+ * slab is recycled and all records still live in it are dropped, giving
+ * FIFO eviction in slab sized chunks. Removed and replaced records are left
+ * in place and only reclaimed when their slab is recycled.
+ * <p>
+ * Slabs are allocated lazily, so a store that never fills up never uses its
+ * full capacity.
+ */
+class OffHeapStore
+{
+    static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+    private static final int MIN_SLAB_SIZE = 4 * 1024;
+    private static final int RECORD_HEADER_SIZE = 8 + 4;
+
+    private final Segment[] segments;
+    private volatile long capacity;
+
+    OffHeapStore( long capacity, int segmentCount )
+    {
+        if ( capacity < 0 || segmentCount < 1 )
+        {
+            throw new IllegalArgumentException( "capacity=" + capacity
+                + ", segmentCount=" + segmentCount );
+        }
+        this.segments = new Segment[segmentCount];
+        for ( int i = 0; i < segments.length; i++ )
+        {
+            segments[i] = new Segment();
+        }
+        resize( capacity );
+    }
+
+    private Segment segmentFor( long key )
+    {
+        int h = (int) ( key ^ ( key >>> 32 ) );
+        h ^= ( h >>> 20 ) ^ ( h >>> 12 );
+        h ^= ( h >>> 7 ) ^ ( h >>> 4 );
+        return segments[( h & 0x7FFFFFFF ) % segments.length];
+    }
+
+    /**
+     * Stores <CODE>data</CODE> for <CODE>key</CODE>, replacing any earlier
+     * data. If the data can't fit in a slab nothing is stored and any
+     * earlier data for <CODE>key</CODE> is removed.
+     *
+     * @return <CODE>true</CODE> if the data was stored
+     */
+    boolean put( long key, byte[] data )
+    {
+        return segmentFor( key ).put( key, data );
+    }
+
+    /**
+     * Decodes the data stored for <CODE>key</CODE> with <CODE>codec</CODE>
+     * and removes it from the store.
+     *
+     * @return the decoded element or <CODE>null</CODE> if nothing was stored
+     *         for <CODE>key</CODE>
+     */
+    <E> E take( long key, OffHeapCache.Codec<E> codec )
+    {
+        return segmentFor( key ).take( key, codec );
+    }
+
+    boolean remove( long key )
+    {
+        return segmentFor( key ).remove( key );
+    }
+
+    void clear()
+    {
+        for ( Segment segment : segments )
+        {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Changes the number of bytes the store may allocate. All data currently
+     * held is dropped.
+     */
+    synchronized void resize( long newCapacity )
+    {
+        if ( newCapacity < 0 )
+        {
+            throw new IllegalArgumentException( "capacity=" + newCapacity );
+        }
+        long perSegment = newCapacity / segments.length;
+        int slabSize = (int) Math.min( DEFAULT_SLAB_SIZE,
+            Math.max( MIN_SLAB_SIZE, perSegment ) );
+        int slabCount = (int) Math.min( Integer.MAX_VALUE, perSegment / slabSize );
+        for ( Segment segment : segments )
+        {
+            segment.reset( slabCount, slabSize );
+        }
+        this.capacity = newCapacity;
+    }
+
+    long capacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * @return the number of bytes currently allocated off heap
+     */
+    long memoryUsed()
+    {
+        long used = 0;
+        for ( Segment segment : segments )
+        {
+            used += segment.allocated;
+        }
+        return used;
+    }
+
+    /**
+     * @return the number of allocated bytes held by live records, the rest
+     *         is free or waiting for its slab to be recycled
+     */
+    long liveBytes()
+    {
+        long live = 0;
+        for ( Segment segment : segments )
+        {
+            live += segment.liveBytes;
+        }
+        return live;
+    }
+
+    int size()
+    {
+        int size = 0;
+        for ( Segment segment : segments )
+        {
+            size += segment.index.size();
+        }
+        return size;
+    }
+
+    long evictionCount()
+    {
+        long evictions = 0;
+        for ( Segment segment : segments )
+        {
+            evictions += segment.evictions;
+        }
+        return evictions;
+    }
+
+    private static long location( int slab, int position )
+    {
+        return ( (long) slab << 32 ) | position;
+    }
+
+    private static final class Segment
+    {
+        private final LongLongHashMap index = new LongLongHashMap();
+        private ByteBuffer[] slabs = new ByteBuffer[0];
+        private int[] slabFill = new int[0];
+        private int slabSize = MIN_SLAB_SIZE;
+        private int current = -1;
+        private volatile long allocated;
+        private volatile long liveBytes;
+        private volatile long evictions;
+
+        synchronized void reset( int slabCount, int slabSize )
+        {
+            if ( slabCount != slabs.length || slabSize != this.slabSize )
+            {
+                this.slabs = new ByteBuffer[slabCount];
+                this.slabFill = new int[slabCount];
+                this.slabSize = slabSize;
+                this.allocated = 0;
+            }
+            else
+            {
+                for ( int i = 0; i < slabFill.length; i++ )
+                {
+                    slabFill[i] = 0;
+                }
+            }
+            index.clear();
+            current = -1;
+            liveBytes = 0;
+        }
+
+        synchronized void clear()
+        {
+            reset( slabs.length, slabSize );
+        }
+
+        synchronized boolean put( long key, byte[] data )
+        {
+            removeRecord( key );
+            int recordSize = RECORD_HEADER_SIZE + data.length;
+            if ( slabs.length == 0 || recordSize > slabSize )
+            {
+                return false;
+            }
+            if ( current == -1 || slabFill[current] + recordSize > slabSize )
+            {
+                nextSlab();
+            }
+            ByteBuffer slab = slabs[current];
+            int position = slabFill[current];
+            slab.putLong( position, key );
+            slab.putInt( position + 8, data.length );
+            slab.position( position + RECORD_HEADER_SIZE );
+            slab.put( data );
+            slabFill[current] = position + recordSize;
+            index.put( key, location( current, position ) );
+            liveBytes += recordSize;
+            return true;
+        }
+
+        synchronized <E> E take( long key, OffHeapCache.Codec<E> codec )
+        {
+            long location = index.get( key, -1 );
+            if ( location == -1 )
+            {
+                return null;
+            }
+            ByteBuffer slab = slabs[(int) ( location >>> 32 )];
+            int position = (int) location;
+            int length = slab.getInt( position + 8 );
+            removeRecord( key );
+            slab.limit( position + RECORD_HEADER_SIZE + length );
+            slab.position( position + RECORD_HEADER_SIZE );
+            try
+            {
+                return codec.decode( key, slab );
+            }
+            finally
+            {
+                slab.clear();
+            }
+        }
+
+        synchronized boolean remove( long key )
+        {
+            return removeRecord( key );
+        }
+
+        private boolean removeRecord( long key )
+        {
+            long location = index.get( key, -1 );
+            if ( location == -1 )
+            {
+                return false;
+            }
+            index.remove( key );
+            ByteBuffer slab = slabs[(int) ( location >>> 32 )];
+            liveBytes -= RECORD_HEADER_SIZE + slab.getInt( (int) location + 8 );
+            return true;
+        }
+
+        private void nextSlab()
+        {
+            current = ( current + 1 ) % slabs.length;
+            if ( slabs[current] == null )
+            {
+                slabs[current] = ByteBuffer.allocateDirect( slabSize );
+                allocated += slabSize;
+            }
+            else
+            {
+                recycle( current );
+            }
+            slabFill[current] = 0;
+        }
+
+        private void recycle( int slabIndex )
+        {
+            ByteBuffer slab = slabs[slabIndex];
+            int position = 0;
+            while ( position < slabFill[slabIndex] )
+            {
+                long key = slab.getLong( position );
+                int length = slab.getInt( position + 8 );
+                if ( index.get( key, -1 ) == location( slabIndex, position ) )
+                {
+                    index.remove( key );
+                    liveBytes -= RECORD_HEADER_SIZE + length;
+                    evictions++;
+                }
+                position += RECORD_HEADER_SIZE + length;
+            }
+        }
+    }
+}
@@ -379,8 +379,9 @@ public class LockReleaser
                 {
                     node.commitRelationshipMaps( nodeElement.relationshipAddMap,
                         nodeElement.relationshipRemoveMap );
-                    node.commitPropertyMaps( nodeElement.propertyAddMap,
+                    node.commitPropertyMaps( nodeManager, nodeElement.propertyAddMap,
                         nodeElement.propertyRemoveMap );
+                    nodeManager.nodeCommitted( node );
                 }
                 else if ( param != Status.STATUS_ROLLEDBACK )
                 {
@@ -400,8 +401,9 @@ public class LockReleaser
                 CowRelElement relElement = entry.getValue();
                 if ( param == Status.STATUS_COMMITTED )
                 {
-                    rel.commitPropertyMaps( relElement.propertyAddMap,
+                    rel.commitPropertyMaps( nodeManager, relElement.propertyAddMap,
                         relElement.propertyRemoveMap );
+                    nodeManager.relationshipCommitted( rel );
                 }
                 else if ( param != Status.STATUS_ROLLEDBACK )
                 {
@@ -779,7 +781,7 @@ public class LockReleaser
             {
                 for ( PropertyData data : relElement.propertyAddMap.values() )
                 {
-                    String key = nodeManager.getKeyForProperty( data.getId() );
+                    String key = nodeManager.getIndexFor( data.getIndex() ).getKey();
                     Object oldValue = relImpl.getCommittedPropertyValue( nodeManager, key );
                     Object newValue = data.getValue();
                     result.assignedProperty( rel, key, newValue, oldValue );
@@ -789,7 +791,7 @@ public class LockReleaser
             {
                 for ( PropertyData data : relElement.propertyRemoveMap.values() )
                 {
-                    String key = nodeManager.getKeyForProperty( data.getId() );
+                    String key = nodeManager.getIndexFor( data.getIndex() ).getKey();
                     Object oldValue = data.getValue();
                     if ( oldValue != null && !relElement.deleted )
                     {
@@ -848,7 +850,7 @@ public class LockReleaser
             {
                 for ( PropertyData data : nodeElement.propertyAddMap.values() )
                 {
-                    String key = nodeManager.getKeyForProperty( data.getId() );
+                    String key = nodeManager.getIndexFor( data.getIndex() ).getKey();
                     Object oldValue = nodeImpl.getCommittedPropertyValue( nodeManager, key );
                     Object newValue = data.getValue();
                     result.assignedProperty( node, key, newValue, oldValue );
@@ -858,7 +860,7 @@ public class LockReleaser
             {
                 for ( PropertyData data : nodeElement.propertyRemoveMap.values() )
                 {
-                    String key = nodeManager.getKeyForProperty( data.getId() );
+                    String key = nodeManager.getIndexFor( data.getIndex() ).getKey();
                     Object oldValue = data.getValue();
                     if ( oldValue == null && !nodeElement.deleted )
                     {
@@ -20,6 +20,7 @@
 package org.neo4j.kernel.impl.core;
 
 import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 
 /**
  * Have this as a separate class extending RelationshipImpl because there might
@@ -48,6 +49,14 @@ class LowRelationshipImpl extends RelationshipImpl
         this.endNodeId = (int) endNodeId;
         this.idAndMore = (((long)typeId) << 48) | ((startNodeId&0xF00000000L)<<12) | ((endNodeId&0xF00000000L)<<8) | id;
     }
+
+    LowRelationshipImpl( long id, long startNodeId, long endNodeId, int typeId, PropertyData[] properties )
+    {
+        super( properties );
+        this.startNodeId = (int) startNodeId;
+        this.endNodeId = (int) endNodeId;
+        this.idAndMore = (((long)typeId) << 48) | ((startNodeId&0xF00000000L)<<12) | ((endNodeId&0xF00000000L)<<8) | id;
+    }
     
     @Override
     public long getId()
@@ -67,7 +76,7 @@ class LowRelationshipImpl extends RelationshipImpl
         return (long)(((long)endNodeId&0xFFFFFFFFL) | ((idAndMore&0xF0000000000L)>>8));
     }
     
-    private int getTypeId()
+    int getTypeId()
     {
         return (int)((idAndMore&0xFFFF000000000000L)>>48);
     }
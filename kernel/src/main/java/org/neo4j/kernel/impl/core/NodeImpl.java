@@ -36,9 +36,11 @@ import org.neo4j.graphdb.ReturnableEvaluator;
 import org.neo4j.graphdb.StopEvaluator;
 import org.neo4j.graphdb.Traverser;
 import org.neo4j.graphdb.Traverser.Order;
+import org.neo4j.helpers.Pair;
 import org.neo4j.helpers.Triplet;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.transaction.LockType;
 import org.neo4j.kernel.impl.traversal.OldTraverserWrapper;
 import org.neo4j.kernel.impl.util.ArrayMap;
@@ -50,9 +52,13 @@ import org.neo4j.kernel.impl.util.RelIdIterator;
 class NodeImpl extends Primitive
 {
     private static final RelIdArray[] NO_RELATIONSHIPS = new RelIdArray[0];
+    private static final RelationshipType[] NO_TYPES = new RelationshipType[0];
 
     private volatile RelIdArray[] relationships;
     private long relChainPosition = Record.NO_NEXT_RELATIONSHIP.intValue();
+    // the groups of a dense node with chains not loaded yet, null when all
+    // relationships are kept in one chain or every group has been loaded
+    private volatile GroupPositions[] groupPositions;
     private long id;
 
     NodeImpl( long id )
@@ -71,6 +77,16 @@ class NodeImpl extends Primitive
         }
     }
 
+    // used when restoring a node from its serialized form
+    NodeImpl( long id, RelIdArray[] relationships, long relChainPosition,
+            PropertyData[] properties )
+    {
+        super( properties );
+        this.id = id;
+        this.relationships = relationships;
+        this.relChainPosition = relChainPosition;
+    }
+
     @Override
     public long getId()
     {
@@ -118,6 +134,7 @@ class NodeImpl extends Primitive
     List<RelIdIterator> getAllRelationships( NodeManager nodeManager, DirectionWrapper direction )
     {
         ensureRelationshipMapNotNull( nodeManager );
+        loadRelationshipGroups( nodeManager, direction, NO_TYPES );
         List<RelIdIterator> relTypeList = new LinkedList<RelIdIterator>();
         boolean hasModifications = nodeManager.getLockReleaser().hasRelationshipModifications( this );
         ArrayMap<String,RelIdArray> addMap = null;
@@ -166,6 +183,7 @@ class NodeImpl extends Primitive
         DirectionWrapper direction, RelationshipType... types)
     {
         ensureRelationshipMapNotNull( nodeManager );
+        loadRelationshipGroups( nodeManager, direction, types );
         List<RelIdIterator> relTypeList = new LinkedList<RelIdIterator>();
         boolean hasModifications = nodeManager.getLockReleaser().hasRelationshipModifications( this );
         for ( RelationshipType type : types )
@@ -193,28 +211,31 @@ class NodeImpl extends Primitive
     public Iterable<Relationship> getRelationships( NodeManager nodeManager )
     {
         return new IntArrayIterator( getAllRelationships( nodeManager, DirectionWrapper.BOTH ), this,
-            DirectionWrapper.BOTH, nodeManager, new RelationshipType[0], !hasMoreRelationshipsToLoad() );
+            DirectionWrapper.BOTH, nodeManager, NO_TYPES,
+            !hasMoreRelationshipsToLoad( DirectionWrapper.BOTH, NO_TYPES ) );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager, Direction dir )
     {
         DirectionWrapper direction = RelIdArray.wrap( dir );
         return new IntArrayIterator( getAllRelationships( nodeManager, direction ), this, direction,
-            nodeManager, new RelationshipType[0], !hasMoreRelationshipsToLoad() );
+            nodeManager, NO_TYPES, !hasMoreRelationshipsToLoad( direction, NO_TYPES ) );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager, RelationshipType type )
     {
         RelationshipType types[] = new RelationshipType[] { type };
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, DirectionWrapper.BOTH, types ),
-            this, DirectionWrapper.BOTH, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, DirectionWrapper.BOTH, nodeManager, types,
+            !hasMoreRelationshipsToLoad( DirectionWrapper.BOTH, types ) );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager,
             RelationshipType... types )
     {
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, DirectionWrapper.BOTH, types ),
-            this, DirectionWrapper.BOTH, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, DirectionWrapper.BOTH, nodeManager, types,
+            !hasMoreRelationshipsToLoad( DirectionWrapper.BOTH, types ) );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager,
@@ -222,7 +243,7 @@ class NodeImpl extends Primitive
     {
         DirectionWrapper dir = RelIdArray.wrap( direction );
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, dir, types ),
-            this, dir, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, dir, nodeManager, types, !hasMoreRelationshipsToLoad( dir, types ) );
     }
 
     public Relationship getSingleRelationship( NodeManager nodeManager, RelationshipType type,
@@ -231,7 +252,8 @@ class NodeImpl extends Primitive
         DirectionWrapper direction = RelIdArray.wrap( dir );
         RelationshipType types[] = new RelationshipType[] { type };
         Iterator<Relationship> rels = new IntArrayIterator( getAllRelationshipsOfType( nodeManager,
-                direction, types ), this, direction, nodeManager, types, !hasMoreRelationshipsToLoad() );
+                direction, types ), this, direction, nodeManager, types,
+                !hasMoreRelationshipsToLoad( direction, types ) );
         if ( !rels.hasNext() )
         {
             return null;
@@ -251,7 +273,8 @@ class NodeImpl extends Primitive
         RelationshipType types[] = new RelationshipType[] { type };
         DirectionWrapper direction = RelIdArray.wrap( dir );
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, direction, types ),
-            this, direction, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, direction, nodeManager, types,
+            !hasMoreRelationshipsToLoad( direction, types ) );
     }
 
     public void delete( NodeManager nodeManager )
@@ -330,6 +353,14 @@ class NodeImpl extends Primitive
         {
             if ( relationships == null )
             {
+                List<RelationshipGroupRecord> groups = nodeManager.getRelationshipGroups( this );
+                if ( groups != null )
+                {
+                    // dense node, chains are loaded per type when asked for
+                    this.groupPositions = toGroupPositions( nodeManager, groups );
+                    this.relationships = NO_RELATIONSHIPS;
+                    return;
+                }
                 this.relChainPosition = nodeManager.getRelationshipChainPosition( this );
                 ArrayMap<String,RelIdArray> tmpRelMap = new ArrayMap<String,RelIdArray>();
                 rels = getMoreRelationships( nodeManager, tmpRelMap );
@@ -400,7 +431,217 @@ class NodeImpl extends Primitive
 
     boolean hasMoreRelationshipsToLoad()
     {
-        return relChainPosition != Record.NO_NEXT_RELATIONSHIP.intValue();
+        return relChainPosition != Record.NO_NEXT_RELATIONSHIP.intValue() ||
+            groupPositions != null;
+    }
+
+    /**
+     * Returns whether or not there are relationships of any of
+     * <CODE>types</CODE> (all types if empty) in <CODE>direction</CODE> left
+     * to load. For a node with all its relationships in one chain this is
+     * the same as {@link #hasMoreRelationshipsToLoad()}.
+     */
+    boolean hasMoreRelationshipsToLoad( DirectionWrapper direction,
+            RelationshipType[] types )
+    {
+        GroupPositions[] groups = groupPositions;
+        if ( groups == null )
+        {
+            return relChainPosition != Record.NO_NEXT_RELATIONSHIP.intValue();
+        }
+        for ( GroupPositions group : groups )
+        {
+            if ( group.matches( types ) && group.hasMore( direction ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether or not this is a dense node with relationship groups
+     * that haven't been loaded yet.
+     */
+    boolean hasUnloadedRelationshipGroups()
+    {
+        return groupPositions != null;
+    }
+
+    /**
+     * Loads more relationships of <CODE>types</CODE> (all types if empty) in
+     * <CODE>direction</CODE>. A dense node loads the whole chains for them,
+     * other nodes load the next batch of their single chain.
+     *
+     * @return whether or not any relationships were loaded
+     */
+    boolean getMoreRelationships( NodeManager nodeManager, DirectionWrapper direction,
+            RelationshipType[] types )
+    {
+        if ( groupPositions != null )
+        {
+            return loadRelationshipGroups( nodeManager, direction, types );
+        }
+        return getMoreRelationships( nodeManager );
+    }
+
+    private static GroupPositions[] toGroupPositions( NodeManager nodeManager,
+            List<RelationshipGroupRecord> groups )
+    {
+        if ( groups.isEmpty() )
+        {
+            return null;
+        }
+        GroupPositions[] result = new GroupPositions[groups.size()];
+        for ( int i = 0; i < result.length; i++ )
+        {
+            RelationshipGroupRecord group = groups.get( i );
+            result[i] = new GroupPositions( nodeManager.getRelationshipTypeById(
+                group.getType() ).name(), group.getFirstOut(), group.getFirstIn(),
+                group.getFirstLoop() );
+        }
+        return result;
+    }
+
+    private boolean loadRelationshipGroups( NodeManager nodeManager,
+            DirectionWrapper direction, RelationshipType[] types )
+    {
+        if ( !hasMoreRelationshipsToLoad( direction, types ) )
+        {
+            return false;
+        }
+        Pair<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>> rels;
+        synchronized ( this )
+        {
+            GroupPositions[] groups = groupPositions;
+            if ( groups == null )
+            {
+                return false;
+            }
+            List<Long> positions = new LinkedList<Long>();
+            for ( GroupPositions group : groups )
+            {
+                if ( group.matches( types ) )
+                {
+                    group.collect( direction, positions );
+                }
+            }
+            if ( positions.isEmpty() )
+            {
+                return false;
+            }
+            rels = nodeManager.loadRelationshipChains( this, positions );
+            ArrayMap<String,RelIdArray> addMap = rels.first();
+            for ( String type : addMap.keySet() )
+            {
+                RelIdArray addRels = addMap.get( type );
+                RelIdArray srcRels = getRelIdArray( type );
+                if ( srcRels == null )
+                {
+                    putRelIdArray( addRels );
+                }
+                else
+                {
+                    RelIdArray newSrcRels = srcRels.addAll( addRels );
+                    // This can happen if srcRels gets upgraded to a RelIdArrayWithLoops
+                    if ( newSrcRels != srcRels )
+                    {
+                        putRelIdArray( newSrcRels );
+                    }
+                }
+            }
+            boolean fullyLoaded = true;
+            for ( GroupPositions group : groups )
+            {
+                if ( group.matches( types ) )
+                {
+                    group.markLoaded( direction );
+                }
+                fullyLoaded &= !group.hasMore( DirectionWrapper.BOTH );
+            }
+            if ( fullyLoaded )
+            {
+                groupPositions = null;
+                setRelChainPosition( Record.NO_NEXT_RELATIONSHIP.intValue() );
+            }
+        }
+        nodeManager.putAllInRelCache( rels.other() );
+        return true;
+    }
+
+    /**
+     * The chain heads, for one relationship type, of a dense node. A chain
+     * is forgotten once it has been loaded.
+     */
+    private static final class GroupPositions
+    {
+        private static final long NO_NEXT = Record.NO_NEXT_RELATIONSHIP.intValue();
+
+        private final String type;
+        private long out;
+        private long in;
+        private long loop;
+
+        GroupPositions( String type, long out, long in, long loop )
+        {
+            this.type = type;
+            this.out = out;
+            this.in = in;
+            this.loop = loop;
+        }
+
+        boolean matches( RelationshipType[] types )
+        {
+            if ( types.length == 0 )
+            {
+                return true;
+            }
+            for ( RelationshipType candidate : types )
+            {
+                if ( candidate.name().equals( type ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // loops are part of both directions
+        boolean hasMore( DirectionWrapper direction )
+        {
+            return loop != NO_NEXT ||
+                ( direction != DirectionWrapper.INCOMING && out != NO_NEXT ) ||
+                ( direction != DirectionWrapper.OUTGOING && in != NO_NEXT );
+        }
+
+        void collect( DirectionWrapper direction, List<Long> positions )
+        {
+            if ( direction != DirectionWrapper.INCOMING && out != NO_NEXT )
+            {
+                positions.add( out );
+            }
+            if ( direction != DirectionWrapper.OUTGOING && in != NO_NEXT )
+            {
+                positions.add( in );
+            }
+            if ( loop != NO_NEXT )
+            {
+                positions.add( loop );
+            }
+        }
+
+        void markLoaded( DirectionWrapper direction )
+        {
+            if ( direction != DirectionWrapper.INCOMING )
+            {
+                out = NO_NEXT;
+            }
+            if ( direction != DirectionWrapper.OUTGOING )
+            {
+                in = NO_NEXT;
+            }
+            loop = NO_NEXT;
+        }
     }
 
     boolean getMoreRelationships( NodeManager nodeManager )
@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.impl.core;
 
+import java.lang.reflect.Array;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -43,13 +44,18 @@ import org.neo4j.helpers.Triplet;
 import org.neo4j.kernel.PropertyTracker;
 import org.neo4j.kernel.impl.cache.AdaptiveCacheManager;
 import org.neo4j.kernel.impl.cache.Cache;
+import org.neo4j.kernel.impl.cache.ConcurrentLruCache;
 import org.neo4j.kernel.impl.cache.LruCache;
 import org.neo4j.kernel.impl.cache.NoCache;
+import org.neo4j.kernel.impl.cache.OffHeapCache;
 import org.neo4j.kernel.impl.cache.SoftLruCache;
 import org.neo4j.kernel.impl.cache.StrongReferenceCache;
 import org.neo4j.kernel.impl.cache.WeakLruCache;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipChainVisitor;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
 import org.neo4j.kernel.impl.persistence.EntityIdGenerator;
@@ -90,6 +96,9 @@ public class NodeManager
     private int minRelCacheSize = 0;
     private int maxNodeCacheSize = 1500;
     private int maxRelCacheSize = 3500;
+    private long nodeCacheOffHeapSize = 32 * 1024 * 1024;
+    private long relCacheOffHeapSize = 32 * 1024 * 1024;
+    private long largePropertyValueSize = 4 * 1024;
 
     private static final int LOCK_STRIPE_COUNT = 32;
     private final ReentrantLock loadLocks[] =
@@ -225,6 +234,51 @@ public class NodeManager
                     + value );
             }
         }
+        if ( params.containsKey( "node_cache_off_heap_size" ) )
+        {
+            nodeCacheOffHeapSize = parseMemorySize( "node_cache_off_heap_size",
+                params.get( "node_cache_off_heap_size" ), nodeCacheOffHeapSize );
+        }
+        if ( params.containsKey( "relationship_cache_off_heap_size" ) )
+        {
+            relCacheOffHeapSize = parseMemorySize( "relationship_cache_off_heap_size",
+                params.get( "relationship_cache_off_heap_size" ), relCacheOffHeapSize );
+        }
+        if ( params.containsKey( "large_property_value_size" ) )
+        {
+            largePropertyValueSize = parseMemorySize( "large_property_value_size",
+                params.get( "large_property_value_size" ), largePropertyValueSize );
+        }
+    }
+
+    private static long parseMemorySize( String key, Object value, long defaultSize )
+    {
+        String mem = (String) value;
+        long multiplier = 1;
+        if ( mem.endsWith( "M" ) )
+        {
+            multiplier = 1024 * 1024;
+            mem = mem.substring( 0, mem.length() - 1 );
+        }
+        else if ( mem.endsWith( "k" ) )
+        {
+            multiplier = 1024;
+            mem = mem.substring( 0, mem.length() - 1 );
+        }
+        else if ( mem.endsWith( "G" ) )
+        {
+            multiplier = 1024 * 1024 * 1024;
+            mem = mem.substring( 0, mem.length() - 1 );
+        }
+        try
+        {
+            return Long.parseLong( mem ) * multiplier;
+        }
+        catch ( NumberFormatException e )
+        {
+            log.warning( "Unable to parse " + key + " " + value );
+            return defaultSize;
+        }
     }
 
     public void start( Map<Object,Object> params )
@@ -232,6 +286,14 @@ public class NodeManager
         parseParams( params );
         nodeCache.resize( maxNodeCacheSize );
         relCache.resize( maxRelCacheSize );
+        if ( nodeCache instanceof OffHeapCache<?> )
+        {
+            ( (OffHeapCache<?>) nodeCache ).setOffHeapCapacity( nodeCacheOffHeapSize );
+        }
+        if ( relCache instanceof OffHeapCache<?> )
+        {
+            ( (OffHeapCache<?>) relCache ).setOffHeapCapacity( relCacheOffHeapSize );
+        }
         if ( useAdaptiveCache && cacheType.needsCacheManagerRegistration )
         {
             cacheManager.registerCache( nodeCache, adaptiveCacheHeapRatio,
@@ -602,6 +664,53 @@ public class NodeManager
         return persistenceManager.loadPropertyValue( id );
     }
 
+    /**
+     * Returns whether <CODE>value</CODE> is at least as large as
+     * <CODE>large_property_value_size</CODE>, in which case it should be
+     * cached so that it can be dropped without evicting the node or
+     * relationship having it.
+     */
+    boolean isLargePropertyValue( Object value )
+    {
+        return approximateSize( value ) >= largePropertyValueSize;
+    }
+
+    private static long approximateSize( Object value )
+    {
+        if ( value instanceof String )
+        {
+            return ( (String) value ).length() * 2L;
+        }
+        if ( value instanceof String[] )
+        {
+            long size = 0;
+            for ( String item : (String[]) value )
+            {
+                size += item.length() * 2L;
+            }
+            return size;
+        }
+        if ( value != null && value.getClass().isArray() )
+        {
+            Class<?> type = value.getClass().getComponentType();
+            int itemSize = 8;
+            if ( type == byte.class || type == boolean.class )
+            {
+                itemSize = 1;
+            }
+            else if ( type == short.class || type == char.class )
+            {
+                itemSize = 2;
+            }
+            else if ( type == int.class || type == float.class )
+            {
+                itemSize = 4;
+            }
+            return (long) Array.getLength( value ) * itemSize;
+        }
+        return 0;
+    }
+
     long getRelationshipChainPosition( NodeImpl node )
     {
         return persistenceManager.getRelationshipChainPosition( node.getId() );
@@ -611,56 +720,89 @@ public class NodeManager
     {
         long nodeId = node.getId();
         long position = node.getRelChainPosition();
-        Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> rels =
-            persistenceManager.getMoreRelationships( nodeId, position );
-        ArrayMap<String,RelIdArray> newRelationshipMap =
-            new ArrayMap<String,RelIdArray>();
-        Map<Long,RelationshipImpl> relsMap = new HashMap<Long,RelationshipImpl>( 150 );
+        RelationshipReceiver receiver = new RelationshipReceiver();
+        long newPosition = persistenceManager.getMoreRelationships( nodeId, position,
+                countLoadedRelationships( node ), receiver );
+        // relCache.putAll( relsMap );
+        return Triplet.of( receiver.newRelationshipMap, receiver.relsMap, newPosition );
+    }
+
+    List<RelationshipGroupRecord> getRelationshipGroups( NodeImpl node )
+    {
+        return persistenceManager.getRelationshipGroups( node.getId() );
+    }
 
-        Iterable<RelationshipRecord> loops = rels.first().get( DirectionWrapper.BOTH );
-        boolean hasLoops = loops != null;
-        if ( hasLoops )
+    /**
+     * Loads the whole relationship chains of <CODE>node</CODE> starting at
+     * <CODE>positions</CODE>, used for the per type chains of dense nodes.
+     */
+    Pair<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>> loadRelationshipChains(
+            NodeImpl node, Iterable<Long> positions )
+    {
+        long nodeId = node.getId();
+        RelationshipReceiver receiver = new RelationshipReceiver();
+        for ( long position : positions )
         {
-            receiveRelationships( loops, newRelationshipMap, relsMap, DirectionWrapper.BOTH, true );
+            while ( position != Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                position = persistenceManager.getMoreRelationships( nodeId, position,
+                        Integer.MAX_VALUE, receiver );
+            }
         }
-        receiveRelationships( rels.first().get( DirectionWrapper.OUTGOING ), newRelationshipMap,
-                relsMap, DirectionWrapper.OUTGOING, hasLoops );
-        receiveRelationships( rels.first().get( DirectionWrapper.INCOMING ), newRelationshipMap,
-                relsMap, DirectionWrapper.INCOMING, hasLoops );
-
-        // relCache.putAll( relsMap );
-        return Triplet.of( newRelationshipMap, relsMap, rels.other() );
+        return Pair.of( receiver.newRelationshipMap, receiver.relsMap );
     }
 
-    private void receiveRelationships(
-            Iterable<RelationshipRecord> rels, ArrayMap<String, RelIdArray> newRelationshipMap,
-            Map<Long, RelationshipImpl> relsMap, DirectionWrapper dir, boolean hasLoops )
+    private static int countLoadedRelationships( NodeImpl node )
     {
-        for ( RelationshipRecord rel : rels )
+        RelIdArray[] loaded = node.getRelationshipIds();
+        int count = 0;
+        if ( loaded != null )
         {
-            long relId = rel.getId();
-            RelationshipImpl relImpl = relCache.get( relId );
-            RelationshipType type = null;
-            if ( relImpl == null )
+            for ( RelIdArray ids : loaded )
             {
-                type = getRelationshipTypeById( rel.getType() );
-                assert type != null;
-                relImpl = newRelationshipImpl( relId, rel.getFirstNode(), rel.getSecondNode(), type,
-                        rel.getType(), false );
-                relsMap.put( relId, relImpl );
-                // relCache.put( relId, relImpl );
+                count += ids.length();
             }
-            else
+        }
+        return count;
+    }
+
+    /**
+     * Builds the id arrays (and relationships not already cached) for one
+     * batch of a relationship chain as it's read from the store.
+     */
+    private class RelationshipReceiver implements RelationshipChainVisitor
+    {
+        private final ArrayMap<String,RelIdArray> newRelationshipMap =
+            new ArrayMap<String,RelIdArray>();
+        private final Map<Long,RelationshipImpl> relsMap =
+            new HashMap<Long,RelationshipImpl>( 150 );
+
+        public void visit( long relId, int typeId, long firstNode, long secondNode,
+                DirectionWrapper direction )
+        {
+            RelationshipType type = getRelationshipTypeById( typeId );
+            assert type != null;
+            if ( relCache.get( relId ) == null )
             {
-                type = relImpl.getType( this );
+                relsMap.put( relId, newRelationshipImpl( relId, firstNode, secondNode, type,
+                        typeId, false ) );
+                // relCache.put( relId, relImpl );
             }
             RelIdArray relationshipSet = newRelationshipMap.get( type.name() );
             if ( relationshipSet == null )
             {
-                relationshipSet = hasLoops ? new RelIdArrayWithLoops( type.name() ) : new RelIdArray( type.name() );
+                relationshipSet = direction == DirectionWrapper.BOTH ?
+                        new RelIdArrayWithLoops( type.name() ) : new RelIdArray( type.name() );
+                newRelationshipMap.put( type.name(), relationshipSet );
+            }
+            else if ( direction == DirectionWrapper.BOTH &&
+                    !( relationshipSet instanceof RelIdArrayWithLoops ) )
+            {
+                // loops are rare, upgrade only when one is encountered
+                relationshipSet = new RelIdArrayWithLoops( type.name() ).addAll( relationshipSet );
                 newRelationshipMap.put( type.name(), relationshipSet );
             }
-            relationshipSet.add( relId, dir );
+            relationshipSet.add( relId, direction );
         }
     }
 
@@ -985,6 +1127,27 @@ public class NodeManager
         return relCache.get( nodeId );
     }
 
+    /**
+     * Called after committed changes have been applied to a cached node,
+     * puts it back in the cache if the cache type keeps serialized copies
+     * that could have been taken before the changes were applied.
+     */
+    void nodeCommitted( NodeImpl node )
+    {
+        if ( cacheType.recachesCommitted() )
+        {
+            nodeCache.put( node.getId(), node );
+        }
+    }
+
+    void relationshipCommitted( RelationshipImpl rel )
+    {
+        if ( cacheType.recachesCommitted() )
+        {
+            relCache.put( rel.getId(), rel );
+        }
+    }
+
     public ArrayMap<Integer,PropertyData> getCowPropertyRemoveMap(
         Primitive primitive )
     {
@@ -1105,6 +1268,43 @@ public class NodeManager
                         RELATIONSHIP_CACHE_NAME, 3500, cacheManager );
             }
         },
+        concurrent( true, "concurrent lru cache" )
+        {
+            @Override
+            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
+            {
+                return new ConcurrentLruCache<Long,NodeImpl>( NODE_CACHE_NAME, 1500, cacheManager );
+            }
+
+            @Override
+            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
+            {
+                return new ConcurrentLruCache<Long,RelationshipImpl>(
+                        RELATIONSHIP_CACHE_NAME, 3500, cacheManager );
+            }
+        },
+        offheap( false, "concurrent lru cache backed by off heap memory" )
+        {
+            @Override
+            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
+            {
+                return new OffHeapCache<NodeImpl>( NODE_CACHE_NAME, 1500,
+                        0, OffHeapCodecs.NODE );
+            }
+
+            @Override
+            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
+            {
+                return new OffHeapCache<RelationshipImpl>( RELATIONSHIP_CACHE_NAME, 3500,
+                        0, OffHeapCodecs.RELATIONSHIP );
+            }
+
+            @Override
+            boolean recachesCommitted()
+            {
+                return true;
+            }
+        },
         none( false, "no cache" )
         {
             @Override
@@ -1150,6 +1350,15 @@ public class NodeManager
 
         abstract Cache<Long,RelationshipImpl> relationship( AdaptiveCacheManager cacheManager );
 
+        /**
+         * @return <CODE>true</CODE> if cached primitives must be put back in
+         *         the cache after committed changes have been applied to them
+         */
+        boolean recachesCommitted()
+        {
+            return false;
+        }
+
         public String getDescription()
         {
             return this.description;
@@ -0,0 +1,393 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.neo4j.kernel.impl.cache.OffHeapCache;
+import org.neo4j.kernel.impl.nioneo.store.PropertyData;
+import org.neo4j.kernel.impl.nioneo.store.PropertyDatas;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.util.RelIdArray;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+import org.neo4j.kernel.impl.util.RelIdArrayWithLoops;
+import org.neo4j.kernel.impl.util.RelIdIterator;
+
+/**
+ * Serialized forms of {@link NodeImpl} and {@link RelationshipImpl} for the
+ * {@link OffHeapCache}. Only committed state is written: the relationship
+ * id blocks and chain position of a node, the start/end node and type of a
+ * relationship and for both the property record ids, key ids and any
+ * primitive or short string values. Other values (arrays and long strings)
+ * are left out and lazily reloaded from the store like after a light load.
+ * Relationships or properties that haven't been loaded yet stay unloaded.
+ */
+final class OffHeapCodecs
+{
+    static final int MAX_INLINED_STRING_LENGTH = 64;
+
+    private static final byte RELATIONSHIPS_LOADED = 1;
+    private static final byte PROPERTIES_LOADED = 2;
+
+    private static final byte VALUE_NOT_LOADED = 0;
+    private static final byte VALUE_BOOLEAN = 1;
+    private static final byte VALUE_BYTE = 2;
+    private static final byte VALUE_SHORT = 3;
+    private static final byte VALUE_CHAR = 4;
+    private static final byte VALUE_INT = 5;
+    private static final byte VALUE_LONG = 6;
+    private static final byte VALUE_FLOAT = 7;
+    private static final byte VALUE_DOUBLE = 8;
+    private static final byte VALUE_STRING = 9;
+
+    private static final DirectionWrapper[] DIRECTIONS = new DirectionWrapper[] {
+        DirectionWrapper.OUTGOING, DirectionWrapper.INCOMING, DirectionWrapper.BOTH };
+
+    private OffHeapCodecs()
+    {
+    }
+
+    static final OffHeapCache.Codec<NodeImpl> NODE = new OffHeapCache.Codec<NodeImpl>()
+    {
+        public long getKey( NodeImpl node )
+        {
+            return node.getId();
+        }
+
+        public byte[] encode( NodeImpl node )
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 );
+            DataOutputStream out = new DataOutputStream( bytes );
+            try
+            {
+                // relationships and chain position change together under
+                // the node monitor when more relationships are loaded
+                synchronized ( node )
+                {
+                    if ( node.hasUnloadedRelationshipGroups() )
+                    {
+                        // the chain positions of a dense node aren't kept
+                        return null;
+                    }
+                    RelIdArray[] relationships = node.getRelationshipIds();
+                    PropertyData[] properties = node.getLoadedProperties();
+                    out.writeByte( ( relationships != null ? RELATIONSHIPS_LOADED : 0 )
+                        | ( properties != null ? PROPERTIES_LOADED : 0 ) );
+                    if ( relationships != null )
+                    {
+                        out.writeLong( node.getRelChainPosition() );
+                        writeRelationships( relationships, out );
+                    }
+                    if ( properties != null )
+                    {
+                        writeProperties( properties, out );
+                    }
+                }
+                out.flush();
+            }
+            catch ( IOException e )
+            {
+                // can't happen when writing to a byte array
+                throw new RuntimeException( e );
+            }
+            return bytes.toByteArray();
+        }
+
+        public NodeImpl decode( long id, ByteBuffer source )
+        {
+            byte flags = source.get();
+            RelIdArray[] relationships = null;
+            long relChainPosition = Record.NO_NEXT_RELATIONSHIP.intValue();
+            if ( ( flags & RELATIONSHIPS_LOADED ) != 0 )
+            {
+                relChainPosition = source.getLong();
+                relationships = readRelationships( source,
+                    relChainPosition == Record.NO_NEXT_RELATIONSHIP.intValue() );
+            }
+            PropertyData[] properties = ( flags & PROPERTIES_LOADED ) != 0 ?
+                readProperties( source ) : null;
+            return new NodeImpl( id, relationships, relChainPosition, properties );
+        }
+    };
+
+    static final OffHeapCache.Codec<RelationshipImpl> RELATIONSHIP =
+        new OffHeapCache.Codec<RelationshipImpl>()
+    {
+        public long getKey( RelationshipImpl relationship )
+        {
+            return relationship.getId();
+        }
+
+        public byte[] encode( RelationshipImpl relationship )
+        {
+            if ( !( relationship instanceof LowRelationshipImpl ) )
+            {
+                return null;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( 32 );
+            DataOutputStream out = new DataOutputStream( bytes );
+            try
+            {
+                PropertyData[] properties = relationship.getLoadedProperties();
+                out.writeLong( relationship.getStartNodeId() );
+                out.writeLong( relationship.getEndNodeId() );
+                out.writeShort( ( (LowRelationshipImpl) relationship ).getTypeId() );
+                out.writeByte( properties != null ? PROPERTIES_LOADED : 0 );
+                if ( properties != null )
+                {
+                    writeProperties( properties, out );
+                }
+                out.flush();
+            }
+            catch ( IOException e )
+            {
+                throw new RuntimeException( e );
+            }
+            return bytes.toByteArray();
+        }
+
+        public RelationshipImpl decode( long id, ByteBuffer source )
+        {
+            long startNodeId = source.getLong();
+            long endNodeId = source.getLong();
+            int typeId = source.getShort() & 0xFFFF;
+            byte flags = source.get();
+            PropertyData[] properties = ( flags & PROPERTIES_LOADED ) != 0 ?
+                readProperties( source ) : null;
+            return new LowRelationshipImpl( id, startNodeId, endNodeId, typeId,
+                properties );
+        }
+    };
+
+    private static void writeRelationships( RelIdArray[] relationships,
+        DataOutputStream out ) throws IOException
+    {
+        out.writeInt( relationships.length );
+        for ( RelIdArray ids : relationships )
+        {
+            writeString( ids.getType(), out );
+            for ( DirectionWrapper direction : DIRECTIONS )
+            {
+                int count = 0;
+                boolean wide = false;
+                for ( RelIdIterator itr = ids.directionIterator( direction ); itr.hasNext(); )
+                {
+                    wide |= itr.next() > Integer.MAX_VALUE;
+                    count++;
+                }
+                out.writeInt( wide ? -count : count );
+                for ( RelIdIterator itr = ids.directionIterator( direction ); itr.hasNext(); )
+                {
+                    long id = itr.next();
+                    if ( wide )
+                    {
+                        out.writeLong( id );
+                    }
+                    else
+                    {
+                        out.writeInt( (int) id );
+                    }
+                }
+            }
+        }
+    }
+
+    private static RelIdArray[] readRelationships( ByteBuffer source,
+        boolean allLoaded )
+    {
+        RelIdArray[] relationships = new RelIdArray[source.getInt()];
+        for ( int i = 0; i < relationships.length; i++ )
+        {
+            String type = readString( source );
+            int outCount = source.getInt();
+            int outStart = source.position();
+            skipIds( source, outCount );
+            int inCount = source.getInt();
+            int inStart = source.position();
+            skipIds( source, inCount );
+            int loopCount = source.getInt();
+            RelIdArray ids = loopCount != 0 ? new RelIdArrayWithLoops( type )
+                : new RelIdArray( type );
+            readIds( source, loopCount, ids, DirectionWrapper.BOTH );
+            int end = source.position();
+            source.position( outStart );
+            readIds( source, outCount, ids, DirectionWrapper.OUTGOING );
+            source.position( inStart );
+            readIds( source, inCount, ids, DirectionWrapper.INCOMING );
+            source.position( end );
+            relationships[i] = allLoaded ? ids.shrink() : ids;
+        }
+        return relationships;
+    }
+
+    private static void skipIds( ByteBuffer source, int count )
+    {
+        source.position( source.position()
+            + ( count < 0 ? -count * 8 : count * 4 ) );
+    }
+
+    private static void readIds( ByteBuffer source, int count, RelIdArray ids,
+        DirectionWrapper direction )
+    {
+        if ( count < 0 )
+        {
+            for ( int i = 0; i < -count; i++ )
+            {
+                ids.add( source.getLong(), direction );
+            }
+        }
+        else
+        {
+            for ( int i = 0; i < count; i++ )
+            {
+                ids.add( source.getInt() & 0xFFFFFFFFL, direction );
+            }
+        }
+    }
+
+    private static void writeProperties( PropertyData[] properties,
+        DataOutputStream out ) throws IOException
+    {
+        out.writeInt( properties.length );
+        for ( PropertyData property : properties )
+        {
+            out.writeInt( property.getIndex() );
+            out.writeLong( property.getId() );
+            Object value = property.getValue();
+            if ( value instanceof Integer )
+            {
+                out.writeByte( VALUE_INT );
+                out.writeInt( (Integer) value );
+            }
+            else if ( value instanceof Long )
+            {
+                out.writeByte( VALUE_LONG );
+                out.writeLong( (Long) value );
+            }
+            else if ( value instanceof Boolean )
+            {
+                out.writeByte( VALUE_BOOLEAN );
+                out.writeBoolean( (Boolean) value );
+            }
+            else if ( value instanceof Double )
+            {
+                out.writeByte( VALUE_DOUBLE );
+                out.writeDouble( (Double) value );
+            }
+            else if ( value instanceof Float )
+            {
+                out.writeByte( VALUE_FLOAT );
+                out.writeFloat( (Float) value );
+            }
+            else if ( value instanceof Byte )
+            {
+                out.writeByte( VALUE_BYTE );
+                out.writeByte( (Byte) value );
+            }
+            else if ( value instanceof Short )
+            {
+                out.writeByte( VALUE_SHORT );
+                out.writeShort( (Short) value );
+            }
+            else if ( value instanceof Character )
+            {
+                out.writeByte( VALUE_CHAR );
+                out.writeChar( (Character) value );
+            }
+            else if ( value instanceof String
+                && ( (String) value ).length() <= MAX_INLINED_STRING_LENGTH )
+            {
+                out.writeByte( VALUE_STRING );
+                writeString( (String) value, out );
+            }
+            else
+            {
+                out.writeByte( VALUE_NOT_LOADED );
+            }
+        }
+    }
+
+    private static PropertyData[] readProperties( ByteBuffer source )
+    {
+        PropertyData[] properties = new PropertyData[source.getInt()];
+        for ( int i = 0; i < properties.length; i++ )
+        {
+            int index = source.getInt();
+            long id = source.getLong();
+            byte type = source.get();
+            switch ( type )
+            {
+            case VALUE_BOOLEAN:
+                properties[i] = PropertyDatas.forBoolean( index, id, source.get() != 0 );
+                break;
+            case VALUE_BYTE:
+                properties[i] = PropertyDatas.forByte( index, id, source.get() );
+                break;
+            case VALUE_SHORT:
+                properties[i] = PropertyDatas.forShort( index, id, source.getShort() );
+                break;
+            case VALUE_CHAR:
+                properties[i] = PropertyDatas.forChar( index, id, source.getChar() );
+                break;
+            case VALUE_INT:
+                properties[i] = PropertyDatas.forInt( index, id, source.getInt() );
+                break;
+            case VALUE_LONG:
+                properties[i] = PropertyDatas.forLong( index, id, source.getLong() );
+                break;
+            case VALUE_FLOAT:
+                properties[i] = PropertyDatas.forFloat( index, id, source.getFloat() );
+                break;
+            case VALUE_DOUBLE:
+                properties[i] = PropertyDatas.forDouble( index, id, source.getDouble() );
+                break;
+            case VALUE_STRING:
+                properties[i] = PropertyDatas.forStringOrArray( index, id, readString( source ) );
+                break;
+            case VALUE_NOT_LOADED:
+                properties[i] = PropertyDatas.forStringOrArray( index, id, null );
+                break;
+            default:
+                throw new IllegalStateException( "Unknown value type " + type );
+            }
+        }
+        return properties;
+    }
+
+    private static void writeString( String value, DataOutputStream out )
+        throws IOException
+    {
+        out.writeInt( value.length() );
+        out.writeChars( value );
+    }
+
+    private static String readString( ByteBuffer source )
+    {
+        char[] chars = new char[source.getInt()];
+        for ( int i = 0; i < chars.length; i++ )
+        {
+            chars[i] = source.getChar();
+        }
+        return new String( chars );
+    }
+}
@@ -53,6 +53,12 @@ abstract class Primitive
         }
     }
 
+    // for restoring a primitive with already loaded properties (or null)
+    Primitive( PropertyData[] properties )
+    {
+        this.properties = properties;
+    }
+
     public abstract long getId();
 
     @Override
@@ -83,7 +89,7 @@ abstract class Primitive
             {
                 continue;
             }
-            values.add( property.getValue() );
+            values.add( getPropertyValue( nodeManager, property ) );
         }
         if ( addMap != null )
         {
@@ -542,12 +548,19 @@ abstract class Primitive
             // This will only happen for "heavy" property value, such as
             // strings/arrays
             value = nodeManager.loadPropertyValue( property.getId() );
-            property.setNewValue( value );
+            if ( nodeManager.isLargePropertyValue( value ) )
+            {
+                property.setNewSoftValue( value );
+            }
+            else
+            {
+                property.setNewValue( value );
+            }
         }
         return value;
     }
 
-    protected void commitPropertyMaps(
+    protected void commitPropertyMaps( NodeManager nodeManager,
         ArrayMap<Integer,PropertyData> cowPropertyAddMap,
         ArrayMap<Integer,PropertyData> cowPropertyRemoveMap )
     {
@@ -601,6 +614,11 @@ abstract class Primitive
         {
             for ( PropertyData addedProperty : cowPropertyAddMap.values() )
             {
+                Object value = addedProperty.getValue();
+                if ( nodeManager.isLargePropertyValue( value ) )
+                {
+                    addedProperty.setNewSoftValue( value );
+                }
                 for ( int i = 0; i < newArray.length; i++ )
                 {
                     PropertyData existingProperty = newArray[i];
@@ -641,11 +659,16 @@ abstract class Primitive
         return null;
     }
 
+    /**
+     * Loads the keys of the properties, if not already loaded. The values of
+     * strings and arrays kept in dynamic records are loaded one at a time as
+     * they are asked for, see {@link #getPropertyValue}.
+     */
     private boolean ensureFullProperties( NodeManager nodeManager )
     {
         if ( properties == null )
         {
-            this.properties = toPropertyArray( loadProperties( nodeManager, false ) );
+            this.properties = toPropertyArray( loadProperties( nodeManager, true ) );
             return true;
         }
         return false;
@@ -667,19 +690,18 @@ abstract class Primitive
         return result;
     }
 
-    private boolean ensureFullLightProperties( NodeManager nodeManager )
+    /**
+     * @return the loaded properties, or <CODE>null</CODE> if they haven't
+     *         been loaded yet. Heavy values may not be loaded.
+     */
+    PropertyData[] getLoadedProperties()
     {
-        if ( properties == null )
-        {
-            this.properties = toPropertyArray( loadProperties( nodeManager, true ) );
-            return true;
-        }
-        return false;
+        return properties;
     }
 
     protected List<PropertyEventData> getAllCommittedProperties( NodeManager nodeManager )
     {
-        ensureFullLightProperties( nodeManager );
+        ensureFullProperties( nodeManager );
         if ( properties == null )
         {
             return new ArrayList<PropertyEventData>();
@@ -697,7 +719,7 @@ abstract class Primitive
 
     protected Object getCommittedPropertyValue( NodeManager nodeManager, String key )
     {
-        ensureFullLightProperties( nodeManager );
+        ensureFullProperties( nodeManager );
         for ( PropertyIndex index : nodeManager.index( key ) )
         {
             PropertyData property = getPropertyForIndex( index.getKeyId() );
@@ -34,6 +34,11 @@ abstract class RelationshipImpl extends Primitive
         super( newRel );
     }
 
+    RelationshipImpl( PropertyData[] properties )
+    {
+        super( properties );
+    }
+
     protected RelationshipType assertTypeNotNull( RelationshipType type )
     {
         if ( type == null )
@@ -213,9 +213,7 @@ public abstract class AbstractDynamicStore extends CommonAbstractStore
             }
         }
         
-        setWindowPool( new PersistenceWindowPool( getStorageFileName(),
-            getBlockSize(), getFileChannel(), getMappedMem(), 
-            getIfMemoryMapped(), isReadOnly() && !isBackupSlave() ) );
+        setWindowPool( newWindowPool( getBlockSize() ) );
     }
 
     /**
@@ -532,30 +530,6 @@ public abstract class AbstractDynamicStore extends CommonAbstractStore
         return recordList;
     }
 
-    private long findHighIdBackwards() throws IOException
-    {
-        FileChannel fileChannel = getFileChannel();
-        int recordSize = getBlockSize();
-        long fileSize = fileChannel.size();
-        long highId = fileSize / recordSize;
-        ByteBuffer byteBuffer = ByteBuffer.allocate( 1 );
-        for ( long i = highId; i > 0; i-- )
-        {
-            fileChannel.position( i * recordSize );
-            if ( fileChannel.read( byteBuffer ) > 0 )
-            {
-                byteBuffer.flip();
-                byte inUse = byteBuffer.get();
-                byteBuffer.clear();
-                if ( inUse != 0 )
-                {
-                    return i;
-                }
-            }
-        }
-        return 0;
-    }
-    
     /**
      * Rebuilds the internal id generator keeping track of what blocks are free
      * or taken.
@@ -570,81 +544,8 @@ public abstract class AbstractDynamicStore extends CommonAbstractStore
             throw new InvalidRecordException( "Illegal blockSize: " + 
                 getBlockSize() );
         }
-        logger.fine( "Rebuilding id generator for[" + getStorageFileName()
-            + "] ..." );
-        closeIdGenerator();
-        File file = new File( getStorageFileName() + ".id" );
-        if ( file.exists() )
-        {
-            boolean success = file.delete();
-            assert success;
-        }
-        createIdGenerator( getStorageFileName() + ".id" );
-        openIdGenerator();
-//        nextBlockId(); // reserved first block containing blockSize
-        setHighId( 1 );
-        FileChannel fileChannel = getFileChannel();
-        long highId = 0;
-        long defraggedCount = 0;
-        try
-        {
-            long fileSize = fileChannel.size();
-            boolean fullRebuild = true;
-            if ( getConfig() != null )
-            {
-                String mode = (String) 
-                    getConfig().get( "rebuild_idgenerators_fast" );
-                if ( mode != null && mode.toLowerCase().equals( "true" ) )
-                {
-                    fullRebuild = false;
-                    highId = findHighIdBackwards();
-                }
-            }
-            ByteBuffer byteBuffer = ByteBuffer.wrap( new byte[1] );
-            LinkedList<Long> freeIdList = new LinkedList<Long>();
-            if ( fullRebuild )
-            {
-                for ( long i = 1; i * getBlockSize() < fileSize; i++ )
-                {
-                    fileChannel.position( i * getBlockSize() );
-                    fileChannel.read( byteBuffer );
-                    byteBuffer.flip();
-                    byte inUse = byteBuffer.get();
-                    byteBuffer.flip();
-                    nextBlockId();
-                    if ( inUse == Record.NOT_IN_USE.byteValue() )
-                    {
-                        freeIdList.add( i );
-                    }
-                    else
-                    {
-                        highId = i;
-                        while ( !freeIdList.isEmpty() )
-                        {
-                            freeBlockId( freeIdList.removeFirst() );
-                            defraggedCount++;
-                        }
-                    }
-                }
-            }
-        }
-        catch ( IOException e )
-        {
-            throw new UnderlyingStorageException( 
-                "Unable to rebuild id generator " + getStorageFileName(), e );
-        }
-        setHighId( highId + 1 );
-        logger.fine( "[" + getStorageFileName() + "] high id=" + getHighId()
-            + " (defragged=" + defraggedCount + ")" );
-        if ( getConfig() != null )
-        {
-            String storeDir = (String) getConfig().get( "store_dir" );
-            StringLogger msgLog = StringLogger.getLogger( storeDir );
-            msgLog.logMessage( getStorageFileName() + " rebuild id generator, highId=" + getHighId() + 
-                    " defragged count=" + defraggedCount, true );
-        }
-        closeIdGenerator();
-        openIdGenerator();
+        // first block is reserved, it contains the block size
+        rebuildIdGenerator( getBlockSize(), 1, 0xFF, 0 );
     }
 
 //    @Override
@@ -24,7 +24,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -148,6 +147,8 @@ public abstract class AbstractStore extends CommonAbstractStore
                 {
                     setStoreNotOk();
                 }
+                // the store may have been rewritten by an upgrade
+                fileSize = getFileChannel().size();
             }
             if ( getRecordSize() != 0
                 && (fileSize - version.length) % getRecordSize() != 0  && !isReadOnly() )
@@ -191,9 +192,7 @@ public abstract class AbstractStore extends CommonAbstractStore
                 }
             }
         }
-        setWindowPool( new PersistenceWindowPool( getStorageFileName(),
-            getRecordSize(), getFileChannel(), getMappedMem(), 
-            getIfMemoryMapped(), isReadOnly() && !isBackupSlave() ) );
+        setWindowPool( newWindowPool( getRecordSize() ) );
     }
 
     /**
@@ -225,31 +224,6 @@ public abstract class AbstractStore extends CommonAbstractStore
 //        }
 //    }
 
-    private long findHighIdBackwards() throws IOException
-    {
-        // Duplicated method
-        FileChannel fileChannel = getFileChannel();
-        int recordSize = getRecordSize();
-        long fileSize = fileChannel.size();
-        long highId = fileSize / recordSize;
-        ByteBuffer byteBuffer = ByteBuffer.allocate( 1 );
-        for ( long i = highId; i > 0; i-- )
-        {
-            fileChannel.position( i * recordSize );
-            if ( fileChannel.read( byteBuffer ) > 0 )
-            {
-                byteBuffer.flip();
-                byte inUse = byteBuffer.get();
-                byteBuffer.clear();
-                if ( inUse != 0 )
-                {
-                    return i;
-                }
-            }
-        }
-        return 0;
-    }
-    
     /**
      * Rebuilds the {@link IdGenerator} by looping through all records and
      * checking if record in use or not.
@@ -263,83 +237,7 @@ public abstract class AbstractStore extends CommonAbstractStore
         {
             throw new ReadOnlyDbException();
         }
-
-        logger.fine( "Rebuilding id generator for[" + getStorageFileName()
-            + "] ..." );
-        closeIdGenerator();
-        File file = new File( getStorageFileName() + ".id" );
-        if ( file.exists() )
-        {
-            boolean success = file.delete();
-            assert success;
-        }
-        createIdGenerator( getStorageFileName() + ".id" );
-        openIdGenerator();
-        FileChannel fileChannel = getFileChannel();
-        long highId = 1;
-        long defraggedCount = 0;
-        try
-        {
-            long fileSize = fileChannel.size();
-            int recordSize = getRecordSize();
-            boolean fullRebuild = true;
-            if ( getConfig() != null )
-            {
-                String mode = (String) 
-                    getConfig().get( "rebuild_idgenerators_fast" );
-                if ( mode != null && mode.toLowerCase().equals( "true" ) )
-                {
-                    fullRebuild = false;
-                    highId = findHighIdBackwards();
-                }
-            }
-            ByteBuffer byteBuffer = ByteBuffer.wrap( new byte[1] );
-            // Duplicated code block
-            LinkedList<Long> freeIdList = new LinkedList<Long>();
-            if ( fullRebuild )
-            {
-                for ( long i = 0; i * recordSize < fileSize && recordSize > 0; 
-                    i++ )
-                {
-                    fileChannel.position( i * recordSize );
-                    fileChannel.read( byteBuffer );
-                    byteBuffer.flip();
-                    byte inUse = byteBuffer.get();
-                    byteBuffer.flip();
-                    nextId();
-                    if ( (inUse & 0x1) == Record.NOT_IN_USE.byteValue() )
-                    {
-                        freeIdList.add( i );
-                    }
-                    else
-                    {
-                        highId = i;
-                        while ( !freeIdList.isEmpty() )
-                        {
-                            freeId( freeIdList.removeFirst() );
-                            defraggedCount++;
-                        }
-                    }
-                }
-            }
-        }
-        catch ( IOException e )
-        {
-            throw new UnderlyingStorageException( 
-                "Unable to rebuild id generator " + getStorageFileName(), e );
-        }
-        setHighId( highId + 1 );
-        if ( getConfig() != null )
-        {
-            String storeDir = (String) getConfig().get( "store_dir" );
-            StringLogger msgLog = StringLogger.getLogger( storeDir );
-            msgLog.logMessage( getStorageFileName() + " rebuild id generator, highId=" + getHighId() + 
-                    " defragged count=" + defraggedCount, true );
-        }
-        logger.fine( "[" + getStorageFileName() + "] high id=" + getHighId()
-            + " (defragged=" + defraggedCount + ")" );
-        closeIdGenerator();
-        openIdGenerator();
+        rebuildIdGenerator( getRecordSize(), 0, 0x1, 1 );
     }
     
     public abstract List<WindowPoolStats> getAllWindowPoolStats();
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+
+/**
+ * Divides a store file into bricks, given the amount of memory available for
+ * mapped windows. A brick is the unit a window pool maps into memory, so all
+ * window pool implementations must agree on how bricks are laid out.
+ */
+final class BrickLayout
+{
+    private static final int MAX_BRICK_COUNT = 100000;
+
+    private final long availableMem;
+    private final int brickCount;
+    private final int brickSize;
+
+    private BrickLayout( long availableMem, int brickCount, int brickSize )
+    {
+        this.availableMem = availableMem;
+        this.brickCount = brickCount;
+        this.brickSize = brickSize;
+    }
+
+    /**
+     * @return the memory that may be used for windows, <CODE>0</CODE> if
+     *         memory mapped windows had to be turned off
+     */
+    long availableMem()
+    {
+        return availableMem;
+    }
+
+    int brickCount()
+    {
+        return brickCount;
+    }
+
+    /**
+     * @return the size of each brick in bytes, <CODE>0</CODE> if memory
+     *         mapped windows are turned off
+     */
+    int brickSize()
+    {
+        return brickSize;
+    }
+
+    static BrickLayout calculate( String storeName, int blockSize,
+        FileChannel fileChannel, long availableMem, Logger log )
+    {
+        long fileSize = -1;
+        try
+        {
+            fileSize = fileChannel.size();
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException(
+                "Unable to get file size for " + storeName, e );
+        }
+        if ( blockSize == 0 )
+        {
+            return new BrickLayout( availableMem, 0, 0 );
+        }
+        // If we can't fit even 10 blocks in available memory don't even try
+        // to use available memory.
+        if ( availableMem > 0 && availableMem < blockSize * 10l )
+        {
+            log.warning( "[" + storeName + "] Unable to use " + availableMem
+                + "b as memory mapped windows, need at least " + blockSize * 10
+                + "b (block size * 10)" );
+            log.warning( "[" + storeName
+                + "] Memory mapped windows have been turned off" );
+            return new BrickLayout( 0, 0, 0 );
+        }
+        int brickCount = 0;
+        int brickSize = 0;
+        if ( availableMem > 0 && fileSize > 0 )
+        {
+            double ratio = (availableMem + 0.0d) / fileSize;
+            if ( ratio >= 1 )
+            {
+                brickSize = (int) (availableMem / 1000);
+                if ( brickSize < 0 )
+                {
+                    brickSize = Integer.MAX_VALUE;
+                }
+                brickSize = (brickSize / blockSize) * blockSize;
+                brickCount = (int) (fileSize / brickSize);
+            }
+            else
+            {
+                brickCount = (int) (1000.0d / ratio);
+                if ( brickCount > MAX_BRICK_COUNT )
+                {
+                    brickCount = MAX_BRICK_COUNT;
+                }
+                if ( fileSize / brickCount > availableMem )
+                {
+                    log.warning( "[" + storeName + "] Unable to use "
+                        + (availableMem / 1024)
+                        + "kb as memory mapped windows, need at least "
+                        + (fileSize / brickCount / 1024) + "kb" );
+                    log.warning( "[" + storeName
+                        + "] Memory mapped windows have been turned off" );
+                    return new BrickLayout( 0, 0, 0 );
+                }
+                brickSize = (int) (fileSize / brickCount);
+                if ( brickSize < 0 )
+                {
+                    brickSize = Integer.MAX_VALUE;
+                    brickSize = (brickSize / blockSize) * blockSize;
+                    brickCount = (int) (fileSize / brickSize);
+                }
+                else
+                {
+                    brickSize = (brickSize / blockSize) * blockSize;
+                }
+                assert brickSize > blockSize;
+            }
+        }
+        else if ( availableMem > 0 )
+        {
+            brickSize = (int) (availableMem / 100);
+            if ( brickSize < 0 )
+            {
+                brickSize = Integer.MAX_VALUE;
+            }
+            brickSize = (brickSize / blockSize) * blockSize;
+        }
+        return new BrickLayout( availableMem, brickCount, brickSize );
+    }
+}
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.OverlappingFileLockException;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,6 +34,7 @@ import org.neo4j.kernel.Config;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.impl.core.ReadOnlyDbException;
+import org.neo4j.kernel.impl.util.StringLogger;
 
 /**
  * Contains common implementation for {@link AbstractStore} and
@@ -112,11 +114,17 @@ public abstract class CommonAbstractStore
     // default node store id generator grab size
     protected static final int DEFAULT_ID_GRAB_SIZE = 1024;
 
+    // bytes read at a time when rebuilding the id generator
+    static final int REBUILD_READ_SIZE = 1024 * 1024;
+
+    // rebuild progress is logged for store files at least this big
+    private static final long REBUILD_PROGRESS_FILE_SIZE = 64 * 1024 * 1024;
+
     private final String storageFileName;
     private final IdGeneratorFactory idGeneratorFactory;
     private IdGenerator idGenerator = null;
     private FileChannel fileChannel = null;
-    private PersistenceWindowPool windowPool;
+    private WindowPool windowPool;
     private boolean storeOk = true;
     private FileLock fileLock;
     private boolean grabFileLock = true;
@@ -323,7 +331,7 @@ public abstract class CommonAbstractStore
     }
 
     /**
-     * Sets the {@link PersistenceWindowPool} for this store to use. Normally
+     * Sets the {@link WindowPool} for this store to use. Normally
      * this is set in the {@link #loadStorage()} method. This method must be
      * invoked with a valid "pool" before any of the
      * {@link #acquireWindow(long, OperationType)}
@@ -333,11 +341,35 @@ public abstract class CommonAbstractStore
      * @param pool
      *            The window pool this store should use
      */
-    protected void setWindowPool( PersistenceWindowPool pool )
+    protected void setWindowPool( WindowPool pool )
     {
         this.windowPool = pool;
     }
 
+    /**
+     * Creates a new {@link WindowPool} over this store's file channel. If
+     * {@link Config#USE_CONCURRENT_WINDOW_POOL} is set a
+     * {@link ConcurrentPersistenceWindowPool} is returned, otherwise a
+     * {@link PersistenceWindowPool}.
+     *
+     * @param blockSize
+     *            The size of each record/block in the store
+     * @return A window pool for this store
+     */
+    protected WindowPool newWindowPool( int blockSize )
+    {
+        boolean readOnlyPool = isReadOnly() && !isBackupSlave();
+        if ( getIfConcurrentWindowPool() )
+        {
+            return new ConcurrentPersistenceWindowPool( getStorageFileName(),
+                blockSize, getFileChannel(), getMappedMem(),
+                getIfMemoryMapped(), readOnlyPool );
+        }
+        return new PersistenceWindowPool( getStorageFileName(), blockSize,
+            getFileChannel(), getMappedMem(), getIfMemoryMapped(),
+            readOnlyPool );
+    }
+
     /**
      * Returns the next id for this store's {@link IdGenerator}.
      *
@@ -405,6 +437,13 @@ public abstract class CommonAbstractStore
         return configValue != null ? Boolean.parseBoolean( configValue ) : true;
     }
 
+    protected boolean getIfConcurrentWindowPool()
+    {
+        String configValue = getConfig() != null ?
+                (String) getConfig().get( Config.USE_CONCURRENT_WINDOW_POOL ) : null;
+        return configValue != null ? Boolean.parseBoolean( configValue ) : false;
+    }
+
     /**
      * Returns memory assigned for
      * {@link MappedPersistenceWindow memory mapped windows} in bytes. The
@@ -462,6 +501,20 @@ public abstract class CommonAbstractStore
      *             If unable to rebuild id generator
      */
     public void makeStoreOk()
+    {
+        makeOwnStoreOk();
+    }
+
+    public void rebuildIdGenerators()
+    {
+        rebuildOwnIdGenerator();
+    }
+
+    /**
+     * Like {@link #makeStoreOk()}, but leaves the stores owned by this store
+     * alone.
+     */
+    final void makeOwnStoreOk()
     {
         if ( !storeOk )
         {
@@ -474,7 +527,11 @@ public abstract class CommonAbstractStore
         }
     }
 
-    public void rebuildIdGenerators()
+    /**
+     * Like {@link #rebuildIdGenerators()}, but leaves the stores owned by
+     * this store alone.
+     */
+    final void rebuildOwnIdGenerator()
     {
         if ( readOnly && !backupSlave )
         {
@@ -483,6 +540,189 @@ public abstract class CommonAbstractStore
         rebuildIdGenerator();
     }
 
+    /**
+     * Adds this store and the stores it owns to <CODE>stores</CODE>, so that
+     * their id generators can be rebuilt independently of each other. Stores
+     * owning other stores override this.
+     */
+    void addStores( List<CommonAbstractStore> stores )
+    {
+        stores.add( this );
+    }
+
+    /**
+     * Rebuilds the id generator from the in use byte of every record. The
+     * store file is read from start to end in chunks of
+     * {@link #REBUILD_READ_SIZE} bytes and the free ids are handed to the
+     * id generator a run at a time, since the free records below the highest
+     * record in use are exactly the runs between records in use. The free
+     * records after it are dropped by setting the high id.
+     * <p>
+     * If <CODE>rebuild_idgenerators_fast</CODE> is set only the high id is
+     * found, by scanning backwards from the end of the file.
+     *
+     * @param recordSize the size of a record
+     * @param firstId the first id to scan, ids below it are reserved
+     * @param inUseMask the bits of the first byte of a record of which at
+     * least one is set if the record is in use
+     * @param highId the highest id in use if no record is found in use
+     */
+    protected void rebuildIdGenerator( int recordSize, long firstId,
+        int inUseMask, long highId )
+    {
+        logger.fine( "Rebuilding id generator for[" + getStorageFileName()
+            + "] ..." );
+        // stores may be rebuilt in parallel, the factories aren't thread safe
+        synchronized ( idGeneratorFactory )
+        {
+            closeIdGenerator();
+            File file = new File( getStorageFileName() + ".id" );
+            if ( file.exists() )
+            {
+                boolean success = file.delete();
+                assert success;
+            }
+            createIdGenerator( getStorageFileName() + ".id" );
+            openIdGenerator();
+        }
+        if ( firstId > 0 )
+        {
+            setHighId( firstId );
+        }
+        StringLogger msgLog = null;
+        if ( getConfig() != null )
+        {
+            msgLog = StringLogger.getLogger( (String) getConfig().get( "store_dir" ) );
+        }
+        long defraggedCount = 0;
+        try
+        {
+            String mode = getConfig() != null ?
+                (String) getConfig().get( "rebuild_idgenerators_fast" ) : null;
+            if ( mode != null && mode.toLowerCase().equals( "true" ) )
+            {
+                highId = findHighIdBackwards( recordSize );
+            }
+            else
+            {
+                FileChannel fileChannel = getFileChannel();
+                long fileSize = fileChannel.size();
+                boolean logProgress = msgLog != null &&
+                    fileSize >= REBUILD_PROGRESS_FILE_SIZE;
+                int loggedPercent = 0;
+                ByteBuffer buffer = ByteBuffer.allocate( Math.max( recordSize,
+                    REBUILD_READ_SIZE / recordSize * recordSize ) );
+                long firstFreeId = -1;
+                long id = firstId;
+                while ( id * recordSize < fileSize )
+                {
+                    readFully( fileChannel, buffer, id * recordSize );
+                    // a partial record at the end counts, as it always has
+                    for ( int offset = 0; offset < buffer.limit();
+                        offset += recordSize, id++ )
+                    {
+                        if ( (buffer.get( offset ) & inUseMask) == 0 )
+                        {
+                            if ( firstFreeId == -1 )
+                            {
+                                firstFreeId = id;
+                            }
+                            continue;
+                        }
+                        if ( firstFreeId != -1 )
+                        {
+                            if ( getHighId() < id )
+                            {
+                                setHighId( id );
+                            }
+                            for ( long freeId = firstFreeId; freeId < id; freeId++ )
+                            {
+                                freeId( freeId );
+                            }
+                            defraggedCount += id - firstFreeId;
+                            firstFreeId = -1;
+                        }
+                        highId = id;
+                    }
+                    if ( logProgress )
+                    {
+                        int percent = (int) (Math.min( id * recordSize, fileSize ) * 100 / fileSize);
+                        if ( percent >= loggedPercent + 10 )
+                        {
+                            loggedPercent = percent - percent % 10;
+                            msgLog.logMessage( getStorageFileName() +
+                                " rebuild id generator " + loggedPercent + "% done", true );
+                        }
+                    }
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException(
+                "Unable to rebuild id generator " + getStorageFileName(), e );
+        }
+        setHighId( highId + 1 );
+        if ( msgLog != null )
+        {
+            msgLog.logMessage( getStorageFileName() + " rebuild id generator, highId=" + getHighId() +
+                    " defragged count=" + defraggedCount, true );
+        }
+        logger.fine( "[" + getStorageFileName() + "] high id=" + getHighId()
+            + " (defragged=" + defraggedCount + ")" );
+        synchronized ( idGeneratorFactory )
+        {
+            closeIdGenerator();
+            openIdGenerator();
+        }
+    }
+
+    /**
+     * Reads from <CODE>position</CODE> until <CODE>buffer</CODE> is full or
+     * the end of the file is reached and flips it.
+     */
+    private static void readFully( FileChannel fileChannel, ByteBuffer buffer,
+        long position ) throws IOException
+    {
+        buffer.clear();
+        while ( buffer.hasRemaining() )
+        {
+            int read = fileChannel.read( buffer, position + buffer.position() );
+            if ( read == -1 )
+            {
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Returns the id of the last record with a non zero in use byte, reading
+     * chunks backwards from the end of the file.
+     */
+    private long findHighIdBackwards( int recordSize ) throws IOException
+    {
+        FileChannel fileChannel = getFileChannel();
+        ByteBuffer buffer = ByteBuffer.allocate( Math.max( recordSize,
+            REBUILD_READ_SIZE / recordSize * recordSize ) );
+        int recordsPerRead = buffer.capacity() / recordSize;
+        long id = fileChannel.size() / recordSize;
+        while ( id > 0 )
+        {
+            long first = Math.max( 1, id - recordsPerRead + 1 );
+            readFully( fileChannel, buffer, first * recordSize );
+            for ( ; id >= first; id-- )
+            {
+                int offset = (int) ((id - first) * recordSize);
+                if ( offset < buffer.limit() && buffer.get( offset ) != 0 )
+                {
+                    return id;
+                }
+            }
+        }
+        return 0;
+    }
+
     /**
      * Returns the configuration map if set in constructor.
      *
@@ -0,0 +1,306 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import org.neo4j.kernel.impl.util.LongRingBuffer;
+
+/**
+ * An {@link IdGenerator} that hands out ids without contending on one lock
+ * for each of them. Ranges of ids are reserved from a backing
+ * {@link IdGeneratorImpl} into a fixed number of stripes, and each thread
+ * allocates from the stripe its id maps to under that stripe's own lock.
+ * Since there are about twice as many stripes as processors those locks
+ * are rarely contended, and a range is used up by whichever threads map to
+ * its stripe, however many threads come and go. Freed ids go into a lock
+ * free ring buffer and are reused before any new ids, and are only handed
+ * to the backing generator, which keeps them in its file, in batches when
+ * the ring buffer is full.
+ * <p>
+ * The file format is the one of {@link IdGeneratorImpl}. Ids reserved in a
+ * stripe but not used when the generator is closed are freed, so they're
+ * reused after a restart. If the database isn't shut down cleanly the id
+ * generator is rebuilt from the store like it always is.
+ */
+public class ConcurrentIdGenerator implements IdGenerator
+{
+    static final int DEFAULT_RANGE_SIZE = 256;
+    static final int DEFAULT_FREE_BUFFER_SIZE = 8192;
+    static final int DEFAULT_STRIPES =
+        Runtime.getRuntime().availableProcessors() * 2;
+
+    private final IdGeneratorImpl backing;
+    private final int rangeSize;
+    private final LongRingBuffer freeIds;
+    private final Range[] ranges;
+    // bumped when the reserved ranges can no longer be trusted
+    private volatile int generation;
+
+    /**
+     * Ids reserved by one stripe, the defragged ids first and then
+     * <CODE>[next, end)</CODE>. Guarded by itself.
+     */
+    private static class Range
+    {
+        private long[] defragIds = new long[0];
+        private int defragPos;
+        private long next;
+        private long end;
+        private int generation = -1;
+
+        long unused()
+        {
+            return (defragIds.length - defragPos) + (end - next);
+        }
+    }
+
+    public ConcurrentIdGenerator( IdGeneratorImpl backing )
+    {
+        this( backing, DEFAULT_RANGE_SIZE, DEFAULT_FREE_BUFFER_SIZE );
+    }
+
+    public ConcurrentIdGenerator( IdGeneratorImpl backing, int rangeSize,
+        int freeBufferSize )
+    {
+        this( backing, DEFAULT_STRIPES, rangeSize, freeBufferSize );
+    }
+
+    /**
+     * @param stripes the number of ranges to allocate from, rounded up to
+     * the closest power of two
+     */
+    public ConcurrentIdGenerator( IdGeneratorImpl backing, int stripes,
+        int rangeSize, int freeBufferSize )
+    {
+        this.backing = backing;
+        this.rangeSize = rangeSize;
+        this.freeIds = new LongRingBuffer( freeBufferSize );
+        int count = Integer.highestOneBit( Math.max( stripes, 1 ) );
+        if ( count < stripes )
+        {
+            count <<= 1;
+        }
+        this.ranges = new Range[count];
+        for ( int i = 0; i < ranges.length; i++ )
+        {
+            ranges[i] = new Range();
+        }
+    }
+
+    public long nextId()
+    {
+        long id = freeIds.poll();
+        if ( id != -1 )
+        {
+            return id;
+        }
+        // thread ids are handed out in sequence, so consecutive threads
+        // get different stripes
+        Range range = ranges[(int) Thread.currentThread().getId() & (ranges.length - 1)];
+        synchronized ( range )
+        {
+            while ( true )
+            {
+                if ( range.generation == generation )
+                {
+                    if ( range.defragPos < range.defragIds.length )
+                    {
+                        return range.defragIds[range.defragPos++];
+                    }
+                    while ( range.next < range.end )
+                    {
+                        id = range.next++;
+                        if ( id != IdGeneratorImpl.INTEGER_MINUS_ONE )
+                        {
+                            return id;
+                        }
+                    }
+                }
+                reserve( range );
+            }
+        }
+    }
+
+    private void reserve( Range range )
+    {
+        // read the generation before reserving so that a concurrent
+        // setHighId makes the new range stale rather than trusted
+        int currentGeneration = generation;
+        IdRange reserved = backing.nextIdBatch( rangeSize );
+        range.defragIds = reserved.getDefragIds();
+        range.defragPos = 0;
+        range.next = reserved.getRangeStart();
+        range.end = reserved.getRangeStart() + reserved.getRangeLength();
+        range.generation = currentGeneration;
+    }
+
+    public IdRange nextIdBatch( int size )
+    {
+        return backing.nextIdBatch( size );
+    }
+
+    /**
+     * Sets the high id of the backing generator. If it's lowered, which
+     * happens when the id generator is rebuilt, reserved ids are dropped
+     * since they may already be in use, and so are freed ids at or above
+     * the new high id since they'll be handed out again as new ids.
+     */
+    public synchronized void setHighId( long id )
+    {
+        boolean lowered = id < backing.getHighId();
+        if ( lowered )
+        {
+            generation++;
+        }
+        backing.setHighId( id );
+        if ( lowered )
+        {
+            purgeFreeIds( id );
+        }
+    }
+
+    private void purgeFreeIds( long highId )
+    {
+        for ( int i = freeIds.size(); i > 0; i-- )
+        {
+            long id = freeIds.poll();
+            if ( id == -1 )
+            {
+                return;
+            }
+            if ( id < highId && !freeIds.offer( id ) )
+            {
+                backing.freeId( id );
+            }
+        }
+    }
+
+    public long getHighId()
+    {
+        return backing.getHighId();
+    }
+
+    public void freeId( long id )
+    {
+        if ( id == IdGeneratorImpl.INTEGER_MINUS_ONE )
+        {
+            return;
+        }
+        if ( id < 0 || id >= backing.getHighId() )
+        {
+            throw new IllegalArgumentException( "Illegal id[" + id + "]" );
+        }
+        while ( !freeIds.offer( id ) )
+        {
+            spill( freeIds.capacity() / 2 );
+        }
+    }
+
+    /**
+     * Moves up to <CODE>count</CODE> freed ids to the backing generator,
+     * which writes them to its file in batches.
+     */
+    private void spill( int count )
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            long id = freeIds.poll();
+            if ( id == -1 )
+            {
+                return;
+            }
+            backing.freeId( id );
+        }
+    }
+
+    /**
+     * Frees the ids in the ring buffer and the ids reserved but not used
+     * in the stripes, then closes the backing generator. No other thread
+     * may use this generator while it's closed.
+     */
+    public synchronized void close()
+    {
+        if ( backing.getHighId() == -1 )
+        {
+            return;
+        }
+        spill( Integer.MAX_VALUE );
+        int currentGeneration = generation;
+        for ( Range range : ranges )
+        {
+            synchronized ( range )
+            {
+                if ( range.generation == currentGeneration )
+                {
+                    while ( range.defragPos < range.defragIds.length )
+                    {
+                        backing.freeId( range.defragIds[range.defragPos++] );
+                    }
+                    while ( range.next < range.end )
+                    {
+                        backing.freeId( range.next++ );
+                    }
+                }
+                range.generation = -1;
+            }
+        }
+        backing.close();
+    }
+
+    /**
+     * Returns the number of ids in use, which is an estimate while other
+     * threads are allocating ids.
+     */
+    public long getNumberOfIdsInUse()
+    {
+        long unused = freeIds.size();
+        int currentGeneration = generation;
+        for ( Range range : ranges )
+        {
+            synchronized ( range )
+            {
+                if ( range.generation == currentGeneration )
+                {
+                    unused += range.unused();
+                }
+            }
+        }
+        return backing.getNumberOfIdsInUse() - unused;
+    }
+
+    public long getDefragCount()
+    {
+        return backing.getDefragCount() + freeIds.size();
+    }
+
+    public synchronized void clearFreeIds()
+    {
+        while ( freeIds.poll() != -1 )
+        {
+            // drop it
+        }
+        generation++;
+        backing.clearFreeIds();
+    }
+
+    public String getFileName()
+    {
+        return backing.getFileName();
+    }
+}
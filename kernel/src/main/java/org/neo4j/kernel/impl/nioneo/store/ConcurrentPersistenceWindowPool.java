@@ -0,0 +1,708 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link WindowPool} that lets threads find the window for a record without
+ * taking a pool wide lock. It uses the same {@link BrickLayout bricks} as
+ * {@link PersistenceWindowPool}, but each brick holds a volatile reference to
+ * its window together with a pin count of the threads currently using it,
+ * through either the brick window or a record window. Record windows (used on
+ * brick misses) are kept in lock striped maps.
+ * <p>
+ * Mapping and unmapping of bricks is done by a background
+ * {@link BrickRebalancer} instead of inline in {@link #acquire(long, OperationType)}.
+ * It wakes up once the number of brick misses reaches
+ * {@link #REFRESH_BRICK_COUNT}. A brick is only mapped or unmapped when no
+ * thread has it pinned, so a window in use is never unmapped and a brick
+ * window never gets created over a record window that hasn't been written
+ * out yet.
+ */
+class ConcurrentPersistenceWindowPool implements WindowPool
+{
+    private static final int REFRESH_BRICK_COUNT = 50000;
+    private static final int ROW_WINDOW_STRIPES = 64;
+    private static final long REBALANCER_PARK_NANOS = 1000L * 1000 * 1000;
+
+    private static Logger log = Logger.getLogger(
+        ConcurrentPersistenceWindowPool.class.getName() );
+
+    private final String storeName;
+    // == recordSize
+    private final int blockSize;
+    private volatile FileChannel fileChannel;
+    private final RowWindows[] activeRowWindows =
+        new RowWindows[ROW_WINDOW_STRIPES];
+    private final long availableMem;
+    private final int brickSize;
+    private final FileChannel.MapMode mapMode;
+    private final boolean useMemoryMapped;
+    private final boolean readOnly;
+
+    // brickArray is only replaced, and windows only mapped or unmapped,
+    // while holding brickLock
+    private final Object brickLock = new Object();
+    private volatile BrickElement brickArray[];
+    private volatile long memUsed = 0;
+
+    private final AtomicInteger brickMiss = new AtomicInteger();
+    private final AtomicInteger hit = new AtomicInteger();
+    private final AtomicInteger miss = new AtomicInteger();
+    private final AtomicInteger switches = new AtomicInteger();
+    private final AtomicInteger ooe = new AtomicInteger();
+
+    private final BrickRebalancer rebalancer;
+
+    /**
+     * Create new pool for a store.
+     *
+     * @param storeName
+     *            Name of store that use this pool
+     * @param blockSize
+     *            The size of each record/block in the store
+     * @param fileChannel
+     *            A fileChannel to the store
+     * @param mappedMem
+     *            Number of bytes dedicated to memory mapped windows
+     */
+    ConcurrentPersistenceWindowPool( String storeName, int blockSize,
+        FileChannel fileChannel, long mappedMem,
+        boolean useMemoryMappedBuffers, boolean readOnly )
+    {
+        this.storeName = storeName;
+        this.blockSize = blockSize;
+        this.fileChannel = fileChannel;
+        this.useMemoryMapped = useMemoryMappedBuffers;
+        this.readOnly = readOnly;
+        if ( readOnly )
+        {
+            mapMode = FileChannel.MapMode.READ_ONLY;
+        }
+        else
+        {
+            mapMode = FileChannel.MapMode.READ_WRITE;
+        }
+        for ( int i = 0; i < activeRowWindows.length; i++ )
+        {
+            activeRowWindows[i] = new RowWindows();
+        }
+        BrickLayout layout = BrickLayout.calculate( storeName, blockSize,
+            fileChannel, mappedMem, log );
+        this.availableMem = layout.availableMem();
+        this.brickSize = layout.brickSize();
+        BrickElement[] bricks = new BrickElement[layout.brickCount()];
+        for ( int i = 0; i < bricks.length; i++ )
+        {
+            bricks[i] = new BrickElement( i );
+        }
+        this.brickArray = bricks;
+        dumpStatus();
+        if ( brickSize > 0 )
+        {
+            rebalancer = new BrickRebalancer();
+            rebalancer.start();
+        }
+        else
+        {
+            rebalancer = null;
+        }
+    }
+
+    public PersistenceWindow acquire( long position, OperationType operationType )
+    {
+        LockableWindow window = null;
+        boolean readPos = false;
+        if ( brickSize > 0 )
+        {
+            int brickIndex = (int) (position * blockSize / brickSize);
+            BrickElement[] bricks = brickArray;
+            if ( brickIndex >= bricks.length )
+            {
+                expandBricks( brickIndex + 1 );
+                bricks = brickArray;
+            }
+            BrickElement brick = bricks[brickIndex];
+            // the brick stays pinned until release, also on a miss
+            window = brick.pin();
+            brick.setHit();
+        }
+        if ( window == null )
+        {
+            miss.incrementAndGet();
+            if ( brickMiss.incrementAndGet() >= REFRESH_BRICK_COUNT &&
+                rebalancer != null )
+            {
+                rebalancer.requestRefresh();
+            }
+            RowWindows rows = rowWindowsFor( position );
+            synchronized ( rows )
+            {
+                PersistenceRow dpw = rows.get( position );
+                if ( dpw == null )
+                {
+                    dpw = new PersistenceRow( position, blockSize,
+                        fileChannel );
+                    rows.put( position, dpw );
+                }
+                if ( operationType == OperationType.READ )
+                {
+                    readPos = true;
+                }
+                window = dpw;
+                window.mark();
+            }
+        }
+        else
+        {
+            hit.incrementAndGet();
+        }
+        window.lock();
+        if ( readPos )
+        {
+            ((PersistenceRow) window).readPosition();
+        }
+        window.setOperationType( operationType );
+        return window;
+    }
+
+    public void release( PersistenceWindow window )
+    {
+        if ( window instanceof PersistenceRow )
+        {
+            PersistenceRow dpw = (PersistenceRow) window;
+            dpw.writeOut();
+            RowWindows rows = rowWindowsFor( dpw.position() );
+            synchronized ( rows )
+            {
+                if ( dpw.getWaitingThreadsCount() == 0 && !dpw.isMarked() )
+                {
+                    rows.remove( dpw.position() );
+                }
+            }
+            dpw.unLock();
+        }
+        else
+        {
+            ((LockableWindow) window).unLock();
+        }
+        if ( brickSize > 0 )
+        {
+            // the window can not be unmapped while pinned so its position
+            // is still valid here
+            brickArray[(int) (window.position() * blockSize / brickSize)].unpin();
+        }
+    }
+
+    private RowWindows rowWindowsFor( long position )
+    {
+        return activeRowWindows[(int) (position % ROW_WINDOW_STRIPES)];
+    }
+
+    void dumpStatistics()
+    {
+        log.finest( storeName + " hit=" + hit + " miss=" + miss + " switches="
+            + switches + " ooe=" + ooe );
+    }
+
+    public void close()
+    {
+        if ( rebalancer != null )
+        {
+            rebalancer.shutdown();
+        }
+        synchronized ( brickLock )
+        {
+            flushAll();
+            for ( BrickElement element : brickArray )
+            {
+                LockableWindow window = element.getWindow();
+                if ( window != null )
+                {
+                    window.close();
+                    element.setWindow( null );
+                }
+            }
+            fileChannel = null;
+            for ( RowWindows rows : activeRowWindows )
+            {
+                synchronized ( rows )
+                {
+                    rows.clear();
+                }
+            }
+        }
+        dumpStatistics();
+    }
+
+    public void flushAll()
+    {
+        if ( readOnly ) return;
+
+        for ( BrickElement element : brickArray )
+        {
+            PersistenceWindow window = element.getWindow();
+            if ( window != null )
+            {
+                window.force();
+            }
+        }
+        try
+        {
+            fileChannel.force( false );
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException(
+                "Failed to flush file channel " + storeName, e );
+        }
+    }
+
+    private static class RowWindows extends HashMap<Long,PersistenceRow>
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class BrickElement
+    {
+        private final int index;
+        // updated without synchronization, an approximate count is enough
+        private volatile int hitCount;
+        // hit count as seen by the last sort, stable while sorting
+        private int sortedHitCount;
+        private volatile LockableWindow window = null;
+        // number of threads using this brick, -1 while being (un)mapped
+        private final AtomicInteger pins = new AtomicInteger();
+
+        BrickElement( int index )
+        {
+            this.index = index;
+        }
+
+        /**
+         * Pins this brick so that it won't be mapped or unmapped until
+         * {@link #unpin()} is called, and marks its window if it has one.
+         *
+         * @return the marked window or <CODE>null</CODE> if this brick
+         *         currently isn't mapped
+         */
+        LockableWindow pin()
+        {
+            for ( ;; )
+            {
+                int current = pins.get();
+                if ( current >= 0 )
+                {
+                    if ( pins.compareAndSet( current, current + 1 ) )
+                    {
+                        break;
+                    }
+                }
+                else
+                {
+                    Thread.yield();
+                }
+            }
+            LockableWindow result = window;
+            if ( result != null )
+            {
+                result.mark();
+            }
+            return result;
+        }
+
+        void unpin()
+        {
+            pins.decrementAndGet();
+        }
+
+        /**
+         * Claims this brick for mapping or unmapping its window. Must be
+         * called while holding the pool's brick lock and be followed by
+         * {@link #endRebalance()}.
+         *
+         * @return <CODE>true</CODE> if no thread had the brick pinned
+         */
+        boolean beginRebalance()
+        {
+            return pins.compareAndSet( 0, -1 );
+        }
+
+        void endRebalance()
+        {
+            pins.set( 0 );
+        }
+
+        void setWindow( LockableWindow window )
+        {
+            this.window = window;
+        }
+
+        LockableWindow getWindow()
+        {
+            return window;
+        }
+
+        int index()
+        {
+            return index;
+        }
+
+        void setHit()
+        {
+            int newCount = hitCount + 10;
+            if ( newCount > 0 )
+            {
+                hitCount = newCount;
+            }
+        }
+
+        int snapshotHit()
+        {
+            sortedHitCount = hitCount;
+            return sortedHitCount;
+        }
+
+        int getSortedHit()
+        {
+            return sortedHitCount;
+        }
+
+        void refresh()
+        {
+            if ( window == null )
+            {
+                hitCount /= 1.25;
+            }
+            else
+            {
+                hitCount /= 1.15;
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "" + hitCount + (window == null ? "x" : "o") + pins;
+        }
+    }
+
+    private static class BrickSorter implements Comparator<BrickElement>
+    {
+        public int compare( BrickElement o1, BrickElement o2 )
+        {
+            return o1.getSortedHit() - o2.getSortedHit();
+        }
+    }
+
+    // must hold brickLock
+    private boolean unmapBrick( BrickElement brick )
+    {
+        if ( !brick.beginRebalance() )
+        {
+            return false;
+        }
+        try
+        {
+            LockableWindow window = brick.getWindow();
+            if ( window == null )
+            {
+                return false;
+            }
+            if ( window instanceof MappedPersistenceWindow )
+            {
+                ((MappedPersistenceWindow) window).unmap();
+            }
+            else if ( !readOnly && window instanceof PlainPersistenceWindow )
+            {
+                ((PlainPersistenceWindow) window).writeOut();
+            }
+            brick.setWindow( null );
+            memUsed -= brickSize;
+            return true;
+        }
+        finally
+        {
+            brick.endRebalance();
+        }
+    }
+
+    // must hold brickLock
+    private boolean mapBrick( BrickElement brick )
+    {
+        if ( !brick.beginRebalance() )
+        {
+            return false;
+        }
+        try
+        {
+            brick.setWindow( allocateNewWindow( brick.index() ) );
+            memUsed += brickSize;
+            return true;
+        }
+        catch ( MappedMemException e )
+        {
+            ooe.incrementAndGet();
+            logWarn( "Unable to memory map", e );
+        }
+        catch ( OutOfMemoryError e )
+        {
+            ooe.incrementAndGet();
+            logWarn( "Unable to allocate direct buffer", e );
+        }
+        finally
+        {
+            brick.endRebalance();
+        }
+        return false;
+    }
+
+    // must hold brickLock
+    private void freeWindows( int nr )
+    {
+        ArrayList<BrickElement> mappedBricks = new ArrayList<BrickElement>();
+        for ( BrickElement be : brickArray )
+        {
+            if ( be.getWindow() != null )
+            {
+                be.snapshotHit();
+                mappedBricks.add( be );
+            }
+        }
+        Collections.sort( mappedBricks, new BrickSorter() );
+        int freed = 0;
+        for ( int i = 0; freed < nr && i < mappedBricks.size(); i++ )
+        {
+            if ( unmapBrick( mappedBricks.get( i ) ) )
+            {
+                freed++;
+            }
+        }
+    }
+
+    /**
+     * Maps the most frequently hit bricks, replacing less used ones if
+     * there's no memory left. Invoked by the {@link BrickRebalancer}.
+     */
+    void refreshBricks()
+    {
+        synchronized ( brickLock )
+        {
+            if ( fileChannel == null )
+            {
+                return;
+            }
+            brickMiss.set( 0 );
+            ArrayList<BrickElement> nonMappedBricks =
+                new ArrayList<BrickElement>();
+            ArrayList<BrickElement> mappedBricks =
+                new ArrayList<BrickElement>();
+            for ( BrickElement be : brickArray )
+            {
+                if ( be.getWindow() != null )
+                {
+                    mappedBricks.add( be );
+                }
+                else
+                {
+                    nonMappedBricks.add( be );
+                }
+                be.refresh();
+                be.snapshotHit();
+            }
+            BrickSorter sorter = new BrickSorter();
+            Collections.sort( nonMappedBricks, sorter );
+            Collections.sort( mappedBricks, sorter );
+            int mappedIndex = 0;
+            int nonMappedIndex = nonMappedBricks.size() - 1;
+            // fill up unused memory
+            while ( memUsed + brickSize <= availableMem && nonMappedIndex >= 0 )
+            {
+                BrickElement nonMappedBrick = nonMappedBricks.get(
+                    nonMappedIndex-- );
+                if ( nonMappedBrick.getSortedHit() == 0 )
+                {
+                    return;
+                }
+                mapBrick( nonMappedBrick );
+            }
+
+            // switch bad mappings
+            while ( nonMappedIndex >= 0 && mappedIndex < mappedBricks.size() )
+            {
+                BrickElement mappedBrick = mappedBricks.get( mappedIndex++ );
+                BrickElement nonMappedBrick = nonMappedBricks
+                    .get( nonMappedIndex-- );
+                if ( mappedBrick.getSortedHit() >= nonMappedBrick.getSortedHit() )
+                {
+                    break;
+                }
+                if ( unmapBrick( mappedBrick ) && mapBrick( nonMappedBrick ) )
+                {
+                    switches.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void expandBricks( int newBrickCount )
+    {
+        synchronized ( brickLock )
+        {
+            BrickElement[] bricks = brickArray;
+            if ( newBrickCount <= bricks.length )
+            {
+                return;
+            }
+            BrickElement tmpArray[] = new BrickElement[newBrickCount];
+            System.arraycopy( bricks, 0, tmpArray, 0, bricks.length );
+            if ( memUsed + brickSize >= availableMem )
+            {
+                freeWindows( 1 );
+            }
+            for ( int i = bricks.length; i < tmpArray.length; i++ )
+            {
+                BrickElement be = new BrickElement( i );
+                tmpArray[i] = be;
+                if ( memUsed + brickSize <= availableMem )
+                {
+                    mapBrick( be );
+                }
+            }
+            brickArray = tmpArray;
+        }
+    }
+
+    private LockableWindow allocateNewWindow( long brick )
+    {
+        if ( useMemoryMapped )
+        {
+            return new MappedPersistenceWindow(
+                brick * brickSize / blockSize, blockSize,
+                brickSize, fileChannel, mapMode );
+        }
+        PlainPersistenceWindow dpw =
+            new PlainPersistenceWindow(
+                brick * brickSize / blockSize,
+                blockSize, brickSize, fileChannel );
+        dpw.readPosition();
+        return dpw;
+    }
+
+    /**
+     * Rebalances the mapped bricks of this pool in the background so that
+     * threads reading records never wait for windows to be mapped.
+     */
+    private class BrickRebalancer extends Thread
+    {
+        private volatile boolean done = false;
+        private final AtomicBoolean refreshRequested = new AtomicBoolean();
+
+        BrickRebalancer()
+        {
+            super( "BrickRebalancer[" + storeName + "]" );
+            setDaemon( true );
+        }
+
+        void requestRefresh()
+        {
+            if ( refreshRequested.compareAndSet( false, true ) )
+            {
+                LockSupport.unpark( this );
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            while ( !done )
+            {
+                LockSupport.parkNanos( this, REBALANCER_PARK_NANOS );
+                if ( done )
+                {
+                    break;
+                }
+                if ( refreshRequested.getAndSet( false ) )
+                {
+                    try
+                    {
+                        refreshBricks();
+                    }
+                    catch ( RuntimeException e )
+                    {
+                        logWarn( "Unable to refresh bricks", e );
+                    }
+                }
+            }
+        }
+
+        void shutdown()
+        {
+            done = true;
+            LockSupport.unpark( this );
+            try
+            {
+                join();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void dumpStatus()
+    {
+        try
+        {
+            log.fine( "[" + storeName + "] brickCount=" + brickArray.length
+                + " brickSize=" + brickSize + "b mappedMem=" + availableMem
+                + "b (storeSize=" + fileChannel.size() + "b) concurrent" );
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException(
+                "Unable to get file size for " + storeName, e );
+        }
+    }
+
+    private void logWarn( String logMessage, Throwable cause )
+    {
+        log.log( Level.WARNING, "[" + storeName + "] " + logMessage, cause );
+    }
+
+    public WindowPoolStats getStats()
+    {
+        return new WindowPoolStats( storeName, availableMem, memUsed,
+            brickArray.length, brickSize, hit.get(), miss.get(),
+            switches.get(), ooe.get() );
+    }
+}
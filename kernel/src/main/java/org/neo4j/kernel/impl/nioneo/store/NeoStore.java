@@ -25,6 +25,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 
 import org.neo4j.kernel.Config;
@@ -32,6 +36,7 @@ import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.impl.core.LastCommittedTxIdSetter;
 import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
+import org.neo4j.kernel.impl.util.StringLogger;
 
 /**
  * This class contains the references to the "NodeStore,RelationshipStore,
@@ -48,17 +53,21 @@ public class NeoStore extends AbstractStore
     // 4 longs in header (long + in use), time | random | version | txid
     private static final int RECORD_SIZE = 9;
     private static final int DEFAULT_REL_GRAB_SIZE = 100;
+    // upper bound for the grab size of nodes with many relationships
+    private static final int MAX_REL_GRAB_SIZE = 10000;
 
     private NodeStore nodeStore;
     private PropertyStore propStore;
     private RelationshipStore relStore;
     private RelationshipTypeStore relTypeStore;
+    private RelationshipGroupStore relGroupStore;
     private final LastCommittedTxIdSetter lastCommittedTxIdSetter;
     private final IdGeneratorFactory idGeneratorFactory;
     private boolean isStarted;
     private long lastCommittedTx = -1;
 
     private final int REL_GRAB_SIZE;
+    private final int DENSE_NODE_THRESHOLD;
 
     public NeoStore( Map<?,?> config )
     {
@@ -73,6 +82,7 @@ public class NeoStore extends AbstractStore
             }
         }
         REL_GRAB_SIZE = relGrabSize;
+        DENSE_NODE_THRESHOLD = getDenseNodeThreshold( getConfig() );
         lastCommittedTxIdSetter = (LastCommittedTxIdSetter)
                 config.get( LastCommittedTxIdSetter.class );
         idGeneratorFactory = (IdGeneratorFactory) config.get( IdGeneratorFactory.class );
@@ -84,20 +94,56 @@ public class NeoStore extends AbstractStore
 //        REL_GRAB_SIZE = DEFAULT_REL_GRAB_SIZE;
 //    }
 
+    private static int getDenseNodeThreshold( Map<?,?> config )
+    {
+        String threshold = config != null ?
+            (String) config.get( Config.DENSE_NODE_THRESHOLD ) : null;
+        return threshold != null ? Integer.parseInt( threshold ) : 0;
+    }
+
     /**
-     * Initializes the node,relationship,property and relationship type stores.
+     * Initializes the node,relationship,property,relationship type and
+     * relationship group stores. There only is a relationship group store
+     * once dense nodes have been enabled, it's created when they are enabled
+     * for a store that doesn't have one, which upgrades the node store to
+     * the dense record format, see {@link NodeStore}. A property store with
+     * one property per record is upgraded, see {@link PropertyStoreUpgrader}.
      */
     @Override
     protected void initStorage()
     {
+        // called from the super constructor, before the fields are set
+        String relGroupStoreName = getStorageFileName() + ".relationshipgroupstore.db";
+        if ( getDenseNodeThreshold( getConfig() ) > 0 &&
+            !new File( relGroupStoreName ).exists() && !isReadOnly() )
+        {
+            if ( !Boolean.parseBoolean( (String) getConfig().get( Config.ALLOW_STORE_UPGRADE ) ) )
+            {
+                throw new IllegalStoreVersionException( "Enabling dense nodes upgrades " +
+                    "the node store, which could be done automatically if '" +
+                    Config.ALLOW_STORE_UPGRADE + "' configuration parameter was set to 'true'." );
+            }
+            RelationshipGroupStore.createStore( relGroupStoreName,
+                (IdGeneratorFactory) getConfig().get( IdGeneratorFactory.class ) );
+        }
         relTypeStore = new RelationshipTypeStore( getStorageFileName()
             + ".relationshiptypestore.db", getConfig(), IdType.RELATIONSHIP_TYPE );
-        propStore = new PropertyStore( getStorageFileName()
-            + ".propertystore.db", getConfig() );
+        String propStoreName = getStorageFileName() + ".propertystore.db";
+        PropertyStoreUpgrader propStoreUpgrader =
+            PropertyStoreUpgrader.prepare( propStoreName, getConfig() );
+        propStore = new PropertyStore( propStoreName, getConfig() );
         relStore = new RelationshipStore( getStorageFileName()
             + ".relationshipstore.db", getConfig() );
         nodeStore = new NodeStore( getStorageFileName() + ".nodestore.db",
             getConfig() );
+        if ( propStoreUpgrader != null )
+        {
+            propStoreUpgrader.migrate( propStore, nodeStore, relStore );
+        }
+        if ( nodeStore.hasDenseFormat() )
+        {
+            relGroupStore = new RelationshipGroupStore( relGroupStoreName, getConfig() );
+        }
     }
 
     /**
@@ -126,6 +172,11 @@ public class NeoStore extends AbstractStore
             nodeStore.close();
             nodeStore = null;
         }
+        if ( relGroupStore != null )
+        {
+            relGroupStore.close();
+            relGroupStore = null;
+        }
     }
 
     @Override
@@ -140,6 +191,10 @@ public class NeoStore extends AbstractStore
         propStore.flushAll();
         relStore.flushAll();
         nodeStore.flushAll();
+        if ( relGroupStore != null )
+        {
+            relGroupStore.flushAll();
+        }
     }
 
     @Override
@@ -160,7 +215,8 @@ public class NeoStore extends AbstractStore
     }
 
     /**
-     * Creates the neo,node,relationship,property and relationship type stores.
+     * Creates the neo,node,relationship,property and relationship type
+     * stores, and the relationship group store if dense nodes are enabled.
      *
      * @param fileName
      *            The name of store
@@ -175,6 +231,12 @@ public class NeoStore extends AbstractStore
         if ( storeId == null ) storeId = new StoreId();
 
         createEmptyStore( fileName, VERSION, idGeneratorFactory );
+        if ( getDenseNodeThreshold( config ) > 0 )
+        {
+            // before the node store, which gets the dense format if it's there
+            RelationshipGroupStore.createStore( fileName
+                + ".relationshipgroupstore.db", idGeneratorFactory );
+        }
         NodeStore.createStore( fileName + ".nodestore.db", config );
         RelationshipStore.createStore( fileName + ".relationshipstore.db", idGeneratorFactory );
         PropertyStore.createStore( fileName + ".propertystore.db", config );
@@ -342,6 +404,17 @@ public class NeoStore extends AbstractStore
         return relStore;
     }
 
+    /**
+     * Returns the relationship group store, which is only there once dense
+     * nodes have been enabled.
+     *
+     * @return The relationship group store or <CODE>null</CODE>
+     */
+    public RelationshipGroupStore getRelationshipGroupStore()
+    {
+        return relGroupStore;
+    }
+
     /**
      * Returns the relationship type store.
      *
@@ -365,22 +438,131 @@ public class NeoStore extends AbstractStore
     @Override
     public void makeStoreOk()
     {
-        relTypeStore.makeStoreOk();
-        propStore.makeStoreOk();
-        relStore.makeStoreOk();
-        nodeStore.makeStoreOk();
-        super.makeStoreOk();
+        List<CommonAbstractStore> stores = new ArrayList<CommonAbstractStore>();
+        for ( CommonAbstractStore store : allStores() )
+        {
+            if ( !store.getStoreOk() )
+            {
+                stores.add( store );
+            }
+        }
+        rebuildInParallel( stores, true );
         isStarted = true;
     }
 
+    /**
+     * Rebuilds the id generators of all stores, in parallel since each
+     * rebuild is a sequential scan of one store file.
+     */
     @Override
     public void rebuildIdGenerators()
     {
-        relTypeStore.rebuildIdGenerators();
-        propStore.rebuildIdGenerators();
-        relStore.rebuildIdGenerators();
-        nodeStore.rebuildIdGenerators();
-        super.rebuildIdGenerators();
+        rebuildInParallel( allStores(), false );
+    }
+
+    @Override
+    void addStores( List<CommonAbstractStore> stores )
+    {
+        relTypeStore.addStores( stores );
+        propStore.addStores( stores );
+        relStore.addStores( stores );
+        nodeStore.addStores( stores );
+        if ( relGroupStore != null )
+        {
+            relGroupStore.addStores( stores );
+        }
+        super.addStores( stores );
+    }
+
+    private List<CommonAbstractStore> allStores()
+    {
+        List<CommonAbstractStore> stores = new ArrayList<CommonAbstractStore>();
+        addStores( stores );
+        return stores;
+    }
+
+    /**
+     * Rebuilds the id generators of <CODE>stores</CODE> using a thread per
+     * available processor, or only of those not ok if
+     * <CODE>onlyIfNotOk</CODE> is set. The first failure is rethrown once
+     * all rebuilds have finished.
+     */
+    private void rebuildInParallel( List<CommonAbstractStore> stores,
+        final boolean onlyIfNotOk )
+    {
+        if ( stores.isEmpty() )
+        {
+            return;
+        }
+        String storeDir = getConfig() != null ?
+            (String) getConfig().get( "store_dir" ) : null;
+        // looked up before the threads start, the lookup isn't thread safe
+        StringLogger msgLog = StringLogger.getLogger( storeDir );
+        int threads = Math.min( stores.size(),
+            Runtime.getRuntime().availableProcessors() );
+        msgLog.logMessage( "Rebuilding id generators of " + stores.size() +
+            " stores using " + threads + " threads", true );
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        List<Future<?>> rebuilds = new ArrayList<Future<?>>();
+        try
+        {
+            for ( final CommonAbstractStore store : stores )
+            {
+                rebuilds.add( executor.submit( new Runnable()
+                {
+                    public void run()
+                    {
+                        if ( onlyIfNotOk )
+                        {
+                            store.makeOwnStoreOk();
+                        }
+                        else
+                        {
+                            store.rebuildOwnIdGenerator();
+                        }
+                    }
+                } ) );
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        Throwable failure = null;
+        for ( Future<?> rebuild : rebuilds )
+        {
+            try
+            {
+                rebuild.get();
+            }
+            catch ( ExecutionException e )
+            {
+                if ( failure == null )
+                {
+                    failure = e.getCause();
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new UnderlyingStorageException( e );
+            }
+        }
+        if ( failure instanceof RuntimeException )
+        {
+            throw (RuntimeException) failure;
+        }
+        if ( failure instanceof Error )
+        {
+            throw (Error) failure;
+        }
+        if ( failure != null )
+        {
+            throw new UnderlyingStorageException( failure );
+        }
+        msgLog.logMessage( "Rebuilt id generators of " + stores.size() +
+            " stores in " + (System.currentTimeMillis() - startTime) + "ms", true );
     }
 
     public void updateIdGenerators()
@@ -390,6 +572,10 @@ public class NeoStore extends AbstractStore
         propStore.updateIdGenerators();
         relStore.updateHighId();
         nodeStore.updateHighId();
+        if ( relGroupStore != null )
+        {
+            relGroupStore.updateHighId();
+        }
     }
 
     @Override
@@ -444,6 +630,32 @@ public class NeoStore extends AbstractStore
         return REL_GRAB_SIZE;
     }
 
+    /**
+     * Returns the number of relationships to load in one go for a node
+     * which already has <CODE>loadedCount</CODE> relationships loaded. It
+     * starts at the configured grab size and then grows with the observed
+     * degree of the node, so that the chain of a node with many
+     * relationships is loaded in a few large batches.
+     *
+     * @param loadedCount the number of relationships loaded so far
+     * @return the number of relationships to load
+     */
+    public int getRelationshipGrabSize( int loadedCount )
+    {
+        return Math.max( REL_GRAB_SIZE, Math.min( loadedCount, MAX_REL_GRAB_SIZE ) );
+    }
+
+    /**
+     * Returns the number of relationships a node can have before its
+     * relationships are split up in one chain per type and direction, see
+     * {@link RelationshipGroupStore}. <CODE>0</CODE> means that nodes are
+     * never made dense.
+     */
+    public int getDenseNodeThreshold()
+    {
+        return DENSE_NODE_THRESHOLD;
+    }
+
     @Override
     public List<WindowPoolStats> getAllWindowPoolStats()
     {
@@ -452,12 +664,17 @@ public class NeoStore extends AbstractStore
         list.addAll( propStore.getAllWindowPoolStats() );
         list.addAll( relStore.getAllWindowPoolStats() );
         list.addAll( relTypeStore.getAllWindowPoolStats() );
+        if ( relGroupStore != null )
+        {
+            list.addAll( relGroupStore.getAllWindowPoolStats() );
+        }
         return list;
     }
 
     public boolean isStoreOk()
     {
         return getStoreOk() && relTypeStore.getStoreOk() &&
-            propStore.getStoreOk() && relStore.getStoreOk() && nodeStore.getStoreOk();
+            propStore.getStoreOk() && relStore.getStoreOk() && nodeStore.getStoreOk() &&
+            (relGroupStore == null || relGroupStore.getStoreOk());
     }
 }
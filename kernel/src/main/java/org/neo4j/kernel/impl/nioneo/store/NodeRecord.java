@@ -21,8 +21,16 @@ package org.neo4j.kernel.impl.nioneo.store;
 
 public class NodeRecord extends Abstract64BitRecord
 {
+    /**
+     * The degree of a node whose relationships haven't been counted, as for
+     * the nodes of an upgraded store, or of a store without dense nodes.
+     */
+    public static final int UNKNOWN_DEGREE = -1;
+
     private long nextRel = Record.NO_NEXT_RELATIONSHIP.intValue();
     private long nextProp = Record.NO_NEXT_PROPERTY.intValue();
+    private boolean dense;
+    private int degree;
 
     public NodeRecord( long id )
     {
@@ -39,6 +47,35 @@ public class NodeRecord extends Abstract64BitRecord
         this.nextRel = nextRel;
     }
 
+    /**
+     * Returns <CODE>true</CODE> if {@link #getNextRel()} is the first
+     * {@link RelationshipGroupRecord} of this node rather than its first
+     * relationship.
+     */
+    public boolean isDense()
+    {
+        return dense;
+    }
+
+    public void setDense( boolean dense )
+    {
+        this.dense = dense;
+    }
+
+    /**
+     * Returns the number of relationships of this node, a loop counted
+     * once, or {@link #UNKNOWN_DEGREE}.
+     */
+    public int getDegree()
+    {
+        return degree;
+    }
+
+    public void setDegree( int degree )
+    {
+        this.degree = degree;
+    }
+
     public long getNextProp()
     {
         return nextProp;
@@ -54,7 +91,8 @@ public class NodeRecord extends Abstract64BitRecord
         StringBuffer buf = new StringBuffer();
         buf.append( "NodeRecord[" ).append( getId() ).append( "," ).append(
             inUse() ).append( "," ).append( nextRel ).append( "," ).append(
-            nextProp ).append( "]" );
+            nextProp ).append( "," ).append( degree ).append(
+            dense ? ",dense" : "" ).append( "]" );
         return buf.toString();
     }
 }
\ No newline at end of file
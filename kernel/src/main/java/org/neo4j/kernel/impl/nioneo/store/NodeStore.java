@@ -19,26 +19,54 @@
  */
 package org.neo4j.kernel.impl.nioneo.store;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import org.neo4j.helpers.UTF8;
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.util.StringLogger;
 
 /**
  * Implementation of the node store.
+ * <p>
+ * The records of a store where nodes can be made dense, which is one that
+ * has a relationship group store next to it, also have a flags byte and
+ * the degree of the node, see {@link #DENSE_RECORD_SIZE}. A store without
+ * one keeps the plain record format.
  */
 public class NodeStore extends AbstractStore implements Store
 {
     // node store version, each node store should end with this string
     // (byte encoded)
     private static final String VERSION = "NodeStore v0.9.9";
+    private static final String DENSE_VERSION = "NodeStore v0.A.0";
 
     // in_use(byte)+next_rel_id(int)+next_prop_id(int)
     public static final int RECORD_SIZE = 9;
 
+    // in_use(byte)+next_rel_id(int)+next_prop_id(int)+flags(byte)+degree(int)
+    public static final int DENSE_RECORD_SIZE = 14;
+
+    private static final int UPGRADE_BATCH_SIZE = 4096;
+    // copy of the store taken before it's upgraded, see upgradeRecordFormat
+    private static final String UPGRADE_BACKUP_SUFFIX = ".upgrade-backup";
+
+    // [    ,   x] next rel is the first relationship group
+    private static final byte DENSE_FLAG = 0x1;
+
+    private static final String FILE_NAME_SUFFIX = ".nodestore.db";
+    private static final String REL_GROUP_STORE_SUFFIX = ".relationshipgroupstore.db";
+
+    // set by loadStorage, which is called from the super constructor
+    private boolean denseFormat;
+
     /**
      * See {@link AbstractStore#AbstractStore(String, Map)}
      */
@@ -57,12 +85,37 @@ public class NodeStore extends AbstractStore implements Store
 
     public String getTypeAndVersionDescriptor()
     {
-        return VERSION;
+        return denseFormat ? DENSE_VERSION : VERSION;
     }
 
     public int getRecordSize()
     {
-        return RECORD_SIZE;
+        return denseFormat ? DENSE_RECORD_SIZE : RECORD_SIZE;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the records of this store have the format
+     * that can hold dense nodes and the degree of nodes.
+     */
+    public boolean hasDenseFormat()
+    {
+        return denseFormat;
+    }
+
+    /**
+     * The node store <CODE>fileName</CODE> has the dense record format if
+     * there is a relationship group store next to it, see
+     * {@link NeoStore#initStorage()}.
+     */
+    private static boolean hasDenseFormat( String fileName )
+    {
+        if ( !fileName.endsWith( FILE_NAME_SUFFIX ) )
+        {
+            return false;
+        }
+        String storeName = fileName.substring( 0,
+            fileName.length() - FILE_NAME_SUFFIX.length() );
+        return new File( storeName + REL_GROUP_STORE_SUFFIX ).exists();
     }
 
     /**
@@ -79,7 +132,8 @@ public class NodeStore extends AbstractStore implements Store
     {
         IdGeneratorFactory idGeneratorFactory = (IdGeneratorFactory) config.get(
                 IdGeneratorFactory.class );
-        createEmptyStore( fileName, VERSION, idGeneratorFactory );
+        createEmptyStore( fileName, hasDenseFormat( fileName ) ? DENSE_VERSION : VERSION,
+            idGeneratorFactory );
         NodeStore store = new NodeStore( fileName, config );
         NodeRecord nodeRecord = new NodeRecord( store.nextId() );
         nodeRecord.setInUse( true );
@@ -180,6 +234,13 @@ public class NodeStore extends AbstractStore implements Store
         
         long nextRel = buffer.getUnsignedInt();
         long nextProp = buffer.getUnsignedInt();
+        byte flags = 0;
+        int degree = NodeRecord.UNKNOWN_DEGREE;
+        if ( denseFormat )
+        {
+            flags = buffer.get();
+            degree = buffer.getInt();
+        }
         
         long relModifier = (inUseByte & 0xEL) << 31;
         long propModifier = (inUseByte & 0xF0L) << 28;
@@ -188,6 +249,8 @@ public class NodeStore extends AbstractStore implements Store
         nodeRecord.setInUse( inUse );
         nodeRecord.setNextRel( longFromIntAndMod( nextRel, relModifier ) );
         nodeRecord.setNextProp( longFromIntAndMod( nextProp, propModifier ) );
+        nodeRecord.setDense( (flags & DENSE_FLAG) != 0 );
+        nodeRecord.setDegree( degree );
         return nodeRecord;
     }
     
@@ -208,6 +271,16 @@ public class NodeStore extends AbstractStore implements Store
             // [xxxx,    ] higher bits for prop id
             short inUseUnsignedByte = (short)((Record.IN_USE.byteValue() | relModifier | propModifier));
             buffer.put( (byte)inUseUnsignedByte ).putInt( (int) nextRel ).putInt( (int) nextProp );
+            if ( denseFormat )
+            {
+                byte flags = record.isDense() ? DENSE_FLAG : 0;
+                buffer.put( flags ).putInt( record.getDegree() );
+            }
+            else if ( record.isDense() )
+            {
+                throw new InvalidRecordException( "Record[" + id +
+                    "] is dense, but " + this + " has no relationship group store" );
+            }
         }
         else
         {
@@ -238,16 +311,215 @@ public class NodeStore extends AbstractStore implements Store
 //            closeIdGenerator();
 //            return true;
 //        }
-        if ( version.equals( "NodeStore v0.9.5" ) )
+        if ( version.equals( "NodeStore v0.9.5" ) && !denseFormat )
         {
             return true;
         }
+        if ( version.equals( "NodeStore v0.9.5" ) || version.equals( VERSION ) )
+        {
+            if ( !Boolean.parseBoolean( (String) getConfig().get( Config.ALLOW_STORE_UPGRADE ) ) )
+            {
+                throw new IllegalStoreVersionException( "Store version [" + version + "] is older " +
+                    "than expected, but could be upgraded automatically if '" +
+                    Config.ALLOW_STORE_UPGRADE + "' configuration " + "parameter was set to 'true'." );
+            }
+            upgradeRecordFormat( version );
+            return true;
+        }
         throw new IllegalStoreVersionException( "Store version [" + version  + 
             "]. Please make sure you are not running old Neo4j kernel " + 
             " towards a store that has been created by newer version " + 
             " of Neo4j." );
     }
 
+    @Override
+    protected void loadStorage()
+    {
+        denseFormat = hasDenseFormat( getStorageFileName() );
+        if ( !isReadOnly() )
+        {
+            restoreInterruptedUpgrade();
+        }
+        super.loadStorage();
+    }
+
+    private String upgradeBackupFileName()
+    {
+        return getStorageFileName() + UPGRADE_BACKUP_SUFFIX;
+    }
+
+    /**
+     * A backup left from an upgrade means that the upgrade never completed,
+     * the store is then copied back from the backup and upgraded again. A
+     * backup that wasn't completed itself is removed, the store isn't
+     * touched until the backup is in place.
+     */
+    private void restoreInterruptedUpgrade()
+    {
+        File partialBackup = new File( upgradeBackupFileName() + ".tmp" );
+        if ( partialBackup.exists() && !partialBackup.delete() )
+        {
+            throw new UnderlyingStorageException( "Unable to delete " + partialBackup );
+        }
+        File backup = new File( upgradeBackupFileName() );
+        if ( !backup.exists() )
+        {
+            return;
+        }
+        try
+        {
+            FileChannel source = getFileSystem().open( backup.getPath(), "r" );
+            try
+            {
+                getFileChannel().truncate( 0 );
+                copy( source, getFileChannel() );
+                getFileChannel().force( false );
+            }
+            finally
+            {
+                source.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to restore " +
+                getStorageFileName() + " from " + backup, e );
+        }
+        if ( getConfig() != null )
+        {
+            String storeDir = (String) getConfig().get( "store_dir" );
+            StringLogger msgLog = StringLogger.getLogger( storeDir );
+            msgLog.logMessage( getStorageFileName() + " restored from " + backup +
+                " after an interrupted upgrade", true );
+        }
+    }
+
+    /**
+     * Rewrites a store with records of the plain format to the dense format,
+     * when a relationship group store has been added to an existing store.
+     * The degree of the upgraded records is
+     * {@link NodeRecord#UNKNOWN_DEGREE}. Since the
+     * records only grow they can be moved in place, starting from the end of
+     * the file. Ends the file with the current version so that it's loaded
+     * like any other store.
+     * <p>
+     * The store is copied to a backup first, which is only removed once the
+     * rewritten store has been forced to disk. A crash in between leaves the
+     * backup for {@link #restoreInterruptedUpgrade()} to find.
+     */
+    private void upgradeRecordFormat( String oldVersion )
+    {
+        FileChannel fileChannel = getFileChannel();
+        File backup = new File( upgradeBackupFileName() );
+        try
+        {
+            // there already is one if restored from it
+            if ( !backup.exists() )
+            {
+                File partialBackup = new File( upgradeBackupFileName() + ".tmp" );
+                FileChannel backupChannel = getFileSystem().open(
+                    partialBackup.getPath(), "rw" );
+                try
+                {
+                    copy( fileChannel, backupChannel );
+                    backupChannel.force( false );
+                }
+                finally
+                {
+                    backupChannel.close();
+                }
+                if ( !partialBackup.renameTo( backup ) )
+                {
+                    throw new IOException( "Unable to rename " + partialBackup +
+                        " to " + backup );
+                }
+            }
+
+            long oldSize = fileChannel.size() - UTF8.encode( oldVersion ).length;
+            long recordCount = oldSize / RECORD_SIZE;
+            ByteBuffer oldRecords = ByteBuffer.allocate( UPGRADE_BATCH_SIZE * RECORD_SIZE );
+            ByteBuffer newRecords = ByteBuffer.allocate( UPGRADE_BATCH_SIZE * DENSE_RECORD_SIZE );
+            long end = recordCount;
+            while ( end > 0 )
+            {
+                long start = Math.max( 0, end - UPGRADE_BATCH_SIZE );
+                int count = (int) (end - start);
+                oldRecords.clear();
+                oldRecords.limit( count * RECORD_SIZE );
+                readFully( fileChannel, oldRecords, start * RECORD_SIZE );
+                oldRecords.flip();
+                newRecords.clear();
+                byte[] record = new byte[RECORD_SIZE];
+                for ( int i = 0; i < count; i++ )
+                {
+                    oldRecords.get( record );
+                    newRecords.put( record ).put( (byte) 0 ).putInt(
+                        NodeRecord.UNKNOWN_DEGREE );
+                }
+                newRecords.flip();
+                writeFully( fileChannel, newRecords, start * DENSE_RECORD_SIZE );
+                end = start;
+            }
+            ByteBuffer version = ByteBuffer.wrap( UTF8.encode( DENSE_VERSION ) );
+            writeFully( fileChannel, version, recordCount * DENSE_RECORD_SIZE );
+            fileChannel.truncate( recordCount * DENSE_RECORD_SIZE + version.capacity() );
+            fileChannel.force( false );
+            if ( !backup.delete() )
+            {
+                throw new IOException( "Unable to delete " + backup );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to upgrade " +
+                getStorageFileName(), e );
+        }
+        if ( getConfig() != null )
+        {
+            String storeDir = (String) getConfig().get( "store_dir" );
+            StringLogger msgLog = StringLogger.getLogger( storeDir );
+            msgLog.logMessage( getStorageFileName() + " upgraded from [" + oldVersion +
+                "] to [" + DENSE_VERSION + "]", true );
+        }
+    }
+
+    private static void readFully( FileChannel channel, ByteBuffer buffer, long position )
+        throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            if ( channel.read( buffer, position + buffer.position() ) == -1 )
+            {
+                throw new IOException( "Unexpected end of file at " + position );
+            }
+        }
+    }
+
+    private static void writeFully( FileChannel channel, ByteBuffer buffer, long position )
+        throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            channel.write( buffer, position + buffer.position() );
+        }
+    }
+
+    private static void copy( FileChannel source, FileChannel target ) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( UPGRADE_BATCH_SIZE * DENSE_RECORD_SIZE );
+        long size = source.size();
+        long position = 0;
+        while ( position < size )
+        {
+            buffer.clear();
+            buffer.limit( (int) Math.min( buffer.capacity(), size - position ) );
+            readFully( source, buffer, position );
+            buffer.flip();
+            writeFully( target, buffer, position );
+            position += buffer.limit();
+        }
+    }
+
     public List<WindowPoolStats> getAllWindowPoolStats()
     {
         List<WindowPoolStats> list = new ArrayList<WindowPoolStats>();
@@ -38,10 +38,8 @@ import java.util.logging.Logger;
  * that the most frequently used records/blocks (be it for read or write
  * operations) are encapsulated by a memory mapped persistence window.
  */
-class PersistenceWindowPool
+class PersistenceWindowPool implements WindowPool
 {
-    private static final int MAX_BRICK_COUNT = 100000;
-
     private final String storeName;
     // == recordSize
     private final int blockSize;
@@ -116,7 +114,7 @@ class PersistenceWindowPool
      * @throws IOException
      *             If unable to acquire the window
      */
-    PersistenceWindow acquire( long position, OperationType operationType )
+    public PersistenceWindow acquire( long position, OperationType operationType )
     {
         LockableWindow window = null;
         boolean readPos = false;
@@ -201,7 +199,7 @@ class PersistenceWindowPool
      * @throws IOException
      *             If unable to release window
      */
-    void release( PersistenceWindow window )
+    public void release( PersistenceWindow window )
     {
         if ( window instanceof PersistenceRow )
         {
@@ -223,7 +221,7 @@ class PersistenceWindowPool
         }
     }
 
-    synchronized void close()
+    public synchronized void close()
     {
         flushAll();
 //        synchronized ( activeRowWindows )
@@ -243,7 +241,7 @@ class PersistenceWindowPool
         dumpStatistics();
     }
 
-    void flushAll()
+    public void flushAll()
     {
         if ( readOnly ) return;
 
@@ -330,87 +328,11 @@ class PersistenceWindowPool
 
     private void setupBricks()
     {
-        long fileSize = -1;
-        try
-        {
-            fileSize = fileChannel.size();
-        }
-        catch ( IOException e )
-        {
-            throw new UnderlyingStorageException(
-                "Unable to get file size for " + storeName, e );
-        }
-        if ( blockSize == 0 )
-        {
-            return;
-        }
-        // If we can't fit even 10 blocks in available memory don't even try
-        // to use available memory.
-        if ( availableMem > 0 && availableMem < blockSize * 10l )
-        {
-            logWarn( "Unable to use " + availableMem
-                + "b as memory mapped windows, need at least " + blockSize * 10
-                + "b (block size * 10)" );
-            logWarn( "Memory mapped windows have been turned off" );
-            availableMem = 0;
-            brickCount = 0;
-            brickSize = 0;
-            return;
-        }
-        if ( availableMem > 0 && fileSize > 0 )
-        {
-            double ratio = (availableMem + 0.0d) / fileSize;
-            if ( ratio >= 1 )
-            {
-                brickSize = (int) (availableMem / 1000);
-                if ( brickSize < 0 )
-                {
-                    brickSize = Integer.MAX_VALUE;
-                }
-                brickSize = (brickSize / blockSize) * blockSize;
-                brickCount = (int) (fileSize / brickSize);
-            }
-            else
-            {
-                brickCount = (int) (1000.0d / ratio);
-                if ( brickCount > MAX_BRICK_COUNT )
-                {
-                    brickCount = MAX_BRICK_COUNT;
-                }
-                if ( fileSize / brickCount > availableMem )
-                {
-                    logWarn( "Unable to use " + (availableMem / 1024)
-                        + "kb as memory mapped windows, need at least "
-                        + (fileSize / brickCount / 1024) + "kb" );
-                    logWarn( "Memory mapped windows have been turned off" );
-                    availableMem = 0;
-                    brickCount = 0;
-                    brickSize = 0;
-                    return;
-                }
-                brickSize = (int) (fileSize / brickCount);
-                if ( brickSize < 0 )
-                {
-                    brickSize = Integer.MAX_VALUE;
-                    brickSize = (brickSize / blockSize) * blockSize;
-                    brickCount = (int) (fileSize / brickSize);
-                }
-                else
-                {
-                    brickSize = (brickSize / blockSize) * blockSize;
-                }
-                assert brickSize > blockSize;
-            }
-        }
-        else if ( availableMem > 0 )
-        {
-            brickSize = (int) (availableMem / 100);
-            if ( brickSize < 0 )
-            {
-                brickSize = Integer.MAX_VALUE;
-            }
-            brickSize = (brickSize / blockSize) * blockSize;
-        }
+        BrickLayout layout = BrickLayout.calculate( storeName, blockSize,
+            fileChannel, availableMem, log );
+        availableMem = layout.availableMem();
+        brickCount = layout.brickCount();
+        brickSize = layout.brickSize();
         brickArray = new BrickElement[brickCount];
         for ( int i = 0; i < brickCount; i++ )
         {
@@ -614,6 +536,8 @@ class PersistenceWindowPool
 
     static class BrickSorter implements Comparator<BrickElement>, Serializable
     {
+        private static final long serialVersionUID = 1L;
+
         public int compare( BrickElement o1, BrickElement o2 )
         {
             return o1.getHit() - o2.getHit();
@@ -661,9 +585,9 @@ class PersistenceWindowPool
         log.log( Level.WARNING, "[" + storeName + "] " + logMessage, cause );
     }
 
-    WindowPoolStats getStats()
+    public WindowPoolStats getStats()
     {
         return new WindowPoolStats( storeName, availableMem, memUsed, brickCount,
-                brickSize, hit, miss, ooe );
+                brickSize, hit, miss, switches, ooe );
     }
 }
\ No newline at end of file
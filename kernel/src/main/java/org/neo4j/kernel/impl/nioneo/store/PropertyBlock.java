@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One property in a {@link PropertyRecord}: its key, its type and either
+ * the value itself or, for strings and arrays that don't fit, a pointer to
+ * the first of its dynamic records.
+ */
+public class PropertyBlock
+{
+    private PropertyType type;
+    private int keyIndexId;
+    private long propBlock;
+    private List<DynamicRecord> valueRecords = new ArrayList<DynamicRecord>();
+    private boolean isLight = false;
+    private boolean isCreated = false;
+    private boolean isChanged = false;
+
+    public PropertyType getType()
+    {
+        return type;
+    }
+
+    public void setType( PropertyType type )
+    {
+        this.type = type;
+    }
+
+    public int getKeyIndexId()
+    {
+        return keyIndexId;
+    }
+
+    public void setKeyIndexId( int keyIndexId )
+    {
+        this.keyIndexId = keyIndexId;
+    }
+
+    public long getPropBlock()
+    {
+        return propBlock;
+    }
+
+    public void setPropBlock( long propBlock )
+    {
+        this.propBlock = propBlock;
+    }
+
+    /**
+     * Returns whether the value is kept in dynamic records.
+     */
+    public boolean isDynamic()
+    {
+        return type == PropertyType.STRING || type == PropertyType.ARRAY;
+    }
+
+    void setIsLight( boolean status )
+    {
+        isLight = status;
+    }
+
+    /**
+     * Returns whether the dynamic records of the value haven't been loaded.
+     */
+    public boolean isLight()
+    {
+        return isLight;
+    }
+
+    public List<DynamicRecord> getValueRecords()
+    {
+        assert !isLight;
+        return valueRecords;
+    }
+
+    public void addValueRecord( DynamicRecord record )
+    {
+        assert !isLight;
+        valueRecords.add( record );
+    }
+
+    /**
+     * Removes the dynamic records of the value, so that a new value can be
+     * encoded into this block.
+     *
+     * @return the removed records
+     */
+    public List<DynamicRecord> clearValueRecords()
+    {
+        List<DynamicRecord> records = valueRecords;
+        valueRecords = new ArrayList<DynamicRecord>();
+        isLight = false;
+        return records;
+    }
+
+    public boolean isCreated()
+    {
+        return isCreated;
+    }
+
+    public void setCreated()
+    {
+        isCreated = true;
+    }
+
+    public boolean isChanged()
+    {
+        return isChanged;
+    }
+
+    public void setChanged()
+    {
+        isChanged = true;
+    }
+
+    public PropertyData newPropertyData( long propertyId )
+    {
+        return getType().newPropertyData( this, propertyId, null );
+    }
+
+    public PropertyData newPropertyData( long propertyId, Object extractedValue )
+    {
+        return getType().newPropertyData( this, propertyId, extractedValue );
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuffer buf = new StringBuffer();
+        buf.append( "PropertyBlock[" ).append( type ).append( "," ).append(
+            keyIndexId ).append( "," ).append( propBlock );
+        if ( !isLight )
+        {
+            buf.append( ", Value[" );
+            for ( DynamicRecord record : valueRecords )
+            {
+                buf.append( record );
+            }
+            buf.append( "]" );
+        }
+        buf.append( "]" );
+        return buf.toString();
+    }
+}
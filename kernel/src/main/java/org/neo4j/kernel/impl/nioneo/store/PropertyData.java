@@ -33,7 +33,8 @@ public interface PropertyData
     
     /**
      * @return the value of the property. This can be null if the value
-     * hasn't been loaded yet.
+     * hasn't been loaded yet, or if it was set with
+     * {@link #setNewSoftValue(Object)} and has been dropped since.
      */
     Object getValue();
 
@@ -49,4 +50,14 @@ public interface PropertyData
      * @param newValue the new value to set.
      */
     void setNewValue( Object newValue );
+
+    /**
+     * Like {@link #setNewValue(Object)}, but the value is only softly
+     * reachable from this {@link PropertyData}, so that the garbage collector
+     * may drop it. {@link #getValue()} will then return null again and the
+     * value has to be loaded anew.
+     * 
+     * @param newValue the new value to set.
+     */
+    void setNewSoftValue( Object newValue );
 }
@@ -19,6 +19,8 @@
  */
 package org.neo4j.kernel.impl.nioneo.store;
 
+import java.lang.ref.SoftReference;
+
 public class PropertyDatas
 {
     private static abstract class PrimitivePropertyData implements PropertyData
@@ -50,6 +52,12 @@ public class PropertyDatas
             throw new IllegalStateException( "This shouldn't be called, " +
             		"only valid on String/array types" );
         }
+
+        @Override
+        public void setNewSoftValue( Object newValue )
+        {
+            setNewValue( newValue );
+        }
     }
     
     private static class BooleanPropertyData extends PrimitivePropertyData
@@ -349,6 +357,7 @@ public class PropertyDatas
     private static class ObjectPropertyData implements PropertyData
     {
         private final long id;
+        // either the value or a SoftReference to it
         private Object value;
         private final int index;
 
@@ -373,6 +382,11 @@ public class PropertyDatas
         @Override
         public Object getValue()
         {
+            Object value = this.value;
+            if ( value instanceof SoftReference<?> )
+            {
+                return ( (SoftReference<?>) value ).get();
+            }
             return value;
         }
         
@@ -381,6 +395,12 @@ public class PropertyDatas
         {
             this.value = newValue;
         }
+
+        @Override
+        public void setNewSoftValue( Object newValue )
+        {
+            this.value = new SoftReference<Object>( newValue );
+        }
     }
     
     public static PropertyData forBoolean( int index, long id, boolean value )
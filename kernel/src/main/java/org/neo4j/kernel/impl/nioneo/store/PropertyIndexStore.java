@@ -98,6 +98,13 @@ public class PropertyIndexStore extends AbstractStore implements Store
         super.rebuildIdGenerators();
     }
 
+    @Override
+    void addStores( List<CommonAbstractStore> stores )
+    {
+        keyPropertyStore.addStores( stores );
+        super.addStores( stores );
+    }
+
     public void updateIdGenerators()
     {
         keyPropertyStore.updateHighId();
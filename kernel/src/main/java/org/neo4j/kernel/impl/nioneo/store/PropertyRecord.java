@@ -20,32 +20,32 @@
 package org.neo4j.kernel.impl.nioneo.store;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 
+/**
+ * A record in the property store, holding up to
+ * {@link PropertyStore#BLOCKS_PER_RECORD} properties of one node or
+ * relationship in fixed slots. The records of a node or relationship are
+ * linked in a chain, the properties in them are addressed by property ids
+ * made from the record id and the slot, see
+ * {@link PropertyStore#propertyId(long, int)}.
+ */
 public class PropertyRecord extends Abstract64BitRecord
 {
-    private PropertyType type;
-    private int keyIndexId = Record.NO_NEXT_BLOCK.intValue();
-    private long propBlock = Record.NO_NEXT_BLOCK.intValue();
     private long prevProp = Record.NO_PREVIOUS_PROPERTY.intValue();
     private long nextProp = Record.NO_NEXT_PROPERTY.intValue();
-    private List<DynamicRecord> valueRecords = new ArrayList<DynamicRecord>();
-    private boolean isLight = false;
+    private final PropertyBlock[] blocks =
+        new PropertyBlock[PropertyStore.BLOCKS_PER_RECORD];
+    // value records of removed or changed properties, to be deleted
+    private final List<DynamicRecord> deletedRecords = new ArrayList<DynamicRecord>();
     private long nodeRelId = -1;
     private boolean nodeIdSet = false;
-    private boolean isChanged = false;
 
     public PropertyRecord( long id )
     {
         super( id );
     }
 
-    public void setType( PropertyType type )
-    {
-        this.type = type;
-    }
-
     public void setNodeId( long nodeId )
     {
         nodeIdSet = true;
@@ -76,51 +76,85 @@ public class PropertyRecord extends Abstract64BitRecord
         return -1;
     }
 
-    void setIsLight( boolean status )
-    {
-        isLight = status;
-    }
-
-    public boolean isLight()
+    /**
+     * Returns the property in <CODE>slot</CODE>, or <CODE>null</CODE> if
+     * the slot is free.
+     */
+    public PropertyBlock getBlock( int slot )
     {
-        return isLight;
+        return blocks[slot];
     }
 
-    public Collection<DynamicRecord> getValueRecords()
+    public void setBlock( int slot, PropertyBlock block )
     {
-        assert !isLight;
-        return valueRecords;
+        blocks[slot] = block;
     }
 
-    public void addValueRecord( DynamicRecord record )
+    /**
+     * Frees <CODE>slot</CODE>, marking the value records of the property
+     * in it as not in use.
+     *
+     * @return the property that was in the slot
+     */
+    public PropertyBlock removeBlock( int slot )
     {
-        assert !isLight;
-        valueRecords.add( record );
-    }
-
-    public PropertyType getType()
-    {
-        return type;
+        PropertyBlock block = blocks[slot];
+        blocks[slot] = null;
+        if ( block != null && !block.isLight() )
+        {
+            deleteValueRecords( block.getType(), block.clearValueRecords() );
+        }
+        return block;
     }
 
-    public int getKeyIndexId()
+    /**
+     * Marks <CODE>records</CODE>, value records of a property of type
+     * <CODE>type</CODE> that has been removed or changed, as not in use.
+     */
+    public void deleteValueRecords( PropertyType type, List<DynamicRecord> records )
     {
-        return keyIndexId;
+        for ( DynamicRecord record : records )
+        {
+            if ( record.inUse() )
+            {
+                record.setInUse( false, type.intValue() );
+            }
+            deletedRecords.add( record );
+        }
     }
 
-    public void setKeyIndexId( int keyId )
+    public List<DynamicRecord> getDeletedRecords()
     {
-        this.keyIndexId = keyId;
+        return deletedRecords;
     }
 
-    public long getPropBlock()
+    /**
+     * Returns the first free slot, or <CODE>-1</CODE> if all slots are
+     * taken.
+     */
+    public int getFreeSlot()
     {
-        return propBlock;
+        for ( int i = 0; i < blocks.length; i++ )
+        {
+            if ( blocks[i] == null )
+            {
+                return i;
+            }
+        }
+        return -1;
     }
 
-    public void setPropBlock( long propBlock )
+    public int getBlockCount()
     {
-        this.propBlock = propBlock;
+        int count = 0;
+        for ( PropertyBlock block : blocks )
+        {
+            if ( block != null )
+            {
+                count++;
+            }
+        }
+        return count;
     }
 
     public long getPrevProp()
@@ -143,40 +177,30 @@ public class PropertyRecord extends Abstract64BitRecord
         this.nextProp = nextProp;
     }
 
-    public PropertyData newPropertyData()
-    {
-        return getType().newPropertyData( this, null );
-    }
-    
-    public PropertyData newPropertyData( Object extractedValue )
-    {
-        return getType().newPropertyData( this, extractedValue );
-    }
-    
     @Override
     public String toString()
     {
         StringBuffer buf = new StringBuffer();
         buf.append( "PropertyRecord[" ).append( getId() ).append( "," ).append(
-            inUse() ).append( "," ).append( type ).append( "," ).append(
-            keyIndexId ).append( "," ).append( propBlock ).append( "," )
-            .append( prevProp ).append( "," ).append( nextProp );
-        buf.append( ", Value[" );
-        for ( DynamicRecord record : valueRecords )
+            inUse() ).append( "," ).append( prevProp ).append( "," ).append(
+            nextProp );
+        for ( int i = 0; i < blocks.length; i++ )
+        {
+            if ( blocks[i] != null )
+            {
+                buf.append( "," ).append( i ).append( "=" ).append( blocks[i] );
+            }
+        }
+        if ( !deletedRecords.isEmpty() )
         {
-            buf.append( record );
+            buf.append( ", Deleted[" );
+            for ( DynamicRecord record : deletedRecords )
+            {
+                buf.append( record );
+            }
+            buf.append( "]" );
         }
-        buf.append( "]]" );
+        buf.append( "]" );
         return buf.toString();
     }
-    
-    public boolean isChanged()
-    {
-        return isChanged;
-    }
-    
-    public void setChanged()
-    {
-        isChanged = true;
-    }
-}
\ No newline at end of file
+}
@@ -38,18 +38,31 @@ import org.neo4j.kernel.IdType;
 /**
  * Implementation of the property store. This implementation has two dynamic
  * stores. One used to store keys and another for string property values.
+ * <p>
+ * Each record holds up to {@link #BLOCKS_PER_RECORD} properties of the same
+ * node or relationship, so that all the properties of an entity with only a
+ * few of them are read from a single record. The records of an entity are
+ * linked in a chain starting at the <CODE>nextProp</CODE> of the node or
+ * relationship record.
  */
 public class PropertyStore extends AbstractStore implements Store
 {
     public static final int DEFAULT_DATA_BLOCK_SIZE = 120;
 
     // store version, each store ends with this string (byte encoded)
-    private static final String VERSION = "PropertyStore v0.9.9";
+    static final String VERSION = "PropertyStore v0.A.0";
+
+    public static final int BLOCKS_PER_RECORD = 4;
 
     // record header size
-    // in_use(byte)+type(int)+key_indexId(int)+prop_blockId(long)+
-    // prev_prop_id(int)+next_prop_id(int)
-    public static final int RECORD_SIZE = 25;
+    // in_use(byte)+high_bits(byte)+prev_prop_id(int)+next_prop_id(int)
+    private static final int HEADER_SIZE = 10;
+
+    // property block size, a type of 0 means a free slot
+    // type(byte)+key_indexId(int)+prop_block(long)
+    private static final int BLOCK_SIZE = 13;
+
+    public static final int RECORD_SIZE = HEADER_SIZE + BLOCKS_PER_RECORD * BLOCK_SIZE;
 
     private DynamicStringStore stringPropertyStore;
     private PropertyIndexStore propertyIndexStore;
@@ -217,6 +230,33 @@ public class PropertyStore extends AbstractStore implements Store
         return propertyIndexStore;
     }
 
+    /**
+     * Returns the id of the property in <CODE>slot</CODE> of the record
+     * with id <CODE>recordId</CODE>.
+     */
+    public static long propertyId( long recordId, int slot )
+    {
+        return recordId * BLOCKS_PER_RECORD + slot;
+    }
+
+    /**
+     * Returns the id of the record holding the property with id
+     * <CODE>propertyId</CODE>.
+     */
+    public static long recordId( long propertyId )
+    {
+        return propertyId / BLOCKS_PER_RECORD;
+    }
+
+    /**
+     * Returns the slot holding the property with id
+     * <CODE>propertyId</CODE> in its record.
+     */
+    public static int slot( long propertyId )
+    {
+        return (int) (propertyId % BLOCKS_PER_RECORD);
+    }
+
     public void updateRecord( PropertyRecord record, boolean recovered )
     {
         assert recovered;
@@ -244,29 +284,41 @@ public class PropertyStore extends AbstractStore implements Store
         {
             releaseWindow( window );
         }
-        if ( !record.isLight() )
+        for ( int i = 0; i < BLOCKS_PER_RECORD; i++ )
         {
-            for ( DynamicRecord valueRecord : record.getValueRecords() )
+            PropertyBlock block = record.getBlock( i );
+            if ( block != null && !block.isLight() )
             {
-                if ( valueRecord.getType() == PropertyType.STRING.intValue() )
-                {
-                    stringPropertyStore.updateRecord( valueRecord );
-                }
-                else if ( valueRecord.getType() ==
-                    PropertyType.ARRAY.intValue() )
-                {
-                    arrayPropertyStore.updateRecord( valueRecord );
-                }
-                else
+                for ( DynamicRecord valueRecord : block.getValueRecords() )
                 {
-                    throw new InvalidRecordException( "Unknown dynamic record" );
+                    updateDynamicRecord( valueRecord );
                 }
             }
         }
+        for ( DynamicRecord valueRecord : record.getDeletedRecords() )
+        {
+            updateDynamicRecord( valueRecord );
+        }
+    }
+
+    private void updateDynamicRecord( DynamicRecord valueRecord )
+    {
+        if ( valueRecord.getType() == PropertyType.STRING.intValue() )
+        {
+            stringPropertyStore.updateRecord( valueRecord );
+        }
+        else if ( valueRecord.getType() == PropertyType.ARRAY.intValue() )
+        {
+            arrayPropertyStore.updateRecord( valueRecord );
+        }
+        else
+        {
+            throw new InvalidRecordException( "Unknown dynamic record" );
+        }
     }
 
-    // in_use(byte)+type(int)+key_blockId(int)+prop_blockId(long)+
-    // prev_prop_id(int)+next_prop_id(int)
+    // in_use(byte)+high_bits(byte)+prev_prop_id(int)+next_prop_id(int)+
+    // BLOCKS_PER_RECORD*(type(byte)+key_indexId(int)+prop_block(long))
 
     private void updateRecord( PropertyRecord record, PersistenceWindow window )
     {
@@ -275,23 +327,31 @@ public class PropertyStore extends AbstractStore implements Store
         if ( record.inUse() )
         {
             long prevProp = record.getPrevProp();
-            long prevModifier = prevProp == Record.NO_NEXT_PROPERTY.intValue() ? 0 : (prevProp & 0xF00000000L) >> 28;
+            long prevModifier = prevProp == Record.NO_PREVIOUS_PROPERTY.intValue() ? 0 : (prevProp & 0xF00000000L) >> 28;
 
             long nextProp = record.getNextProp();
-            long nextModifier = nextProp == Record.NO_NEXT_PROPERTY.intValue() ? 0 : (nextProp & 0xF00000000L) >> 16;
+            long nextModifier = nextProp == Record.NO_NEXT_PROPERTY.intValue() ? 0 : (nextProp & 0xF00000000L) >> 32;
 
-            // [    ,   x] in use
             // [xxxx,    ] high prev prop bits
-            short inUseUnsignedByte = (short)((Record.IN_USE.byteValue() | prevModifier));
-
-            // [    ,    ][    ,    ][xxxx,xxxx][xxxx,xxxx] type
-            // [    ,    ][    ,xxxx][    ,    ][    ,    ] high next prop bits
-            int typeInt = record.getType().intValue();
-            typeInt |= nextModifier;
+            // [    ,xxxx] high next prop bits
+            short highBits = (short) (prevModifier | nextModifier);
 
-            buffer.put( (byte)inUseUnsignedByte ).putInt( typeInt )
-                .putInt( record.getKeyIndexId() ).putLong( record.getPropBlock() )
+            buffer.put( Record.IN_USE.byteValue() ).put( (byte) highBits )
                 .putInt( (int) prevProp ).putInt( (int) nextProp );
+            for ( int i = 0; i < BLOCKS_PER_RECORD; i++ )
+            {
+                PropertyBlock block = record.getBlock( i );
+                if ( block == null )
+                {
+                    buffer.put( (byte) 0 ).putInt( 0 ).putLong( 0 );
+                }
+                else
+                {
+                    buffer.put( (byte) block.getType().intValue() )
+                        .putInt( block.getKeyIndexId() )
+                        .putLong( block.getPropBlock() );
+                }
+            }
         }
         else
         {
@@ -303,14 +363,16 @@ public class PropertyStore extends AbstractStore implements Store
         }
     }
 
+    /**
+     * Returns the record with id <CODE>id</CODE> without loading the
+     * dynamic records of its string and array values.
+     */
     public PropertyRecord getLightRecord( long id )
     {
         PersistenceWindow window = acquireWindow( id, OperationType.READ );
         try
         {
-            PropertyRecord record = getRecord( id, window );
-            record.setIsLight( true );
-            return record;
+            return getRecord( id, window );
         }
         finally
         {
@@ -320,101 +382,112 @@ public class PropertyStore extends AbstractStore implements Store
 
     public void makeHeavy( PropertyRecord record )
     {
-        record.setIsLight( false );
-        if ( record.getType() == PropertyType.STRING )
+        for ( int i = 0; i < BLOCKS_PER_RECORD; i++ )
         {
-            Collection<DynamicRecord> stringRecords =
-                stringPropertyStore.getLightRecords(
-                    record.getPropBlock() );
-            for ( DynamicRecord stringRecord : stringRecords )
-            {
-                stringRecord.setType( PropertyType.STRING.intValue() );
-                record.addValueRecord( stringRecord );
-            }
-        }
-        else if ( record.getType() == PropertyType.ARRAY )
-        {
-            Collection<DynamicRecord> arrayRecords =
-                arrayPropertyStore.getLightRecords(
-                    record.getPropBlock() );
-            for ( DynamicRecord arrayRecord : arrayRecords )
+            PropertyBlock block = record.getBlock( i );
+            if ( block != null )
             {
-                arrayRecord.setType( PropertyType.ARRAY.intValue() );
-                record.addValueRecord( arrayRecord );
+                makeHeavy( block );
             }
         }
     }
 
-    public PropertyRecord getRecord( long id )
+    /**
+     * Loads the dynamic records of the value of <CODE>block</CODE> if it's
+     * a string or array and they haven't been loaded.
+     */
+    public void makeHeavy( PropertyBlock block )
     {
-        PropertyRecord record;
-        PersistenceWindow window = acquireWindow( id, OperationType.READ );
-        try
+        if ( !block.isLight() )
         {
-            record = getRecord( id, window );
+            return;
         }
-        finally
-        {
-            releaseWindow( window );
-        }
-        if ( record.getType() == PropertyType.STRING )
+        block.setIsLight( false );
+        if ( block.getType() == PropertyType.STRING )
         {
             Collection<DynamicRecord> stringRecords =
-                stringPropertyStore.getLightRecords(
-                    record.getPropBlock() );
-            record.setIsLight( false );
+                stringPropertyStore.getLightRecords( block.getPropBlock() );
             for ( DynamicRecord stringRecord : stringRecords )
             {
                 stringRecord.setType( PropertyType.STRING.intValue() );
-                record.addValueRecord( stringRecord );
+                block.addValueRecord( stringRecord );
             }
         }
-        else if ( record.getType() == PropertyType.ARRAY )
+        else if ( block.getType() == PropertyType.ARRAY )
         {
             Collection<DynamicRecord> arrayRecords =
-                arrayPropertyStore.getLightRecords(
-                    record.getPropBlock() );
-            record.setIsLight( false );
+                arrayPropertyStore.getLightRecords( block.getPropBlock() );
             for ( DynamicRecord arrayRecord : arrayRecords )
             {
                 arrayRecord.setType( PropertyType.ARRAY.intValue() );
-                record.addValueRecord( arrayRecord );
+                block.addValueRecord( arrayRecord );
             }
         }
+    }
+
+    public PropertyRecord getRecord( long id )
+    {
+        PropertyRecord record = getLightRecord( id );
+        makeHeavy( record );
         return record;
     }
 
+    /**
+     * Returns the property with id <CODE>propertyId</CODE>, see
+     * {@link #propertyId(long, int)}, with the dynamic records of its
+     * value loaded.
+     */
+    public PropertyBlock getPropertyBlock( long propertyId )
+    {
+        PropertyRecord record = getLightRecord( recordId( propertyId ) );
+        PropertyBlock block = record.getBlock( slot( propertyId ) );
+        if ( block == null )
+        {
+            throw new InvalidRecordException( "Property[" + propertyId +
+                "] not in use" );
+        }
+        makeHeavy( block );
+        return block;
+    }
+
     private PropertyRecord getRecord( long id, PersistenceWindow window )
     {
         Buffer buffer = window.getOffsettedBuffer( id );
 
-        // [    ,   x] in use
-        // [xxxx,    ] high prev prop bits
         long inUseByte = buffer.get();
-
         boolean inUse = (inUseByte & 0x1) == Record.IN_USE.intValue();
         if ( !inUse )
         {
             throw new InvalidRecordException( "Record[" + id + "] not in use" );
         }
         PropertyRecord record = new PropertyRecord( id );
-
-        // [    ,    ][    ,    ][xxxx,xxxx][xxxx,xxxx] type
-        // [    ,    ][    ,xxxx][    ,    ][    ,    ] high next prop bits
-        long typeInt = buffer.getInt();
-
-        record.setType( getEnumType( (int)typeInt & 0xFFFF ) );
         record.setInUse( true );
-        record.setKeyIndexId( buffer.getInt() );
-        record.setPropBlock( buffer.getLong() );
 
+        // [xxxx,    ] high prev prop bits
+        // [    ,xxxx] high next prop bits
+        long highBits = buffer.get();
         long prevProp = buffer.getUnsignedInt();
-        long prevModifier = (inUseByte & 0xF0L) << 28;
+        long prevModifier = (highBits & 0xF0L) << 28;
         long nextProp = buffer.getUnsignedInt();
-        long nextModifier = (typeInt & 0xF0000L) << 16;
-
+        long nextModifier = (highBits & 0xFL) << 32;
         record.setPrevProp( longFromIntAndMod( prevProp, prevModifier ) );
         record.setNextProp( longFromIntAndMod( nextProp, nextModifier ) );
+
+        for ( int i = 0; i < BLOCKS_PER_RECORD; i++ )
+        {
+            int type = buffer.get();
+            int keyIndexId = buffer.getInt();
+            long propBlock = buffer.getLong();
+            if ( type != 0 )
+            {
+                PropertyBlock block = new PropertyBlock();
+                block.setType( getEnumType( type ) );
+                block.setKeyIndexId( keyIndexId );
+                block.setPropBlock( propBlock );
+                block.setIsLight( block.isDynamic() );
+                record.setBlock( i, block );
+            }
+        }
         return record;
     }
 
@@ -423,9 +496,9 @@ public class PropertyStore extends AbstractStore implements Store
         return PropertyType.getPropertyType( type, false );
     }
 
-    public Object getValue( PropertyRecord propertyRecord )
+    public Object getValue( PropertyBlock block )
     {
-        return propertyRecord.getType().getValue( propertyRecord, this );
+        return block.getType().getValue( block, this );
     }
 
     @Override
@@ -446,6 +519,15 @@ public class PropertyStore extends AbstractStore implements Store
         super.rebuildIdGenerators();
     }
 
+    @Override
+    void addStores( List<CommonAbstractStore> stores )
+    {
+        propertyIndexStore.addStores( stores );
+        stringPropertyStore.addStores( stores );
+        arrayPropertyStore.addStores( stores );
+        super.addStores( stores );
+    }
+
     public void updateIdGenerators()
     {
         propertyIndexStore.updateIdGenerators();
@@ -466,19 +548,19 @@ public class PropertyStore extends AbstractStore implements Store
         return arrayPropertyStore.allocateRecords( valueBlockId, array );
     }
 
-    public void encodeValue( PropertyRecord record, Object value )
+    public void encodeValue( PropertyBlock block, Object value )
     {
         if ( value instanceof String )
         {
             String string = (String) value;
-            if ( ShortString.encode( string, record ) )
+            if ( ShortString.encode( string, block ) )
             {
-                record.setType( PropertyType.SHORT_STRING );
+                block.setType( PropertyType.SHORT_STRING );
                 return;
             }
 
             long stringBlockId = nextStringBlockId();
-            record.setPropBlock( stringBlockId );
+            block.setPropBlock( stringBlockId );
             int length = string.length();
             char[] chars = new char[length];
             string.getChars( 0, length, chars, 0 );
@@ -487,64 +569,64 @@ public class PropertyStore extends AbstractStore implements Store
             for ( DynamicRecord valueRecord : valueRecords )
             {
                 valueRecord.setType( PropertyType.STRING.intValue() );
-                record.addValueRecord( valueRecord );
+                block.addValueRecord( valueRecord );
             }
-            record.setType( PropertyType.STRING );
+            block.setType( PropertyType.STRING );
         }
         else if ( value instanceof Integer )
         {
-            record.setPropBlock( ((Integer) value).intValue() );
-            record.setType( PropertyType.INT );
+            block.setPropBlock( ((Integer) value).intValue() );
+            block.setType( PropertyType.INT );
         }
         else if ( value instanceof Boolean )
         {
-            record.setPropBlock( (((Boolean) value).booleanValue() ? 1 : 0) );
-            record.setType( PropertyType.BOOL );
+            block.setPropBlock( (((Boolean) value).booleanValue() ? 1 : 0) );
+            block.setType( PropertyType.BOOL );
         }
         else if ( value instanceof Float )
         {
-            record.setPropBlock( Float.floatToRawIntBits( ((Float) value)
+            block.setPropBlock( Float.floatToRawIntBits( ((Float) value)
                 .floatValue() ) );
-            record.setType( PropertyType.FLOAT );
+            block.setType( PropertyType.FLOAT );
         }
         else if ( value instanceof Long )
         {
-            record.setPropBlock( ((Long) value).longValue() );
-            record.setType( PropertyType.LONG );
+            block.setPropBlock( ((Long) value).longValue() );
+            block.setType( PropertyType.LONG );
         }
         else if ( value instanceof Double )
         {
-            record.setPropBlock( Double.doubleToRawLongBits( ((Double) value)
+            block.setPropBlock( Double.doubleToRawLongBits( ((Double) value)
                 .doubleValue() ) );
-            record.setType( PropertyType.DOUBLE );
+            block.setType( PropertyType.DOUBLE );
         }
         else if ( value instanceof Byte )
         {
-            record.setPropBlock( ((Byte) value).byteValue() );
-            record.setType( PropertyType.BYTE );
+            block.setPropBlock( ((Byte) value).byteValue() );
+            block.setType( PropertyType.BYTE );
         }
         else if ( value instanceof Character )
         {
-            record.setPropBlock( ((Character) value).charValue() );
-            record.setType( PropertyType.CHAR );
+            block.setPropBlock( ((Character) value).charValue() );
+            block.setType( PropertyType.CHAR );
         }
         else if ( value.getClass().isArray() )
         {
             long arrayBlockId = nextArrayBlockId();
-            record.setPropBlock( arrayBlockId );
+            block.setPropBlock( arrayBlockId );
             Collection<DynamicRecord> arrayRecords = allocateArrayRecords(
                 arrayBlockId, value );
             for ( DynamicRecord valueRecord : arrayRecords )
             {
                 valueRecord.setType( PropertyType.ARRAY.intValue() );
-                record.addValueRecord( valueRecord );
+                block.addValueRecord( valueRecord );
             }
-            record.setType( PropertyType.ARRAY );
+            block.setType( PropertyType.ARRAY );
         }
         else if ( value instanceof Short )
         {
-            record.setPropBlock( ((Short) value).shortValue() );
-            record.setType( PropertyType.SHORT );
+            block.setPropBlock( ((Short) value).shortValue() );
+            block.setType( PropertyType.SHORT );
         }
         else
         {
@@ -553,11 +635,12 @@ public class PropertyStore extends AbstractStore implements Store
         }
     }
 
-    public Object getStringFor( PropertyRecord propRecord )
+    public Object getStringFor( PropertyBlock block )
     {
-        long recordToFind = propRecord.getPropBlock();
+        makeHeavy( block );
+        long recordToFind = block.getPropBlock();
         Map<Long,DynamicRecord> recordsMap = new HashMap<Long,DynamicRecord>();
-        for ( DynamicRecord record : propRecord.getValueRecords() )
+        for ( DynamicRecord record : block.getValueRecords() )
         {
             recordsMap.put( record.getId(), record );
         }
@@ -592,9 +675,10 @@ public class PropertyStore extends AbstractStore implements Store
         return buf.toString();
     }
 
-    public Object getArrayFor( PropertyRecord propertyRecord )
+    public Object getArrayFor( PropertyBlock block )
     {
-        return getArrayFor( propertyRecord.getPropBlock(), propertyRecord.getValueRecords(), arrayPropertyStore );
+        makeHeavy( block );
+        return getArrayFor( block.getPropBlock(), block.getValueRecords(), arrayPropertyStore );
     }
 
     public static Object getArrayFor( long startRecord, Iterable<DynamicRecord> records,
@@ -649,15 +733,12 @@ public class PropertyStore extends AbstractStore implements Store
             // non clean shutdown, need to do recover with right neo
             return false;
         }
-//        if ( version.equals( "PropertyStore v0.9.3" ) )
-//        {
-//            rebuildIdGenerator();
-//            closeIdGenerator();
-//            return true;
-//        }
-        if ( version.equals( "PropertyStore v0.9.5" ) )
+        if ( PropertyStoreUpgrader.isOldVersion( version ) )
         {
-            return true;
+            // NeoStore upgrades the store before opening it
+            throw new IllegalStoreVersionException( "Store version [" +
+                version + "] can only be upgraded when opened through " +
+                "NeoStore." );
         }
         throw new IllegalStoreVersionException( "Store version [" + version  +
             "]. Please make sure you are not running old Neo4j kernel " +
@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+import org.neo4j.helpers.UTF8;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.IdGeneratorFactory;
+import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
+import org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLog;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * Upgrades a property store with one property per record to the current
+ * format where each record holds up to
+ * {@link PropertyStore#BLOCKS_PER_RECORD} properties. Since that changes
+ * the ids of the properties, the <CODE>nextProp</CODE> of every node and
+ * relationship is rewritten as well, which is why the upgrade is done by
+ * {@link NeoStore} rather than by the property store itself.
+ * <p>
+ * The old store is renamed before the new one is created, and the chains of
+ * the nodes and relationships are copied over one at a time. The string and
+ * array stores are left as they are, the properties keep pointing to the
+ * same dynamic records. An upgrade that is interrupted can't be resumed,
+ * so make a backup first.
+ * <p>
+ * The logical logs refer to the old property ids and are moved aside, so
+ * the store is only upgraded if the logical log was closed cleanly. A
+ * store that needs recovery has to be recovered by the version of Neo4j
+ * that wrote it first.
+ */
+class PropertyStoreUpgrader
+{
+    private static final String OLD_FILE_SUFFIX = ".unpacked";
+
+    // in_use(byte)+type(int)+key_indexId(int)+prop_block(long)+
+    // prev_prop_id(int)+next_prop_id(int)
+    private static final int OLD_RECORD_SIZE = 25;
+
+    private final String fileName;
+    private final String oldVersion;
+    private final String storeDir;
+
+    private PropertyStoreUpgrader( String fileName, String oldVersion,
+        String storeDir )
+    {
+        this.fileName = fileName;
+        this.oldVersion = oldVersion;
+        this.storeDir = storeDir;
+    }
+
+    static boolean isOldVersion( String version )
+    {
+        return version.equals( "PropertyStore v0.9.5" ) ||
+            version.equals( "PropertyStore v0.9.9" );
+    }
+
+    /**
+     * Checks the version of the property store in <CODE>fileName</CODE>,
+     * and if it's of the old format moves it aside and creates an empty
+     * store of the current format in its place.
+     *
+     * @return the upgrader to {@link #migrate} the properties with once the
+     * stores are opened, or <CODE>null</CODE> if the store is up to date
+     */
+    static PropertyStoreUpgrader prepare( String fileName, Map<?,?> config )
+    {
+        File file = new File( fileName );
+        if ( !file.exists() )
+        {
+            return null;
+        }
+        String version = readVersion( file );
+        if ( version == null || !isOldVersion( version ) )
+        {
+            return null;
+        }
+        if ( !Boolean.parseBoolean( (String) config.get( Config.ALLOW_STORE_UPGRADE ) ) )
+        {
+            throw new IllegalStoreVersionException( "Store version [" + version + "] is older " +
+                "than expected, but could be upgraded automatically if '" +
+                Config.ALLOW_STORE_UPGRADE + "' configuration " + "parameter was set to 'true'." );
+        }
+        File oldFile = new File( fileName + OLD_FILE_SUFFIX );
+        if ( oldFile.exists() )
+        {
+            throw new IllegalStoreVersionException( "Unable to upgrade " + fileName +
+                " since " + oldFile + " from an earlier upgrade attempt exists" );
+        }
+        String storeDir = (String) config.get( "store_dir" );
+        if ( !isCleanlyShutDown( storeDir, config ) )
+        {
+            throw new IllegalStoreVersionException( "Unable to upgrade " + fileName +
+                " since the database wasn't shut down cleanly. Start it with " +
+                "the version of Neo4j that created it to recover it, and shut " +
+                "it down, before upgrading." );
+        }
+        if ( !file.renameTo( oldFile ) )
+        {
+            throw new UnderlyingStorageException( "Unable to rename " + file +
+                " to " + oldFile );
+        }
+        new File( fileName + ".id" ).delete();
+        IdGeneratorFactory idGeneratorFactory =
+            (IdGeneratorFactory) config.get( IdGeneratorFactory.class );
+        AbstractStore.createEmptyStore( fileName, PropertyStore.VERSION,
+            idGeneratorFactory );
+        return new PropertyStoreUpgrader( fileName, version, storeDir );
+    }
+
+    private static boolean isCleanlyShutDown( String storeDir, Map<?,?> config )
+    {
+        String logicalLog = (String) config.get( "logical_log" );
+        if ( logicalLog == null )
+        {
+            if ( storeDir == null )
+            {
+                // no logical log to recover from
+                return true;
+            }
+            logicalLog = new File( storeDir, "nioneo_logical.log" ).getPath();
+        }
+        try
+        {
+            return XaLogicalLog.isCleanlyClosed( logicalLog );
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to read state of " +
+                logicalLog, e );
+        }
+    }
+
+    private static String readVersion( File file )
+    {
+        int versionLength = UTF8.encode( "PropertyStore v0.9.9" ).length;
+        try
+        {
+            RandomAccessFile raf = new RandomAccessFile( file, "r" );
+            try
+            {
+                if ( raf.length() < versionLength )
+                {
+                    return null;
+                }
+                byte[] version = new byte[versionLength];
+                raf.seek( raf.length() - versionLength );
+                raf.readFully( version );
+                return UTF8.decode( version );
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to read version of " +
+                file, e );
+        }
+    }
+
+    /**
+     * Copies the property chain of every node and relationship from the old
+     * store into <CODE>propStore</CODE>, updates their <CODE>nextProp</CODE>
+     * and removes the old store. The logical logs are moved aside since
+     * their property commands refer to the old property ids.
+     */
+    void migrate( PropertyStore propStore, NodeStore nodeStore,
+        RelationshipStore relStore )
+    {
+        File oldFile = new File( fileName + OLD_FILE_SUFFIX );
+        try
+        {
+            FileChannel oldChannel = new RandomAccessFile( oldFile, "r" ).getChannel();
+            try
+            {
+                ByteBuffer buffer = ByteBuffer.allocate( OLD_RECORD_SIZE );
+                long nodeHighId = nodeStore.getHighId();
+                for ( long id = 0; id < nodeHighId; id++ )
+                {
+                    if ( !nodeStore.loadLightNode( id ) )
+                    {
+                        continue;
+                    }
+                    NodeRecord node = nodeStore.getRecord( id );
+                    if ( node.getNextProp() != Record.NO_NEXT_PROPERTY.intValue() )
+                    {
+                        node.setNextProp( copyChain( oldChannel, buffer,
+                            node.getNextProp(), propStore ) );
+                        nodeStore.updateRecord( node );
+                    }
+                }
+                long relHighId = relStore.getHighId();
+                for ( long id = 0; id < relHighId; id++ )
+                {
+                    RelationshipRecord rel = relStore.getLightRel( id );
+                    if ( rel == null ||
+                        rel.getNextProp() == Record.NO_NEXT_PROPERTY.intValue() )
+                    {
+                        continue;
+                    }
+                    rel.setNextProp( copyChain( oldChannel, buffer,
+                        rel.getNextProp(), propStore ) );
+                    relStore.updateRecord( rel );
+                }
+            }
+            finally
+            {
+                oldChannel.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to upgrade " +
+                fileName, e );
+        }
+        propStore.flushAll();
+        nodeStore.flushAll();
+        relStore.flushAll();
+        oldFile.delete();
+        if ( storeDir != null )
+        {
+            LogIoUtils.moveAllLogicalLogs( new File( storeDir ), "unpacked-property-logs" );
+            StringLogger msgLog = StringLogger.getLogger( storeDir );
+            msgLog.logMessage( fileName + " upgraded from [" + oldVersion +
+                "] to [" + propStore.getTypeAndVersionDescriptor() + "]", true );
+        }
+    }
+
+    /**
+     * Copies the old chain starting at <CODE>firstProp</CODE>, packing its
+     * properties into new records.
+     *
+     * @return the id of the first new record
+     */
+    private long copyChain( FileChannel oldChannel, ByteBuffer buffer,
+        long firstProp, PropertyStore propStore ) throws IOException
+    {
+        PropertyRecord first = null;
+        PropertyRecord current = null;
+        long nextProp = firstProp;
+        while ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
+        {
+            buffer.clear();
+            while ( buffer.hasRemaining() )
+            {
+                if ( oldChannel.read( buffer, nextProp * OLD_RECORD_SIZE +
+                    buffer.position() ) == -1 )
+                {
+                    throw new IOException( "Unexpected end of file at property[" +
+                        nextProp + "]" );
+                }
+            }
+            buffer.flip();
+            long inUseByte = buffer.get();
+            if ( (inUseByte & 0x1) != Record.IN_USE.intValue() )
+            {
+                throw new InvalidRecordException( "Property[" + nextProp +
+                    "] not in use" );
+            }
+            long typeInt = buffer.getInt();
+            PropertyBlock block = new PropertyBlock();
+            block.setType( PropertyType.getPropertyType( (int) typeInt & 0xFFFF, false ) );
+            block.setKeyIndexId( buffer.getInt() );
+            block.setPropBlock( buffer.getLong() );
+            // the dynamic records of the value stay where they are
+            block.setIsLight( block.isDynamic() );
+            buffer.getInt(); // prev
+            long next = buffer.getInt() & 0xFFFFFFFFL;
+            long nextModifier = (typeInt & 0xF0000L) << 16;
+            nextProp = CommonAbstractStore.longFromIntAndMod( next, nextModifier );
+
+            if ( current == null || current.getFreeSlot() == -1 )
+            {
+                PropertyRecord record = new PropertyRecord( propStore.nextId() );
+                record.setInUse( true );
+                if ( current == null )
+                {
+                    first = record;
+                }
+                else
+                {
+                    record.setPrevProp( current.getId() );
+                    current.setNextProp( record.getId() );
+                    propStore.updateRecord( current );
+                }
+                current = record;
+            }
+            current.setBlock( current.getFreeSlot(), block );
+        }
+        if ( current != null )
+        {
+            propStore.updateRecord( current );
+        }
+        return first != null ? first.getId() : Record.NO_NEXT_PROPERTY.intValue();
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * Receives the relationships read from a node's relationship chain by
+ * {@link RelationshipStore#loadChain(long, long, int, RelationshipChainVisitor)},
+ * decoded straight from the store without creating a
+ * {@link RelationshipRecord} for each of them.
+ */
+public interface RelationshipChainVisitor
+{
+    /**
+     * @param relId the relationship id
+     * @param type the relationship type id
+     * @param firstNode the start node of the relationship
+     * @param secondNode the end node of the relationship
+     * @param direction {@link DirectionWrapper#OUTGOING} or
+     * {@link DirectionWrapper#INCOMING} as seen from the node whose chain is
+     * loaded, {@link DirectionWrapper#BOTH} for loops
+     */
+    void visit( long relId, int type, long firstNode, long secondNode,
+            DirectionWrapper direction );
+}
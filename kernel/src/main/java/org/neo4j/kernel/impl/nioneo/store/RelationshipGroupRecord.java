@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * A relationship group of a dense node, holding the heads of the chains of
+ * outgoing, incoming and loop relationships of one type. The groups of a
+ * node are linked together from {@link NodeRecord#getNextRel()}.
+ */
+public class RelationshipGroupRecord extends Abstract64BitRecord
+{
+    private final int type;
+    private long next = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long firstOut = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long firstIn = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long firstLoop = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long owningNode = -1;
+
+    public RelationshipGroupRecord( long id, int type )
+    {
+        super( id );
+        this.type = type;
+    }
+
+    public int getType()
+    {
+        return type;
+    }
+
+    public long getNext()
+    {
+        return next;
+    }
+
+    public void setNext( long next )
+    {
+        this.next = next;
+    }
+
+    public long getFirstOut()
+    {
+        return firstOut;
+    }
+
+    public void setFirstOut( long firstOut )
+    {
+        this.firstOut = firstOut;
+    }
+
+    public long getFirstIn()
+    {
+        return firstIn;
+    }
+
+    public void setFirstIn( long firstIn )
+    {
+        this.firstIn = firstIn;
+    }
+
+    public long getFirstLoop()
+    {
+        return firstLoop;
+    }
+
+    public void setFirstLoop( long firstLoop )
+    {
+        this.firstLoop = firstLoop;
+    }
+
+    public long getOwningNode()
+    {
+        return owningNode;
+    }
+
+    public void setOwningNode( long owningNode )
+    {
+        this.owningNode = owningNode;
+    }
+
+    /**
+     * Returns the head of the chain for <CODE>direction</CODE>, where
+     * {@link DirectionWrapper#BOTH} means the chain of loops.
+     */
+    public long getFirst( DirectionWrapper direction )
+    {
+        switch ( direction )
+        {
+        case OUTGOING: return firstOut;
+        case INCOMING: return firstIn;
+        default: return firstLoop;
+        }
+    }
+
+    public void setFirst( DirectionWrapper direction, long first )
+    {
+        switch ( direction )
+        {
+        case OUTGOING: firstOut = first; break;
+        case INCOMING: firstIn = first; break;
+        default: firstLoop = first;
+        }
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if all the chains of this group are empty.
+     */
+    public boolean isEmpty()
+    {
+        return firstOut == Record.NO_NEXT_RELATIONSHIP.intValue() &&
+            firstIn == Record.NO_NEXT_RELATIONSHIP.intValue() &&
+            firstLoop == Record.NO_NEXT_RELATIONSHIP.intValue();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RelationshipGroupRecord[" + getId() + "," + inUse() + ",type=" + type +
+            ",out=" + firstOut + ",in=" + firstIn + ",loop=" + firstLoop +
+            ",next=" + next + ",node=" + owningNode + "]";
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.kernel.IdGeneratorFactory;
+import org.neo4j.kernel.IdType;
+
+/**
+ * Implementation of the relationship group store. A dense node doesn't keep
+ * all its relationships in one chain, instead it points to a chain of
+ * {@link RelationshipGroupRecord groups}, one per relationship type, each
+ * with its own chains of outgoing, incoming and loop relationships.
+ */
+public class RelationshipGroupStore extends AbstractStore implements Store
+{
+    // relationship group store version, each group store ends with this
+    // string (byte encoded)
+    private static final String VERSION = "RelationshipGroupStore v0.A.0";
+
+    // in_use(byte)+type(short)+next_group(int)+first_out(int)+first_in(int)+
+    // first_loop(int)+owning_node(int)+high_bits(short)
+    public static final int RECORD_SIZE = 25;
+
+    /**
+     * See {@link AbstractStore#AbstractStore(String, Map)}
+     */
+    public RelationshipGroupStore( String fileName, Map<?,?> config )
+    {
+        super( fileName, config, IdType.RELATIONSHIP_GROUP );
+    }
+
+    public String getTypeAndVersionDescriptor()
+    {
+        return VERSION;
+    }
+
+    public int getRecordSize()
+    {
+        return RECORD_SIZE;
+    }
+
+    /**
+     * Creates a new relationship group store contained in
+     * <CODE>fileName</CODE> If filename is <CODE>null</CODE> or the file
+     * already exists an <CODE>IOException</CODE> is thrown.
+     *
+     * @param fileName
+     *            File name of the new relationship group store
+     * @throws IOException
+     *             If unable to create relationship group store or name null
+     */
+    public static void createStore( String fileName, IdGeneratorFactory idGeneratorFactory )
+    {
+        createEmptyStore( fileName, VERSION, idGeneratorFactory );
+    }
+
+    public RelationshipGroupRecord getRecord( long id )
+    {
+        PersistenceWindow window = acquireWindow( id, OperationType.READ );
+        try
+        {
+            return getRecord( id, window );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    /**
+     * Returns all groups in the chain starting at <CODE>firstGroup</CODE>.
+     */
+    public List<RelationshipGroupRecord> getGroupChain( long firstGroup )
+    {
+        List<RelationshipGroupRecord> groups = new ArrayList<RelationshipGroupRecord>();
+        long next = firstGroup;
+        while ( next != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipGroupRecord group = getRecord( next );
+            groups.add( group );
+            next = group.getNext();
+        }
+        return groups;
+    }
+
+    public void updateRecord( RelationshipGroupRecord record, boolean recovered )
+    {
+        assert recovered;
+        setRecovered();
+        try
+        {
+            updateRecord( record );
+            registerIdFromUpdateRecord( record.getId() );
+        }
+        finally
+        {
+            unsetRecovered();
+        }
+    }
+
+    public void updateRecord( RelationshipGroupRecord record )
+    {
+        PersistenceWindow window = acquireWindow( record.getId(),
+            OperationType.WRITE );
+        try
+        {
+            updateRecord( record, window );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    private static long highBits( long id )
+    {
+        return id == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (id & 0x700000000L) >> 32;
+    }
+
+    private void updateRecord( RelationshipGroupRecord record,
+        PersistenceWindow window )
+    {
+        long id = record.getId();
+        Buffer buffer = window.getOffsettedBuffer( id );
+        if ( record.inUse() )
+        {
+            // [    ,   x] in use flag
+            // [    ,xxx ] next group high order bits
+            short inUseUnsignedByte = (short)(Record.IN_USE.byteValue() |
+                (highBits( record.getNext() ) << 1));
+
+            // [    ,    ][    , xxx] first out high order bits
+            // [    ,    ][  xx,x   ] first in high order bits
+            // [    ,   x][xx  ,    ] first loop high order bits
+            // [    ,xxx ][    ,    ] owning node high order bits
+            int highBits = (int)(highBits( record.getFirstOut() ) |
+                (highBits( record.getFirstIn() ) << 3) |
+                (highBits( record.getFirstLoop() ) << 6) |
+                (highBits( record.getOwningNode() ) << 9));
+
+            buffer.put( (byte)inUseUnsignedByte ).putShort( (short) record.getType() )
+                .putInt( (int) record.getNext() ).putInt( (int) record.getFirstOut() )
+                .putInt( (int) record.getFirstIn() ).putInt( (int) record.getFirstLoop() )
+                .putInt( (int) record.getOwningNode() ).putShort( (short) highBits );
+        }
+        else
+        {
+            buffer.put( Record.NOT_IN_USE.byteValue() );
+            if ( !isInRecoveryMode() )
+            {
+                freeId( id );
+            }
+        }
+    }
+
+    private RelationshipGroupRecord getRecord( long id, PersistenceWindow window )
+    {
+        Buffer buffer = window.getOffsettedBuffer( id );
+
+        long inUseByte = buffer.get();
+        boolean inUse = (inUseByte & 0x1) == Record.IN_USE.intValue();
+        if ( !inUse )
+        {
+            throw new InvalidRecordException( "Record[" + id + "] not in use" );
+        }
+        int type = buffer.getShort() & 0xFFFF;
+        long next = buffer.getUnsignedInt();
+        long firstOut = buffer.getUnsignedInt();
+        long firstIn = buffer.getUnsignedInt();
+        long firstLoop = buffer.getUnsignedInt();
+        long owningNode = buffer.getUnsignedInt();
+        long highBits = buffer.getShort() & 0xFFFF;
+
+        RelationshipGroupRecord record = new RelationshipGroupRecord( id, type );
+        record.setInUse( true );
+        record.setNext( longFromIntAndMod( next, (inUseByte & 0xEL) << 31 ) );
+        record.setFirstOut( longFromIntAndMod( firstOut, (highBits & 0x7L) << 32 ) );
+        record.setFirstIn( longFromIntAndMod( firstIn, (highBits & 0x38L) << 29 ) );
+        record.setFirstLoop( longFromIntAndMod( firstLoop, (highBits & 0x1C0L) << 26 ) );
+        record.setOwningNode( longFromIntAndMod( owningNode, (highBits & 0xE00L) << 23 ) );
+        return record;
+    }
+
+    public String toString()
+    {
+        return "RelGroupStore";
+    }
+
+    @Override
+    protected boolean versionFound( String version )
+    {
+        if ( !version.startsWith( "RelationshipGroupStore" ) )
+        {
+            // non clean shutdown, need to do recover with right neo
+            return false;
+        }
+        throw new IllegalStoreVersionException( "Store version [" + version  +
+            "]. Please make sure you are not running old Neo4j kernel " +
+            " towards a store that has been created by newer version " +
+            " of Neo4j." );
+    }
+
+    public List<WindowPoolStats> getAllWindowPoolStats()
+    {
+        List<WindowPoolStats> list = new ArrayList<WindowPoolStats>();
+        list.add( getWindowPoolStats() );
+        return list;
+    }
+}
@@ -26,6 +26,7 @@ import java.util.Map;
 
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 
 /**
  * Implementation of the relationship store.
@@ -342,6 +343,109 @@ public class RelationshipStore extends AbstractStore implements Store
         }
     }
 
+    /**
+     * Loads at most <CODE>grabSize</CODE> relationships from the chain of
+     * <CODE>nodeId</CODE>, starting at <CODE>position</CODE>. Consecutive
+     * records in the same window are read without releasing and acquiring
+     * the window in between, and are decoded directly into the
+     * <CODE>visitor</CODE>. Records no longer in use are followed to the
+     * rest of the chain but neither visited nor counted.
+     *
+     * @return the chain position after the loaded relationships
+     */
+    public long loadChain( long nodeId, long position, int grabSize,
+        RelationshipChainVisitor visitor )
+    {
+        PersistenceWindow window = null;
+        try
+        {
+            int loaded = 0;
+            while ( loaded < grabSize &&
+                position != Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                if ( window == null || position < window.position() ||
+                    position >= window.position() + window.size() )
+                {
+                    if ( window != null )
+                    {
+                        releaseWindow( window );
+                        window = null;
+                    }
+                    try
+                    {
+                        window = acquireWindow( position, OperationType.READ );
+                    }
+                    catch ( InvalidRecordException e )
+                    {
+                        // ok to high id, return what we got so far
+                        return position;
+                    }
+                }
+                // see getRecord for the record layout
+                Buffer buffer = window.getOffsettedBuffer( position );
+                long inUseByte = buffer.get();
+                boolean inUse = (inUseByte & 0x1) == Record.IN_USE.intValue();
+                if ( inUse )
+                {
+                    loaded++;
+                }
+                position = visitChainRecord( nodeId, position, buffer, inUseByte,
+                    inUse ? visitor : null );
+            }
+            return position;
+        }
+        finally
+        {
+            if ( window != null )
+            {
+                releaseWindow( window );
+            }
+        }
+    }
+
+    // visitor is null for a record that isn't in use, its next pointers are
+    // still intact and lead to the rest of the chain
+    private long visitChainRecord( long nodeId, long id, Buffer buffer,
+        long inUseByte, RelationshipChainVisitor visitor )
+    {
+        long firstNode = longFromIntAndMod( buffer.getUnsignedInt(),
+            (inUseByte & 0xEL) << 31 );
+        long secondNode = buffer.getUnsignedInt();
+        long typeInt = buffer.getInt();
+        secondNode = longFromIntAndMod( secondNode, (typeInt & 0x70000000L) << 4 );
+        int type = (int)(typeInt & 0xFFFF);
+        buffer.getUnsignedInt(); // first prev rel
+        long firstNextRel = buffer.getUnsignedInt();
+        buffer.getUnsignedInt(); // second prev rel
+        long secondNextRel = buffer.getUnsignedInt();
+
+        long next;
+        if ( firstNode == nodeId )
+        {
+            next = longFromIntAndMod( firstNextRel, (typeInt & 0x1C00000L) << 10 );
+            if ( visitor != null )
+            {
+                visitor.visit( id, type, firstNode, secondNode, firstNode == secondNode ?
+                DirectionWrapper.BOTH : DirectionWrapper.OUTGOING );
+            }
+        }
+        else if ( secondNode == nodeId )
+        {
+            next = longFromIntAndMod( secondNextRel, (typeInt & 0x70000L) << 16 );
+            if ( visitor != null )
+            {
+                visitor.visit( id, type, firstNode, secondNode, DirectionWrapper.INCOMING );
+            }
+        }
+        else
+        {
+            throw new InvalidRecordException( "Node[" + nodeId +
+                "] is neither firstNode[" + firstNode +
+                "] nor secondNode[" + secondNode + "] for Relationship[" + id + "]" );
+        }
+        return next;
+    }
+
     public List<WindowPoolStats> getAllWindowPoolStats()
     {
         List<WindowPoolStats> list = new ArrayList<WindowPoolStats>();
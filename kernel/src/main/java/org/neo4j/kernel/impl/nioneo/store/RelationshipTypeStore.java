@@ -427,6 +427,13 @@ public class RelationshipTypeStore extends AbstractStore implements Store
         super.rebuildIdGenerators();
     }
 
+    @Override
+    void addStores( List<CommonAbstractStore> stores )
+    {
+        typeNameStore.addStores( stores );
+        super.addStores( stores );
+    }
+
     public void updateIdGenerators()
     {
         typeNameStore.updateHighId();
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+/**
+ * Hands out {@link PersistenceWindow persistence windows} for the records of a
+ * store. A window returned from {@link #acquire(long, OperationType)} is
+ * locked for the calling thread and must be given back through
+ * {@link #release(PersistenceWindow)}.
+ */
+interface WindowPool
+{
+    /**
+     * Acquires a window for <CODE>position</CODE> and
+     * <CODE>operationType</CODE> locking the window preventing other threads
+     * from using it.
+     *
+     * @param position
+     *            The position the needs to be encapsulated by the window
+     * @param operationType
+     *            The type of operation (READ or WRITE)
+     * @return A locked window encapsulating the position
+     */
+    PersistenceWindow acquire( long position, OperationType operationType );
+
+    /**
+     * Releases a window used for an operation back to the pool and unlocks it
+     * so other threads may use it.
+     *
+     * @param window
+     *            The window to be released
+     */
+    void release( PersistenceWindow window );
+
+    void flushAll();
+
+    void close();
+
+    WindowPoolStats getStats();
+}
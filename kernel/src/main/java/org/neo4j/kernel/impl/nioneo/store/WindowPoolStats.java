@@ -31,10 +31,19 @@ public class WindowPoolStats
     
     private final int hitCount;
     private final int missCount;
+    private final int switchCount;
     private final int oomCount;
     
     public WindowPoolStats( String name, long memAvail, long memUsed, int windowCount,
             int windowSize, int hitCount, int missCount, int oomCount )
+    {
+        this( name, memAvail, memUsed, windowCount, windowSize, hitCount,
+                missCount, 0, oomCount );
+    }
+    
+    public WindowPoolStats( String name, long memAvail, long memUsed, int windowCount,
+            int windowSize, int hitCount, int missCount, int switchCount,
+            int oomCount )
     {
         this.name = name;
         this.memAvail = memAvail;
@@ -43,6 +52,7 @@ public class WindowPoolStats
         this.windowSize = windowSize;
         this.hitCount = hitCount;
         this.missCount = missCount;
+        this.switchCount = switchCount;
         this.oomCount = oomCount;
     }
     
@@ -81,6 +91,15 @@ public class WindowPoolStats
         return missCount;
     }
 
+    /**
+     * @return the number of times a mapped window has been moved from one
+     *         brick to a more frequently used one
+     */
+    public int getSwitchCount()
+    {
+        return switchCount;
+    }
+
     public int getOomCount()
     {
         return oomCount;
@@ -29,12 +29,15 @@ import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
@@ -162,10 +165,19 @@ public abstract class Command extends XaCommand
     private static final byte NONE = (byte) 0;
 
     private static final byte NODE_COMMAND = (byte) 1;
-    private static final byte PROP_COMMAND = (byte) 2;
+    // property commands of stores with one property per record
+    private static final byte OLD_PROP_COMMAND = (byte) 2;
     private static final byte REL_COMMAND = (byte) 3;
     private static final byte REL_TYPE_COMMAND = (byte) 4;
     private static final byte PROP_INDEX_COMMAND = (byte) 5;
+    private static final byte REL_GROUP_COMMAND = (byte) 6;
+    private static final byte PROP_COMMAND = (byte) 7;
+
+    // set in the in use byte of node commands for dense nodes
+    private static final byte DENSE_NODE_FLAG = (byte) 2;
+    // set in the in use byte of node commands followed by the degree, only
+    // known in stores with dense nodes, see NodeStore
+    private static final byte NODE_DEGREE_FLAG = (byte) 4;
 
     static class NodeCommand extends Command
     {
@@ -216,6 +228,16 @@ public abstract class Command extends XaCommand
         {
             byte inUse = record.inUse() ? Record.IN_USE.byteValue()
                 : Record.NOT_IN_USE.byteValue();
+            if ( record.isDense() )
+            {
+                inUse |= DENSE_NODE_FLAG;
+            }
+            boolean hasDegree = record.inUse() &&
+                record.getDegree() != NodeRecord.UNKNOWN_DEGREE;
+            if ( hasDegree )
+            {
+                inUse |= NODE_DEGREE_FLAG;
+            }
             buffer.put( NODE_COMMAND );
             buffer.putLong( record.getId() );
             buffer.put( inUse );
@@ -223,6 +245,10 @@ public abstract class Command extends XaCommand
             {
                 buffer.putLong( record.getNextRel() ).putLong(
                     record.getNextProp() );
+                if ( hasDegree )
+                {
+                    buffer.putInt( record.getDegree() );
+                }
             }
         }
 
@@ -239,6 +265,9 @@ public abstract class Command extends XaCommand
             buffer.flip();
             long id = buffer.getLong();
             byte inUseFlag = buffer.get();
+            boolean dense = (inUseFlag & DENSE_NODE_FLAG) != 0;
+            boolean hasDegree = (inUseFlag & NODE_DEGREE_FLAG) != 0;
+            inUseFlag &= ~(DENSE_NODE_FLAG | NODE_DEGREE_FLAG);
             boolean inUse = false;
             if ( inUseFlag == Record.IN_USE.byteValue() )
             {
@@ -250,10 +279,11 @@ public abstract class Command extends XaCommand
             }
             NodeRecord record = new NodeRecord( id );
             record.setInUse( inUse );
+            record.setDense( dense );
             if ( inUse )
             {
                 buffer.clear();
-                buffer.limit( 16 );
+                buffer.limit( hasDegree ? 20 : 16 );
                 if ( byteChannel.read( buffer ) != buffer.limit() )
                 {
                     return null;
@@ -261,6 +291,7 @@ public abstract class Command extends XaCommand
                 buffer.flip();
                 record.setNextRel( buffer.getLong() );
                 record.setNextProp( buffer.getLong() );
+                record.setDegree( hasDegree ? buffer.getInt() : NodeRecord.UNKNOWN_DEGREE );
             }
             return new NodeCommand( neoStore == null ? null : neoStore.getNodeStore(), record );
         }
@@ -418,6 +449,116 @@ public abstract class Command extends XaCommand
         }
     }
 
+    static class RelationshipGroupCommand extends Command
+    {
+        private final RelationshipGroupRecord record;
+        private final RelationshipGroupStore store;
+
+        RelationshipGroupCommand( RelationshipGroupStore store,
+            RelationshipGroupRecord record )
+        {
+            super( record.getId() );
+            this.record = record;
+            this.store = store;
+        }
+
+        @Override
+        boolean isCreated()
+        {
+            return record.isCreated();
+        }
+
+        @Override
+        boolean isDeleted()
+        {
+            return !record.inUse();
+        }
+
+        long getOwningNode()
+        {
+            return record.getOwningNode();
+        }
+
+        @Override
+        public void execute()
+        {
+            if ( isRecovered() )
+            {
+                logger.fine( this.toString() );
+                store.updateRecord( record, true );
+            }
+            else
+            {
+                store.updateRecord( record );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "RelationshipGroupCommand[" + record + "]";
+        }
+
+        @Override
+        public void writeToFile( LogBuffer buffer ) throws IOException
+        {
+            // id+in_use(byte)+type(int)+next(long)+first_out(long)+
+            // first_in(long)+first_loop(long)+owning_node(long)
+            byte inUse = record.inUse() ? Record.IN_USE.byteValue()
+                : Record.NOT_IN_USE.byteValue();
+            buffer.put( REL_GROUP_COMMAND );
+            buffer.putLong( record.getId() );
+            buffer.put( inUse );
+            buffer.putInt( record.getType() ).putLong( record.getNext() )
+                .putLong( record.getFirstOut() ).putLong( record.getFirstIn() )
+                .putLong( record.getFirstLoop() ).putLong( record.getOwningNode() );
+        }
+
+        public static Command readCommand( NeoStore neoStore,
+            ReadableByteChannel byteChannel, ByteBuffer buffer )
+            throws IOException
+        {
+            buffer.clear();
+            buffer.limit( 53 );
+            if ( byteChannel.read( buffer ) != buffer.limit() )
+            {
+                return null;
+            }
+            buffer.flip();
+            long id = buffer.getLong();
+            byte inUseFlag = buffer.get();
+            boolean inUse = false;
+            if ( inUseFlag == Record.IN_USE.byteValue() )
+            {
+                inUse = true;
+            }
+            else if ( inUseFlag != Record.NOT_IN_USE.byteValue() )
+            {
+                throw new IOException( "Illegal in use flag: " + inUseFlag );
+            }
+            RelationshipGroupRecord record = new RelationshipGroupRecord( id,
+                buffer.getInt() );
+            record.setInUse( inUse );
+            record.setNext( buffer.getLong() );
+            record.setFirstOut( buffer.getLong() );
+            record.setFirstIn( buffer.getLong() );
+            record.setFirstLoop( buffer.getLong() );
+            record.setOwningNode( buffer.getLong() );
+            return new RelationshipGroupCommand(
+                neoStore == null ? null : neoStore.getRelationshipGroupStore(), record );
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( !(o instanceof RelationshipGroupCommand) )
+            {
+                return false;
+            }
+            return getKey() == ((Command) o).getKey();
+        }
+    }
+
     static class PropertyIndexCommand extends Command
     {
         private final PropertyIndexRecord record;
@@ -598,8 +739,9 @@ public abstract class Command extends XaCommand
         @Override
         public void writeToFile( LogBuffer buffer ) throws IOException
         {
-            // id+in_use(byte)+type(int)+key_indexId(int)+prop_blockId(long)+
-            // prev_prop_id(long)+next_prop_id(long)+nr_value_records(int)
+            // id+in_use(byte)+primitive_id(long)+prev_prop_id(long)+
+            // next_prop_id(long)+BLOCKS_PER_RECORD*(type(int)+key_indexId(int)+
+            // prop_block(long)+nr_value_records(int))+nr_deleted_records(int)
             byte inUse = record.inUse() ? Record.IN_USE.byteValue()
                 : Record.NOT_IN_USE.byteValue();
             if ( record.getRelId() != -1 )
@@ -621,30 +763,43 @@ public abstract class Command extends XaCommand
             }
             else
             {
-                // means this records value has not change, only place in
+                // means this records values have not changed, only place in
                 // prop chain
                 buffer.putLong( -1 );
             }
             if ( record.inUse() )
             {
-                buffer.putInt( record.getType().intValue() ).putInt(
-                    record.getKeyIndexId() ).putLong( record.getPropBlock() )
-                    .putLong( record.getPrevProp() ).putLong(
-                        record.getNextProp() );
+                buffer.putLong( record.getPrevProp() ).putLong(
+                    record.getNextProp() );
+                for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
+                {
+                    PropertyBlock block = record.getBlock( i );
+                    if ( block == null )
+                    {
+                        buffer.putInt( 0 ).putInt( 0 ).putLong( 0 ).putInt( 0 );
+                        continue;
+                    }
+                    buffer.putInt( block.getType().intValue() ).putInt(
+                        block.getKeyIndexId() ).putLong( block.getPropBlock() );
+                    writeDynamicRecords( buffer, block.isLight() ? null :
+                        block.getValueRecords() );
+                }
             }
-            if ( record.isLight() )
+            writeDynamicRecords( buffer, record.getDeletedRecords() );
+        }
+
+        private static void writeDynamicRecords( LogBuffer buffer,
+            Collection<DynamicRecord> records ) throws IOException
+        {
+            if ( records == null )
             {
                 buffer.putInt( 0 );
+                return;
             }
-            else
+            buffer.putInt( records.size() );
+            for ( DynamicRecord record : records )
             {
-                Collection<DynamicRecord> valueRecords = record
-                    .getValueRecords();
-                buffer.putInt( valueRecords.size() );
-                for ( DynamicRecord valueRecord : valueRecords )
-                {
-                    writeDynamicRecord( buffer, valueRecord );
-                }
+                writeDynamicRecord( buffer, record );
             }
         }
 
@@ -652,8 +807,7 @@ public abstract class Command extends XaCommand
             ReadableByteChannel byteChannel, ByteBuffer buffer )
             throws IOException
         {
-            // id+in_use(byte)+type(int)+key_indexId(int)+prop_blockId(long)+
-            // prev_prop_id(long)+next_prop_id(long)+nr_value_records(int)
+            // id+in_use(byte)+primitive_id(long)
             buffer.clear();
             buffer.limit( 17 );
             if ( byteChannel.read( buffer ) != buffer.limit() )
@@ -688,44 +842,88 @@ public abstract class Command extends XaCommand
             if ( inUse )
             {
                 buffer.clear();
-                buffer.limit( 32 );
+                buffer.limit( 16 );
                 if ( byteChannel.read( buffer ) != buffer.limit() )
                 {
                     return null;
                 }
                 buffer.flip();
-                PropertyType type = getType( buffer.getInt() );
-                if ( type == null )
-                {
-                    return null;
-                }
-                record.setType( type );
                 record.setInUse( inUse );
-                record.setKeyIndexId( buffer.getInt() );
-                record.setPropBlock( buffer.getLong() );
                 record.setPrevProp( buffer.getLong() );
                 record.setNextProp( buffer.getLong() );
+                for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
+                {
+                    // type(int)+key_indexId(int)+prop_block(long)
+                    buffer.clear();
+                    buffer.limit( 16 );
+                    if ( byteChannel.read( buffer ) != buffer.limit() )
+                    {
+                        return null;
+                    }
+                    buffer.flip();
+                    int typeInt = buffer.getInt();
+                    int keyIndexId = buffer.getInt();
+                    long propBlock = buffer.getLong();
+                    PropertyBlock block = null;
+                    if ( typeInt != 0 )
+                    {
+                        PropertyType type = getType( typeInt );
+                        if ( type == null )
+                        {
+                            return null;
+                        }
+                        block = new PropertyBlock();
+                        block.setType( type );
+                        block.setKeyIndexId( keyIndexId );
+                        block.setPropBlock( propBlock );
+                        record.setBlock( i, block );
+                    }
+                    int nrValueRecords = readCount( byteChannel, buffer );
+                    if ( nrValueRecords == -1 )
+                    {
+                        return null;
+                    }
+                    for ( int j = 0; j < nrValueRecords; j++ )
+                    {
+                        DynamicRecord dr = readDynamicRecord( byteChannel, buffer );
+                        if ( dr == null || block == null )
+                        {
+                            return null;
+                        }
+                        block.addValueRecord( dr );
+                    }
+                }
             }
-            buffer.clear();
-            buffer.limit( 4 );
-            if ( byteChannel.read( buffer ) != buffer.limit() )
+            int nrDeletedRecords = readCount( byteChannel, buffer );
+            if ( nrDeletedRecords == -1 )
             {
                 return null;
             }
-            buffer.flip();
-            int nrValueRecords = buffer.getInt();
-            for ( int i = 0; i < nrValueRecords; i++ )
+            for ( int i = 0; i < nrDeletedRecords; i++ )
             {
                 DynamicRecord dr = readDynamicRecord( byteChannel, buffer );
                 if ( dr == null )
                 {
                     return null;
                 }
-                record.addValueRecord( dr );
+                record.getDeletedRecords().add( dr );
             }
             return new PropertyCommand( neoStore == null ? null : neoStore.getPropertyStore(), record );
         }
 
+        private static int readCount( ReadableByteChannel byteChannel,
+            ByteBuffer buffer ) throws IOException
+        {
+            buffer.clear();
+            buffer.limit( 4 );
+            if ( byteChannel.read( buffer ) != buffer.limit() )
+            {
+                return -1;
+            }
+            buffer.flip();
+            return buffer.getInt();
+        }
+
         private static PropertyType getType( int type )
         {
             return PropertyType.getPropertyType( type, true );
@@ -875,6 +1073,10 @@ public abstract class Command extends XaCommand
             case PROP_COMMAND:
                 return PropertyCommand.readCommand( neoStore, byteChannel,
                     buffer );
+            case OLD_PROP_COMMAND:
+                throw new IOException( "Property command of a store with " +
+                    "one property per record, logs written before the " +
+                    "property store was upgraded can't be applied" );
             case PROP_INDEX_COMMAND:
                 return PropertyIndexCommand.readCommand( neoStore, byteChannel,
                     buffer );
@@ -884,6 +1086,9 @@ public abstract class Command extends XaCommand
             case REL_TYPE_COMMAND:
                 return RelationshipTypeCommand.readCommand( neoStore,
                     byteChannel, buffer );
+            case REL_GROUP_COMMAND:
+                return RelationshipGroupCommand.readCommand( neoStore,
+                    byteChannel, buffer );
             case NONE: return null;
             default:
                 throw new IOException( "Unknown command type[" + commandType
@@ -30,7 +30,9 @@ import org.neo4j.helpers.Pair;
 import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexRecord;
@@ -38,6 +40,8 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyIndexStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipChainVisitor;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
@@ -96,6 +100,36 @@ class ReadTransaction implements NeoStoreTransaction
     {
         return getMoreRelationships( nodeId, position, getRelGrabSize(), getRelationshipStore() );
     }
+
+    public long getMoreRelationships( long nodeId, long position, int loadedCount,
+            RelationshipChainVisitor visitor )
+    {
+        return getRelationshipStore().loadChain( nodeId, position,
+                neoStore.getRelationshipGrabSize( loadedCount ), visitor );
+    }
+
+    public List<RelationshipGroupRecord> getRelationshipGroups( long nodeId )
+    {
+        return getRelationshipGroups( nodeId, neoStore );
+    }
+
+    static List<RelationshipGroupRecord> getRelationshipGroups( long nodeId,
+            NeoStore neoStore )
+    {
+        if ( neoStore.getRelationshipGroupStore() == null ||
+            neoStore.getRelationshipGroupStore().getHighId() == 0 )
+        {
+            // no node has ever been made dense, save reading the node record
+            return null;
+        }
+        NodeRecord nodeRecord = neoStore.getNodeStore().getRecord( nodeId );
+        if ( !nodeRecord.isDense() )
+        {
+            return null;
+        }
+        return neoStore.getRelationshipGroupStore().getGroupChain(
+                nodeRecord.getNextRel() );
+    }
     
     static Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
             long nodeId, long position, int grabSize, RelationshipStore relStore )
@@ -175,7 +209,15 @@ class ReadTransaction implements NeoStoreTransaction
         while ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
         {
             PropertyRecord propRecord = propertyStore.getLightRecord( nextProp );
-            propertyMap.put( propRecord.getKeyIndexId(), propRecord.newPropertyData() );
+            for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
+            {
+                PropertyBlock block = propRecord.getBlock( i );
+                if ( block != null )
+                {
+                    propertyMap.put( block.getKeyIndexId(), block.newPropertyData(
+                        PropertyStore.propertyId( propRecord.getId(), i ) ) );
+                }
+            }
             nextProp = propRecord.getNextProp();
         }
         return propertyMap;
@@ -198,19 +240,15 @@ class ReadTransaction implements NeoStoreTransaction
     }
 
     // Duplicated code
-    public Object propertyGetValueOrNull( PropertyRecord propertyRecord )
+    public Object propertyGetValueOrNull( PropertyBlock block )
     {
-        return propertyRecord.getType().getValue( propertyRecord, null );
+        return block.getType().getValue( block, null );
     }
 
     public Object loadPropertyValue( long id )
     {
-        PropertyRecord propertyRecord = getPropertyStore().getRecord( id );
-        if ( propertyRecord.isLight() )
-        {
-            getPropertyStore().makeHeavy( propertyRecord );
-        }
-        return propertyRecord.getType().getValue( propertyRecord, getPropertyStore() );
+        PropertyBlock block = getPropertyStore().getPropertyBlock( id );
+        return block.getType().getValue( block, getPropertyStore() );
     }
 
     public String loadIndex( int id )
@@ -232,9 +270,15 @@ class ReadTransaction implements NeoStoreTransaction
 
     public int getKeyIdForProperty( long propertyId )
     {
-        PropertyRecord propRecord =
-            getPropertyStore().getLightRecord( propertyId );
-        return propRecord.getKeyIndexId();
+        PropertyRecord propRecord = getPropertyStore().getLightRecord(
+            PropertyStore.recordId( propertyId ) );
+        PropertyBlock block = propRecord.getBlock( PropertyStore.slot( propertyId ) );
+        if ( block == null )
+        {
+            throw new InvalidRecordException( "Property[" + propertyId +
+                "] not in use" );
+        }
+        return block.getKeyIndexId();
     }
 
     @Override
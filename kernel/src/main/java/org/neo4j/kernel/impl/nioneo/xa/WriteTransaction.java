@@ -24,7 +24,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
@@ -41,6 +44,7 @@ import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexRecord;
@@ -49,6 +53,9 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipChainVisitor;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
@@ -82,6 +89,11 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         new HashMap<Integer,RelationshipTypeRecord>();
     private final Map<Integer,PropertyIndexRecord> propIndexRecords =
         new HashMap<Integer,PropertyIndexRecord>();
+    private final Map<Long,RelationshipGroupRecord> relGroupRecords =
+        new HashMap<Long,RelationshipGroupRecord>();
+    // dense nodes, or nodes made dense, whose cached relationship chain
+    // positions can't be trusted after this transaction
+    private final Set<Long> restructuredNodes = new HashSet<Long>();
 
     private final ArrayList<Command.NodeCommand> nodeCommands =
         new ArrayList<Command.NodeCommand>();
@@ -93,6 +105,8 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         new ArrayList<Command.RelationshipCommand>();
     private final ArrayList<Command.RelationshipTypeCommand> relTypeCommands =
         new ArrayList<Command.RelationshipTypeCommand>();
+    private final ArrayList<Command.RelationshipGroupCommand> relGroupCommands =
+        new ArrayList<Command.RelationshipGroupCommand>();
 
     private final NeoStore neoStore;
     private boolean committed = false;
@@ -118,7 +132,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         {
             if ( nodeCommands.size() == 0 && propCommands.size() == 0 &&
                 relCommands.size() == 0 && relTypeCommands.size() == 0 &&
-                propIndexCommands.size() == 0 )
+                propIndexCommands.size() == 0 && relGroupCommands.size() == 0 )
             {
                 return true;
             }
@@ -126,7 +140,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         }
         if ( nodeRecords.size() == 0 && relRecords.size() == 0 &&
             relTypeRecords.size() == 0 && propertyRecords.size() == 0 &&
-            propIndexRecords.size() == 0 )
+            propIndexRecords.size() == 0 && relGroupRecords.size() == 0 )
         {
             return true;
         }
@@ -191,6 +205,14 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             }
             addCommand( command );
         }
+        for ( RelationshipGroupRecord record : relGroupRecords.values() )
+        {
+            Command.RelationshipGroupCommand command =
+                new Command.RelationshipGroupCommand(
+                    neoStore.getRelationshipGroupStore(), record );
+            relGroupCommands.add( command );
+            addCommand( command );
+        }
         for ( PropertyIndexRecord record : propIndexRecords.values() )
         {
             Command.PropertyIndexCommand command =
@@ -231,6 +253,10 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         {
             relTypeCommands.add( (Command.RelationshipTypeCommand) xaCommand );
         }
+        else if ( xaCommand instanceof Command.RelationshipGroupCommand )
+        {
+            relGroupCommands.add( (Command.RelationshipGroupCommand) xaCommand );
+        }
         else
         {
             throw new IllegalArgumentException( "Unknown command " + xaCommand );
@@ -280,6 +306,14 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 }
                 removeRelationshipFromCache( record.getId() );
             }
+            for ( RelationshipGroupRecord record : relGroupRecords.values() )
+            {
+                if ( record.isCreated() )
+                {
+                    getRelationshipGroupStore().freeId( record.getId() );
+                }
+                removeNodeFromCache( record.getOwningNode() );
+            }
             for ( PropertyIndexRecord record : propIndexRecords.values() )
             {
                 if ( record.isCreated() )
@@ -308,31 +342,18 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 if ( record.isCreated() )
                 {
                     getPropertyStore().freeId( record.getId() );
-                    for ( DynamicRecord dynamicRecord : record
-                        .getValueRecords() )
+                }
+                for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
+                {
+                    PropertyBlock block = record.getBlock( i );
+                    if ( block != null && !block.isLight() )
                     {
-                        if ( dynamicRecord.isCreated() )
-                        {
-                            if ( dynamicRecord.getType() ==
-                                PropertyType.STRING.intValue() )
-                            {
-                                getPropertyStore().freeStringBlockId(
-                                    dynamicRecord.getId() );
-                            }
-                            else if ( dynamicRecord.getType() ==
-                                PropertyType.ARRAY.intValue() )
-                            {
-                                getPropertyStore().freeArrayBlockId(
-                                    dynamicRecord.getId() );
-                            }
-                            else
-                            {
-                                throw new InvalidRecordException(
-                                    "Unknown type on " + dynamicRecord );
-                            }
-                        }
+                        freeCreatedValueRecords( block.getValueRecords() );
                     }
                 }
+                // value records of properties added and then changed or
+                // removed in this tx
+                freeCreatedValueRecords( record.getDeletedRecords() );
             }
         }
         finally
@@ -342,12 +363,42 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             relRecords.clear();
             relTypeRecords.clear();
             propIndexRecords.clear();
+            relGroupRecords.clear();
+            restructuredNodes.clear();
 
             nodeCommands.clear();
             propCommands.clear();
             propIndexCommands.clear();
             relCommands.clear();
             relTypeCommands.clear();
+            relGroupCommands.clear();
+        }
+    }
+
+    private void freeCreatedValueRecords( Collection<DynamicRecord> records )
+    {
+        for ( DynamicRecord dynamicRecord : records )
+        {
+            if ( dynamicRecord.isCreated() )
+            {
+                if ( dynamicRecord.getType() ==
+                    PropertyType.STRING.intValue() )
+                {
+                    getPropertyStore().freeStringBlockId(
+                        dynamicRecord.getId() );
+                }
+                else if ( dynamicRecord.getType() ==
+                    PropertyType.ARRAY.intValue() )
+                {
+                    getPropertyStore().freeArrayBlockId(
+                        dynamicRecord.getId() );
+                }
+                else
+                {
+                    throw new InvalidRecordException(
+                        "Unknown type on " + dynamicRecord );
+                }
+            }
         }
     }
 
@@ -440,10 +491,15 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             java.util.Collections.sort( nodeCommands, sorter );
             java.util.Collections.sort( relCommands, sorter );
             java.util.Collections.sort( propCommands, sorter );
-            executeCreated( propCommands, relCommands, nodeCommands );
-            executeModified( propCommands, relCommands, nodeCommands );
-            executeDeleted( propCommands, relCommands, nodeCommands );
+            java.util.Collections.sort( relGroupCommands, sorter );
+            executeCreated( propCommands, relCommands, relGroupCommands, nodeCommands );
+            executeModified( propCommands, relCommands, relGroupCommands, nodeCommands );
+            executeDeleted( propCommands, relCommands, relGroupCommands, nodeCommands );
             lockReleaser.commitCows();
+            for ( long nodeId : restructuredNodes )
+            {
+                removeNodeFromCache( nodeId );
+            }
             neoStore.setLastCommittedTx( getCommitTxId() );
         }
         finally
@@ -453,12 +509,15 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             relRecords.clear();
             relTypeRecords.clear();
             propIndexRecords.clear();
+            relGroupRecords.clear();
+            restructuredNodes.clear();
 
             nodeCommands.clear();
             propCommands.clear();
             propIndexCommands.clear();
             relCommands.clear();
             relTypeCommands.clear();
+            relGroupCommands.clear();
         }
     }
 
@@ -534,6 +593,13 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                     removeNodeFromCache( command.getSecondNode() );
                 }
             }
+            // relationship groups
+            java.util.Collections.sort( relGroupCommands, sorter );
+            for ( Command.RelationshipGroupCommand command : relGroupCommands )
+            {
+                command.execute();
+                removeNodeFromCache( command.getOwningNode() );
+            }
             // nodes
             java.util.Collections.sort( nodeCommands, sorter );
             for ( Command.NodeCommand command : nodeCommands )
@@ -559,12 +625,15 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             relRecords.clear();
             relTypeRecords.clear();
             propIndexRecords.clear();
+            relGroupRecords.clear();
+            restructuredNodes.clear();
 
             nodeCommands.clear();
             propCommands.clear();
             propIndexCommands.clear();
             relCommands.clear();
             relTypeCommands.clear();
+            relGroupCommands.clear();
         }
     }
 
@@ -604,6 +673,11 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         return neoStore.getRelationshipStore();
     }
 
+    private RelationshipGroupStore getRelationshipGroupStore()
+    {
+        return neoStore.getRelationshipGroupStore();
+    }
+
     private PropertyStore getPropertyStore()
     {
         return neoStore.getPropertyStore();
@@ -655,46 +729,51 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         nodeRecord.setInUse( false );
         ArrayMap<Integer,PropertyData> propertyMap =
             new ArrayMap<Integer,PropertyData>( 9, false, true );
-        long nextProp = nodeRecord.getNextProp();
+        deletePropertyChain( nodeRecord.getNextProp(), propertyMap );
+        return propertyMap;
+    }
+
+    /**
+     * Deletes the property records of a chain, putting the committed values
+     * of the properties in it into <CODE>propertyMap</CODE>.
+     */
+    private void deletePropertyChain( long nextProp,
+        ArrayMap<Integer,PropertyData> propertyMap )
+    {
         while ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
         {
-            PropertyRecord propRecord = getPropertyRecord( nextProp );
-            if ( propRecord == null )
-            {
-                propRecord = getPropertyStore().getRecord( nextProp );
-                addPropertyRecord( propRecord );
-            }
-            if ( propRecord.isLight() )
-            {
-                getPropertyStore().makeHeavy( propRecord );
-            }
-            if ( !propRecord.isCreated() )
+            PropertyRecord propRecord = getOrLoadPropertyRecord( nextProp );
+            for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
             {
-                if ( !propRecord.isChanged() )
+                PropertyBlock block = propRecord.getBlock( i );
+                if ( block == null )
                 {
-                    propertyMap.put( propRecord.getKeyIndexId(), propRecord.newPropertyData(
-                            propertyGetValueOrNull( propRecord ) ) );
+                    continue;
                 }
-                else
+                long propertyId = PropertyStore.propertyId( propRecord.getId(), i );
+                getPropertyStore().makeHeavy( block );
+                if ( !block.isCreated() )
                 {
-                    // we have to re-read committed value since property has
-                    // changed and old value is erased in memory
-                    PropertyRecord diskValue = getPropertyStore().getRecord( propRecord.getId() );
-                    getPropertyStore().makeHeavy( diskValue );
-                    propertyMap.put( diskValue.getKeyIndexId(), diskValue.newPropertyData(
-                            propertyGetValueOrNull( propRecord ) ) );
+                    if ( !block.isChanged() )
+                    {
+                        propertyMap.put( block.getKeyIndexId(), block.newPropertyData(
+                                propertyId, propertyGetValueOrNull( block ) ) );
+                    }
+                    else
+                    {
+                        // we have to re-read committed value since property has
+                        // changed and old value is erased in memory
+                        PropertyBlock diskValue = getPropertyStore().getPropertyBlock( propertyId );
+                        propertyMap.put( diskValue.getKeyIndexId(), diskValue.newPropertyData(
+                                propertyId, propertyGetValueOrNull( diskValue ) ) );
+                    }
                 }
+                // TODO: update count on property index record
+                propRecord.removeBlock( i );
             }
-
             nextProp = propRecord.getNextProp();
             propRecord.setInUse( false );
-            // TODO: update count on property index record
-            for ( DynamicRecord valueRecord : propRecord.getValueRecords() )
-            {
-                valueRecord.setInUse( false );
-            }
         }
-        return propertyMap;
     }
 
     public ArrayMap<Integer,PropertyData> relDelete( long id )
@@ -712,44 +791,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         }
         ArrayMap<Integer,PropertyData> propertyMap =
             new ArrayMap<Integer,PropertyData>( 9, false, true );
-        long nextProp = record.getNextProp();
-        while ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
-        {
-            PropertyRecord propRecord = getPropertyRecord( nextProp );
-            if ( propRecord == null )
-            {
-                propRecord = getPropertyStore().getRecord( nextProp );
-                addPropertyRecord( propRecord );
-            }
-            if ( propRecord.isLight() )
-            {
-                getPropertyStore().makeHeavy( propRecord );
-            }
-            if ( !propRecord.isCreated() )
-            {
-                if ( !propRecord.isChanged() )
-                {
-                    propertyMap.put( propRecord.getKeyIndexId(),
-                            propRecord.newPropertyData( propertyGetValueOrNull( propRecord ) ) );
-                }
-                else
-                {
-                    // we have to re-read committed value since property has
-                    // changed and old value is erased in memory
-                    PropertyRecord diskValue = getPropertyStore().getRecord( propRecord.getId() );
-                    getPropertyStore().makeHeavy( diskValue );
-                    propertyMap.put( diskValue.getKeyIndexId(), diskValue.newPropertyData(
-                            propertyGetValueOrNull( propRecord ) ) );
-                }
-            }
-            nextProp = propRecord.getNextProp();
-            propRecord.setInUse( false );
-            // TODO: update count on property index record
-            for ( DynamicRecord valueRecord : propRecord.getValueRecords() )
-            {
-                valueRecord.setInUse( false );
-            }
-        }
+        deletePropertyChain( record.getNextProp(), propertyMap );
         disconnectRelationship( record );
         updateNodes( record );
         record.setInUse( false );
@@ -906,28 +948,255 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         return ReadTransaction.getMoreRelationships( nodeId, position, getRelGrabSize(), getRelationshipStore() );
     }
 
+    public long getMoreRelationships( long nodeId, long position, int loadedCount,
+        RelationshipChainVisitor visitor )
+    {
+        return getRelationshipStore().loadChain( nodeId, position,
+            neoStore.getRelationshipGrabSize( loadedCount ), visitor );
+    }
+
+    public List<RelationshipGroupRecord> getRelationshipGroups( long nodeId )
+    {
+        NodeRecord nodeRecord = getNodeRecord( nodeId );
+        if ( nodeRecord != null && nodeRecord.isCreated() )
+        {
+            return null;
+        }
+        return ReadTransaction.getRelationshipGroups( nodeId, neoStore );
+    }
+
     private void updateNodes( RelationshipRecord rel )
     {
-        if ( rel.getFirstPrevRel() == Record.NO_PREV_RELATIONSHIP.intValue() )
+        updateNode( rel.getFirstNode(), rel, rel.getFirstPrevRel(),
+            rel.getFirstNextRel() );
+        if ( rel.getSecondNode() != rel.getFirstNode() )
+        {
+            updateNode( rel.getSecondNode(), rel, rel.getSecondPrevRel(),
+                rel.getSecondNextRel() );
+        }
+    }
+
+    private void updateNode( long nodeId, RelationshipRecord rel, long prevRel,
+        long nextRel )
+    {
+        boolean first = prevRel == Record.NO_PREV_RELATIONSHIP.intValue();
+        NodeRecord node = getNodeRecord( nodeId );
+        if ( node == null )
+        {
+            node = getNodeStore().getRecord( nodeId );
+            if ( first || node.getDegree() != NodeRecord.UNKNOWN_DEGREE )
+            {
+                addNodeRecord( node );
+            }
+        }
+        changeDegree( node, -1 );
+        if ( node.isDense() )
+        {
+            // a cached node may have a position in this chain to continue
+            // loading from
+            restructuredNodes.add( nodeId );
+            if ( first )
+            {
+                setGroupHead( node, rel, nextRel );
+            }
+        }
+        else if ( first )
+        {
+            node.setNextRel( nextRel );
+        }
+    }
+
+    private static DirectionWrapper directionOf( RelationshipRecord rel, long nodeId )
+    {
+        if ( rel.getFirstNode() == rel.getSecondNode() )
+        {
+            return DirectionWrapper.BOTH;
+        }
+        return rel.getFirstNode() == nodeId ? DirectionWrapper.OUTGOING :
+            DirectionWrapper.INCOMING;
+    }
+
+    private static long nextRelOf( RelationshipRecord rel, long nodeId )
+    {
+        return rel.getFirstNode() == nodeId ? rel.getFirstNextRel() :
+            rel.getSecondNextRel();
+    }
+
+    private RelationshipRecord getLockedRelationshipRecord( long relId )
+    {
+        getWriteLock( new LockableRelationship( relId ) );
+        RelationshipRecord record = getRelationshipRecord( relId );
+        if ( record == null )
+        {
+            record = getRelationshipStore().getRecord( relId );
+            addRelationshipRecord( record );
+        }
+        return record;
+    }
+
+    // groups are only added to the transaction once they're changed
+    private RelationshipGroupRecord readRelationshipGroupRecord( long id )
+    {
+        RelationshipGroupRecord group = relGroupRecords.get( id );
+        if ( group == null )
+        {
+            group = getRelationshipGroupStore().getRecord( id );
+        }
+        return group;
+    }
+
+    private void setGroupHead( NodeRecord node, RelationshipRecord rel, long head )
+    {
+        RelationshipGroupRecord previous = null;
+        long id = node.getNextRel();
+        while ( id != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipGroupRecord group = readRelationshipGroupRecord( id );
+            if ( group.getType() == rel.getType() )
+            {
+                group.setFirst( directionOf( rel, node.getId() ), head );
+                relGroupRecords.put( id, group );
+                if ( group.isEmpty() )
+                {
+                    group.setInUse( false );
+                    if ( previous == null )
+                    {
+                        node.setNextRel( group.getNext() );
+                    }
+                    else
+                    {
+                        previous.setNext( group.getNext() );
+                        relGroupRecords.put( previous.getId(), previous );
+                    }
+                }
+                return;
+            }
+            previous = group;
+            id = group.getNext();
+        }
+        throw new InvalidRecordException( "No relationship group of type " +
+            rel.getType() + " found for " + node );
+    }
+
+    private RelationshipGroupRecord getOrCreateGroup( NodeRecord node, int type )
+    {
+        long id = node.getNextRel();
+        while ( id != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipGroupRecord group = readRelationshipGroupRecord( id );
+            if ( group.getType() == type )
+            {
+                return group;
+            }
+            id = group.getNext();
+        }
+        RelationshipGroupRecord group = new RelationshipGroupRecord(
+            getRelationshipGroupStore().nextId(), type );
+        group.setInUse( true );
+        group.setCreated();
+        group.setOwningNode( node.getId() );
+        group.setNext( node.getNextRel() );
+        node.setNextRel( group.getId() );
+        relGroupRecords.put( group.getId(), group );
+        return group;
+    }
+
+    /**
+     * Puts <CODE>rel</CODE> first in the chain of its type and direction of
+     * the dense <CODE>node</CODE>.
+     */
+    private void connectDense( NodeRecord node, RelationshipRecord rel )
+    {
+        long nodeId = node.getId();
+        RelationshipGroupRecord group = getOrCreateGroup( node, rel.getType() );
+        DirectionWrapper direction = directionOf( rel, nodeId );
+        long first = group.getFirst( direction );
+        if ( rel.getFirstNode() == nodeId )
+        {
+            rel.setFirstPrevRel( Record.NO_PREV_RELATIONSHIP.intValue() );
+            rel.setFirstNextRel( first );
+        }
+        if ( rel.getSecondNode() == nodeId )
+        {
+            rel.setSecondPrevRel( Record.NO_PREV_RELATIONSHIP.intValue() );
+            rel.setSecondNextRel( first );
+        }
+        if ( first != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipRecord firstRel = getLockedRelationshipRecord( first );
+            if ( firstRel.getFirstNode() == nodeId )
+            {
+                firstRel.setFirstPrevRel( rel.getId() );
+            }
+            if ( firstRel.getSecondNode() == nodeId )
+            {
+                firstRel.setSecondPrevRel( rel.getId() );
+            }
+        }
+        group.setFirst( direction, rel.getId() );
+        relGroupRecords.put( group.getId(), group );
+        // the chain of this type may not be loaded for a cached node, in
+        // which case the relationship would be loaded twice
+        restructuredNodes.add( nodeId );
+    }
+
+    private void convertToDenseIfNeeded( NodeRecord node )
+    {
+        int threshold = neoStore.getDenseNodeThreshold();
+        if ( threshold > 0 && !node.isDense() )
         {
-            NodeRecord firstNode = getNodeRecord( rel.getFirstNode() );
-            if ( firstNode == null )
+            if ( node.getDegree() == NodeRecord.UNKNOWN_DEGREE )
             {
-                firstNode = getNodeStore().getRecord( rel.getFirstNode() );
-                addNodeRecord( firstNode );
+                node.setDegree( countRelationships( node ) );
+            }
+            if ( node.getDegree() >= threshold )
+            {
+                convertToDense( node );
             }
-            firstNode.setNextRel( rel.getFirstNextRel() );
         }
-        if ( rel.getSecondPrevRel() == Record.NO_PREV_RELATIONSHIP.intValue() )
+    }
+
+    // only needed once for each node of an upgraded store, the degree is
+    // kept up to date from then on
+    private int countRelationships( NodeRecord node )
+    {
+        int count = 0;
+        long next = node.getNextRel();
+        while ( next != Record.NO_NEXT_RELATIONSHIP.intValue() )
         {
-            NodeRecord secondNode = getNodeRecord( rel.getSecondNode() );
-            if ( secondNode == null )
+            RelationshipRecord rel = getRelationshipRecord( next );
+            if ( rel == null )
             {
-                secondNode = getNodeStore().getRecord( rel.getSecondNode() );
-                addNodeRecord( secondNode );
+                rel = getRelationshipStore().getRecord( next );
             }
-            secondNode.setNextRel( rel.getSecondNextRel() );
+            next = nextRelOf( rel, node.getId() );
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Moves the relationships of <CODE>node</CODE> from its single chain to
+     * one chain per type and direction. The relative order of the
+     * relationships in each chain is kept.
+     */
+    private void convertToDense( NodeRecord node )
+    {
+        List<RelationshipRecord> chain = new ArrayList<RelationshipRecord>();
+        long next = node.getNextRel();
+        while ( next != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipRecord rel = getLockedRelationshipRecord( next );
+            chain.add( rel );
+            next = nextRelOf( rel, node.getId() );
+        }
+        node.setNextRel( Record.NO_NEXT_RELATIONSHIP.intValue() );
+        node.setDense( true );
+        for ( int i = chain.size() - 1; i >= 0; i-- )
+        {
+            connectDense( node, chain.get( i ) );
         }
+        restructuredNodes.add( node.getId() );
     }
 
     public void relRemoveProperty( long relId, long propertyId )
@@ -942,59 +1211,53 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             throw new IllegalStateException( "Property remove on relationship[" +
                 relId + "] illegal since it has been deleted." );
         }
-        PropertyRecord propRecord = getPropertyRecord( propertyId );
-        if ( propRecord == null )
+        PropertyRecord propRecord = getOrLoadPropertyRecord(
+            PropertyStore.recordId( propertyId ) );
+        propRecord.setRelId( relId );
+        removePropertyBlock( propRecord, propertyId );
+        if ( !propRecord.inUse() && relRecord.getNextProp() == propRecord.getId() )
         {
-            propRecord = getPropertyStore().getRecord( propertyId );
-            addPropertyRecord( propRecord );
+            relRecord.setNextProp( propRecord.getNextProp() );
+            // re-adding not a problem
+            addRelationshipRecord( relRecord );
         }
-        if ( !propRecord.inUse() )
+    }
+
+    /**
+     * Removes the property with id <CODE>propertyId</CODE> from
+     * <CODE>propRecord</CODE>. If it was the last one in the record, the
+     * record is deleted and unlinked from its chain, but it's up to the
+     * caller to update the node or relationship if it was the first one.
+     */
+    private void removePropertyBlock( PropertyRecord propRecord, long propertyId )
+    {
+        int slot = PropertyStore.slot( propertyId );
+        PropertyBlock block = propRecord.inUse() ? propRecord.getBlock( slot ) : null;
+        if ( block == null )
         {
             throw new IllegalStateException( "Unable to delete property[" +
                 propertyId + "] since it is already deleted." );
         }
-        propRecord.setRelId( relId );
-        if ( propRecord.isLight() )
+        getPropertyStore().makeHeavy( block );
+        // TODO: update count on property index record
+        propRecord.removeBlock( slot );
+        if ( propRecord.getBlockCount() > 0 )
         {
-            getPropertyStore().makeHeavy( propRecord );
+            return;
         }
 
         propRecord.setInUse( false );
-        // TODO: update count on property index record
-        for ( DynamicRecord valueRecord : propRecord.getValueRecords() )
-        {
-            if ( valueRecord.inUse() )
-            {
-                valueRecord.setInUse( false, propRecord.getType().intValue() );
-            }
-        }
         long prevProp = propRecord.getPrevProp();
         long nextProp = propRecord.getNextProp();
-        if ( relRecord.getNextProp() == propertyId )
-        {
-            relRecord.setNextProp( nextProp );
-            // re-adding not a problem
-            addRelationshipRecord( relRecord );
-        }
         if ( prevProp != Record.NO_PREVIOUS_PROPERTY.intValue() )
         {
-            PropertyRecord prevPropRecord = getPropertyRecord( prevProp );
-            if ( prevPropRecord == null )
-            {
-                prevPropRecord = getPropertyStore().getLightRecord( prevProp );
-                addPropertyRecord( prevPropRecord );
-            }
+            PropertyRecord prevPropRecord = getOrLoadPropertyRecord( prevProp );
             assert prevPropRecord.inUse();
             prevPropRecord.setNextProp( nextProp );
         }
         if ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
         {
-            PropertyRecord nextPropRecord = getPropertyRecord( nextProp );
-            if ( nextPropRecord == null )
-            {
-                nextPropRecord = getPropertyStore().getLightRecord( nextProp );
-                addPropertyRecord( nextPropRecord );
-            }
+            PropertyRecord nextPropRecord = getOrLoadPropertyRecord( nextProp );
             assert nextPropRecord.inUse();
             nextPropRecord.setPrevProp( prevProp );
         }
@@ -1049,19 +1312,15 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         return ReadTransaction.loadProperties( getPropertyStore(), nodeRecord.getNextProp() );
     }
 
-    public Object propertyGetValueOrNull( PropertyRecord propertyRecord )
+    public Object propertyGetValueOrNull( PropertyBlock block )
     {
-        return propertyRecord.getType().getValue( propertyRecord, propertyRecord.isLight() ? null : getPropertyStore() );
+        return block.getType().getValue( block, block.isLight() ? null : getPropertyStore() );
     }
 
     public Object loadPropertyValue( long id )
     {
-        PropertyRecord propertyRecord = getPropertyStore().getRecord( id );
-        if ( propertyRecord.isLight() )
-        {
-            getPropertyStore().makeHeavy( propertyRecord );
-        }
-        return propertyRecord.getType().getValue( propertyRecord, getPropertyStore() );
+        PropertyBlock block = getPropertyStore().getPropertyBlock( id );
+        return block.getType().getValue( block, getPropertyStore() );
     }
 
     public void nodeRemoveProperty( long nodeId, long propertyId )
@@ -1076,62 +1335,16 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             throw new IllegalStateException( "Property remove on node[" +
                 nodeId + "] illegal since it has been deleted." );
         }
-        PropertyRecord propRecord = getPropertyRecord( propertyId );
-        if ( propRecord == null )
-        {
-            propRecord = getPropertyStore().getRecord( propertyId );
-            addPropertyRecord( propRecord );
-        }
-        if ( !propRecord.inUse() )
-        {
-            throw new IllegalStateException( "Unable to delete property[" +
-                propertyId + "] since it is already deleted." );
-        }
+        PropertyRecord propRecord = getOrLoadPropertyRecord(
+            PropertyStore.recordId( propertyId ) );
         propRecord.setNodeId( nodeId );
-        if ( propRecord.isLight() )
+        removePropertyBlock( propRecord, propertyId );
+        if ( !propRecord.inUse() && nodeRecord.getNextProp() == propRecord.getId() )
         {
-            getPropertyStore().makeHeavy( propRecord );
-        }
-
-        propRecord.setInUse( false );
-        // TODO: update count on property index record
-        for ( DynamicRecord valueRecord : propRecord.getValueRecords() )
-        {
-            if ( valueRecord.inUse() )
-            {
-                valueRecord.setInUse( false, propRecord.getType().intValue() );
-            }
-        }
-        long prevProp = propRecord.getPrevProp();
-        long nextProp = propRecord.getNextProp();
-        if ( nodeRecord.getNextProp() == propertyId )
-        {
-            nodeRecord.setNextProp( nextProp );
+            nodeRecord.setNextProp( propRecord.getNextProp() );
             // re-adding not a problem
             addNodeRecord( nodeRecord );
         }
-        if ( prevProp != Record.NO_PREVIOUS_PROPERTY.intValue() )
-        {
-            PropertyRecord prevPropRecord = getPropertyRecord( prevProp );
-            if ( prevPropRecord == null )
-            {
-                prevPropRecord = getPropertyStore().getLightRecord( prevProp );
-                addPropertyRecord( prevPropRecord );
-            }
-            assert prevPropRecord.inUse();
-            prevPropRecord.setNextProp( nextProp );
-        }
-        if ( nextProp != Record.NO_NEXT_PROPERTY.intValue() )
-        {
-            PropertyRecord nextPropRecord = getPropertyRecord( nextProp );
-            if ( nextPropRecord == null )
-            {
-                nextPropRecord = getPropertyStore().getLightRecord( nextProp );
-                addPropertyRecord( nextPropRecord );
-            }
-            assert nextPropRecord.inUse();
-            nextPropRecord.setPrevProp( prevProp );
-        }
     }
 
     public PropertyData relChangeProperty( long relId, long propertyId, Object value )
@@ -1146,46 +1359,10 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             throw new IllegalStateException( "Property change on relationship[" +
                 relId + "] illegal since it has been deleted." );
         }
-        PropertyRecord propertyRecord = getPropertyRecord( propertyId );
-        if ( propertyRecord == null )
-        {
-            propertyRecord = getPropertyStore().getRecord( propertyId );
-            addPropertyRecord( propertyRecord );
-        }
-        if ( !propertyRecord.inUse() )
-        {
-            throw new IllegalStateException( "Unable to change property[" +
-                propertyId + "] since it is deleted." );
-        }
+        PropertyRecord propertyRecord = getOrLoadPropertyRecord(
+            PropertyStore.recordId( propertyId ) );
         propertyRecord.setRelId( relId );
-        if ( propertyRecord.isLight() )
-        {
-            getPropertyStore().makeHeavy( propertyRecord );
-        }
-        propertyRecord.setChanged();
-        if ( propertyRecord.getType() == PropertyType.STRING )
-        {
-            for ( DynamicRecord record : propertyRecord.getValueRecords() )
-            {
-                if ( record.inUse() )
-                {
-                    record.setInUse( false, PropertyType.STRING.intValue() );
-                }
-            }
-        }
-        else if ( propertyRecord.getType() == PropertyType.ARRAY )
-        {
-            for ( DynamicRecord record : propertyRecord.getValueRecords() )
-            {
-                if ( record.inUse() )
-                {
-                    record.setInUse( false, PropertyType.ARRAY.intValue() );
-                }
-            }
-        }
-        getPropertyStore().encodeValue( propertyRecord, value );
-        addPropertyRecord( propertyRecord );
-        return propertyRecord.newPropertyData( value );
+        return changePropertyBlock( propertyRecord, propertyId, value );
     }
 
     public PropertyData nodeChangeProperty( long nodeId, long propertyId, Object value )
@@ -1200,138 +1377,38 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             throw new IllegalStateException( "Property change on node[" +
                 nodeId + "] illegal since it has been deleted." );
         }
-        PropertyRecord propertyRecord = getPropertyRecord( propertyId );
-        if ( propertyRecord == null )
-        {
-            propertyRecord = getPropertyStore().getRecord( propertyId );
-            addPropertyRecord( propertyRecord );
-        }
-        if ( !propertyRecord.inUse() )
-        {
-            throw new IllegalStateException( "Unable to change property[" +
-                propertyId + "] since it is deleted." );
-        }
+        PropertyRecord propertyRecord = getOrLoadPropertyRecord(
+            PropertyStore.recordId( propertyId ) );
         propertyRecord.setNodeId( nodeId );
-        if ( propertyRecord.isLight() )
-        {
-            getPropertyStore().makeHeavy( propertyRecord );
-        }
-        propertyRecord.setChanged();
-        if ( propertyRecord.getType() == PropertyType.STRING )
-        {
-            for ( DynamicRecord record : propertyRecord.getValueRecords() )
-            {
-                if ( record.inUse() )
-                {
-                    record.setInUse( false, PropertyType.STRING.intValue() );
-                }
-            }
-        }
-        else if ( propertyRecord.getType() == PropertyType.ARRAY )
-        {
-            for ( DynamicRecord record : propertyRecord.getValueRecords() )
-            {
-                if ( record.inUse() )
-                {
-                    record.setInUse( false, PropertyType.ARRAY.intValue() );
-                }
-            }
-        }
-        getPropertyStore().encodeValue( propertyRecord, value );
-        addPropertyRecord( propertyRecord );
-        return propertyRecord.newPropertyData( value );
+        return changePropertyBlock( propertyRecord, propertyId, value );
     }
 
-    /*
-     * Public for testing only
-     */
-    public PropertyRecord relAddProperty( long relId, long propertyId, PropertyIndex index,
-        Object value )
+    private PropertyData changePropertyBlock( PropertyRecord propertyRecord,
+        long propertyId, Object value )
     {
-        RelationshipRecord relRecord = getRelationshipRecord( relId );
-        if ( relRecord == null )
+        int slot = PropertyStore.slot( propertyId );
+        PropertyBlock block = propertyRecord.inUse() ?
+            propertyRecord.getBlock( slot ) : null;
+        if ( block == null )
         {
-            relRecord = getRelationshipStore().getRecord( relId );
-            addRelationshipRecord( relRecord );
+            throw new IllegalStateException( "Unable to change property[" +
+                propertyId + "] since it is deleted." );
         }
-        if ( !relRecord.inUse() )
+        // encode into a new block so that nothing is changed if the value
+        // can't be encoded
+        PropertyBlock newBlock = new PropertyBlock();
+        newBlock.setKeyIndexId( block.getKeyIndexId() );
+        getPropertyStore().encodeValue( newBlock, value );
+        newBlock.setChanged();
+        if ( block.isCreated() )
         {
-            throw new IllegalStateException( "Property add on relationship[" +
-                relId + "] illegal since it has been deleted." );
+            newBlock.setCreated();
         }
-        PropertyRecord propertyRecord = new PropertyRecord( propertyId );
-        propertyRecord.setInUse( true );
-        propertyRecord.setCreated();
-        propertyRecord.setRelId( relId );
-        if ( relRecord.getNextProp() != Record.NO_NEXT_RELATIONSHIP.intValue() )
-        {
-            PropertyRecord prevProp = getPropertyRecord(
-                relRecord.getNextProp() );
-            if ( prevProp == null )
-            {
-                prevProp = getPropertyStore().getLightRecord(
-                    relRecord.getNextProp() );
-                addPropertyRecord( prevProp );
-            }
-            assert prevProp.getPrevProp() ==
-                Record.NO_PREVIOUS_PROPERTY.intValue();
-            prevProp.setPrevProp( propertyId );
-            propertyRecord.setNextProp( prevProp.getId() );
-        }
-        int keyIndexId = index.getKeyId();
-        propertyRecord.setKeyIndexId( keyIndexId );
-        getPropertyStore().encodeValue( propertyRecord, value );
-        relRecord.setNextProp( propertyId );
-        addPropertyRecord( propertyRecord );
-        return propertyRecord;
-    }
-
-    /*
-     * Public for testing only
-     */
-    public PropertyRecord nodeAddProperty( long nodeId, long propertyId, PropertyIndex index,
-        Object value )
-    {
-        NodeRecord nodeRecord = getNodeRecord( nodeId );
-        if ( nodeRecord == null )
-        {
-            nodeRecord = getNodeStore().getRecord( nodeId );
-            addNodeRecord( nodeRecord );
-        }
-        if ( !nodeRecord.inUse() )
-        {
-            throw new IllegalStateException( "Property add on node[" +
-                nodeId + "] illegal since it has been deleted." );
-        }
-
-        PropertyRecord propertyRecord = new PropertyRecord( propertyId );
-        propertyRecord.setInUse( true );
-        propertyRecord.setCreated();
-        propertyRecord.setNodeId( nodeId );
-        // encoding has to be set here before anything is change
-        // (exception is thrown in encodeValue now and tx not marked
-        // rollback only
-        getPropertyStore().encodeValue( propertyRecord, value );
-        if ( nodeRecord.getNextProp() != Record.NO_NEXT_PROPERTY.intValue() )
-        {
-            PropertyRecord prevProp = getPropertyRecord(
-                nodeRecord.getNextProp() );
-            if ( prevProp == null )
-            {
-                prevProp = getPropertyStore().getLightRecord(
-                    nodeRecord.getNextProp() );
-                addPropertyRecord( prevProp );
-            }
-            assert prevProp.getPrevProp() ==
-                Record.NO_PREVIOUS_PROPERTY.intValue();
-            prevProp.setPrevProp( propertyId );
-            propertyRecord.setNextProp( prevProp.getId() );
-        }
-        int keyIndexId = index.getKeyId();
-        propertyRecord.setKeyIndexId( keyIndexId );
-        nodeRecord.setNextProp( propertyId );
-        addPropertyRecord( propertyRecord );
-        return propertyRecord;
+        getPropertyStore().makeHeavy( block );
+        propertyRecord.deleteValueRecords( block.getType(),
+            block.clearValueRecords() );
+        propertyRecord.setBlock( slot, newBlock );
+        return newBlock.newPropertyData( propertyId, value );
     }
 
     public void relationshipCreate( long id, int type, long firstNodeId, long secondNodeId )
@@ -1358,25 +1435,71 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             throw new IllegalStateException( "Second node[" + secondNodeId +
                 "] is deleted and cannot be used to create a relationship" );
         }
+        convertToDenseIfNeeded( firstNode );
+        if ( secondNode != firstNode )
+        {
+            convertToDenseIfNeeded( secondNode );
+        }
         RelationshipRecord record = new RelationshipRecord( id, firstNodeId,
             secondNodeId, type );
         record.setInUse( true );
         record.setCreated();
         addRelationshipRecord( record );
         connectRelationship( firstNode, secondNode, record );
+        changeDegree( firstNode, 1 );
+        if ( secondNode != firstNode )
+        {
+            changeDegree( secondNode, 1 );
+        }
+    }
+
+    private static void changeDegree( NodeRecord node, int delta )
+    {
+        if ( node.getDegree() != NodeRecord.UNKNOWN_DEGREE )
+        {
+            node.setDegree( node.getDegree() + delta );
+        }
     }
 
     private void connectRelationship( NodeRecord firstNode,
         NodeRecord secondNode, RelationshipRecord rel )
     {
-        assert firstNode.getNextRel() != rel.getId();
-        assert secondNode.getNextRel() != rel.getId();
-        rel.setFirstNextRel( firstNode.getNextRel() );
-        rel.setSecondNextRel( secondNode.getNextRel() );
-        connect( firstNode, rel );
-        connect( secondNode, rel );
-        firstNode.setNextRel( rel.getId() );
-        secondNode.setNextRel( rel.getId() );
+        boolean firstSparse = !firstNode.isDense();
+        boolean secondSparse = !secondNode.isDense();
+        assert !firstSparse || firstNode.getNextRel() != rel.getId();
+        assert !secondSparse || secondNode.getNextRel() != rel.getId();
+        if ( firstSparse )
+        {
+            rel.setFirstNextRel( firstNode.getNextRel() );
+        }
+        if ( secondSparse )
+        {
+            rel.setSecondNextRel( secondNode.getNextRel() );
+        }
+        if ( firstSparse )
+        {
+            connect( firstNode, rel );
+        }
+        if ( secondSparse )
+        {
+            connect( secondNode, rel );
+        }
+        if ( firstSparse )
+        {
+            firstNode.setNextRel( rel.getId() );
+        }
+        if ( secondSparse )
+        {
+            secondNode.setNextRel( rel.getId() );
+        }
+        if ( !firstSparse )
+        {
+            connectDense( firstNode, rel );
+        }
+        if ( !secondSparse && secondNode != firstNode )
+        {
+            connectDense( secondNode, rel );
+        }
     }
 
     private void connect( NodeRecord node, RelationshipRecord rel )
@@ -1414,6 +1537,11 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         NodeRecord nodeRecord = new NodeRecord( nodeId );
         nodeRecord.setInUse( true );
         nodeRecord.setCreated();
+        if ( !getNodeStore().hasDenseFormat() )
+        {
+            // only stores with dense nodes keep the degree
+            nodeRecord.setDegree( NodeRecord.UNKNOWN_DEGREE );
+        }
         addNodeRecord( nodeRecord );
     }
 
@@ -1540,9 +1668,20 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         propertyRecords.put( record.getId(), record );
     }
 
-    PropertyRecord getPropertyRecord( long propertyId )
+    PropertyRecord getPropertyRecord( long recordId )
     {
-        return propertyRecords.get( propertyId );
+        return propertyRecords.get( recordId );
+    }
+
+    private PropertyRecord getOrLoadPropertyRecord( long recordId )
+    {
+        PropertyRecord record = getPropertyRecord( recordId );
+        if ( record == null )
+        {
+            record = getPropertyStore().getLightRecord( recordId );
+            addPropertyRecord( record );
+        }
+        return record;
     }
 
     void addRelationshipTypeRecord( RelationshipTypeRecord record )
@@ -1708,12 +1847,26 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
 
     public int getKeyIdForProperty( long propertyId )
     {
-        PropertyRecord propRecord = getPropertyRecord( propertyId );
-        if ( propRecord == null )
+        PropertyRecord propRecord = getPropertyRecord(
+            PropertyStore.recordId( propertyId ) );
+        PropertyBlock block = null;
+        if ( propRecord != null )
+        {
+            block = propRecord.getBlock( PropertyStore.slot( propertyId ) );
+        }
+        if ( block == null )
+        {
+            // not touched, or removed, in this transaction
+            propRecord = getPropertyStore().getLightRecord(
+                PropertyStore.recordId( propertyId ) );
+            block = propRecord.getBlock( PropertyStore.slot( propertyId ) );
+        }
+        if ( block == null )
         {
-            propRecord = getPropertyStore().getLightRecord( propertyId );
+            throw new InvalidRecordException( "Property[" + propertyId +
+                "] not in use" );
         }
-        return propRecord.getKeyIndexId();
+        return block.getKeyIndexId();
     }
 
     @Override
@@ -1737,15 +1890,104 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     @Override
     public PropertyData nodeAddProperty( long nodeId, PropertyIndex index, Object value )
     {
-        long propertyId = neoStore.getPropertyStore().nextId();
-        return nodeAddProperty( nodeId, propertyId, index, value ).newPropertyData( value );
+        NodeRecord nodeRecord = getNodeRecord( nodeId );
+        if ( nodeRecord == null )
+        {
+            nodeRecord = getNodeStore().getRecord( nodeId );
+            addNodeRecord( nodeRecord );
+        }
+        if ( !nodeRecord.inUse() )
+        {
+            throw new IllegalStateException( "Property add on node[" +
+                nodeId + "] illegal since it has been deleted." );
+        }
+        // encoding has to be set here before anything is change
+        // (exception is thrown in encodeValue now and tx not marked
+        // rollback only
+        PropertyBlock block = newPropertyBlock( index, value );
+        PropertyRecord propertyRecord = addPropertyBlock( nodeRecord.getNextProp(), block );
+        propertyRecord.setNodeId( nodeId );
+        nodeRecord.setNextProp( propertyRecord.getId() );
+        return block.newPropertyData( propertyIdOf( propertyRecord, block ), value );
     }
 
     @Override
     public PropertyData relAddProperty( long relId, PropertyIndex index, Object value )
     {
-        long propertyId = neoStore.getPropertyStore().nextId();
-        return relAddProperty( relId, propertyId, index, value ).newPropertyData( value );
+        RelationshipRecord relRecord = getRelationshipRecord( relId );
+        if ( relRecord == null )
+        {
+            relRecord = getRelationshipStore().getRecord( relId );
+            addRelationshipRecord( relRecord );
+        }
+        if ( !relRecord.inUse() )
+        {
+            throw new IllegalStateException( "Property add on relationship[" +
+                relId + "] illegal since it has been deleted." );
+        }
+        PropertyBlock block = newPropertyBlock( index, value );
+        PropertyRecord propertyRecord = addPropertyBlock( relRecord.getNextProp(), block );
+        propertyRecord.setRelId( relId );
+        relRecord.setNextProp( propertyRecord.getId() );
+        return block.newPropertyData( propertyIdOf( propertyRecord, block ), value );
+    }
+
+    private PropertyBlock newPropertyBlock( PropertyIndex index, Object value )
+    {
+        PropertyBlock block = new PropertyBlock();
+        block.setCreated();
+        block.setKeyIndexId( index.getKeyId() );
+        getPropertyStore().encodeValue( block, value );
+        return block;
+    }
+
+    /**
+     * Puts <CODE>block</CODE> in a free slot of the first record of the chain
+     * starting at <CODE>firstProp</CODE>, or in a new record put first in
+     * the chain if it's full.
+     *
+     * @return the record that now holds the property, which is the first
+     * record of the chain
+     */
+    private PropertyRecord addPropertyBlock( long firstProp, PropertyBlock block )
+    {
+        PropertyRecord first = null;
+        if ( firstProp != Record.NO_NEXT_PROPERTY.intValue() )
+        {
+            first = getOrLoadPropertyRecord( firstProp );
+            int slot = first.getFreeSlot();
+            if ( slot != -1 )
+            {
+                first.setBlock( slot, block );
+                return first;
+            }
+        }
+        PropertyRecord propertyRecord = new PropertyRecord(
+            getPropertyStore().nextId() );
+        propertyRecord.setInUse( true );
+        propertyRecord.setCreated();
+        if ( first != null )
+        {
+            assert first.getPrevProp() ==
+                Record.NO_PREVIOUS_PROPERTY.intValue();
+            first.setPrevProp( propertyRecord.getId() );
+            propertyRecord.setNextProp( first.getId() );
+        }
+        propertyRecord.setBlock( 0, block );
+        addPropertyRecord( propertyRecord );
+        return propertyRecord;
+    }
+
+    private static long propertyIdOf( PropertyRecord propertyRecord, PropertyBlock block )
+    {
+        for ( int i = 0; i < PropertyStore.BLOCKS_PER_RECORD; i++ )
+        {
+            if ( propertyRecord.getBlock( i ) == block )
+            {
+                return PropertyStore.propertyId( propertyRecord.getId(), i );
+            }
+        }
+        throw new IllegalArgumentException( block + " not in " + propertyRecord );
     }
 
     @Override
@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.impl.persistence;
 
+import java.util.List;
 import java.util.Map;
 
 import javax.transaction.xa.XAResource;
@@ -27,6 +28,8 @@ import org.neo4j.helpers.Pair;
 import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipChainVisitor;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
 import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
@@ -110,6 +113,23 @@ public interface NeoStoreTransaction
     public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
             long nodeId, long position );
 
+    /*
+     * Loads the next batch of relationships in the chain of nodeId, starting
+     * at position, into visitor. loadedCount is the number of relationships
+     * already loaded for the node and lets the batch grow for nodes with
+     * many relationships. Returns the relationship chain position after
+     * this batch.
+     */
+    public long getMoreRelationships( long nodeId, long position, int loadedCount,
+            RelationshipChainVisitor visitor );
+
+    /*
+     * Returns the relationship groups of nodeId, each holding the chain
+     * positions of one relationship type, or null if the node keeps all its
+     * relationships in a single chain (see getRelationshipChainPosition).
+     */
+    public List<RelationshipGroupRecord> getRelationshipGroups( long nodeId );
+
     public RelIdArray getCreatedNodes();
 
     public boolean isNodeCreated( long nodeId );
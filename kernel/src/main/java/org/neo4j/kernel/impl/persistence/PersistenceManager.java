@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.impl.persistence;
 
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -40,6 +41,8 @@ import org.neo4j.kernel.impl.core.TransactionEventsSyncHook;
 import org.neo4j.kernel.impl.core.TxEventSyncHookFactory;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexData;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipChainVisitor;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
 import org.neo4j.kernel.impl.nioneo.xa.NioNeoDbPersistenceSource;
@@ -108,6 +111,18 @@ public class PersistenceManager
         return getReadOnlyResource().getMoreRelationships( nodeId, position );
     }
 
+    public long getMoreRelationships( long nodeId, long position, int loadedCount,
+            RelationshipChainVisitor visitor )
+    {
+        return getReadOnlyResource().getMoreRelationships( nodeId, position,
+                loadedCount, visitor );
+    }
+
+    public List<RelationshipGroupRecord> getRelationshipGroups( long nodeId )
+    {
+        return getReadOnlyResourceIfPossible().getRelationshipGroups( nodeId );
+    }
+
     public ArrayMap<Integer,PropertyData> loadNodeProperties( long nodeId,
             boolean light )
     {
@@ -0,0 +1,622 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.kernel.DeadlockDetectedException;
+
+/**
+ * A {@link LockManager} that spreads its resources over a number of
+ * independently locked stripes instead of guarding all of them with one
+ * monitor, so that transactions locking different resources don't contend
+ * with each other.
+ * <p>
+ * A resource is represented by a small {@link ResourceLock} that keeps the
+ * first transaction holding it inline, so the common case of a single
+ * transaction locking a resource nobody else wants neither waits nor builds
+ * any of the wait queue and transaction maps of a {@link RWLock}. Other
+ * holders are only tracked once a resource is read locked by several
+ * transactions.
+ * <p>
+ * Deadlock detection is only done by a transaction that actually has to
+ * wait. It follows the wait-for edges from the holders of the resource,
+ * each transaction waits for at most one resource, and fails with a
+ * {@link DeadlockDetectedException} if that leads back to the waiting
+ * transaction. Detection and the registration of a waiting transaction are
+ * serialized so that two transactions can't both start waiting on each
+ * other unnoticed. Waiting transactions are woken up in no particular order
+ * when a resource is released.
+ */
+public class StripedLockManager extends LockManager
+{
+    public static final int DEFAULT_STRIPE_COUNT = 64;
+
+    private static final Transaction[] NO_TRANSACTIONS = new Transaction[0];
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final TransactionManager tm;
+    // the resource each waiting transaction waits for, the edges of the
+    // wait-for graph, guarded by itself
+    private final Map<Transaction,ResourceLock> waitingTxMap =
+        new HashMap<Transaction,ResourceLock>();
+    private final AtomicLong deadlockCount = new AtomicLong();
+
+    public StripedLockManager( TransactionManager tm )
+    {
+        this( tm, DEFAULT_STRIPE_COUNT );
+    }
+
+    /**
+     * @param tm the transaction manager to get the current transaction from
+     * @param stripeCount the number of stripes, rounded up to a power of two
+     */
+    public StripedLockManager( TransactionManager tm, int stripeCount )
+    {
+        super( tm );
+        if ( stripeCount < 1 )
+        {
+            throw new IllegalArgumentException( "stripeCount=" + stripeCount );
+        }
+        int size = Integer.highestOneBit( stripeCount );
+        if ( size < stripeCount )
+        {
+            size <<= 1;
+        }
+        this.tm = tm;
+        this.stripes = new Stripe[size];
+        this.stripeMask = size - 1;
+        for ( int i = 0; i < size; i++ )
+        {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private Stripe stripeFor( Object resource )
+    {
+        int h = resource.hashCode();
+        h ^= ( h >>> 20 ) ^ ( h >>> 12 );
+        h ^= ( h >>> 7 ) ^ ( h >>> 4 );
+        return stripes[h & stripeMask];
+    }
+
+    private Transaction getCurrentTransaction()
+    {
+        try
+        {
+            Transaction tx = tm.getTransaction();
+            return tx != null ? tx : new RWLock.PlaceboTransaction();
+        }
+        catch ( SystemException e )
+        {
+            throw new TransactionFailureException(
+                "Could not get current transaction.", e );
+        }
+    }
+
+    @Override
+    public long getDetectedDeadlockCount()
+    {
+        return deadlockCount.get();
+    }
+
+    @Override
+    public void getReadLock( Object resource )
+        throws DeadlockDetectedException, IllegalResourceException
+    {
+        acquire( resource, LockType.READ );
+    }
+
+    @Override
+    public void getWriteLock( Object resource )
+        throws DeadlockDetectedException, IllegalResourceException
+    {
+        acquire( resource, LockType.WRITE );
+    }
+
+    @Override
+    public void releaseReadLock( Object resource, Transaction tx )
+        throws LockNotFoundException, IllegalResourceException
+    {
+        release( resource, tx, LockType.READ );
+    }
+
+    @Override
+    public void releaseWriteLock( Object resource, Transaction tx )
+        throws LockNotFoundException, IllegalResourceException
+    {
+        release( resource, tx, LockType.WRITE );
+    }
+
+    private void acquire( Object resource, LockType type )
+    {
+        if ( resource == null )
+        {
+            throw new IllegalResourceException( "Null parameter" );
+        }
+        Transaction tx = getCurrentTransaction();
+        Stripe stripe = stripeFor( resource );
+        stripe.lock();
+        try
+        {
+            ResourceLock lock = stripe.locks.get( resource );
+            if ( lock == null )
+            {
+                stripe.locks.put( resource, new ResourceLock( resource, tx, type ) );
+                return;
+            }
+            try
+            {
+                while ( !lock.tryAcquire( tx, type ) )
+                {
+                    waitFor( stripe, lock, tx );
+                }
+            }
+            finally
+            {
+                if ( lock.isUnused() )
+                {
+                    stripe.locks.remove( resource );
+                }
+            }
+        }
+        finally
+        {
+            stripe.unlock();
+        }
+    }
+
+    private void release( Object resource, Transaction tx, LockType type )
+    {
+        if ( resource == null )
+        {
+            throw new IllegalResourceException( "Null parameter" );
+        }
+        if ( tx == null )
+        {
+            tx = getCurrentTransaction();
+        }
+        Stripe stripe = stripeFor( resource );
+        stripe.lock();
+        try
+        {
+            ResourceLock lock = stripe.locks.get( resource );
+            if ( lock == null )
+            {
+                throw new LockNotFoundException( "Lock not found for: "
+                    + resource );
+            }
+            lock.release( tx, type );
+            if ( lock.isUnused() )
+            {
+                stripe.locks.remove( resource );
+            }
+            else if ( lock.waiters > 0 )
+            {
+                lock.released.signalAll();
+            }
+        }
+        finally
+        {
+            stripe.unlock();
+        }
+    }
+
+    // called with the stripe of lock held
+    private void waitFor( Stripe stripe, ResourceLock lock, Transaction tx )
+    {
+        checkWaitOn( lock, tx );
+        lock.waiters++;
+        try
+        {
+            if ( lock.released == null )
+            {
+                lock.released = stripe.newCondition();
+            }
+            lock.released.awaitUninterruptibly();
+        }
+        finally
+        {
+            lock.waiters--;
+            synchronized ( waitingTxMap )
+            {
+                waitingTxMap.remove( tx );
+            }
+        }
+    }
+
+    private void checkWaitOn( ResourceLock lock, Transaction tx )
+        throws DeadlockDetectedException
+    {
+        synchronized ( waitingTxMap )
+        {
+            LinkedList<Object> circle = new LinkedList<Object>();
+            if ( leadsTo( lock, tx, new HashSet<Transaction>(), circle, true ) )
+            {
+                deadlockCount.incrementAndGet();
+                StringBuilder message = new StringBuilder();
+                for ( Object element : circle )
+                {
+                    message.append( message.length() == 0 ? "" : " <- " );
+                    message.append( element );
+                }
+                throw new DeadlockDetectedException( tx + " can't wait on resource "
+                    + lock.resource + " since => " + message );
+            }
+            waitingTxMap.put( tx, lock );
+        }
+    }
+
+    // whether waitingTx can be reached by following the wait-for edges
+    // from the holders of lock, which may be this very transaction on the
+    // first level (waiting to upgrade a read lock is fine on its own)
+    private boolean leadsTo( ResourceLock lock, Transaction waitingTx,
+        Set<Transaction> checkedTransactions, LinkedList<Object> circle,
+        boolean firstLevel )
+    {
+        for ( Transaction holder : lock.holders() )
+        {
+            if ( holder.equals( waitingTx ) )
+            {
+                if ( firstLevel )
+                {
+                    continue;
+                }
+                circle.addFirst( lock.resource );
+                circle.addFirst( holder );
+                return true;
+            }
+            if ( !checkedTransactions.add( holder ) )
+            {
+                continue;
+            }
+            ResourceLock waitingOn = waitingTxMap.get( holder );
+            if ( waitingOn != null && leadsTo( waitingOn, waitingTx,
+                checkedTransactions, circle, false ) )
+            {
+                circle.addFirst( lock.resource );
+                circle.addFirst( holder );
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void dumpLocksOnResource( Object resource )
+    {
+        Stripe stripe = stripeFor( resource );
+        stripe.lock();
+        try
+        {
+            ResourceLock lock = stripe.locks.get( resource );
+            System.out.println( lock == null ? "No locks on " + resource : lock );
+        }
+        finally
+        {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public void dumpRagStack()
+    {
+        synchronized ( waitingTxMap )
+        {
+            if ( waitingTxMap.isEmpty() )
+            {
+                System.out.println( "No transactions waiting on resources" );
+            }
+            for ( Map.Entry<Transaction,ResourceLock> entry : waitingTxMap.entrySet() )
+            {
+                System.out.println( "" + entry.getKey() + "->"
+                    + entry.getValue().resource );
+            }
+        }
+    }
+
+    @Override
+    public void dumpAllLocks()
+    {
+        int count = 0;
+        for ( Stripe stripe : stripes )
+        {
+            stripe.lock();
+            try
+            {
+                for ( ResourceLock lock : stripe.locks.values() )
+                {
+                    System.out.println( lock );
+                    count++;
+                }
+            }
+            finally
+            {
+                stripe.unlock();
+            }
+        }
+        System.out.println( "There are " + count + " locked resources" );
+    }
+
+    private static final class Stripe extends ReentrantLock
+    {
+        private static final long serialVersionUID = 1L;
+
+        final Map<Object,ResourceLock> locks = new HashMap<Object,ResourceLock>();
+    }
+
+    // the read and write counts of one transaction on a resource
+    private static final class Holder
+    {
+        final Transaction tx;
+        int readCount;
+        int writeCount;
+
+        Holder( Transaction tx )
+        {
+            this.tx = tx;
+        }
+    }
+
+    /**
+     * The lock state of one resource, guarded by the lock of its stripe.
+     * The holders are also read by deadlock detection without holding that
+     * lock, which is why they're published through volatile fields.
+     */
+    private static final class ResourceLock
+    {
+        private static final Holder[] NO_HOLDERS = new Holder[0];
+
+        final Object resource;
+        // the first holder is kept inline, most resources never have more
+        private volatile Transaction owner;
+        private int ownerReadCount;
+        private int ownerWriteCount;
+        // copy on write, only used when several transactions hold read locks
+        private volatile Holder[] others = NO_HOLDERS;
+        private int readCount;
+        private int writeCount;
+        int waiters;
+        Condition released;
+
+        ResourceLock( Object resource, Transaction tx, LockType type )
+        {
+            this.resource = resource;
+            this.owner = tx;
+            if ( type == LockType.READ )
+            {
+                ownerReadCount = readCount = 1;
+            }
+            else
+            {
+                ownerWriteCount = writeCount = 1;
+            }
+        }
+
+        boolean isUnused()
+        {
+            return owner == null && waiters == 0;
+        }
+
+        Transaction[] holders()
+        {
+            Transaction first = owner;
+            Holder[] rest = others;
+            if ( first == null )
+            {
+                return NO_TRANSACTIONS;
+            }
+            Transaction[] result = new Transaction[rest.length + 1];
+            result[0] = first;
+            for ( int i = 0; i < rest.length; i++ )
+            {
+                result[i + 1] = rest[i].tx;
+            }
+            return result;
+        }
+
+        private Holder find( Transaction tx )
+        {
+            for ( Holder holder : others )
+            {
+                if ( holder.tx.equals( tx ) )
+                {
+                    return holder;
+                }
+            }
+            return null;
+        }
+
+        boolean tryAcquire( Transaction tx, LockType type )
+        {
+            if ( owner == null )
+            {
+                owner = tx;
+                ownerReadCount = ownerWriteCount = 0;
+            }
+            if ( owner.equals( tx ) )
+            {
+                if ( writeCount > ownerWriteCount || ( type == LockType.WRITE &&
+                    readCount > ownerReadCount ) )
+                {
+                    return false;
+                }
+                if ( type == LockType.READ )
+                {
+                    ownerReadCount++;
+                    readCount++;
+                }
+                else
+                {
+                    ownerWriteCount++;
+                    writeCount++;
+                }
+                return true;
+            }
+            Holder holder = find( tx );
+            int heldReads = holder != null ? holder.readCount : 0;
+            int heldWrites = holder != null ? holder.writeCount : 0;
+            if ( writeCount > heldWrites || ( type == LockType.WRITE &&
+                readCount > heldReads ) )
+            {
+                return false;
+            }
+            if ( holder == null )
+            {
+                holder = new Holder( tx );
+                Holder[] newOthers = new Holder[others.length + 1];
+                System.arraycopy( others, 0, newOthers, 0, others.length );
+                newOthers[others.length] = holder;
+                others = newOthers;
+            }
+            if ( type == LockType.READ )
+            {
+                holder.readCount++;
+                readCount++;
+            }
+            else
+            {
+                holder.writeCount++;
+                writeCount++;
+            }
+            return true;
+        }
+
+        void release( Transaction tx, LockType type ) throws LockNotFoundException
+        {
+            if ( owner != null && owner.equals( tx ) )
+            {
+                if ( type == LockType.READ ? ownerReadCount == 0 : ownerWriteCount == 0 )
+                {
+                    throw new LockNotFoundException( "" + tx + " don't have "
+                        + ( type == LockType.READ ? "readLock" : "writeLock" ) );
+                }
+                if ( type == LockType.READ )
+                {
+                    ownerReadCount--;
+                    readCount--;
+                }
+                else
+                {
+                    ownerWriteCount--;
+                    writeCount--;
+                }
+                if ( ownerReadCount == 0 && ownerWriteCount == 0 )
+                {
+                    promoteOther();
+                }
+                return;
+            }
+            Holder holder = find( tx );
+            if ( holder == null )
+            {
+                throw new LockNotFoundException(
+                    "No transaction lock element found for " + tx );
+            }
+            if ( type == LockType.READ ? holder.readCount == 0 : holder.writeCount == 0 )
+            {
+                throw new LockNotFoundException( "" + tx + " don't have "
+                    + ( type == LockType.READ ? "readLock" : "writeLock" ) );
+            }
+            if ( type == LockType.READ )
+            {
+                holder.readCount--;
+                readCount--;
+            }
+            else
+            {
+                holder.writeCount--;
+                writeCount--;
+            }
+            if ( holder.readCount == 0 && holder.writeCount == 0 )
+            {
+                removeOther( holder );
+            }
+        }
+
+        // the inline owner is gone, move one of the others in its place
+        private void promoteOther()
+        {
+            Holder[] current = others;
+            if ( current.length == 0 )
+            {
+                owner = null;
+                return;
+            }
+            Holder next = current[current.length - 1];
+            ownerReadCount = next.readCount;
+            ownerWriteCount = next.writeCount;
+            owner = next.tx;
+            removeOther( next );
+        }
+
+        private void removeOther( Holder holder )
+        {
+            Holder[] current = others;
+            if ( current.length == 1 )
+            {
+                others = NO_HOLDERS;
+                return;
+            }
+            Holder[] newOthers = new Holder[current.length - 1];
+            int i = 0;
+            for ( Holder candidate : current )
+            {
+                if ( candidate != holder )
+                {
+                    newOthers[i++] = candidate;
+                }
+            }
+            others = newOthers;
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder result = new StringBuilder( "Lock[" + resource + ",readCount="
+                + readCount + ",writeCount=" + writeCount + ",waiters=" + waiters );
+            Transaction first = owner;
+            if ( first != null )
+            {
+                result.append( ",holders=" + first + "(" + ownerReadCount + "r,"
+                    + ownerWriteCount + "w)" );
+                for ( Holder holder : others )
+                {
+                    result.append( "," + holder.tx + "(" + holder.readCount + "r,"
+                        + holder.writeCount + "w)" );
+                }
+            }
+            return result.append( "]" ).toString();
+        }
+    }
+}
@@ -22,6 +22,7 @@ package org.neo4j.kernel.impl.transaction;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -36,11 +37,11 @@ import javax.transaction.xa.Xid;
 
 import org.neo4j.helpers.UTF8;
 import org.neo4j.kernel.impl.transaction.xaframework.DirectMappedLogBuffer;
+import org.neo4j.kernel.impl.transaction.xaframework.GroupCommit;
 import org.neo4j.kernel.impl.transaction.xaframework.LogBuffer;
 
 // TODO: fixed sized logs (pre-initialize them)
 // keep dangling records in memory for log switch
-// batch disk forces
 /**
  * This class is made public for testing purposes only, do not use.
  * <p>
@@ -53,6 +54,14 @@ public class TxLog
     private String name = null;
     private LogBuffer logBuffer;
     private int recordCount = 0;
+    private final GroupCommit groupCommit;
+    private final GroupCommit.Forcer groupCommitForcer = new GroupCommit.Forcer()
+    {
+        public void force() throws IOException
+        {
+            forceCurrentFile();
+        }
+    };
 
     public static final byte TX_START = 1;
     public static final byte BRANCH_ADD = 2;
@@ -71,6 +80,17 @@ public class TxLog
      */
     public TxLog( String fileName ) throws IOException
     {
+        this( fileName, null );
+    }
+
+    /**
+     * Initializes a transaction log using <CODE>filename</CODE> that lets
+     * concurrent {@link #markAsCommitting(byte[])} calls share forces through
+     * <CODE>groupCommit</CODE>, unless it's <CODE>null</CODE>.
+     */
+    public TxLog( String fileName, GroupCommit groupCommit ) throws IOException
+    {
+        this.groupCommit = groupCommit;
         if ( fileName == null )
         {
             throw new IllegalArgumentException( "Null filename" );
@@ -183,15 +203,73 @@ public class TxLog
      */
     // mark_committing(byte)|gid_length(byte)|globalId
     // forces
-    public synchronized void markAsCommitting( byte globalId[] )
+    public void markAsCommitting( byte globalId[] )
         throws IOException
+    {
+        long ticket = writeMarkAsCommitting( globalId );
+        if ( ticket != -1 )
+        {
+            groupCommit.awaitForced( ticket, groupCommitForcer );
+        }
+    }
+
+    private synchronized long writeMarkAsCommitting( byte globalId[] )
+        throws IOException
+    {
+        putMarkAsCommitting( globalId );
+        long ticket = -1;
+        if ( groupCommit == null )
+        {
+            logBuffer.force();
+        }
+        else
+        {
+            logBuffer.writeOut();
+            ticket = groupCommit.written();
+        }
+        return ticket;
+    }
+
+    private void putMarkAsCommitting( byte globalId[] ) throws IOException
     {
         assertNotNull( globalId, "global id" );
         logBuffer.put( MARK_COMMIT ).put( (byte) globalId.length ).put( globalId );
-        logBuffer.force();
         recordCount++;
     }
 
+    private void forceCurrentFile() throws IOException
+    {
+        FileChannel channel;
+        synchronized ( this )
+        {
+            channel = logBuffer.getFileChannel();
+        }
+        try
+        {
+            channel.force( false );
+        }
+        catch ( ClosedChannelException e )
+        {
+            synchronized ( this )
+            {
+                // the file is forced before it's switched away from
+                if ( channel == logBuffer.getFileChannel() )
+                {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the group commit used by this log, or <CODE>null</CODE> if
+     * group commit isn't enabled.
+     */
+    public GroupCommit getGroupCommit()
+    {
+        return groupCommit;
+    }
+
     /**
      * Writes a <CODE>TX_DONE</CODE> record to the file.
      * 
@@ -277,7 +355,11 @@ public class TxLog
         }
     }
 
-    void writeRecord( Record record ) throws IOException
+    // called while switching log, which forces the new log once all
+    // records are written, so a MARK_COMMIT isn't forced on its own. Going
+    // through the group commit would wait for a leader that needs this
+    // log's lock to force
+    private void writeRecord( Record record ) throws IOException
     {
         if ( record.getType() == TX_START )
         {
@@ -289,7 +371,7 @@ public class TxLog
         }
         else if ( record.getType() == MARK_COMMIT )
         {
-            markAsCommitting( record.getGlobalId() );
+            putMarkAsCommitting( record.getGlobalId() );
         }
         else
         {
@@ -57,6 +57,7 @@ import org.neo4j.helpers.collection.MapUtil;
 import org.neo4j.kernel.impl.core.KernelPanicEventGenerator;
 import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
 import org.neo4j.kernel.impl.transaction.xaframework.XaResource;
+import org.neo4j.kernel.impl.transaction.xaframework.GroupCommit;
 import org.neo4j.kernel.impl.util.ArrayMap;
 import org.neo4j.kernel.impl.util.StringLogger;
 
@@ -95,6 +96,8 @@ public class TxManager extends AbstractTransactionManager
 
     final TxFinishHook finishHook;
 
+    private GroupCommit groupCommit;
+
     TxManager( String txLogDir, KernelPanicEventGenerator kpe, TxFinishHook finishHook )
     {
         this.txLogDir = txLogDir;
@@ -103,6 +106,15 @@ public class TxManager extends AbstractTransactionManager
         this.finishHook = finishHook;
     }
 
+    /**
+     * Makes concurrent commits share forces of the transaction log, must be
+     * called before {@link #init(XaDataSourceManager)}.
+     */
+    void setGroupCommit( GroupCommit groupCommit )
+    {
+        this.groupCommit = groupCommit;
+    }
+
     synchronized int getNextEventIdentifier()
     {
         return eventIdentifierCounter++;
@@ -165,7 +177,7 @@ public class TxManager extends AbstractTransactionManager
                                     "Unable to start TM, " + "active tx log file[" +
                                             currentTxLog + "] not found."));
                 }
-                txLog = new TxLog( currentTxLog );
+                txLog = new TxLog( currentTxLog, groupCommit );
                 msgLog.logMessage( "TM opening log: " + currentTxLog, true );
             }
             else
@@ -187,7 +199,8 @@ public class TxManager extends AbstractTransactionManager
                 FileChannel fc = new RandomAccessFile( logSwitcherFileName,
                     "rw" ).getChannel();
                 fc.write( buf );
-                txLog = new TxLog( txLogDir + separator + txLog1FileName );
+                txLog = new TxLog( txLogDir + separator + txLog1FileName,
+                    groupCommit );
                 msgLog.logMessage( "TM new log: " + txLog1FileName, true );
                 fc.force( true );
                 fc.close();
@@ -26,6 +26,7 @@ import javax.transaction.TransactionManager;
 import org.neo4j.graphdb.TransactionFailureException;
 import org.neo4j.helpers.Service;
 import org.neo4j.kernel.impl.core.KernelPanicEventGenerator;
+import org.neo4j.kernel.impl.transaction.xaframework.GroupCommit;
 import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
 
 /**
@@ -49,6 +50,12 @@ public class TxModule
     private final KernelPanicEventGenerator kpe;
 
     public TxModule( String txLogDir, KernelPanicEventGenerator kpe, TxFinishHook rollbackHook, String serviceName )
+    {
+        this( txLogDir, kpe, rollbackHook, serviceName, null );
+    }
+
+    public TxModule( String txLogDir, KernelPanicEventGenerator kpe, TxFinishHook rollbackHook, String serviceName,
+            Map<String,String> params )
     {
         this.txLogDir = txLogDir;
         this.kpe = kpe;
@@ -66,6 +73,10 @@ public class TxModule
             }
         }
         txManager = provider.loadTransactionManager( txLogDir, kpe, rollbackHook );
+        if ( txManager instanceof TxManager )
+        {
+            ( (TxManager) txManager ).setGroupCommit( GroupCommit.fromConfig( params ) );
+        }
         this.xaDsManager = new XaDataSourceManager();
     }
 
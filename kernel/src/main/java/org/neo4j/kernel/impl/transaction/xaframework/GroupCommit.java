@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.neo4j.kernel.Config;
+
+/**
+ * Lets concurrently committing transactions share forces of a log. A
+ * committer writes its entry out to the log file and takes a ticket with
+ * {@link #written()}, while still holding the log's lock, and then waits in
+ * {@link #awaitForced(long, Forcer)} without it. The first waiter becomes
+ * the leader and forces the log for all tickets taken so far, while the
+ * others either wait for that force or, if their ticket was taken after it
+ * started, for the next one. The leader may wait up to a max delay for more
+ * committers to join its batch, unless the batch reaches its max size
+ * first.
+ * <p>
+ * No call to {@link #awaitForced(long, Forcer)} returns before a force that
+ * started after its ticket was taken has completed, so a commit is just as
+ * durable as if it had forced the log itself.
+ */
+public class GroupCommit
+{
+    /**
+     * Forces everything written to a log so far.
+     */
+    public interface Forcer
+    {
+        void force() throws IOException;
+    }
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+    private final long maxDelayNanos;
+    private final int maxBatchSize;
+
+    private long writtenTicket;
+    private long forcedTicket;
+    private boolean forcing;
+    private long forceCount;
+    private long commitCount;
+
+    /**
+     * @param maxDelayMillis how long a leader may wait for more committers
+     *            before forcing, 0 forces right away
+     * @param maxBatchSize the number of commits at which a leader stops
+     *            waiting for more
+     */
+    public GroupCommit( long maxDelayMillis, int maxBatchSize )
+    {
+        if ( maxDelayMillis < 0 || maxBatchSize < 1 )
+        {
+            throw new IllegalArgumentException( "maxDelayMillis=" + maxDelayMillis
+                + ", maxBatchSize=" + maxBatchSize );
+        }
+        this.maxDelayNanos = maxDelayMillis * 1000000;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Returns a group commit configured by {@link Config#GROUP_COMMIT} and
+     * friends in <CODE>config</CODE>, or <CODE>null</CODE> if group commit
+     * isn't enabled.
+     */
+    public static GroupCommit fromConfig( Map<?,?> config )
+    {
+        if ( config == null || !Boolean.parseBoolean(
+            (String) config.get( Config.GROUP_COMMIT ) ) )
+        {
+            return null;
+        }
+        String delay = (String) config.get( Config.GROUP_COMMIT_MAX_DELAY );
+        String size = (String) config.get( Config.GROUP_COMMIT_MAX_BATCH_SIZE );
+        return new GroupCommit( delay != null ? Long.parseLong( delay ) : 0,
+            size != null ? Integer.parseInt( size ) : DEFAULT_MAX_BATCH_SIZE );
+    }
+
+    /**
+     * Registers a commit whose entry has been written out to the log, must
+     * be called in the same order as the entries are written.
+     *
+     * @return the ticket to wait for
+     */
+    public synchronized long written()
+    {
+        long ticket = ++writtenTicket;
+        if ( forcing && ticket - forcedTicket >= maxBatchSize )
+        {
+            notifyAll();
+        }
+        return ticket;
+    }
+
+    /**
+     * Returns once the log has been forced for <CODE>ticket</CODE>, forcing
+     * it with <CODE>forcer</CODE> if no other committer is already doing
+     * so. Must not be called while holding the log's lock.
+     */
+    public void awaitForced( long ticket, Forcer forcer ) throws IOException
+    {
+        long target;
+        boolean interrupted = false;
+        synchronized ( this )
+        {
+            try
+            {
+                while ( forcing && forcedTicket < ticket )
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+            finally
+            {
+                if ( interrupted )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if ( forcedTicket >= ticket )
+            {
+                return;
+            }
+            forcing = true;
+            target = gatherBatch();
+        }
+        boolean success = false;
+        try
+        {
+            forcer.force();
+            success = true;
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                forcing = false;
+                if ( success )
+                {
+                    forceCount++;
+                    commitCount += target - forcedTicket;
+                    forcedTicket = target;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    // called by the leader, waits for the batch to fill up or time out, an
+    // interrupt just makes it force right away
+    private long gatherBatch()
+    {
+        long deadline = System.nanoTime() + maxDelayNanos;
+        long remaining = maxDelayNanos;
+        while ( writtenTicket - forcedTicket < maxBatchSize && remaining > 0 )
+        {
+            try
+            {
+                wait( Math.max( 1, remaining / 1000000 ) );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+        return writtenTicket;
+    }
+
+    /**
+     * Returns the number of forces done through this group commit.
+     */
+    public synchronized long getForceCount()
+    {
+        return forceCount;
+    }
+
+    /**
+     * Returns the number of commits made durable through this group commit.
+     */
+    public synchronized long getCommitCount()
+    {
+        return commitCount;
+    }
+
+    /**
+     * Returns the average number of commits that shared a force.
+     */
+    public synchronized double getCommitsPerForce()
+    {
+        return forceCount == 0 ? 0 : (double) commitCount / forceCount;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "GroupCommit[commits=" + commitCount + ",forces=" + forceCount
+            + ",commitsPerForce=" + String.format( "%.2f", getCommitsPerForce() )
+            + "]";
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and decodes the entries of a logical log being recovered on a thread
+ * of its own, handing them over in log order to the thread applying them so
+ * that reading and applying overlap. Only the reader uses the channel and
+ * the buffer until the end of the log is reached.
+ * <p>
+ * The applying thread must call {@link #stop()} when it is done, also if it
+ * fails, so that a reader waiting for room to hand over entries gets to end.
+ */
+class RecoveryReader implements Runnable
+{
+    // log entries decoded ahead of the one being applied
+    static final int READ_AHEAD = 1024;
+
+    // marks the end of the entries handed over
+    private static final LogEntry END_OF_LOG = new LogEntry.Done( -1 );
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final XaCommandFactory cf;
+    private final String fileName;
+    private final BlockingQueue<LogEntry> entries =
+        new ArrayBlockingQueue<LogEntry>( READ_AHEAD );
+    private volatile long lastEntryPos;
+    private volatile boolean stopped;
+    private volatile Throwable failure;
+
+    RecoveryReader( FileChannel channel, ByteBuffer buffer,
+        XaCommandFactory cf, String fileName ) throws IOException
+    {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.cf = cf;
+        this.fileName = fileName;
+        this.lastEntryPos = channel.position();
+    }
+
+    public void run()
+    {
+        try
+        {
+            LogEntry entry;
+            while ( !stopped && (entry = readEntry()) != null )
+            {
+                lastEntryPos = channel.position();
+                put( entry );
+            }
+        }
+        catch ( Throwable t )
+        {
+            failure = t;
+        }
+        finally
+        {
+            put( END_OF_LOG );
+        }
+    }
+
+    private LogEntry readEntry() throws IOException
+    {
+        long position = channel.position();
+        LogEntry entry = LogIoUtils.readEntry( buffer, channel, cf );
+        if ( entry instanceof LogEntry.Start )
+        {
+            ((LogEntry.Start) entry).setStartPosition( position );
+        }
+        return entry;
+    }
+
+    private void put( LogEntry entry )
+    {
+        try
+        {
+            while ( !stopped &&
+                !entries.offer( entry, 100, TimeUnit.MILLISECONDS ) )
+            {
+                // the applying thread is behind, wait for it
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            stopped = true;
+        }
+    }
+
+    /**
+     * Returns the next entry of the log, or <CODE>null</CODE> at the end of
+     * it, rethrowing any failure to read it once the entries read before the
+     * failure have been taken.
+     */
+    LogEntry take() throws IOException
+    {
+        LogEntry entry;
+        try
+        {
+            entry = entries.take();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while recovering " + fileName, e );
+        }
+        if ( entry != END_OF_LOG )
+        {
+            return entry;
+        }
+        Throwable cause = failure;
+        if ( cause instanceof IOException )
+        {
+            throw (IOException) cause;
+        }
+        if ( cause instanceof RuntimeException )
+        {
+            throw (RuntimeException) cause;
+        }
+        if ( cause instanceof Error )
+        {
+            throw (Error) cause;
+        }
+        if ( cause != null )
+        {
+            throw new IOException( cause );
+        }
+        return null;
+    }
+
+    void stop()
+    {
+        stopped = true;
+    }
+
+    /**
+     * Returns the position after the last complete entry read, which is
+     * where a broken tail of the log starts.
+     */
+    long getLastEntryPos()
+    {
+        return lastEntryPos;
+    }
+}
@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.util.HashMap;
@@ -71,6 +72,11 @@ public class XaLogicalLog
     private static final char LOG1 = '1';
     private static final char LOG2 = '2';
 
+    // bytes read from the log at a time during recovery
+    private static final int RECOVERY_READ_SIZE = 1024 * 1024;
+    // type(byte)+identifier(int)
+    private static final int DONE_ENTRY_SIZE = 5;
+
     private FileChannel fileChannel = null;
     private final ByteBuffer sharedBuffer;
     private LogBuffer writeBuffer = null;
@@ -100,6 +106,14 @@ public class XaLogicalLog
     private long recoveredTxCount;
 
     private final StringLogger msgLog;
+    private final GroupCommit groupCommit;
+    private final GroupCommit.Forcer groupCommitForcer = new GroupCommit.Forcer()
+    {
+        public void force() throws IOException
+        {
+            forceCurrentLogFile();
+        }
+    };
 
     private final LruCache<Long, TxPosition> txStartPositionCache =
             new LruCache<Long, TxPosition>( "Tx start position cache", 10000, null );
@@ -119,6 +133,7 @@ public class XaLogicalLog
             + Xid.MAXBQUALSIZE * 10 );
         storeDir = (String) config.get( "store_dir" );
         msgLog = StringLogger.getLogger( storeDir);
+        groupCommit = GroupCommit.fromConfig( config );
 
         // We should turn keep-logs on if there are previous logs around,
         // this so that e.g. temporary shell sessions or operations don't create
@@ -307,22 +322,109 @@ public class XaLogicalLog
     }
 
     // [TX_1P_COMMIT][identifier]
-    public synchronized void commitOnePhase( int identifier, long txId, int masterId )
+    public void commitOnePhase( int identifier, long txId, int masterId )
         throws XAException
+    {
+        awaitForced( appendCommit( false, identifier, txId, masterId ), identifier );
+    }
+
+    /**
+     * Writes a commit entry for <CODE>identifier</CODE>. Without group commit
+     * the log is forced right away and <CODE>-1</CODE> is returned, otherwise
+     * the entry is only written out to the log file and the returned ticket
+     * must be passed to {@link #awaitForced(long, int)} before the commit may
+     * be considered durable.
+     */
+    // [TX_1P_COMMIT|TX_2P_COMMIT][identifier]
+    synchronized long appendCommit( boolean twoPhase, int identifier, long txId,
+            int masterId ) throws XAException
     {
         LogEntry.Start startEntry = xidIdentMap.get( identifier );
         assert startEntry != null;
         assert txId != -1;
         try
         {
-            LogIoUtils.writeCommit( false, writeBuffer, identifier, txId, masterId );
-            writeBuffer.force();
+            LogIoUtils.writeCommit( twoPhase, writeBuffer, identifier, txId, masterId );
+            long ticket = -1;
+            if ( groupCommit == null )
+            {
+                writeBuffer.force();
+            }
+            else
+            {
+                writeBuffer.writeOut();
+                ticket = groupCommit.written();
+            }
             cacheTxStartPosition( txId, masterId, startEntry );
+            return ticket;
+        }
+        catch ( IOException e )
+        {
+            throw Exceptions.withCause( new XAException( "Logical log unable to mark "
+                    + ( twoPhase ? "2PC" : "1P-commit" ) + " [" + identifier + "] " ), e );
+        }
+    }
+
+    /**
+     * Waits for the log to be forced for a ticket returned by
+     * {@link #appendCommit(boolean, int, long, int)}, must not be called
+     * while holding the lock of this log.
+     */
+    void awaitForced( long ticket, int identifier ) throws XAException
+    {
+        if ( ticket == -1 )
+        {
+            return;
+        }
+        try
+        {
+            groupCommit.awaitForced( ticket, groupCommitForcer );
         }
         catch ( IOException e )
         {
-            throw Exceptions.withCause(
-                    new XAException( "Logical log unable to mark 1P-commit [" + identifier + "] " ), e );
+            throw Exceptions.withCause( new XAException( "Logical log unable to force commit ["
+                    + identifier + "] " ), e );
+        }
+    }
+
+    boolean isGroupCommitEnabled()
+    {
+        return groupCommit != null;
+    }
+
+    /**
+     * Returns the group commit of this log, with its commits per force
+     * metrics, or <CODE>null</CODE> if group commit isn't enabled.
+     */
+    public GroupCommit getGroupCommit()
+    {
+        return groupCommit;
+    }
+
+    private void forceCurrentLogFile() throws IOException
+    {
+        FileChannel channel;
+        synchronized ( this )
+        {
+            channel = fileChannel;
+        }
+        try
+        {
+            if ( channel != null )
+            {
+                channel.force( false );
+            }
+        }
+        catch ( ClosedChannelException e )
+        {
+            synchronized ( this )
+            {
+                // a log file is forced before it's rotated away or closed
+                if ( channel == fileChannel )
+                {
+                    throw e;
+                }
+            }
         }
     }
 
@@ -383,23 +485,49 @@ public class XaLogicalLog
         fileChannel.force( false );
     }
 
-    // [TX_2P_COMMIT][identifier]
-    public synchronized void commitTwoPhase( int identifier, long txId, int masterId )
-        throws XAException
+    // [DONE][identifier] for each identifier, forced once, called from
+    // XaResourceManager at the end of internal recovery
+    synchronized void doneInternal( List<Integer> identifiers ) throws IOException
     {
-        LogEntry.Start startEntry = xidIdentMap.get( identifier );
-        assert startEntry != null;
-        assert txId != -1;
-        try
+        sharedBuffer.clear();
+        for ( int identifier : identifiers )
         {
-            LogIoUtils.writeCommit( true, writeBuffer, identifier, txId, masterId );
-            writeBuffer.force();
-            cacheTxStartPosition( txId, masterId, startEntry );
+            if ( writeBuffer != null )
+            {   // For 2PC
+                LogIoUtils.writeDone( writeBuffer, identifier );
+            }
+            else
+            {   // For 1PC, as many done records per write as fit
+                if ( sharedBuffer.remaining() < DONE_ENTRY_SIZE )
+                {
+                    writeSharedBuffer();
+                }
+                LogIoUtils.writeDone( sharedBuffer, identifier );
+            }
+            xidIdentMap.remove( identifier );
         }
-        catch ( IOException e )
+        if ( writeBuffer == null )
+        {
+            writeSharedBuffer();
+        }
+        fileChannel.force( false );
+    }
+
+    private void writeSharedBuffer() throws IOException
+    {
+        sharedBuffer.flip();
+        while ( sharedBuffer.hasRemaining() )
         {
-            throw Exceptions.withCause( new XAException( "Logical log unable to mark 2PC [" + identifier + "] " ), e );
+            fileChannel.write( sharedBuffer );
         }
+        sharedBuffer.clear();
+    }
+
+    // [TX_2P_COMMIT][identifier]
+    public void commitTwoPhase( int identifier, long txId, int masterId )
+        throws XAException
+    {
+        awaitForced( appendCommit( true, identifier, txId, masterId ), identifier );
     }
 
     // [COMMAND][identifier][COMMAND_DATA]
@@ -457,9 +585,6 @@ public class XaLogicalLog
         xaTx.setRecovered();
         recoveredTxMap.put( identifier, xaTx );
         xaRm.injectStart( xid, xaTx );
-        // force to make sure done record is there if 2PC tx and global log
-        // marks tx as committed
-        fileChannel.force( false );
     }
 
 
@@ -738,7 +863,8 @@ public class XaLogicalLog
             renameLogFileToRightVersion( fileName + "." + logWas, endPosition );
             xaTf.getAndSetNewVersion();
         }
-        msgLog.logMessage( "Closed log " + fileName, true );
+        msgLog.logMessage( "Closed log " + fileName +
+                ( groupCommit != null ? ", " + groupCommit : "" ), true );
     }
 
     private long[] readAndAssertLogHeader( ByteBuffer localBuffer,
@@ -758,6 +884,15 @@ public class XaLogicalLog
         return msgLog;
     }
 
+    /**
+     * Recovers this log, reading it with a {@link RecoveryReader} while the
+     * entries are applied on the calling thread. The entries are applied one
+     * at a time in log order since the commands of a data source depend on
+     * the ones before them. Logs of different data sources are not recovered
+     * in parallel: each data source recovers its own log when it is opened
+     * and registered, and the index data sources are registered by kernel
+     * extensions only after the graph store has been started.
+     */
     private void doInternalRecovery( String logFileName ) throws IOException
     {
         log.info( "Non clean shutdown detected on log [" + logFileName +
@@ -790,15 +925,33 @@ public class XaLogicalLog
         msgLog.logMessage( "[" + logFileName + "] logVersion=" + logVersion +
                 " with committed tx=" + lastCommittedTx, true );
         long logEntriesFound = 0;
-        long lastEntryPos = fileChannel.position();
-        fileChannel = new BufferedFileChannel( fileChannel );
-        LogEntry entry;
-        while ( (entry = readEntry()) != null )
+        long startTime = System.currentTimeMillis();
+        fileChannel = new BufferedFileChannel( fileChannel, RECOVERY_READ_SIZE );
+        RecoveryReader reader = new RecoveryReader( fileChannel, sharedBuffer, cf, logFileName );
+        Thread readerThread = new Thread( reader, "Recovery reader[" + logFileName + "]" );
+        readerThread.start();
+        try
         {
-            applyEntry( entry );
-            logEntriesFound++;
-            lastEntryPos = fileChannel.position();
+            LogEntry entry;
+            while ( (entry = reader.take()) != null )
+            {
+                applyEntry( entry );
+                logEntriesFound++;
+            }
+        }
+        finally
+        {
+            reader.stop();
+            try
+            {
+                readerThread.join();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
         }
+        long lastEntryPos = reader.getLastEntryPos();
         // make sure we overwrite any broken records
         fileChannel = ((BufferedFileChannel)fileChannel).getSource();
         fileChannel.position( lastEntryPos );
@@ -833,6 +986,10 @@ public class XaLogicalLog
         msgLog.logMessage( recoveryCompletedMessage );
 
         xaRm.checkXids();
+        long recoveryTime = Math.max( 1, System.currentTimeMillis() - startTime );
+        msgLog.logMessage( "[" + logFileName + "] recovered " + recoveredTxCount +
+                " transactions in " + recoveryTime + "ms, " +
+                ( recoveredTxCount * 1000 / recoveryTime ) + " tx/s", true );
         if ( xidIdentMap.size() == 0 )
         {
             log.fine( "Recovery completed." );
@@ -860,17 +1017,6 @@ public class XaLogicalLog
         recoveredTxMap.clear();
     }
 
-    private LogEntry readEntry() throws IOException
-    {
-        long position = fileChannel.position();
-        LogEntry entry = LogIoUtils.readEntry( sharedBuffer, fileChannel, cf );
-        if ( entry instanceof LogEntry.Start )
-        {
-            ((LogEntry.Start) entry).setStartPosition( position );
-        }
-        return entry;
-    }
-
     private final ArrayMap<Thread,Integer> txIdentMap =
         new ArrayMap<Thread,Integer>( 5, true, true );
 
@@ -1592,6 +1738,36 @@ public class XaLogicalLog
         return firstEntryPosition;
     }
 
+    /**
+     * Returns whether the logical log <CODE>fileName</CODE> was closed
+     * cleanly the last time it was used, i.e. whether opening it won't
+     * cause any recovery. A log that has never been opened counts as clean.
+     */
+    public static boolean isCleanlyClosed( String fileName ) throws IOException
+    {
+        File activeFile = new File( fileName + ".active" );
+        if ( !activeFile.exists() )
+        {
+            // an old log without rotation would be recovered, see open()
+            return !new File( fileName ).exists();
+        }
+        FileChannel fc = new RandomAccessFile( activeFile, "r" ).getChannel();
+        try
+        {
+            ByteBuffer buf = ByteBuffer.allocate( 4 );
+            if ( fc.read( buf ) != 4 )
+            {
+                return false;
+            }
+            buf.flip();
+            return buf.asCharBuffer().get() == CLEAN;
+        }
+        finally
+        {
+            fc.close();
+        }
+    }
+
     private void setActiveLog( char c ) throws IOException
     {
         if ( c != CLEAN && c != LOG1 && c != LOG2 )
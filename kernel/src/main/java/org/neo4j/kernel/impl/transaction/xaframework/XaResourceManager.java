@@ -58,6 +58,10 @@ public class XaResourceManager
     private final TxIdGenerator txIdGenerator;
     private final XaDataSource dataSource;
     private StringLogger msgLog;
+    // commits are numbered as they're logged and applied in that order
+    private long startedCommitCount;
+    private long finishedCommitCount;
+    private long lastLoggedTxId = -1;
 
     XaResourceManager( XaDataSource dataSource, XaTransactionFactory tf,
             TxIdGenerator txIdGenerator, String name )
@@ -393,7 +397,61 @@ public class XaResourceManager
         return xaTransaction;
     }
     
-    synchronized XaTransaction commit( Xid xid, boolean onePhase )
+    XaTransaction commit( Xid xid, boolean onePhase )
+        throws XAException
+    {
+        if ( !isGroupCommitEnabled() )
+        {
+            synchronized ( this )
+            {
+                return finishCommit( startCommit( xid, onePhase ) );
+            }
+        }
+        // with group commit the log is forced without holding this lock so
+        // that other transactions can write their commit entries meanwhile,
+        // the commits are still applied in the order they were logged
+        PendingCommit commit = startCommit( xid, onePhase );
+        boolean forced = false;
+        try
+        {
+            log.awaitForced( commit.forceTicket,
+                    commit.xaTransaction.getIdentifier() );
+            forced = true;
+        }
+        finally
+        {
+            if ( !forced )
+            {
+                // whatever failed, later commits must not wait for this one
+                abandonCommit( commit );
+            }
+        }
+        return finishCommit( commit );
+    }
+
+    /**
+     * Group commit needs tx ids to be generated from the commits logged so
+     * far rather than those applied, which only the default tx id generator
+     * can be told to do.
+     */
+    private boolean isGroupCommitEnabled()
+    {
+        return log.isGroupCommitEnabled() && txIdGenerator == TxIdGenerator.DEFAULT;
+    }
+
+    private long generateTxId( XaTransaction xaTransaction )
+    {
+        long txId = txIdGenerator.generate( dataSource, xaTransaction.getIdentifier() );
+        if ( startedCommitCount > finishedCommitCount )
+        {
+            // commits logged but not yet applied aren't in the data source
+            txId = Math.max( txId, lastLoggedTxId + 1 );
+        }
+        lastLoggedTxId = txId;
+        return txId;
+    }
+
+    private synchronized PendingCommit startCommit( Xid xid, boolean onePhase )
         throws XAException
     {
         XidStatus status = xidMap.get( xid );
@@ -403,6 +461,7 @@ public class XaResourceManager
         }
         TransactionStatus txStatus = status.getTransactionStatus();
         XaTransaction xaTransaction = txStatus.getTransaction();
+        long forceTicket = -1;
         if ( onePhase )
         {
             if ( !xaTransaction.isReadOnly() )
@@ -411,11 +470,11 @@ public class XaResourceManager
                 {
                     xaTransaction.prepare();
                     
-                    long txId = txIdGenerator.generate( dataSource,
-                            xaTransaction.getIdentifier() );
+                    long txId = generateTxId( xaTransaction );
                     int masterId = txIdGenerator.getCurrentMasterId();
                     xaTransaction.setCommitTxId( txId );
-                    log.commitOnePhase( xaTransaction.getIdentifier(), 
+                    forceTicket = log.appendCommit( false,
+                            xaTransaction.getIdentifier(),
                             xaTransaction.getCommitTxId(), masterId );
                 }
             }
@@ -432,45 +491,122 @@ public class XaResourceManager
             {
                 if ( !onePhase )
                 {
-                    long txId = txIdGenerator.generate( dataSource,
-                            xaTransaction.getIdentifier() );
+                    long txId = generateTxId( xaTransaction );
                     int masterId = txIdGenerator.getCurrentMasterId();
                     xaTransaction.setCommitTxId( txId );
-                    log.commitTwoPhase( xaTransaction.getIdentifier(),
+                    forceTicket = log.appendCommit( true,
+                            xaTransaction.getIdentifier(),
                             xaTransaction.getCommitTxId(), masterId );
                 }
             }
-            txStatus.markCommitStarted();
-            if ( xaTransaction.isRecovered() && xaTransaction.getCommitTxId() == -1 )
+        }
+        return new PendingCommit( xid, onePhase, txStatus, forceTicket,
+                ++startedCommitCount );
+    }
+
+    private synchronized XaTransaction finishCommit( PendingCommit commit )
+        throws XAException
+    {
+        awaitCommitTurn( commit );
+        try
+        {
+            TransactionStatus txStatus = commit.txStatus;
+            XaTransaction xaTransaction = commit.xaTransaction;
+            if ( !xaTransaction.isReadOnly() )
             {
-                boolean previousRecoveredValue = dataSource.setRecovered( true );
-                try
-                {
-                    xaTransaction.setCommitTxId( dataSource.getLastCommittedTxId() + 1 );
-                }
-                finally
+                txStatus.markCommitStarted();
+                if ( xaTransaction.isRecovered() && xaTransaction.getCommitTxId() == -1 )
                 {
-                    dataSource.setRecovered( previousRecoveredValue );
+                    boolean previousRecoveredValue = dataSource.setRecovered( true );
+                    try
+                    {
+                        xaTransaction.setCommitTxId( dataSource.getLastCommittedTxId() + 1 );
+                    }
+                    finally
+                    {
+                        dataSource.setRecovered( previousRecoveredValue );
+                    }
                 }
+                xaTransaction.commit();
+            }
+            if ( !xaTransaction.isRecovered() )
+            {
+                log.done( xaTransaction.getIdentifier() );
             }
-            xaTransaction.commit();
+            else if ( !log.scanIsComplete() || recoveredTxCount > 0 )
+            {
+                recoveredDoneRecords.add( Triplet.of( xaTransaction.getIdentifier(),
+                        commit.onePhase, xaTransaction.getCommitTxId() ) );
+            }
+            xidMap.remove( commit.xid );
+            if ( xaTransaction.isRecovered() )
+            {
+                recoveredTxCount--;
+                checkIfRecoveryComplete();
+            }
+            return xaTransaction;
         }
-        if ( !xaTransaction.isRecovered() )
+        finally
         {
-            log.done( xaTransaction.getIdentifier() );
+            commitTurnDone( commit );
+        }
+    }
+
+    private synchronized void abandonCommit( PendingCommit commit )
+    {
+        awaitCommitTurn( commit );
+        commitTurnDone( commit );
+    }
+
+    private void awaitCommitTurn( PendingCommit commit )
+    {
+        boolean interrupted = false;
+        while ( finishedCommitCount != commit.order - 1 )
+        {
+            try
+            {
+                wait();
+            }
+            catch ( InterruptedException e )
+            {
+                interrupted = true;
+            }
         }
-        else if ( !log.scanIsComplete() || recoveredTxCount > 0 )
+        if ( interrupted )
         {
-            recoveredDoneRecords.add( Triplet.of( xaTransaction.getIdentifier(), onePhase,
-                    xaTransaction.getCommitTxId() ) );
+            Thread.currentThread().interrupt();
         }
-        xidMap.remove( xid );
-        if ( xaTransaction.isRecovered() )
+    }
+
+    private void commitTurnDone( PendingCommit commit )
+    {
+        finishedCommitCount = commit.order;
+        notifyAll();
+    }
+
+    /**
+     * A commit that has been written to the logical log but not yet
+     * applied, with its place in the order commits are applied in.
+     */
+    private static class PendingCommit
+    {
+        private final Xid xid;
+        private final boolean onePhase;
+        private final TransactionStatus txStatus;
+        private final XaTransaction xaTransaction;
+        private final long forceTicket;
+        private final long order;
+
+        PendingCommit( Xid xid, boolean onePhase, TransactionStatus txStatus,
+                long forceTicket, long order )
         {
-            recoveredTxCount--;
-            checkIfRecoveryComplete();
+            this.xid = xid;
+            this.onePhase = onePhase;
+            this.txStatus = txStatus;
+            this.xaTransaction = txStatus.getTransaction();
+            this.forceTicket = forceTicket;
+            this.order = order;
         }
-        return xaTransaction;
     }
 
     synchronized XaTransaction rollback( Xid xid ) throws XAException
@@ -606,6 +742,8 @@ public class XaResourceManager
         } );
         txOrderMap.clear(); // = null;
         Logger logger = Logger.getLogger( tf.getClass().getName() );
+        // done records are written in one go, forcing the log once
+        List<Integer> doneIdentifiers = new ArrayList<Integer>();
         while ( !xids.isEmpty() )
         {
             Xid xid = xids.removeFirst();
@@ -619,7 +757,7 @@ public class XaResourceManager
                 {
                     logger.fine( "Marking 1PC [" + name + "] tx "
                         + identifier + " as done" );
-                    log.doneInternal( identifier );
+                    doneIdentifiers.add( identifier );
                     xidMap.remove( xid );
                     recoveredTxCount--;
                 }
@@ -627,7 +765,7 @@ public class XaResourceManager
                 {
                     logger.fine( "Rolling back non prepared tx [" + name + "]"
                         + "txIdent[" + identifier + "]" );
-                    log.doneInternal( xaTransaction.getIdentifier() );
+                    doneIdentifiers.add( identifier );
                     xidMap.remove( xid );
                     recoveredTxCount--;
                 }
@@ -638,6 +776,10 @@ public class XaResourceManager
                 }
             }
         }
+        if ( !doneIdentifiers.isEmpty() )
+        {
+            log.doneInternal( doneIdentifiers );
+        }
         checkIfRecoveryComplete();
     }
 
@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.traversal;
+
+import java.util.Arrays;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.traversal.Evaluation;
+
+/**
+ * The branches of a {@link PooledTraverserIterator} which are to be
+ * expanded, kept as entries of parent index, node id, relationship id,
+ * depth, evaluation and number of expanded relationships in primitive arrays
+ * instead of as objects. The path to an entry can be followed through the
+ * parent indices back to the start node at index <CODE>0</CODE>, whose
+ * parent index and relationship id are <CODE>-1</CODE>.
+ * <p>
+ * Entries are appended, and only removed from the end by {@link #free(int)}
+ * once they and everything after them are fully expanded, which is what a
+ * depth first traversal does.
+ */
+class BranchPool
+{
+    private static final int INITIAL_CAPACITY = 64;
+    private static final Evaluation[] EVALUATIONS = Evaluation.values();
+
+    private final GraphDatabaseService graphDb;
+    private int[] parents = new int[INITIAL_CAPACITY];
+    private long[] nodes = new long[INITIAL_CAPACITY];
+    private long[] relationships = new long[INITIAL_CAPACITY];
+    private int[] depths = new int[INITIAL_CAPACITY];
+    // the ordinals of the evaluations of the branches
+    private byte[] evaluations = new byte[INITIAL_CAPACITY];
+    private int[] expanded = new int[INITIAL_CAPACITY];
+    private int size;
+
+    BranchPool( GraphDatabaseService graphDb )
+    {
+        this.graphDb = graphDb;
+    }
+
+    /**
+     * @return the index of the added entry.
+     */
+    int add( int parent, long node, long relationship, int depth,
+            Evaluation evaluation )
+    {
+        if ( size == parents.length )
+        {
+            int capacity = size * 2;
+            parents = Arrays.copyOf( parents, capacity );
+            nodes = Arrays.copyOf( nodes, capacity );
+            relationships = Arrays.copyOf( relationships, capacity );
+            depths = Arrays.copyOf( depths, capacity );
+            evaluations = Arrays.copyOf( evaluations, capacity );
+            expanded = Arrays.copyOf( expanded, capacity );
+        }
+        parents[size] = parent;
+        nodes[size] = node;
+        relationships[size] = relationship;
+        depths[size] = depth;
+        evaluations[size] = (byte) evaluation.ordinal();
+        expanded[size] = 0;
+        return size++;
+    }
+
+    /**
+     * Removes the entries from <CODE>index</CODE> and on, their indices will
+     * be reused by entries added after this.
+     */
+    void free( int index )
+    {
+        size = index;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    int parent( int index )
+    {
+        return parents[index];
+    }
+
+    long node( int index )
+    {
+        return nodes[index];
+    }
+
+    long relationship( int index )
+    {
+        return relationships[index];
+    }
+
+    int depth( int index )
+    {
+        return depths[index];
+    }
+
+    Evaluation evaluation( int index )
+    {
+        return EVALUATIONS[evaluations[index]];
+    }
+
+    int expanded( int index )
+    {
+        return expanded[index];
+    }
+
+    void incrementExpanded( int index )
+    {
+        expanded[index]++;
+    }
+
+    Node getNode( long id )
+    {
+        return graphDb.getNodeById( id );
+    }
+
+    Relationship getRelationship( long id )
+    {
+        return graphDb.getRelationshipById( id );
+    }
+}
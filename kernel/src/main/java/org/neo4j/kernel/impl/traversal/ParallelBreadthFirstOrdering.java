@@ -0,0 +1,284 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.traversal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.neo4j.graphdb.traversal.BranchOrderingPolicy;
+import org.neo4j.graphdb.traversal.BranchSelector;
+import org.neo4j.graphdb.traversal.TraversalBranch;
+
+/**
+ * A breadth first ordering where the relationships of the branches are
+ * loaded by the threads of an {@link ExecutorService}, a few branches per
+ * task, see {@link TraversalBranchImpl#loadRelationships()}. Everything
+ * else, the uniqueness filter and the evaluator included, is done by the
+ * traversing thread one branch at a time, in the same order as for
+ * {@link org.neo4j.kernel.Traversal#preorderBreadthFirst()}, or in the order
+ * the tasks complete if not ordered.
+ * <p>
+ * The relationships of the next depth are loaded while the current depth is
+ * returned, but at most {@link #TASKS_AHEAD} tasks are submitted at a time,
+ * so that a traversal which isn't iterated to the end doesn't keep the
+ * executor busy for long. {@link TraverserImpl.TraverserIterator#close()}
+ * cancels those that haven't started yet.
+ */
+class ParallelBreadthFirstOrdering implements BranchOrderingPolicy
+{
+    static final int BRANCHES_PER_TASK = 16;
+    static final int TASKS_AHEAD = 64;
+
+    private final ExecutorService executor;
+    private final boolean ordered;
+    private final int branchesPerTask;
+
+    ParallelBreadthFirstOrdering( ExecutorService executor, boolean ordered )
+    {
+        this( executor, ordered, BRANCHES_PER_TASK );
+    }
+
+    ParallelBreadthFirstOrdering( ExecutorService executor, boolean ordered,
+            int branchesPerTask )
+    {
+        this.executor = executor;
+        this.ordered = ordered;
+        this.branchesPerTask = branchesPerTask;
+    }
+
+    public BranchSelector create( TraversalBranch startSource )
+    {
+        return new ParallelBreadthFirstSelector( startSource );
+    }
+
+    class ParallelBreadthFirstSelector implements BranchSelector
+    {
+        private TraversalBranch startSource;
+        private Depth current = new Depth();
+        private Depth next = new Depth();
+        private List<TraversalBranch> nextChunk = new ArrayList<TraversalBranch>();
+        private Iterator<TraversalBranch> chunk =
+                Collections.<TraversalBranch>emptyList().iterator();
+        private TraversalBranch branch;
+        private int submittedTasks;
+        private boolean closed;
+
+        ParallelBreadthFirstSelector( TraversalBranch startSource )
+        {
+            this.startSource = startSource;
+        }
+
+        public TraversalBranch next()
+        {
+            if ( closed )
+            {
+                return null;
+            }
+            if ( startSource != null )
+            {
+                TraversalBranch start = startSource.next();
+                startSource = null;
+                if ( start != null )
+                {
+                    addToNextDepth( start );
+                }
+                return start;
+            }
+            while ( true )
+            {
+                if ( branch != null )
+                {
+                    TraversalBranch result = branch.next();
+                    if ( result != null )
+                    {
+                        addToNextDepth( result );
+                        return result;
+                    }
+                    branch = null;
+                }
+                if ( chunk.hasNext() )
+                {
+                    branch = chunk.next();
+                }
+                else if ( current.hasMore() )
+                {
+                    chunk = take().iterator();
+                }
+                else
+                {
+                    // the whole depth is returned, go on with the next one
+                    if ( !nextChunk.isEmpty() )
+                    {
+                        next.waiting.add( nextChunk );
+                        nextChunk = new ArrayList<TraversalBranch>();
+                    }
+                    if ( !next.hasMore() )
+                    {
+                        return null;
+                    }
+                    current = next;
+                    next = new Depth();
+                }
+            }
+        }
+
+        private void addToNextDepth( TraversalBranch branch )
+        {
+            nextChunk.add( branch );
+            if ( nextChunk.size() == branchesPerTask )
+            {
+                next.waiting.add( nextChunk );
+                nextChunk = new ArrayList<TraversalBranch>();
+                submitWaiting();
+            }
+        }
+
+        private void submitWaiting()
+        {
+            while ( submittedTasks < TASKS_AHEAD )
+            {
+                List<TraversalBranch> branches = current.waiting.poll();
+                if ( branches != null )
+                {
+                    current.submit( branches );
+                }
+                else if ( ( branches = next.waiting.poll() ) != null )
+                {
+                    next.submit( branches );
+                }
+                else
+                {
+                    return;
+                }
+                submittedTasks++;
+            }
+        }
+
+        private List<TraversalBranch> take()
+        {
+            submitWaiting();
+            try
+            {
+                List<TraversalBranch> branches = current.take().get();
+                submittedTasks--;
+                return branches;
+            }
+            catch ( ExecutionException e )
+            {
+                Throwable cause = e.getCause();
+                if ( cause instanceof RuntimeException )
+                {
+                    throw (RuntimeException) cause;
+                }
+                if ( cause instanceof Error )
+                {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException( cause );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException( "Interrupted while traversing", e );
+            }
+        }
+
+        /**
+         * Stops the traversal and cancels the tasks which haven't started.
+         * Running tasks aren't interrupted since that could close the
+         * channels of the store they are reading from.
+         */
+        void close()
+        {
+            closed = true;
+            current.cancel();
+            next.cancel();
+        }
+    }
+
+    /**
+     * The tasks loading the relationships of the branches of a depth, and
+     * the chunks of branches which are still waiting to be submitted.
+     */
+    private class Depth
+    {
+        final Queue<List<TraversalBranch>> waiting = new LinkedList<List<TraversalBranch>>();
+        // in submission order, which is the order they're taken in if ordered
+        private final Queue<Future<List<TraversalBranch>>> tasks =
+                new LinkedList<Future<List<TraversalBranch>>>();
+        private final CompletionService<List<TraversalBranch>> completed = ordered ? null :
+                new ExecutorCompletionService<List<TraversalBranch>>( executor );
+
+        boolean hasMore()
+        {
+            return !tasks.isEmpty() || !waiting.isEmpty();
+        }
+
+        void submit( final List<TraversalBranch> branches )
+        {
+            Callable<List<TraversalBranch>> task = new Callable<List<TraversalBranch>>()
+            {
+                public List<TraversalBranch> call()
+                {
+                    for ( TraversalBranch branch : branches )
+                    {
+                        if ( branch instanceof TraversalBranchImpl )
+                        {
+                            ( (TraversalBranchImpl) branch ).loadRelationships();
+                        }
+                    }
+                    return branches;
+                }
+            };
+            tasks.add( ordered ? executor.submit( task ) : completed.submit( task ) );
+        }
+
+        Future<List<TraversalBranch>> take() throws InterruptedException
+        {
+            if ( ordered )
+            {
+                return tasks.poll();
+            }
+            Future<List<TraversalBranch>> task = completed.take();
+            tasks.remove( task );
+            return task;
+        }
+
+        void cancel()
+        {
+            for ( Future<List<TraversalBranch>> task : tasks )
+            {
+                task.cancel( false );
+            }
+            tasks.clear();
+            waiting.clear();
+        }
+    }
+}
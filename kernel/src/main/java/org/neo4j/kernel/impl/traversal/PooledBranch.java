@@ -0,0 +1,243 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.traversal;
+
+import java.util.Iterator;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.traversal.Evaluation;
+import org.neo4j.graphdb.traversal.TraversalBranch;
+
+/**
+ * A view of a branch of a {@link PooledTraverserIterator}, either of an
+ * entry in its {@link BranchPool} or of a branch which isn't in it (yet).
+ * The {@link Node}, {@link Relationship} and {@link Path} are only looked up
+ * when asked for. The traverser expands the entries of the pool itself, but
+ * a branch can be expanded with {@link #next()} as well, which adds the
+ * branches it returns to the pool.
+ * <p>
+ * A branch which is {@link #detach() detached} no longer reads the entries
+ * of itself and its parents, so that they can be freed.
+ */
+class PooledBranch implements TraversalBranch
+{
+    private final PooledTraverserIterator traverser;
+    private final BranchPool pool;
+    // the entry of this branch in the pool, or -1 if it has none
+    private int index = -1;
+    private int parentIndex;
+    private int depth;
+    private long nodeId;
+    private long relationshipId;
+    private Node node;
+    private Relationship relationship;
+    private Path path;
+    private Evaluation evaluation;
+    private int expanded;
+    // the relationships this branch is expanded with by next()
+    private Iterator<Relationship> relationships;
+    private boolean detached;
+    private PooledBranch parent;
+
+    /*
+     * For a branch which is reused, see set()
+     */
+    PooledBranch( PooledTraverserIterator traverser )
+    {
+        this.traverser = traverser;
+        this.pool = traverser.pool;
+    }
+
+    /*
+     * For the entry at index in the pool
+     */
+    PooledBranch( PooledTraverserIterator traverser, int index )
+    {
+        this( traverser );
+        this.index = index;
+        this.parentIndex = pool.parent( index );
+        this.depth = pool.depth( index );
+        this.nodeId = pool.node( index );
+        this.relationshipId = pool.relationship( index );
+        this.evaluation = pool.evaluation( index );
+    }
+
+    void set( int parentIndex, int depth, Node node, Relationship relationship )
+    {
+        this.index = -1;
+        this.parentIndex = parentIndex;
+        this.depth = depth;
+        this.node = node;
+        this.nodeId = node.getId();
+        this.relationship = relationship;
+        this.relationshipId = relationship != null ? relationship.getId() : -1;
+        this.path = null;
+        this.evaluation = null;
+    }
+
+    PooledBranch copy()
+    {
+        PooledBranch copy = new PooledBranch( traverser );
+        copy.set( parentIndex, depth, node, relationship );
+        return copy;
+    }
+
+    int index()
+    {
+        return index;
+    }
+
+    /**
+     * Adds this branch to the pool, with the evaluation it's been
+     * {@link #initialize() initialized} with, so that it can be expanded.
+     */
+    void addToPool()
+    {
+        index = pool.add( parentIndex, nodeId, relationshipId, depth, evaluation );
+    }
+
+    /**
+     * Makes this branch and its parents keep what they read from the pool,
+     * as it is now, so that the entries can be freed and reused.
+     */
+    void detach()
+    {
+        PooledBranch child = this;
+        while ( !child.detached )
+        {
+            child.detached = true;
+            if ( child.index != -1 )
+            {
+                child.expanded = pool.expanded( child.index );
+                child.index = -1;
+            }
+            if ( child.parentIndex == -1 )
+            {
+                break;
+            }
+            child.parent = new PooledBranch( traverser, child.parentIndex );
+            child = child.parent;
+        }
+    }
+
+    public TraversalBranch parent()
+    {
+        if ( detached )
+        {
+            return parent;
+        }
+        return parentIndex == -1 ? null : new PooledBranch( traverser, parentIndex );
+    }
+
+    public Path position()
+    {
+        if ( path == null )
+        {
+            path = new TraversalPath( this );
+        }
+        return path;
+    }
+
+    public int depth()
+    {
+        return depth;
+    }
+
+    public Node node()
+    {
+        if ( node == null )
+        {
+            node = pool.getNode( nodeId );
+        }
+        return node;
+    }
+
+    public Relationship relationship()
+    {
+        if ( relationship == null && relationshipId != -1 )
+        {
+            relationship = pool.getRelationship( relationshipId );
+        }
+        return relationship;
+    }
+
+    public TraversalBranch next()
+    {
+        if ( relationships == null )
+        {
+            if ( index == -1 )
+            {
+                // not to be expanded, or detached
+                return null;
+            }
+            relationships = traverser.expand( node() );
+        }
+        while ( relationships.hasNext() )
+        {
+            Relationship relationship = relationships.next();
+            if ( relationship.getId() == relationshipId )
+            {
+                continue;
+            }
+            pool.incrementExpanded( index );
+            PooledBranch next = new PooledBranch( traverser );
+            next.set( index, depth + 1, relationship.getOtherNode( node() ),
+                    relationship );
+            if ( traverser.okToProceed( next ) )
+            {
+                next.initialize();
+                return next;
+            }
+        }
+        return null;
+    }
+
+    public int expanded()
+    {
+        return index == -1 ? expanded : pool.expanded( index );
+    }
+
+    public Evaluation evaluation()
+    {
+        return evaluation;
+    }
+
+    /**
+     * Evaluates this branch and adds it to the pool if the traversal is to
+     * continue from it.
+     */
+    public void initialize()
+    {
+        evaluation = traverser.evaluate( this );
+        if ( evaluation.continues() )
+        {
+            addToPool();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PooledBranch[node=" + nodeId + ",relationship=" + relationshipId +
+                ",depth=" + depth + "]";
+    }
+}
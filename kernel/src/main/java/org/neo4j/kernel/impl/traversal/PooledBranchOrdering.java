@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.traversal;
+
+import org.neo4j.graphdb.traversal.BranchOrderingPolicy;
+import org.neo4j.graphdb.traversal.BranchSelector;
+import org.neo4j.graphdb.traversal.TraversalBranch;
+import org.neo4j.kernel.CommonBranchOrdering;
+
+/**
+ * Preorder orderings for which a {@link TraverserImpl} keeps the branches
+ * in a {@link BranchPool} instead of as {@link TraversalBranch} objects, see
+ * {@link PooledTraverserIterator}. The selectors they create select the
+ * same way, for use with other traversers.
+ */
+public enum PooledBranchOrdering implements BranchOrderingPolicy
+{
+    PREORDER_DEPTH_FIRST
+    {
+        public BranchSelector create( TraversalBranch startSource )
+        {
+            return CommonBranchOrdering.PREORDER_DEPTH_FIRST.create( startSource );
+        }
+    },
+    PREORDER_BREADTH_FIRST
+    {
+        public BranchSelector create( TraversalBranch startSource )
+        {
+            return CommonBranchOrdering.PREORDER_BREADTH_FIRST.create( startSource );
+        }
+    };
+}
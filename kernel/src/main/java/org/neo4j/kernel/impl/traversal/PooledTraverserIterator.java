@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.traversal;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.traversal.Evaluation;
+import org.neo4j.graphdb.traversal.Evaluators;
+import org.neo4j.graphdb.traversal.UniquenessFilter;
+import org.neo4j.helpers.collection.PrefetchingIterator;
+
+/**
+ * Traverses in preorder depth or breadth first with the branches kept as
+ * entries in a {@link BranchPool}. Compared to the
+ * {@link org.neo4j.graphdb.traversal.TraversalBranch} objects of {@link TraverserImpl.TraverserIterator} no branch is created
+ * for relationships leading to nodes that aren't unique, and the
+ * relationships of a branch are only fetched when it's expanded, instead of
+ * for every branch waiting to be expanded.
+ * <p>
+ * A {@link PooledBranch} and its {@link Path} are created for branches
+ * passed to the evaluator, to be returned if included. The uniqueness
+ * filter is given the same reused branch for every relationship, so it
+ * mustn't keep it. Only branches to be expanded are added to the pool, and
+ * depth first frees the entry of a branch once it's fully expanded, so the
+ * pool never holds more entries than the depth of the traversal. The
+ * branches it returns are {@link PooledBranch#detach() detached} for that
+ * reason.
+ */
+class PooledTraverserIterator extends PrefetchingIterator<Path>
+{
+    private final TraversalDescriptionImpl description;
+    private final UniquenessFilter uniqueness;
+    private final boolean depthFirst;
+    private final Node startNode;
+    final BranchPool pool;
+    private final PooledBranch candidate;
+    private boolean started;
+
+    // the branch whose relationships are being expanded, relationships is
+    // null when the traversal is done
+    private int sourceIndex;
+    private Node source;
+    private Iterator<Relationship> relationships;
+
+    // depth first: the branches below the source, still being expanded
+    private int[] stackIndices = new int[16];
+    private Node[] stackNodes = new Node[16];
+    private Object[] stackRelationships = new Object[16];
+    private int stackSize;
+
+    // breadth first: the next entry in the pool to expand
+    private int nextSourceIndex;
+
+    PooledTraverserIterator( TraversalDescriptionImpl description, Node startNode,
+            boolean depthFirst )
+    {
+        this.description = description;
+        this.uniqueness = description.uniqueness.create( description.uniquenessParameter );
+        this.depthFirst = depthFirst;
+        this.startNode = startNode;
+        this.pool = new BranchPool( startNode.getGraphDatabase() );
+        this.candidate = new PooledBranch( this );
+    }
+
+    @Override
+    protected Path fetchNextOrNull()
+    {
+        if ( !started )
+        {
+            started = true;
+            PooledBranch start = new PooledBranch( this );
+            start.set( -1, 0, startNode, null );
+            if ( !uniqueness.checkFirst( start ) )
+            {
+                return null;
+            }
+            start.initialize();
+            // the start node is expanded regardless of the evaluation, like
+            // StartNodeTraversalBranch does
+            if ( start.index() == -1 )
+            {
+                start.addToPool();
+            }
+            sourceIndex = start.index();
+            source = startNode;
+            relationships = expand( startNode );
+            nextSourceIndex = sourceIndex + 1;
+            if ( start.evaluation().includes() )
+            {
+                return returned( start );
+            }
+        }
+        while ( relationships != null )
+        {
+            while ( relationships.hasNext() )
+            {
+                Relationship relationship = relationships.next();
+                if ( relationship.getId() == pool.relationship( sourceIndex ) )
+                {
+                    continue;
+                }
+                pool.incrementExpanded( sourceIndex );
+                Node node = relationship.getOtherNode( source );
+                candidate.set( sourceIndex, pool.depth( sourceIndex ) + 1, node,
+                        relationship );
+                if ( !okToProceed( candidate ) )
+                {
+                    continue;
+                }
+                PooledBranch branch = candidate.copy();
+                branch.initialize();
+                Evaluation evaluation = branch.evaluation();
+                if ( depthFirst && evaluation.continues() )
+                {
+                    push( branch.index(), node );
+                }
+                if ( evaluation.includes() )
+                {
+                    return returned( branch );
+                }
+            }
+            nextSource();
+        }
+        return null;
+    }
+
+    private Path returned( PooledBranch branch )
+    {
+        if ( depthFirst )
+        {
+            // the entries of its parents are freed once they're expanded
+            branch.detach();
+        }
+        return branch.position();
+    }
+
+    boolean okToProceed( PooledBranch branch )
+    {
+        return uniqueness.check( branch );
+    }
+
+    Evaluation evaluate( PooledBranch branch )
+    {
+        if ( description.evaluator == Evaluators.all() )
+        {
+            return Evaluation.INCLUDE_AND_CONTINUE;
+        }
+        return description.evaluator.evaluate( branch.position() );
+    }
+
+    Iterator<Relationship> expand( Node node )
+    {
+        return description.expander.expand( node ).iterator();
+    }
+
+    private void push( int index, Node node )
+    {
+        if ( stackSize == stackIndices.length )
+        {
+            int capacity = stackSize * 2;
+            stackIndices = Arrays.copyOf( stackIndices, capacity );
+            stackNodes = Arrays.copyOf( stackNodes, capacity );
+            stackRelationships = Arrays.copyOf( stackRelationships, capacity );
+        }
+        stackIndices[stackSize] = sourceIndex;
+        stackNodes[stackSize] = source;
+        stackRelationships[stackSize] = relationships;
+        stackSize++;
+        sourceIndex = index;
+        source = node;
+        relationships = expand( node );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private void nextSource()
+    {
+        if ( depthFirst )
+        {
+            // everything after the source is already freed
+            pool.free( sourceIndex );
+            if ( stackSize == 0 )
+            {
+                relationships = null;
+                return;
+            }
+            stackSize--;
+            sourceIndex = stackIndices[stackSize];
+            source = stackNodes[stackSize];
+            relationships = (Iterator<Relationship>) stackRelationships[stackSize];
+            stackNodes[stackSize] = null;
+            stackRelationships[stackSize] = null;
+        }
+        else
+        {
+            if ( nextSourceIndex == pool.size() )
+            {
+                relationships = null;
+                return;
+            }
+            sourceIndex = nextSourceIndex++;
+            source = pool.getNode( pool.node( sourceIndex ) );
+            relationships = expand( source );
+        }
+    }
+}
@@ -19,7 +19,9 @@
  */
 package org.neo4j.kernel.impl.traversal;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
@@ -31,7 +33,12 @@ import org.neo4j.kernel.impl.traversal.TraverserImpl.TraverserIterator;
 
 class TraversalBranchImpl implements TraversalBranch//, Path
 {
-    private static final Iterator<Relationship> EMPTY_ITERATOR = new Iterator<Relationship>()
+    private static final Iterator<Relationship> EMPTY_ITERATOR = new EmptyIterator();
+    // the relationships of a branch whose relationships are loaded later by
+    // loadRelationships(), by another thread
+    private static final Iterator<Relationship> NOT_LOADED_ITERATOR = new EmptyIterator();
+
+    private static class EmptyIterator implements Iterator<Relationship>
     {
         @Override
         public boolean hasNext()
@@ -50,7 +57,7 @@ class TraversalBranchImpl implements TraversalBranch//, Path
         {
             throw new UnsupportedOperationException();
         }
-    };
+    }
     
     private final TraversalBranch parent;
     private final Node source;
@@ -109,7 +116,35 @@ class TraversalBranchImpl implements TraversalBranch//, Path
     
     protected void expandRelationshipsWithoutChecks()
     {
-        relationships = traverser.description.expander.expand( source ).iterator();
+        if ( traverser.loadsRelationshipsAhead )
+        {
+            relationships = NOT_LOADED_ITERATOR;
+        }
+        else
+        {
+            relationships = traverser.description.expander.expand( source ).iterator();
+        }
+    }
+
+    /**
+     * Loads the relationships of a branch which has been expanded while
+     * {@link TraverserIterator#loadsRelationshipsAhead}, so that
+     * {@link #next()} won't touch the store. It's called by the threads of
+     * the {@link ParallelBreadthFirstOrdering}, once per branch and before
+     * the branch is used by the traversing thread again.
+     */
+    void loadRelationships()
+    {
+        if ( relationships != NOT_LOADED_ITERATOR )
+        {
+            return;
+        }
+        List<Relationship> loaded = new ArrayList<Relationship>();
+        for ( Relationship relationship : traverser.description.expander.expand( source ) )
+        {
+            loaded.add( relationship );
+        }
+        relationships = loaded.iterator();
     }
 
     protected boolean hasExpandedRelationships()
@@ -19,6 +19,8 @@
  */
 package org.neo4j.kernel.impl.traversal;
 
+import java.util.concurrent.ExecutorService;
+
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Expander;
 import org.neo4j.graphdb.Node;
@@ -189,6 +191,12 @@ public final class TraversalDescriptionImpl implements TraversalDescription
         return order( Traversal.preorderBreadthFirst() );
     }
 
+    public TraversalDescription parallelBreadthFirst( ExecutorService executor,
+            boolean ordered )
+    {
+        return order( new ParallelBreadthFirstOrdering( executor, ordered ) );
+    }
+
     /* (non-Javadoc)
      * @see org.neo4j.graphdb.traversal.TraversalDescription#relationships(org.neo4j.graphdb.RelationshipType)
      */
@@ -28,6 +28,7 @@ import org.neo4j.graphdb.traversal.BranchSelector;
 import org.neo4j.graphdb.traversal.TraversalBranch;
 import org.neo4j.graphdb.traversal.Traverser;
 import org.neo4j.graphdb.traversal.UniquenessFilter;
+import org.neo4j.helpers.collection.ClosableIterator;
 import org.neo4j.helpers.collection.CombiningIterator;
 import org.neo4j.helpers.collection.IterableWrapper;
 import org.neo4j.helpers.collection.PrefetchingIterator;
@@ -45,6 +46,11 @@ class TraverserImpl implements Traverser
 
     public Iterator<Path> iterator()
     {
+        if ( description.branchSelector instanceof PooledBranchOrdering )
+        {
+            return new PooledTraverserIterator( description, startNode,
+                    description.branchSelector == PooledBranchOrdering.PREORDER_DEPTH_FIRST );
+        }
         return new TraverserIterator();
     }
 
@@ -92,16 +98,22 @@ class TraverserImpl implements Traverser
     }
 
     class TraverserIterator extends PrefetchingIterator<Path>
+            implements ClosableIterator<Path>
     {
         final UniquenessFilter uniquness;
         private final BranchSelector sourceSelector;
         final TraversalDescriptionImpl description;
         final Node startNode;
+        // whether the relationships of the branches are loaded by other
+        // threads, see TraversalBranchImpl#loadRelationships()
+        final boolean loadsRelationshipsAhead;
 
         TraverserIterator()
         {
             this.description = TraverserImpl.this.description;
             this.uniquness = description.uniqueness.create( description.uniquenessParameter );
+            this.loadsRelationshipsAhead =
+                    description.branchSelector instanceof ParallelBreadthFirstOrdering;
             this.startNode = TraverserImpl.this.startNode;
             this.sourceSelector = description.branchSelector.create(
                     new StartNodeTraversalBranch( this, startNode,
@@ -135,5 +147,13 @@ class TraverserImpl implements Traverser
                 }
             }
         }
+
+        public void close()
+        {
+            if ( sourceSelector instanceof ParallelBreadthFirstOrdering.ParallelBreadthFirstSelector )
+            {
+                ( (ParallelBreadthFirstOrdering.ParallelBreadthFirstSelector) sourceSelector ).close();
+            }
+        }
     }
 }
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.Arrays;
+
+/**
+ * A set of non negative <CODE>long</CODE>s, e.g. node or relationship ids,
+ * kept as a bitmap with one bit per possible value. For sets that hold a
+ * large part of the values up to the highest one it uses far less memory
+ * than a {@link LongHashSet}, one bit per value instead of at least sixteen
+ * bytes, and adding and looking up values is a shift and a mask. The bitmap
+ * grows when values above its current size are added.
+ */
+public class LongBitSet
+{
+    private long[] words;
+    private long size;
+
+    public LongBitSet()
+    {
+        this( 1024 );
+    }
+
+    /**
+     * @param highestValue the highest value the set should be able to hold
+     * before growing, e.g. the highest id in use
+     */
+    public LongBitSet( long highestValue )
+    {
+        words = new long[wordsFor( Math.max( highestValue, 0 ) )];
+    }
+
+    private static int wordsFor( long value )
+    {
+        long words = (value >>> 6) + 1;
+        if ( words > Integer.MAX_VALUE )
+        {
+            throw new IllegalArgumentException( "Value too large " + value );
+        }
+        return (int) words;
+    }
+
+    /**
+     * @return <CODE>true</CODE> if <CODE>value</CODE> wasn't already in the
+     * set
+     */
+    public boolean add( long value )
+    {
+        checkValue( value );
+        if ( (value >>> 6) >= words.length )
+        {
+            words = Arrays.copyOf( words, Math.max( wordsFor( value ),
+                (int) Math.min( words.length * 2L, Integer.MAX_VALUE ) ) );
+        }
+        int word = (int) (value >>> 6);
+        long bit = 1L << value;
+        if ( (words[word] & bit) != 0 )
+        {
+            return false;
+        }
+        words[word] |= bit;
+        size++;
+        return true;
+    }
+
+    public boolean contains( long value )
+    {
+        checkValue( value );
+        long word = value >>> 6;
+        return word < words.length && (words[(int) word] & (1L << value)) != 0;
+    }
+
+    private static void checkValue( long value )
+    {
+        if ( value < 0 )
+        {
+            throw new IllegalArgumentException( "Negative value " + value );
+        }
+    }
+
+    public long size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        Arrays.fill( words, 0 );
+        size = 0;
+    }
+}
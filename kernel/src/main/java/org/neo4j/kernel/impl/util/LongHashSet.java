@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive <CODE>long</CODE>s, e.g. node or relationship ids,
+ * kept in an open addressed hash table with linear probing. Unlike a
+ * <CODE>HashSet&lt;Long&gt;</CODE> it doesn't box the values or allocate an
+ * entry per value, so it uses a fraction of the memory for large sets.
+ */
+public class LongHashSet
+{
+    private long[] keys;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    public LongHashSet()
+    {
+        this( 16 );
+    }
+
+    /**
+     * @param expectedSize the number of values the set should be able to
+     * hold before growing
+     */
+    public LongHashSet( int expectedSize )
+    {
+        allocate( capacityFor( expectedSize ) );
+    }
+
+    /**
+     * Returns the table capacity, a power of two, needed to hold
+     * <CODE>size</CODE> keys without growing.
+     */
+    static int capacityFor( int size )
+    {
+        return Integer.highestOneBit( Math.max( size, 2 ) * 4 / 3 + 1 ) << 1;
+    }
+
+    /**
+     * Returns the slot where probing for <CODE>key</CODE> starts in a table
+     * of <CODE>mask + 1</CODE> slots. The multiplication spreads consecutive
+     * ids over the whole table.
+     */
+    static int slot( long key, int mask )
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Returns whether a table of <CODE>capacity</CODE> slots holding
+     * <CODE>size</CODE> keys should grow.
+     */
+    static boolean isFull( int size, int capacity )
+    {
+        return size >= capacity - (capacity >> 2);
+    }
+
+    private void allocate( int capacity )
+    {
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return <CODE>true</CODE> if <CODE>key</CODE> wasn't already in the
+     * set
+     */
+    public boolean add( long key )
+    {
+        int slot = slot( key, mask );
+        while ( used[slot] )
+        {
+            if ( keys[slot] == key )
+            {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        used[slot] = true;
+        if ( isFull( ++size, keys.length ) )
+        {
+            grow();
+        }
+        return true;
+    }
+
+    public boolean contains( long key )
+    {
+        for ( int slot = slot( key, mask ); used[slot]; slot = (slot + 1) & mask )
+        {
+            if ( keys[slot] == key )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return <CODE>true</CODE> if <CODE>key</CODE> was in the set
+     */
+    public boolean remove( long key )
+    {
+        for ( int slot = slot( key, mask ); used[slot]; slot = (slot + 1) & mask )
+        {
+            if ( keys[slot] == key )
+            {
+                size--;
+                // Shift back the keys after it that probed past it, so that
+                // no free slot is left between a key and its first slot
+                int free = slot;
+                for ( int next = (free + 1) & mask; used[next]; next = (next + 1) & mask )
+                {
+                    int first = slot( keys[next], mask );
+                    if ( ((next - first) & mask) >= ((next - free) & mask) )
+                    {
+                        keys[free] = keys[next];
+                        free = next;
+                    }
+                }
+                used[free] = false;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        Arrays.fill( used, false );
+        size = 0;
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        boolean[] oldUsed = used;
+        allocate( oldKeys.length << 1 );
+        for ( int i = 0; i < oldKeys.length; i++ )
+        {
+            if ( oldUsed[i] )
+            {
+                int slot = slot( oldKeys[i], mask );
+                while ( used[slot] )
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                used[slot] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.neo4j.kernel.impl.util.LongHashSet.capacityFor;
+import static org.neo4j.kernel.impl.util.LongHashSet.isFull;
+import static org.neo4j.kernel.impl.util.LongHashSet.slot;
+
+import java.util.Arrays;
+
+/**
+ * A map from primitive <CODE>long</CODE>s to primitive <CODE>long</CODE>s,
+ * e.g. from node ids to relationship ids, kept in an open addressed hash
+ * table with linear probing, see {@link LongHashSet}.
+ */
+public class LongLongHashMap
+{
+    private long[] keys;
+    private long[] values;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    public LongLongHashMap()
+    {
+        this( 16 );
+    }
+
+    /**
+     * @param expectedSize the number of entries the map should be able to
+     * hold before growing
+     */
+    public LongLongHashMap( int expectedSize )
+    {
+        allocate( capacityFor( expectedSize ) );
+    }
+
+    private void allocate( int capacity )
+    {
+        keys = new long[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return the value for <CODE>key</CODE>, or <CODE>defaultValue</CODE>
+     * if there is none
+     */
+    public long get( long key, long defaultValue )
+    {
+        for ( int slot = slot( key, mask ); used[slot]; slot = (slot + 1) & mask )
+        {
+            if ( keys[slot] == key )
+            {
+                return values[slot];
+            }
+        }
+        return defaultValue;
+    }
+
+    public boolean containsKey( long key )
+    {
+        for ( int slot = slot( key, mask ); used[slot]; slot = (slot + 1) & mask )
+        {
+            if ( keys[slot] == key )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return <CODE>true</CODE> if there was no value for <CODE>key</CODE>
+     * before
+     */
+    public boolean put( long key, long value )
+    {
+        int slot = slot( key, mask );
+        while ( used[slot] )
+        {
+            if ( keys[slot] == key )
+            {
+                values[slot] = value;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        used[slot] = true;
+        if ( isFull( ++size, keys.length ) )
+        {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * @return <CODE>true</CODE> if there was a value for <CODE>key</CODE>
+     */
+    public boolean remove( long key )
+    {
+        for ( int slot = slot( key, mask ); used[slot]; slot = (slot + 1) & mask )
+        {
+            if ( keys[slot] == key )
+            {
+                size--;
+                // Shift back the entries after it that probed past it, see
+                // LongHashSet#remove
+                int free = slot;
+                for ( int next = (free + 1) & mask; used[next]; next = (next + 1) & mask )
+                {
+                    int first = slot( keys[next], mask );
+                    if ( ((next - first) & mask) >= ((next - free) & mask) )
+                    {
+                        keys[free] = keys[next];
+                        values[free] = values[next];
+                        free = next;
+                    }
+                }
+                used[free] = false;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        Arrays.fill( used, false );
+        size = 0;
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate( oldKeys.length << 1 );
+        for ( int i = 0; i < oldKeys.length; i++ )
+        {
+            if ( oldUsed[i] )
+            {
+                int slot = slot( oldKeys[i], mask );
+                while ( used[slot] )
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                used[slot] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive <CODE>long</CODE>s holding at most a given number of
+ * them, evicting the least recently used value when a new one is added to a
+ * full set. It's the primitive equivalent of an access ordered
+ * {@link org.neo4j.kernel.impl.cache.LruCache} with no values: the values
+ * are linked in recency order through <CODE>int</CODE> arrays, and a
+ * {@link LongLongHashMap} finds the entry of a value.
+ */
+public class LongLruSet
+{
+    private static final int NONE = -1;
+
+    private final int maxSize;
+    private final LongLongHashMap entries;
+    private long[] values;
+    private int[] newer;
+    private int[] older;
+    private int newest = NONE;
+    private int oldest = NONE;
+    private int size;
+
+    /**
+     * @param maxSize the number of most recently used values to keep
+     */
+    public LongLruSet( int maxSize )
+    {
+        if ( maxSize < 1 )
+        {
+            throw new IllegalArgumentException( "maxSize " + maxSize );
+        }
+        this.maxSize = maxSize;
+        int capacity = Math.min( maxSize, 1024 );
+        this.entries = new LongLongHashMap( capacity );
+        this.values = new long[capacity];
+        this.newer = new int[capacity];
+        this.older = new int[capacity];
+    }
+
+    /**
+     * Adds <CODE>value</CODE> as the most recently used value, evicting the
+     * least recently used one if the set is full.
+     *
+     * @return <CODE>true</CODE> if <CODE>value</CODE> wasn't in the set
+     */
+    public boolean add( long value )
+    {
+        int entry = (int) entries.get( value, NONE );
+        if ( entry != NONE )
+        {
+            unlink( entry );
+            linkAsNewest( entry );
+            return false;
+        }
+        if ( size == maxSize )
+        {
+            entry = oldest;
+            unlink( entry );
+            entries.remove( values[entry] );
+        }
+        else
+        {
+            if ( size == values.length )
+            {
+                int capacity = (int) Math.min( values.length * 2L, maxSize );
+                values = Arrays.copyOf( values, capacity );
+                newer = Arrays.copyOf( newer, capacity );
+                older = Arrays.copyOf( older, capacity );
+            }
+            entry = size++;
+        }
+        values[entry] = value;
+        entries.put( value, entry );
+        linkAsNewest( entry );
+        return true;
+    }
+
+    /**
+     * Returns whether <CODE>value</CODE> is in the set, without making it
+     * the most recently used.
+     */
+    public boolean contains( long value )
+    {
+        return entries.containsKey( value );
+    }
+
+    private void unlink( int entry )
+    {
+        if ( newer[entry] == NONE )
+        {
+            newest = older[entry];
+        }
+        else
+        {
+            older[newer[entry]] = older[entry];
+        }
+        if ( older[entry] == NONE )
+        {
+            oldest = newer[entry];
+        }
+        else
+        {
+            newer[older[entry]] = newer[entry];
+        }
+    }
+
+    private void linkAsNewest( int entry )
+    {
+        newer[entry] = NONE;
+        older[entry] = newest;
+        if ( newest == NONE )
+        {
+            oldest = entry;
+        }
+        else
+        {
+            newer[newest] = entry;
+        }
+        newest = entry;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int maxSize()
+    {
+        return maxSize;
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.neo4j.kernel.impl.util.LongHashSet.capacityFor;
+import static org.neo4j.kernel.impl.util.LongHashSet.isFull;
+import static org.neo4j.kernel.impl.util.LongHashSet.slot;
+
+import java.util.Arrays;
+
+/**
+ * A map from primitive <CODE>long</CODE>s, e.g. node or relationship ids,
+ * to objects, kept in an open addressed hash table with linear probing, see
+ * {@link LongHashSet}. <CODE>null</CODE> values aren't allowed, a
+ * <CODE>null</CODE> from {@link #get(long)} means that there's no value for
+ * the key.
+ *
+ * @param <V> the type of the values
+ */
+public class LongObjectHashMap<V>
+{
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public LongObjectHashMap()
+    {
+        this( 16 );
+    }
+
+    /**
+     * @param expectedSize the number of entries the map should be able to
+     * hold before growing
+     */
+    public LongObjectHashMap( int expectedSize )
+    {
+        allocate( capacityFor( expectedSize ) );
+    }
+
+    private void allocate( int capacity )
+    {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    public V get( long key )
+    {
+        for ( int slot = slot( key, mask ); values[slot] != null; slot = (slot + 1) & mask )
+        {
+            if ( keys[slot] == key )
+            {
+                return (V) values[slot];
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey( long key )
+    {
+        return get( key ) != null;
+    }
+
+    /**
+     * @return the previous value for <CODE>key</CODE>, or <CODE>null</CODE>
+     * if there was none
+     */
+    @SuppressWarnings( "unchecked" )
+    public V put( long key, V value )
+    {
+        if ( value == null )
+        {
+            throw new IllegalArgumentException( "Null value for " + key );
+        }
+        int slot = slot( key, mask );
+        while ( values[slot] != null )
+        {
+            if ( keys[slot] == key )
+            {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if ( isFull( ++size, keys.length ) )
+        {
+            grow();
+        }
+        return null;
+    }
+
+    /**
+     * @return the removed value, or <CODE>null</CODE> if there was no value
+     * for <CODE>key</CODE>
+     */
+    @SuppressWarnings( "unchecked" )
+    public V remove( long key )
+    {
+        for ( int slot = slot( key, mask ); values[slot] != null; slot = (slot + 1) & mask )
+        {
+            if ( keys[slot] == key )
+            {
+                V removed = (V) values[slot];
+                size--;
+                // Shift back the entries after it that probed past it, see
+                // LongHashSet#remove
+                int free = slot;
+                for ( int next = (free + 1) & mask; values[next] != null; next = (next + 1) & mask )
+                {
+                    int first = slot( keys[next], mask );
+                    if ( ((next - first) & mask) >= ((next - free) & mask) )
+                    {
+                        keys[free] = keys[next];
+                        values[free] = values[next];
+                        free = next;
+                    }
+                }
+                values[free] = null;
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        Arrays.fill( values, null );
+        size = 0;
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate( oldKeys.length << 1 );
+        for ( int i = 0; i < oldKeys.length; i++ )
+        {
+            if ( oldValues[i] != null )
+            {
+                int slot = slot( oldKeys[i], mask );
+                while ( values[slot] != null )
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded multi producer, multi consumer queue of primitive
+ * <CODE>long</CODE>s that doesn't take any locks. Each slot has a sequence
+ * number telling producers and consumers whose turn it is, so offering and
+ * polling only contend on a compare and set of the enqueue or dequeue
+ * position.
+ */
+public class LongRingBuffer
+{
+    private final int mask;
+    private final long[] values;
+    private final AtomicLongArray sequences;
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    private final AtomicLong dequeuePosition = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of values, rounded up to a power
+     * of two
+     */
+    public LongRingBuffer( int capacity )
+    {
+        if ( capacity < 1 || capacity > (1 << 30) )
+        {
+            throw new IllegalArgumentException( "capacity=" + capacity );
+        }
+        int size = Integer.highestOneBit( capacity );
+        if ( size < capacity )
+        {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.values = new long[size];
+        this.sequences = new AtomicLongArray( size );
+        for ( int i = 0; i < size; i++ )
+        {
+            sequences.set( i, i );
+        }
+    }
+
+    /**
+     * Adds <CODE>value</CODE> to the buffer.
+     *
+     * @return <CODE>false</CODE> if the buffer is full
+     */
+    public boolean offer( long value )
+    {
+        long position = enqueuePosition.get();
+        while ( true )
+        {
+            int index = (int) position & mask;
+            long difference = sequences.get( index ) - position;
+            if ( difference == 0 )
+            {
+                if ( enqueuePosition.compareAndSet( position, position + 1 ) )
+                {
+                    values[index] = value;
+                    sequences.set( index, position + 1 );
+                    return true;
+                }
+                position = enqueuePosition.get();
+            }
+            else if ( difference < 0 )
+            {
+                return false;
+            }
+            else
+            {
+                position = enqueuePosition.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest value from the buffer.
+     *
+     * @return the value, or <CODE>-1</CODE> if the buffer is empty
+     */
+    public long poll()
+    {
+        long position = dequeuePosition.get();
+        while ( true )
+        {
+            int index = (int) position & mask;
+            long difference = sequences.get( index ) - (position + 1);
+            if ( difference == 0 )
+            {
+                if ( dequeuePosition.compareAndSet( position, position + 1 ) )
+                {
+                    long value = values[index];
+                    sequences.set( index, position + mask + 1 );
+                    return value;
+                }
+                position = dequeuePosition.get();
+            }
+            else if ( difference < 0 )
+            {
+                return -1;
+            }
+            else
+            {
+                position = dequeuePosition.get();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of values in the buffer, which may be out of date
+     * as soon as it's returned if other threads are using it.
+     */
+    public int size()
+    {
+        long size = enqueuePosition.get() - dequeuePosition.get();
+        return (int) Math.max( 0, Math.min( size, mask + 1 ) );
+    }
+
+    public int capacity()
+    {
+        return mask + 1;
+    }
+}
@@ -243,6 +243,24 @@ public class RelIdArray
         }
     }
     
+    /**
+     * @return the number of ids in this array, in all directions.
+     */
+    public int length()
+    {
+        return length( lastOutBlock ) + length( lastInBlock ) + length( getLastLoopBlock() );
+    }
+    
+    private static int length( IdBlock block )
+    {
+        int length = 0;
+        for ( ; block != null; block = block.getPrev() )
+        {
+            length += block.length();
+        }
+        return length;
+    }
+    
     public boolean isEmpty()
     {
         return lastOutBlock == null && lastInBlock == null && getLastLoopBlock() == null ;
@@ -253,6 +271,17 @@ public class RelIdArray
         return direction.iterator( this );
     }
     
+    /**
+     * Returns an iterator over the ids added with exactly <CODE>direction</CODE>.
+     * Unlike {@link #iterator(DirectionWrapper)} loops are only included for
+     * {@link DirectionWrapper#BOTH} and outgoing/incoming ids only for
+     * {@link DirectionWrapper#OUTGOING}/{@link DirectionWrapper#INCOMING}.
+     */
+    public RelIdIterator directionIterator( DirectionWrapper direction )
+    {
+        return new RelIdIteratorImpl( this, new DirectionWrapper[] { direction } );
+    }
+    
     public RelIdArray newSimilarInstance()
     {
         return new RelIdArray( type );
@@ -24,10 +24,12 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -39,6 +41,8 @@ import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
 
@@ -85,10 +89,15 @@ public class TestBatchInsert
     }
 
     private BatchInserter newBatchInserter()
+    {
+        return newBatchInserter( new HashMap<String,String>() );
+    }
+
+    private BatchInserter newBatchInserter( Map<String,String> config )
     {
         String storePath = AbstractNeo4jTestCase.getStorePath( "neo-batch" );
         AbstractNeo4jTestCase.deleteFileOrDirectory( new File( storePath ) );
-        return new BatchInserterImpl( storePath );
+        return new BatchInserterImpl( storePath, config );
     }
 
     @Test
@@ -285,6 +294,308 @@ public class TestBatchInsert
         db.shutdown();
     }
     
+    @Test
+    public void appendsToDenseNode() throws Exception
+    {
+        BatchInserter inserter = newBatchInserter();
+        String storeDir = inserter.getStore();
+        long nodeId = inserter.createNode( null );
+        inserter.shutdown();
+
+        GraphDatabaseService db = new EmbeddedGraphDatabase( storeDir,
+                MapUtil.stringMap( Config.DENSE_NODE_THRESHOLD, "5",
+                        Config.ALLOW_STORE_UPGRADE, "true" ) );
+        Set<Long> created = new HashSet<Long>();
+        Transaction tx = db.beginTx();
+        Node node = db.getNodeById( nodeId );
+        for ( int i = 0; i < 10; i++ )
+        {
+            created.add( node.createRelationshipTo( db.createNode(),
+                    RelTypes.REL_TYPE1 ).getId() );
+        }
+        tx.success();
+        tx.finish();
+        db.shutdown();
+
+        inserter = new BatchInserterImpl( storeDir );
+        created.add( inserter.createRelationship( nodeId, inserter.createNode( null ),
+                RelTypes.REL_TYPE1, null ) );
+        created.add( inserter.createRelationship( inserter.createNode( null ), nodeId,
+                RelTypes.REL_TYPE2, null ) );
+        created.add( inserter.createRelationship( nodeId, nodeId,
+                RelTypes.REL_TYPE2, null ) );
+        assertEquals( created, asSet( inserter.getRelationshipIds( nodeId ) ) );
+        inserter.shutdown();
+
+        db = new EmbeddedGraphDatabase( storeDir );
+        Set<Long> found = new HashSet<Long>();
+        for ( Relationship relationship : db.getNodeById( nodeId ).getRelationships() )
+        {
+            found.add( relationship.getId() );
+        }
+        assertEquals( created, found );
+        assertEquals( 2, IteratorUtil.count( db.getNodeById( nodeId ).getRelationships(
+                RelTypes.REL_TYPE2, Direction.INCOMING ) ) );
+        db.shutdown();
+    }
+
+    @Test
+    public void importGraphLinksRelationshipChains()
+    {
+        BatchInserter inserter = newBatchInserter(
+            MapUtil.stringMap( Config.BATCH_IMPORT_LINK_THREADS, "3" ) );
+        String storeDir = inserter.getStore();
+        long firstNode = inserter.createNode( null ) + 1;
+        int nodeCount = 50;
+        List<InputNode> nodes = new ArrayList<InputNode>();
+        for ( int i = 0; i < nodeCount; i++ )
+        {
+            nodes.add( new InputNode( firstNode + i * 2, MapUtil.map( "name", "node" + i ) ) );
+        }
+        // more relationships than fit in one batch, including loops
+        List<InputRelationship> relationships = new ArrayList<InputRelationship>();
+        for ( int i = 0; i < ParallelImporter.BATCH_SIZE + 500; i++ )
+        {
+            long start = firstNode + (i % nodeCount) * 2;
+            long end = firstNode + ((i * 7) % nodeCount) * 2;
+            relationships.add( new InputRelationship( start, end,
+                relTypeArray[i % 5], MapUtil.map( "index", i ) ) );
+        }
+        long firstRel = inserter.importGraph( nodes, relationships );
+
+        assertEquals( "node3", inserter.getNodeProperties( firstNode + 6 ).get( "name" ) );
+        assertTrue( !inserter.nodeExists( firstNode + 1 ) );
+        Map<Long,Set<Long>> expected = new HashMap<Long,Set<Long>>();
+        for ( int i = 0; i < relationships.size(); i++ )
+        {
+            InputRelationship input = relationships.get( i );
+            SimpleRelationship rel = inserter.getRelationshipById( firstRel + i );
+            assertEquals( input.getStartNode(), rel.getStartNode() );
+            assertEquals( input.getEndNode(), rel.getEndNode() );
+            assertEquals( input.getType().name(), rel.getType().name() );
+            assertEquals( i, inserter.getRelationshipProperties( firstRel + i ).get( "index" ) );
+            addTo( expected, input.getStartNode(), firstRel + i );
+            addTo( expected, input.getEndNode(), firstRel + i );
+        }
+        for ( InputNode node : nodes )
+        {
+            assertEquals( expected.get( node.getId() ),
+                asSet( inserter.getRelationshipIds( node.getId() ) ) );
+        }
+        inserter.shutdown();
+
+        // deleting relationships in the middle of chains needs the prev links
+        GraphDatabaseService db = new EmbeddedGraphDatabase( storeDir );
+        Transaction tx = db.beginTx();
+        for ( long relId = firstRel + 3; relId < firstRel + relationships.size(); relId += 10 )
+        {
+            Relationship rel = db.getRelationshipById( relId );
+            expected.get( rel.getStartNode().getId() ).remove( relId );
+            expected.get( rel.getEndNode().getId() ).remove( relId );
+            rel.delete();
+        }
+        tx.success();
+        tx.finish();
+        db.shutdown();
+        db = new EmbeddedGraphDatabase( storeDir );
+        for ( InputNode node : nodes )
+        {
+            Set<Long> found = new HashSet<Long>();
+            for ( Relationship relationship : db.getNodeById( node.getId() ).getRelationships() )
+            {
+                found.add( relationship.getId() );
+            }
+            assertEquals( expected.get( node.getId() ), found );
+        }
+        db.shutdown();
+    }
+
+    private static void addTo( Map<Long,Set<Long>> map, long key, long value )
+    {
+        Set<Long> set = map.get( key );
+        if ( set == null )
+        {
+            set = new HashSet<Long>();
+            map.put( key, set );
+        }
+        set.add( value );
+    }
+
+    @Test
+    public void importGraphRejectsRelationshipsToMissingNodes()
+    {
+        BatchInserter inserter = newBatchInserter();
+        long existing = inserter.createNode( null );
+        inserter.createNode( existing + 3, null );
+        for ( long missing : new long[] { existing + 1, existing + 5 } )
+        {
+            try
+            {
+                inserter.importGraph( Arrays.asList( new InputNode( existing + 4, null ) ),
+                    Arrays.asList( new InputRelationship( missing, existing + 4,
+                        RelTypes.BATCH_TEST, null ) ) );
+                fail( "Shouldn't be able to connect node " + missing +
+                    " that is neither imported nor in the store" );
+            }
+            catch ( IllegalArgumentException e )
+            {   // Good
+            }
+        }
+        inserter.shutdown();
+    }
+
+    @Test
+    public void importGraphConnectsNodesAlreadyInTheStore()
+    {
+        BatchInserter inserter = newBatchInserter(
+            MapUtil.stringMap( Config.BATCH_IMPORT_LINK_THREADS, "4" ) );
+        String storeDir = inserter.getStore();
+        long first = inserter.createNode( null );
+        long second = inserter.createNode( null );
+        long lonely = inserter.createNode( null );
+        Map<Long,Set<Long>> expected = new HashMap<Long,Set<Long>>();
+        for ( int i = 0; i < 3; i++ )
+        {
+            long rel = inserter.createRelationship( first, second, RelTypes.BATCH_TEST, null );
+            addTo( expected, first, rel );
+            addTo( expected, second, rel );
+        }
+        long firstNode = lonely + 1;
+        int nodeCount = 20;
+        List<InputNode> nodes = new ArrayList<InputNode>();
+        for ( int i = 0; i < nodeCount; i++ )
+        {
+            nodes.add( new InputNode( firstNode + i, null ) );
+            expected.put( firstNode + i, new HashSet<Long>() );
+        }
+        List<InputRelationship> relationships = new ArrayList<InputRelationship>();
+        for ( int i = 0; i < 200; i++ )
+        {
+            long imported = firstNode + i % nodeCount;
+            switch ( i % 5 )
+            {
+            case 0:
+                relationships.add( new InputRelationship( imported, first,
+                    RelTypes.REL_TYPE1, null ) );
+                break;
+            case 1:
+                relationships.add( new InputRelationship( second, imported,
+                    RelTypes.REL_TYPE2, null ) );
+                break;
+            case 2:
+                relationships.add( new InputRelationship( first, i % 2 == 0 ? first : second,
+                    RelTypes.REL_TYPE3, null ) );
+                break;
+            default:
+                relationships.add( new InputRelationship( imported,
+                    firstNode + (i * 7) % nodeCount, RelTypes.REL_TYPE4, null ) );
+            }
+        }
+        long firstRel = inserter.importGraph( nodes, relationships );
+        for ( int i = 0; i < relationships.size(); i++ )
+        {
+            InputRelationship input = relationships.get( i );
+            addTo( expected, input.getStartNode(), firstRel + i );
+            addTo( expected, input.getEndNode(), firstRel + i );
+        }
+        assertEquals( expected.get( first ), asSet( inserter.getRelationshipIds( first ) ) );
+        assertEquals( expected.get( second ), asSet( inserter.getRelationshipIds( second ) ) );
+        assertTrue( asSet( inserter.getRelationshipIds( lonely ) ).isEmpty() );
+        for ( InputNode node : nodes )
+        {
+            assertEquals( expected.get( node.getId() ),
+                asSet( inserter.getRelationshipIds( node.getId() ) ) );
+        }
+        inserter.shutdown();
+
+        // deleting both old and imported relationships needs the prev links
+        GraphDatabaseService db = new EmbeddedGraphDatabase( storeDir );
+        Transaction tx = db.beginTx();
+        List<Long> toDelete = new ArrayList<Long>( expected.get( first ) );
+        for ( int i = 0; i < toDelete.size(); i += 3 )
+        {
+            Relationship rel = db.getRelationshipById( toDelete.get( i ) );
+            expected.get( rel.getStartNode().getId() ).remove( rel.getId() );
+            expected.get( rel.getEndNode().getId() ).remove( rel.getId() );
+            rel.delete();
+        }
+        tx.success();
+        tx.finish();
+        db.shutdown();
+        db = new EmbeddedGraphDatabase( storeDir );
+        for ( long nodeId : expected.keySet() )
+        {
+            Set<Long> found = new HashSet<Long>();
+            for ( Relationship relationship : db.getNodeById( nodeId ).getRelationships() )
+            {
+                found.add( relationship.getId() );
+            }
+            assertEquals( expected.get( nodeId ), found );
+        }
+        db.shutdown();
+    }
+
+    @Test
+    public void importGraphAppendsToDenseNodeAlreadyInTheStore() throws Exception
+    {
+        BatchInserter inserter = newBatchInserter();
+        String storeDir = inserter.getStore();
+        long nodeId = inserter.createNode( null );
+        inserter.shutdown();
+
+        GraphDatabaseService db = new EmbeddedGraphDatabase( storeDir,
+                MapUtil.stringMap( Config.DENSE_NODE_THRESHOLD, "5",
+                        Config.ALLOW_STORE_UPGRADE, "true" ) );
+        Set<Long> created = new HashSet<Long>();
+        Transaction tx = db.beginTx();
+        Node node = db.getNodeById( nodeId );
+        for ( int i = 0; i < 10; i++ )
+        {
+            created.add( node.createRelationshipTo( db.createNode(),
+                    RelTypes.REL_TYPE1 ).getId() );
+        }
+        tx.success();
+        tx.finish();
+        db.shutdown();
+
+        inserter = new BatchInserterImpl( storeDir );
+        long firstNode = inserter.createNode( null ) + 1;
+        List<InputNode> nodes = new ArrayList<InputNode>();
+        List<InputRelationship> relationships = new ArrayList<InputRelationship>();
+        for ( int i = 0; i < 10; i++ )
+        {
+            nodes.add( new InputNode( firstNode + i, null ) );
+            relationships.add( new InputRelationship( nodeId, firstNode + i,
+                RelTypes.REL_TYPE1, null ) );
+            relationships.add( new InputRelationship( firstNode + i, nodeId,
+                RelTypes.REL_TYPE2, null ) );
+        }
+        relationships.add( new InputRelationship( nodeId, nodeId,
+            RelTypes.REL_TYPE2, null ) );
+        long firstRel = inserter.importGraph( nodes, relationships );
+        for ( int i = 0; i < relationships.size(); i++ )
+        {
+            created.add( firstRel + i );
+        }
+        assertEquals( created, asSet( inserter.getRelationshipIds( nodeId ) ) );
+        assertEquals( asSet( firstRel, firstRel + 1 ),
+            asSet( inserter.getRelationshipIds( firstNode ) ) );
+        inserter.shutdown();
+
+        db = new EmbeddedGraphDatabase( storeDir );
+        Set<Long> found = new HashSet<Long>();
+        for ( Relationship relationship : db.getNodeById( nodeId ).getRelationships() )
+        {
+            found.add( relationship.getId() );
+        }
+        assertEquals( created, found );
+        assertEquals( 11, IteratorUtil.count( db.getNodeById( nodeId ).getRelationships(
+                RelTypes.REL_TYPE2, Direction.INCOMING ) ) );
+        assertEquals( 1, IteratorUtil.count( db.getNodeById( firstNode ).getRelationships(
+                RelTypes.REL_TYPE2, Direction.OUTGOING ) ) );
+        db.shutdown();
+    }
+
     @Test
     public void messagesLogGetsClosed() throws Exception
     {
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.batchinsert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class TestDirectLongArray
+{
+    @Test
+    public void keepsValuesAcrossChunks()
+    {
+        DirectLongArray array = new DirectLongArray( 3 );
+        array.ensureLength( 100 );
+        assertEquals( 100, array.length() );
+        for ( long i = 0; i < 100; i++ )
+        {
+            assertEquals( 0, array.get( i ) );
+            array.set( i, i * 1000000007L );
+        }
+        for ( long i = 0; i < 100; i++ )
+        {
+            assertEquals( i * 1000000007L, array.get( i ) );
+        }
+    }
+
+    @Test
+    public void growingKeepsValuesAndZeroesNewOnes()
+    {
+        DirectLongArray array = new DirectLongArray( 3 );
+        array.ensureLength( 5 );
+        array.set( 4, -1 );
+        array.ensureLength( 7 );
+        array.ensureLength( 3 );
+        assertEquals( 7, array.length() );
+        array.ensureLength( 20 );
+        assertEquals( -1, array.get( 4 ) );
+        assertEquals( 0, array.get( 5 ) );
+        assertEquals( 0, array.get( 19 ) );
+        array.fill( 6, 18, 42 );
+        assertEquals( 0, array.get( 5 ) );
+        assertEquals( 42, array.get( 6 ) );
+        assertEquals( 42, array.get( 17 ) );
+        assertEquals( 0, array.get( 18 ) );
+    }
+
+    @Test
+    public void indexesOutsideTheLengthAreRejected()
+    {
+        DirectLongArray array = new DirectLongArray( 3 );
+        array.ensureLength( 10 );
+        for ( long index : new long[] { -1, 10, 16, 1L << 40 } )
+        {
+            try
+            {
+                array.get( index );
+                fail( "Shouldn't be able to get index " + index );
+            }
+            catch ( ArrayIndexOutOfBoundsException e )
+            {   // Good
+            }
+        }
+    }
+}
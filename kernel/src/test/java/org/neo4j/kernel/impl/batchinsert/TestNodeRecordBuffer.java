@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.batchinsert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+import java.io.File;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.CommonFactories;
+import org.neo4j.kernel.IdGeneratorFactory;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+
+public class TestNodeRecordBuffer
+{
+    private String path;
+    private NodeStore store;
+
+    @Before
+    public void createStore()
+    {
+        path = AbstractNeo4jTestCase.getStorePath( "node-record-buffer" );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( path ) );
+        new File( path ).mkdirs();
+        String fileName = path + File.separator + "nodestore.db";
+        Map<?,?> config = map( "neo_store", fileName,
+            IdGeneratorFactory.class, CommonFactories.defaultIdGeneratorFactory(),
+            "store_dir", path,
+            FileSystemAbstraction.class, CommonFactories.defaultFileSystemAbstraction() );
+        NodeStore.createStore( fileName, config );
+        store = new NodeStore( fileName, config );
+    }
+
+    @After
+    public void closeStore()
+    {
+        store.close();
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( path ) );
+    }
+
+    private NodeRecord record( long id, long nextRel, long nextProp )
+    {
+        NodeRecord record = new NodeRecord( id );
+        record.setInUse( true );
+        record.setNextRel( nextRel );
+        record.setNextProp( nextProp );
+        return record;
+    }
+
+    @Test
+    public void readsBufferedRecordsBeforeTheyAreWritten()
+    {
+        NodeRecordBuffer buffer = new NodeRecordBuffer( store, 16 );
+        long id = store.nextId();
+        assertFalse( buffer.loadLightNode( id ) );
+        buffer.updateRecord( record( id, 5, 7 ) );
+        assertTrue( buffer.loadLightNode( id ) );
+        assertFalse( store.loadLightNode( id ) );
+        NodeRecord read = buffer.getRecord( id );
+        assertEquals( 5, read.getNextRel() );
+        assertEquals( 7, read.getNextProp() );
+
+        buffer.updateRecord( record( id, 6, 7 ) );
+        assertEquals( 1, buffer.size() );
+        buffer.flush();
+        assertEquals( 0, buffer.size() );
+        assertEquals( 6, store.getRecord( id ).getNextRel() );
+        assertEquals( 6, buffer.getRecord( id ).getNextRel() );
+    }
+
+    @Test
+    public void flushesAllRecordsWhenFull()
+    {
+        NodeRecordBuffer buffer = new NodeRecordBuffer( store, 4 );
+        long[] ids = new long[10];
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            ids[i] = store.nextId();
+        }
+        // written in reverse, flushed in id order
+        for ( int i = ids.length - 1; i >= 0; i-- )
+        {
+            buffer.updateRecord( record( ids[i], i, i * 2 ) );
+        }
+        assertEquals( 2, buffer.size() );
+        assertTrue( store.loadLightNode( ids[2] ) );
+        assertFalse( store.loadLightNode( ids[1] ) );
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            NodeRecord read = buffer.getRecord( ids[i] );
+            assertEquals( i, read.getNextRel() );
+            assertEquals( i * 2, read.getNextProp() );
+        }
+        buffer.flush();
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            assertEquals( i, store.getRecord( ids[i] ).getNextRel() );
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class TestConcurrentLruCache
+{
+    @Test
+    public void testCreate()
+    {
+        try
+        {
+            new ConcurrentLruCache<Object,Object>( "TestCache", 0, null );
+            fail( "Illegal maxSize should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            new ConcurrentLruCache<Object,Object>( "TestCache", 10, null, 0 );
+            fail( "Illegal segment count should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        ConcurrentLruCache<Object,Object> cache =
+            new ConcurrentLruCache<Object,Object>( "TestCache", 70, null );
+        try
+        {
+            cache.put( null, new Object() );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.put( new Object(), null );
+            fail( "Null element should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.get( null );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.remove( null );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        cache.put( new Object(), new Object() );
+        cache.clear();
+        assertEquals( 0, cache.size() );
+    }
+
+    private static class ConcurrentLruCacheTest<K,E> extends ConcurrentLruCache<K,E>
+    {
+        private Object cleanedElement = null;
+
+        ConcurrentLruCacheTest( String name, int maxSize )
+        {
+            // a single segment makes eviction order predictable
+            super( name, maxSize, null, 1 );
+        }
+
+        @Override
+        public void elementCleaned( E element )
+        {
+            cleanedElement = element;
+        }
+
+        Object getLastCleanedElement()
+        {
+            return cleanedElement;
+        }
+    }
+
+    @Test
+    public void testSimple()
+    {
+        ConcurrentLruCacheTest<Object,Object> cache =
+            new ConcurrentLruCacheTest<Object,Object>( "TestCache", 3 );
+        cache.put( 1, "1" );
+        cache.put( 2, "2" );
+        cache.put( 3, "3" );
+        cache.get( 2 );
+        assertEquals( null, cache.getLastCleanedElement() );
+        cache.put( 4, "4" );
+        assertEquals( "1", cache.getLastCleanedElement() );
+        // 2 has been read so it gets a second chance
+        cache.put( 5, "5" );
+        assertEquals( "3", cache.getLastCleanedElement() );
+        assertEquals( 3, cache.size() );
+        assertEquals( null, cache.get( 1 ) );
+        assertEquals( "2", cache.get( 2 ) );
+        assertEquals( null, cache.get( 3 ) );
+        assertEquals( "4", cache.get( 4 ) );
+        assertEquals( "5", cache.get( 5 ) );
+        assertEquals( 4, cache.hitCount() );
+        assertEquals( 2, cache.missCount() );
+        assertEquals( "4", cache.remove( 4 ) );
+        assertEquals( 2, cache.size() );
+        cache.clear();
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void testResize()
+    {
+        ConcurrentLruCacheTest<Object,Object> cache =
+            new ConcurrentLruCacheTest<Object,Object>( "TestCache", 3 );
+        cache.put( 1, "1" );
+        cache.put( 2, "2" );
+        cache.put( 3, "3" );
+        cache.get( 2 );
+        assertEquals( cache.maxSize(), cache.size() );
+        cache.resize( 5 );
+        assertEquals( 5, cache.maxSize() );
+        assertEquals( 3, cache.size() );
+        cache.put( 4, "4" );
+        cache.put( 5, "5" );
+        assertEquals( null, cache.getLastCleanedElement() );
+        assertEquals( cache.maxSize(), cache.size() );
+        cache.resize( 4 );
+        assertEquals( "1", cache.getLastCleanedElement() );
+        assertEquals( cache.maxSize(), cache.size() );
+        cache.resize( 3 );
+        assertEquals( "3", cache.getLastCleanedElement() );
+        assertEquals( 3, cache.maxSize() );
+        assertEquals( 3, cache.size() );
+    }
+
+    @Test
+    public void testSegmentedSizeStaysBounded()
+    {
+        ConcurrentLruCache<Long,Long> cache =
+            new ConcurrentLruCache<Long,Long>( "TestCache", 1000, null, 16 );
+        for ( long i = 0; i < 10000; i++ )
+        {
+            cache.put( i, i );
+        }
+        assertTrue( cache.size() <= cache.maxSize() + 16 );
+        cache.resize( 100 );
+        assertTrue( cache.size() <= 112 );
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception
+    {
+        final ConcurrentLruCache<Long,Long> cache =
+            new ConcurrentLruCache<Long,Long>( "TestCache", 500, null );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int t = 0; t < 8; t++ )
+        {
+            final long offset = t;
+            threads.add( new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( long i = 0; i < 20000; i++ )
+                        {
+                            long key = (i * 7 + offset) % 2000;
+                            Long value = cache.get( key );
+                            if ( value == null )
+                            {
+                                cache.put( key, key );
+                            }
+                            else
+                            {
+                                assertEquals( key, value.longValue() );
+                            }
+                            if ( i % 100 == 0 )
+                            {
+                                cache.remove( key );
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.compareAndSet( null, e );
+                    }
+                }
+            } );
+        }
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        if ( failure.get() != null )
+        {
+            throw new RuntimeException( failure.get() );
+        }
+        assertTrue( cache.size() <= cache.maxSize() + 16 );
+        assertEquals( 8 * 20000, cache.hitCount() + cache.missCount() );
+    }
+}
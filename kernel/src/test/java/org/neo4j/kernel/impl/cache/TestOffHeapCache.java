@@ -0,0 +1,288 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class TestOffHeapCache
+{
+    private static class Entity
+    {
+        private final long id;
+        private final String name;
+
+        Entity( long id, String name )
+        {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    private static class EntityCodec implements OffHeapCache.Codec<Entity>
+    {
+        public long getKey( Entity element )
+        {
+            return element.id;
+        }
+
+        public byte[] encode( Entity element )
+        {
+            if ( element.name == null )
+            {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate( 4 + element.name.length() * 2 );
+            buffer.putInt( element.name.length() );
+            for ( char c : element.name.toCharArray() )
+            {
+                buffer.putChar( c );
+            }
+            return buffer.array();
+        }
+
+        public Entity decode( long key, ByteBuffer source )
+        {
+            char[] chars = new char[source.getInt()];
+            for ( int i = 0; i < chars.length; i++ )
+            {
+                chars[i] = source.getChar();
+            }
+            return new Entity( key, new String( chars ) );
+        }
+    }
+
+    private OffHeapCache<Entity> newCache( int maxSize, long offHeapSize )
+    {
+        return new OffHeapCache<Entity>( "TestCache", maxSize, offHeapSize,
+            new EntityCodec() );
+    }
+
+    @Test
+    public void testCreate()
+    {
+        try
+        {
+            new OffHeapCache<Entity>( "TestCache", 10, 1024, null );
+            fail( "Null codec should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            newCache( 10, -1 );
+            fail( "Negative off heap size should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        OffHeapCache<Entity> cache = newCache( 10, 1024 * 1024 );
+        try
+        {
+            cache.put( null, new Entity( 1, "a" ) );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.get( null );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        assertEquals( 0, cache.offHeapMemoryUsed() );
+    }
+
+    @Test
+    public void testEvictedElementsAreMaterialized()
+    {
+        OffHeapCache<Entity> cache = newCache( 16, 1024 * 1024 );
+        Entity[] entities = new Entity[200];
+        for ( int i = 0; i < entities.length; i++ )
+        {
+            entities[i] = new Entity( i, "entity" + i );
+            cache.put( (long) i, entities[i] );
+        }
+        assertTrue( cache.offHeapSize() > 0 );
+        assertEquals( entities.length, cache.size() );
+        assertTrue( cache.offHeapMemoryUsed() > 0 );
+        assertTrue( cache.offHeapMemoryUsed() <= cache.offHeapCapacity() );
+
+        Entity first = cache.get( 0L );
+        assertNotNull( first );
+        assertNotSame( entities[0], first );
+        assertEquals( "entity0", first.name );
+        assertTrue( cache.offHeapHitCount() > 0 );
+        // now back on the heap
+        assertTrue( first == cache.get( 0L ) );
+
+        for ( int i = 0; i < entities.length; i++ )
+        {
+            assertEquals( "entity" + i, cache.get( (long) i ).name );
+        }
+        assertEquals( entities.length + 2, cache.hitCount() );
+        assertEquals( 0, cache.missCount() );
+        assertNull( cache.get( 1000L ) );
+        assertEquals( 1, cache.missCount() );
+    }
+
+    @Test
+    public void testRemoveFromBothTiers()
+    {
+        OffHeapCache<Entity> cache = newCache( 16, 1024 * 1024 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.put( (long) i, new Entity( i, "entity" + i ) );
+        }
+        for ( int i = 0; i < 100; i += 2 )
+        {
+            cache.remove( (long) i );
+        }
+        for ( int i = 0; i < 100; i++ )
+        {
+            if ( i % 2 == 0 )
+            {
+                assertNull( cache.get( (long) i ) );
+            }
+            else
+            {
+                assertEquals( "entity" + i, cache.get( (long) i ).name );
+            }
+        }
+        cache.clear();
+        assertEquals( 0, cache.size() );
+        assertNull( cache.get( 1L ) );
+    }
+
+    @Test
+    public void testRemovedElementsStayRemovedWhileOthersEvict() throws Exception
+    {
+        final OffHeapCache<Entity> cache = newCache( 16, 1024 * 1024 );
+        final int threadCount = 4;
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread[] threads = new Thread[threadCount];
+        for ( int t = 0; t < threadCount; t++ )
+        {
+            final int offset = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    // each thread owns its keys, the others only evict them
+                    for ( int round = 0; round < 200 && failure.get() == null; round++ )
+                    {
+                        for ( long key = offset; key < 400; key += threadCount )
+                        {
+                            cache.put( key, new Entity( key, "entity" + key ) );
+                        }
+                        for ( long key = offset; key < 400; key += threadCount )
+                        {
+                            cache.remove( key );
+                            if ( cache.get( key ) != null )
+                            {
+                                failure.set( "Removed element " + key + " came back" );
+                                return;
+                            }
+                        }
+                    }
+                }
+            };
+        }
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertNull( failure.get() );
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void testPutReplacesOffHeapCopy()
+    {
+        OffHeapCache<Entity> cache = newCache( 16, 1024 * 1024 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.put( (long) i, new Entity( i, "old" ) );
+        }
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.put( (long) i, new Entity( i, "new" ) );
+        }
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( "new", cache.get( (long) i ).name );
+        }
+    }
+
+    @Test
+    public void testOffHeapEviction()
+    {
+        // the smallest possible store, a single slab per segment
+        OffHeapCache<Entity> cache = newCache( 16, 16 * 4 * 1024 );
+        char[] chars = new char[500];
+        Arrays.fill( chars, 'x' );
+        String name = new String( chars );
+        for ( int i = 0; i < 10000; i++ )
+        {
+            cache.put( (long) i, new Entity( i, name ) );
+        }
+        assertTrue( cache.offHeapEvictionCount() > 0 );
+        assertTrue( cache.offHeapMemoryUsed() <= cache.offHeapCapacity() );
+        assertTrue( cache.size() < 10000 );
+        assertNull( cache.get( 0L ) );
+        assertEquals( name, cache.get( 9999L ).name );
+
+        cache.setOffHeapCapacity( 0 );
+        assertEquals( 0, cache.offHeapSize() );
+        cache.put( 10000L, new Entity( 10000, name ) );
+        assertEquals( 0, cache.offHeapSize() );
+    }
+
+    @Test
+    public void testUnencodableElementsAreDropped()
+    {
+        OffHeapCache<Entity> cache = newCache( 1, 1024 * 1024 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.put( (long) i, new Entity( i, null ) );
+        }
+        assertEquals( 0, cache.offHeapSize() );
+        assertTrue( cache.size() < 100 );
+    }
+}
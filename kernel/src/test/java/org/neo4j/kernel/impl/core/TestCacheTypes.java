@@ -20,17 +20,25 @@
 package org.neo4j.kernel.impl.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.helpers.collection.MapUtil;
 import org.neo4j.kernel.Config;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.MyRelTypes;
+import org.neo4j.kernel.impl.cache.Cache;
+import org.neo4j.kernel.impl.cache.OffHeapCache;
 import org.neo4j.kernel.impl.core.NodeManager.CacheType;
 
 public class TestCacheTypes extends AbstractNeo4jTestCase
@@ -96,6 +104,64 @@ public class TestCacheTypes extends AbstractNeo4jTestCase
         db.shutdown();
     }
 
+    @Test
+    public void testConcurrentCache()
+    {
+        GraphDatabaseService db = newDb( "concurrent" );
+        assertEquals( CacheType.concurrent, ((EmbeddedGraphDatabase) db).getConfig().getGraphDbModule().getNodeManager().getCacheType() );
+        db.shutdown();
+    }
+
+    @Test
+    public void testOffHeapCache()
+    {
+        GraphDatabaseService db = new EmbeddedGraphDatabase( PATH, MapUtil.stringMap(
+                Config.CACHE_TYPE, "offheap", "max_node_cache_size", "1",
+                "max_relationship_cache_size", "1", Config.NODE_CACHE_OFF_HEAP_SIZE, "1M" ) );
+        NodeManager nodeManager = ((EmbeddedGraphDatabase) db).getConfig().getGraphDbModule().getNodeManager();
+        assertEquals( CacheType.offheap, nodeManager.getCacheType() );
+        Transaction tx = db.beginTx();
+        Node first = db.createNode();
+        first.setProperty( "name", "first" );
+        long[] ids = new long[50];
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            Node node = db.createNode();
+            node.setProperty( "number", i );
+            first.createRelationshipTo( node, MyRelTypes.TEST ).setProperty( "number", i );
+            ids[i] = node.getId();
+        }
+        tx.success();
+        tx.finish();
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            Node node = db.getNodeById( ids[i] );
+            assertEquals( i, node.getProperty( "number" ) );
+            Relationship rel = node.getSingleRelationship( MyRelTypes.TEST, Direction.INCOMING );
+            assertEquals( i, rel.getProperty( "number" ) );
+            assertEquals( first, rel.getStartNode() );
+        }
+        assertEquals( ids.length, count( first.getRelationships( Direction.OUTGOING ) ) );
+        assertEquals( "first", first.getProperty( "name" ) );
+        long offHeapHits = 0;
+        for ( Cache<?, ?> cache : nodeManager.caches() )
+        {
+            offHeapHits += ( (OffHeapCache<?>) cache ).offHeapHitCount();
+        }
+        assertTrue( offHeapHits > 0 );
+        db.shutdown();
+    }
+
+    private static int count( Iterable<?> items )
+    {
+        int count = 0;
+        for ( @SuppressWarnings( "unused" ) Object item : items )
+        {
+            count++;
+        }
+        return count;
+    }
+
     @Test
     public void testInvalidCache()
     {
@@ -0,0 +1,336 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.CommonFactories;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.IdGeneratorFactory;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+
+public class TestDenseNodes extends AbstractNeo4jTestCase
+{
+    private static final String PATH = getStorePath( "dense-db" );
+    private static final RelationshipType TYPE1 = DynamicRelationshipType.withName( "TYPE1" );
+    private static final RelationshipType TYPE2 = DynamicRelationshipType.withName( "TYPE2" );
+    private static final int THRESHOLD = 10;
+
+    private EmbeddedGraphDatabase newDb( boolean clean )
+    {
+        if ( clean )
+        {
+            deleteFileOrDirectory( new File( PATH ) );
+        }
+        return new EmbeddedGraphDatabase( PATH, MapUtil.stringMap(
+                Config.DENSE_NODE_THRESHOLD, "" + THRESHOLD ) );
+    }
+
+    private static void clearCache( EmbeddedGraphDatabase db )
+    {
+        db.getConfig().getGraphDbModule().getNodeManager().clearCache();
+    }
+
+    // reads the record of a shut down db
+    private static NodeRecord nodeRecord( long nodeId )
+    {
+        NeoStore neoStore = new NeoStore( MapUtil.map(
+                IdGeneratorFactory.class, CommonFactories.defaultIdGeneratorFactory(),
+                FileSystemAbstraction.class, CommonFactories.defaultFileSystemAbstraction(),
+                "store_dir", PATH,
+                "neo_store", new File( PATH, "neostore" ).getPath() ) );
+        try
+        {
+            return neoStore.getNodeStore().getRecord( nodeId );
+        }
+        finally
+        {
+            neoStore.close();
+        }
+    }
+
+    private static Set<Long> ids( Iterable<Relationship> relationships )
+    {
+        Set<Long> ids = new HashSet<Long>();
+        for ( Relationship rel : relationships )
+        {
+            assertTrue( "duplicate " + rel, ids.add( rel.getId() ) );
+        }
+        return ids;
+    }
+
+    @Test
+    public void denseNodeKeepsAllItsRelationships()
+    {
+        EmbeddedGraphDatabase db = newDb( true );
+        try
+        {
+            Set<Long> out1 = new HashSet<Long>();
+            Set<Long> in1 = new HashSet<Long>();
+            Set<Long> out2 = new HashSet<Long>();
+            Set<Long> loops = new HashSet<Long>();
+            Transaction tx = db.beginTx();
+            Node hub = db.createNode();
+            // crosses the threshold in the middle of the transaction
+            for ( int i = 0; i < THRESHOLD * 3; i++ )
+            {
+                Node other = db.createNode();
+                switch ( i % 3 )
+                {
+                case 0: out1.add( hub.createRelationshipTo( other, TYPE1 ).getId() ); break;
+                case 1: in1.add( other.createRelationshipTo( hub, TYPE1 ).getId() ); break;
+                default: out2.add( hub.createRelationshipTo( other, TYPE2 ).getId() ); break;
+                }
+            }
+            tx.success();
+            tx.finish();
+
+            // made dense in a transaction of its own as well
+            tx = db.beginTx();
+            for ( int i = 0; i < 3; i++ )
+            {
+                loops.add( hub.createRelationshipTo( hub, TYPE1 ).getId() );
+                out2.add( hub.createRelationshipTo( db.createNode(), TYPE2 ).getId() );
+            }
+            tx.success();
+            tx.finish();
+            clearCache( db );
+
+            Set<Long> all = new HashSet<Long>( out1 );
+            all.addAll( in1 );
+            all.addAll( out2 );
+            all.addAll( loops );
+            Set<Long> outgoing1 = new HashSet<Long>( out1 );
+            outgoing1.addAll( loops );
+            Set<Long> incoming1 = new HashSet<Long>( in1 );
+            incoming1.addAll( loops );
+
+            assertEquals( outgoing1, ids( hub.getRelationships( TYPE1, Direction.OUTGOING ) ) );
+            assertEquals( incoming1, ids( hub.getRelationships( TYPE1, Direction.INCOMING ) ) );
+            assertEquals( out2, ids( hub.getRelationships( TYPE2 ) ) );
+            assertEquals( all, ids( hub.getRelationships() ) );
+            clearCache( db );
+            assertEquals( all, ids( hub.getRelationships() ) );
+            assertFalse( hub.getRelationships( TYPE2, Direction.INCOMING ).iterator().hasNext() );
+            for ( long id : out2 )
+            {
+                assertEquals( hub, db.getRelationshipById( id ).getStartNode() );
+            }
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void relationshipsOfDenseNodeSurviveRestart()
+    {
+        EmbeddedGraphDatabase db = newDb( true );
+        long hubId;
+        Set<Long> created = new HashSet<Long>();
+        try
+        {
+            Transaction tx = db.beginTx();
+            Node hub = db.createNode();
+            hubId = hub.getId();
+            for ( int i = 0; i < THRESHOLD * 2; i++ )
+            {
+                created.add( hub.createRelationshipTo( db.createNode(),
+                        i % 2 == 0 ? TYPE1 : TYPE2 ).getId() );
+            }
+            tx.success();
+            tx.finish();
+        }
+        finally
+        {
+            db.shutdown();
+        }
+
+        db = newDb( false );
+        try
+        {
+            Node hub = db.getNodeById( hubId );
+            assertEquals( created, ids( hub.getRelationships( Direction.OUTGOING ) ) );
+            Transaction tx = db.beginTx();
+            Relationship added = db.createNode().createRelationshipTo( hub, TYPE1 );
+            tx.success();
+            tx.finish();
+            created.add( added.getId() );
+            assertEquals( created, ids( hub.getRelationships() ) );
+            assertEquals( added, hub.getSingleRelationship( TYPE1, Direction.INCOMING ) );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void deleteRelationshipsAndDenseNode()
+    {
+        EmbeddedGraphDatabase db = newDb( true );
+        try
+        {
+            Transaction tx = db.beginTx();
+            Node hub = db.createNode();
+            for ( int i = 0; i < THRESHOLD * 2; i++ )
+            {
+                hub.createRelationshipTo( db.createNode(), i % 2 == 0 ? TYPE1 : TYPE2 );
+            }
+            hub.createRelationshipTo( hub, TYPE2 );
+            tx.success();
+            tx.finish();
+            clearCache( db );
+
+            // removes the whole TYPE1 group
+            tx = db.beginTx();
+            for ( Relationship rel : hub.getRelationships( TYPE1 ) )
+            {
+                rel.delete();
+            }
+            tx.success();
+            tx.finish();
+            assertFalse( hub.getRelationships( TYPE1 ).iterator().hasNext() );
+            clearCache( db );
+            assertFalse( hub.getRelationships( TYPE1 ).iterator().hasNext() );
+            assertEquals( THRESHOLD + 1, ids( hub.getRelationships() ).size() );
+
+            tx = db.beginTx();
+            for ( Relationship rel : hub.getRelationships() )
+            {
+                rel.delete();
+            }
+            hub.delete();
+            tx.success();
+            tx.finish();
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void degreeDecidesWhenNodeIsMadeDense()
+    {
+        EmbeddedGraphDatabase db = newDb( true );
+        long hubId;
+        try
+        {
+            Transaction tx = db.beginTx();
+            Node hub = db.createNode();
+            hubId = hub.getId();
+            for ( int i = 0; i < THRESHOLD - 1; i++ )
+            {
+                hub.createRelationshipTo( db.createNode(), TYPE1 );
+            }
+            hub.createRelationshipTo( hub, TYPE2 );
+            tx.success();
+            tx.finish();
+
+            tx = db.beginTx();
+            int deleted = 0;
+            for ( Relationship rel : hub.getRelationships( TYPE1 ) )
+            {
+                if ( deleted++ < 3 )
+                {
+                    rel.delete();
+                }
+            }
+            tx.success();
+            tx.finish();
+        }
+        finally
+        {
+            db.shutdown();
+        }
+        NodeRecord record = nodeRecord( hubId );
+        assertEquals( THRESHOLD - 3, record.getDegree() );
+        assertFalse( record.isDense() );
+
+        db = newDb( false );
+        try
+        {
+            Transaction tx = db.beginTx();
+            Node hub = db.getNodeById( hubId );
+            // the node is looked at before each relationship is added
+            for ( int i = 0; i < 4; i++ )
+            {
+                db.createNode().createRelationshipTo( hub, TYPE1 );
+            }
+            tx.success();
+            tx.finish();
+        }
+        finally
+        {
+            db.shutdown();
+        }
+        record = nodeRecord( hubId );
+        assertEquals( THRESHOLD + 1, record.getDegree() );
+        assertTrue( record.isDense() );
+    }
+
+    @Test
+    public void storeWithoutDenseNodesKeepsNoDegree()
+    {
+        deleteFileOrDirectory( new File( PATH ) );
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( PATH );
+        long hubId;
+        try
+        {
+            Transaction tx = db.beginTx();
+            Node hub = db.createNode();
+            hubId = hub.getId();
+            for ( int i = 0; i < THRESHOLD * 2; i++ )
+            {
+                hub.createRelationshipTo( db.createNode(), TYPE1 );
+            }
+            tx.success();
+            tx.finish();
+        }
+        finally
+        {
+            db.shutdown();
+        }
+        assertFalse( new File( PATH, "neostore.relationshipgroupstore.db" ).exists() );
+        NodeRecord record = nodeRecord( hubId );
+        assertEquals( NodeRecord.UNKNOWN_DEGREE, record.getDegree() );
+        assertFalse( record.isDense() );
+    }
+}
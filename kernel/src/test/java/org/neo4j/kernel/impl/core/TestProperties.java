@@ -28,6 +28,7 @@ import org.junit.Test;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 
 public class TestProperties extends AbstractNeo4jTestCase
 {
@@ -118,6 +119,45 @@ public class TestProperties extends AbstractNeo4jTestCase
         assertNull( node.getProperty( "2", null ) );
     }
 
+    @Test
+    public void largeValueIsLoadedWhenReadAndAgainOnceDropped() throws Exception
+    {
+        StringBuilder builder = new StringBuilder();
+        for ( int i = 0; i < 5000; i++ )
+        {
+            builder.append( (char) ( 'a' + i % 26 ) );
+        }
+        String large = builder.toString();
+        Node node = getGraphDb().createNode();
+        node.setProperty( "small", 17 );
+        node.setProperty( "large", large );
+        newTransaction();
+        clearCache();
+
+        assertEquals( 17, node.getProperty( "small" ) );
+        PropertyData largeData = getLoadedProperty( node, "large" );
+        assertNull( largeData.getValue() );
+        assertEquals( large, node.getProperty( "large" ) );
+        assertEquals( large, largeData.getValue() );
+
+        // what the garbage collector would do to a large value
+        largeData.setNewSoftValue( null );
+        assertEquals( large, node.getProperty( "large" ) );
+    }
+
+    private PropertyData getLoadedProperty( Node node, String key )
+    {
+        NodeImpl nodeImpl = getNodeManager().getNodeIfCached( node.getId() );
+        for ( PropertyData property : nodeImpl.getLoadedProperties() )
+        {
+            if ( getNodeManager().getIndexFor( property.getIndex() ).getKey().equals( key ) )
+            {
+                return property;
+            }
+        }
+        throw new NotFoundException( key );
+    }
+
     @Test
     public void testLongPropertyValues() throws Exception
     {
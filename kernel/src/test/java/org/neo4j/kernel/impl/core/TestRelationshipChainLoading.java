@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestRelationshipChainLoading extends AbstractNeo4jTestCase
+{
+    private static final RelationshipType TYPE1 = DynamicRelationshipType.withName( "TYPE1" );
+    private static final RelationshipType TYPE2 = DynamicRelationshipType.withName( "TYPE2" );
+
+    @Test
+    public void loadsAllRelationshipsOfDenseNode()
+    {
+        Node hub = getGraphDb().createNode();
+        Set<Long> outgoing = new HashSet<Long>();
+        Set<Long> incoming = new HashSet<Long>();
+        Set<Long> loops = new HashSet<Long>();
+        for ( int i = 0; i < 3000; i++ )
+        {
+            Node other = getGraphDb().createNode();
+            RelationshipType type = i % 3 == 0 ? TYPE2 : TYPE1;
+            if ( i % 2 == 0 )
+            {
+                outgoing.add( hub.createRelationshipTo( other, type ).getId() );
+            }
+            else
+            {
+                incoming.add( other.createRelationshipTo( hub, type ).getId() );
+            }
+            if ( i % 500 == 0 )
+            {
+                loops.add( hub.createRelationshipTo( hub, TYPE1 ).getId() );
+            }
+        }
+        newTransaction();
+        clearCache();
+
+        Set<Long> seenOutgoing = new HashSet<Long>();
+        for ( Relationship rel : hub.getRelationships( Direction.OUTGOING ) )
+        {
+            assertTrue( seenOutgoing.add( rel.getId() ) );
+        }
+        Set<Long> expectedOutgoing = new HashSet<Long>( outgoing );
+        expectedOutgoing.addAll( loops );
+        assertEquals( expectedOutgoing, seenOutgoing );
+
+        Set<Long> seenIncoming = new HashSet<Long>();
+        for ( Relationship rel : hub.getRelationships( Direction.INCOMING ) )
+        {
+            seenIncoming.add( rel.getId() );
+        }
+        Set<Long> expectedIncoming = new HashSet<Long>( incoming );
+        expectedIncoming.addAll( loops );
+        assertEquals( expectedIncoming, seenIncoming );
+
+        int type2Count = 0;
+        for ( Relationship rel : hub.getRelationships( TYPE2 ) )
+        {
+            assertEquals( TYPE2.name(), rel.getType().name() );
+            type2Count++;
+        }
+        assertEquals( 1000, type2Count );
+
+        clearCache();
+        int total = 0;
+        for ( @SuppressWarnings( "unused" ) Relationship rel : hub.getRelationships() )
+        {
+            total++;
+        }
+        assertEquals( outgoing.size() + incoming.size() + loops.size(), total );
+    }
+}
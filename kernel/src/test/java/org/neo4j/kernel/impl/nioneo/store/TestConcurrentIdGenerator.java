@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestConcurrentIdGenerator
+{
+    private final String path = AbstractNeo4jTestCase.getStorePath( "concurrent-id" );
+    private final String fileName = path + File.separator + "test.id";
+
+    @Before
+    public void createGeneratorFile()
+    {
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( path ) );
+        new File( path ).mkdirs();
+        IdGeneratorImpl.createGenerator( fileName );
+    }
+
+    private ConcurrentIdGenerator open()
+    {
+        return new ConcurrentIdGenerator(
+            new IdGeneratorImpl( fileName, 100, Long.MAX_VALUE ), 16, 32 );
+    }
+
+    @Test
+    public void concurrentThreadsGetUniqueIds() throws Exception
+    {
+        final ConcurrentIdGenerator generator = open();
+        final Map<Long, Boolean> ids = new ConcurrentHashMap<Long, Boolean>();
+        Thread[] threads = new Thread[4];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for ( int j = 0; j < 10000; j++ )
+                    {
+                        long id = generator.nextId();
+                        assertTrue( ids.put( id, Boolean.TRUE ) == null );
+                        if ( j % 3 == 0 )
+                        {
+                            ids.remove( id );
+                            generator.freeId( id );
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertEquals( ids.size(), generator.getNumberOfIdsInUse() );
+        generator.close();
+    }
+
+    @Test
+    public void freedIdsAreReused()
+    {
+        ConcurrentIdGenerator generator = open();
+        long[] ids = new long[40];
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            ids[i] = generator.nextId();
+        }
+        Set<Long> freed = new HashSet<Long>();
+        for ( int i = 0; i < ids.length; i += 2 )
+        {
+            generator.freeId( ids[i] );
+            freed.add( ids[i] );
+        }
+        assertEquals( 20, generator.getDefragCount() );
+        long highId = generator.getHighId();
+        Set<Long> reused = new HashSet<Long>();
+        for ( int i = 0; i < 20; i++ )
+        {
+            reused.add( generator.nextId() );
+        }
+        assertEquals( freed, reused );
+        assertEquals( highId, generator.getHighId() );
+        generator.close();
+    }
+
+    @Test
+    public void unusedReservedIdsAreFreedOnClose()
+    {
+        ConcurrentIdGenerator generator = open();
+        long first = generator.nextId();
+        long second = generator.nextId();
+        generator.freeId( first );
+        long highId = generator.getHighId();
+        generator.close();
+
+        generator = open();
+        assertEquals( highId, generator.getHighId() );
+        Set<Long> ids = new HashSet<Long>();
+        for ( long i = 0; i < highId - 1; i++ )
+        {
+            long id = generator.nextId();
+            assertTrue( id < highId );
+            ids.add( id );
+        }
+        assertFalse( ids.contains( second ) );
+        assertTrue( ids.contains( first ) );
+        generator.close();
+    }
+
+    @Test
+    public void reservedRangesAreSharedByThreadsComingAndGoing() throws Exception
+    {
+        final ConcurrentIdGenerator generator = new ConcurrentIdGenerator(
+            new IdGeneratorImpl( fileName, 100, Long.MAX_VALUE ), 4, 16, 32 );
+        final Set<Long> ids = new HashSet<Long>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    ids.add( generator.nextId() );
+                }
+            };
+            thread.start();
+            thread.join();
+        }
+        assertEquals( 1000, ids.size() );
+        // a range per thread would have reserved 16 ids for each of them
+        assertTrue( generator.getHighId() <= 1000 + 4 * 16 );
+        generator.close();
+    }
+
+    @Test
+    public void freedIdsAboveLoweredHighIdAreDropped()
+    {
+        ConcurrentIdGenerator generator = open();
+        for ( int i = 0; i < 40; i++ )
+        {
+            generator.nextId();
+        }
+        for ( long id = 30; id < 40; id++ )
+        {
+            generator.freeId( id );
+        }
+        generator.setHighId( 20 );
+        assertEquals( 0, generator.getDefragCount() );
+        Set<Long> ids = new HashSet<Long>();
+        for ( int i = 0; i < 30; i++ )
+        {
+            long id = generator.nextId();
+            assertTrue( ids.add( id ) );
+            assertTrue( id >= 20 );
+        }
+        generator.close();
+    }
+
+    @Test
+    public void databaseWithConcurrentIdGenerators()
+    {
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( path,
+            MapUtil.stringMap( Config.ID_GENERATOR_TYPE, "concurrent" ) );
+        long nodeId;
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node node = db.createNode();
+            node.setProperty( "name", "a" );
+            db.createNode().delete();
+            nodeId = node.getId();
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        db.shutdown();
+
+        db = new EmbeddedGraphDatabase( path,
+            MapUtil.stringMap( Config.ID_GENERATOR_TYPE, "concurrent" ) );
+        assertEquals( "a", db.getNodeById( nodeId ).getProperty( "name" ) );
+        db.shutdown();
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestConcurrentPersistenceWindowPool
+{
+    private static final int RECORD_SIZE = 8;
+    private static final int RECORD_COUNT = 10000;
+
+    private File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    @Before
+    public void createStoreFile() throws Exception
+    {
+        String path = AbstractNeo4jTestCase.getStorePath( "concurrentwindowpool" );
+        new File( path ).mkdirs();
+        file = new File( path, "records.db" );
+        file.delete();
+        raf = new RandomAccessFile( file, "rw" );
+        raf.setLength( RECORD_SIZE * RECORD_COUNT );
+        channel = raf.getChannel();
+    }
+
+    @After
+    public void deleteStoreFile() throws Exception
+    {
+        channel.close();
+        raf.close();
+        file.delete();
+    }
+
+    private ConcurrentPersistenceWindowPool newPool( boolean memoryMapped )
+    {
+        // a quarter of the file fits in memory
+        return new ConcurrentPersistenceWindowPool( "records.db", RECORD_SIZE,
+                channel, RECORD_SIZE * RECORD_COUNT / 4, memoryMapped, false );
+    }
+
+    private static void write( WindowPool pool, long id, long value )
+    {
+        PersistenceWindow window = pool.acquire( id, OperationType.WRITE );
+        try
+        {
+            window.getOffsettedBuffer( id ).putLong( value );
+        }
+        finally
+        {
+            pool.release( window );
+        }
+    }
+
+    private static long read( WindowPool pool, long id )
+    {
+        PersistenceWindow window = pool.acquire( id, OperationType.READ );
+        try
+        {
+            return window.getOffsettedBuffer( id ).getLong();
+        }
+        finally
+        {
+            pool.release( window );
+        }
+    }
+
+    @Test
+    public void rebalancingMapsFrequentlyUsedBricks()
+    {
+        ConcurrentPersistenceWindowPool pool = newPool( true );
+        try
+        {
+            for ( long id = 0; id < RECORD_COUNT; id++ )
+            {
+                write( pool, id, id * 3 );
+            }
+            WindowPoolStats stats = pool.getStats();
+            assertEquals( RECORD_COUNT, stats.getHitCount() + stats.getMissCount() );
+
+            // make the first part of the store hot and rebalance
+            for ( long id = 0; id < RECORD_COUNT / 8; id++ )
+            {
+                assertEquals( id * 3, read( pool, id ) );
+            }
+            pool.refreshBricks();
+            int hitsBefore = pool.getStats().getHitCount();
+            for ( long id = 0; id < RECORD_COUNT / 8; id++ )
+            {
+                assertEquals( id * 3, read( pool, id ) );
+            }
+            assertEquals( hitsBefore + RECORD_COUNT / 8,
+                    pool.getStats().getHitCount() );
+
+            // move the hot spot, the rebalancer should switch bricks
+            for ( int i = 0; i < 5; i++ )
+            {
+                for ( long id = RECORD_COUNT / 2; id < RECORD_COUNT; id++ )
+                {
+                    assertEquals( id * 3, read( pool, id ) );
+                }
+                pool.refreshBricks();
+            }
+            assertTrue( pool.getStats().getSwitchCount() > 0 );
+            assertTrue( pool.getStats().getMemUsed() <=
+                    pool.getStats().getMemAvail() );
+        }
+        finally
+        {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void concurrentReadersAndWritersWhileRebalancing() throws Exception
+    {
+        concurrentReadersAndWriters( newPool( true ) );
+    }
+
+    @Test
+    public void concurrentReadersAndWritersWithPlainWindows() throws Exception
+    {
+        concurrentReadersAndWriters( newPool( false ) );
+    }
+
+    private void concurrentReadersAndWriters(
+            final ConcurrentPersistenceWindowPool pool ) throws Exception
+    {
+        final int threadCount = 8;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        try
+        {
+            List<Thread> threads = new ArrayList<Thread>();
+            for ( int t = 0; t < threadCount; t++ )
+            {
+                final int stripe = t;
+                threads.add( new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            for ( int round = 0; round < 5; round++ )
+                            {
+                                // each thread owns every threadCount:th record
+                                for ( long id = stripe; id < RECORD_COUNT; id += threadCount )
+                                {
+                                    write( pool, id, id + round );
+                                    assertEquals( id + round, read( pool, id ) );
+                                }
+                                if ( stripe == 0 )
+                                {
+                                    pool.refreshBricks();
+                                }
+                            }
+                        }
+                        catch ( Throwable e )
+                        {
+                            failure.compareAndSet( null, e );
+                        }
+                    }
+                } );
+            }
+            for ( Thread thread : threads )
+            {
+                thread.start();
+            }
+            for ( Thread thread : threads )
+            {
+                thread.join();
+            }
+            if ( failure.get() != null )
+            {
+                throw new RuntimeException( failure.get() );
+            }
+            for ( long id = 0; id < RECORD_COUNT; id++ )
+            {
+                assertEquals( id + 4, read( pool, id ) );
+            }
+            WindowPoolStats stats = pool.getStats();
+            assertEquals( RECORD_COUNT * 10 + RECORD_COUNT,
+                    stats.getHitCount() + stats.getMissCount() );
+        }
+        finally
+        {
+            pool.close();
+        }
+    }
+}
@@ -24,13 +24,16 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.transaction.xa.XAException;
@@ -223,6 +226,10 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         file.delete();
         file = new File( file( "neo.relationshipstore.db.id" ) );
         file.delete();
+        file = new File( file( "neo.relationshipgroupstore.db" ) );
+        file.delete();
+        file = new File( file( "neo.relationshipgroupstore.db.id" ) );
+        file.delete();
         file = new File( file( "neo.relationshiptypestore.db" ) );
         file.delete();
         file = new File( file( "neo.relationshiptypestore.db.id" ) );
@@ -264,19 +271,13 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         xaCon.getWriteTransaction().nodeCreate( node1 );
         long node2 = ds.nextId( Node.class );
         xaCon.getWriteTransaction().nodeCreate( node2 );
-        long n1prop1 = pStore.nextId();
-        long n1prop2 = pStore.nextId();
-        long n1prop3 = pStore.nextId();
-        xaCon.getWriteTransaction().nodeAddProperty( node1, n1prop1, index( "prop1" ), "string1" );
-        xaCon.getWriteTransaction().nodeAddProperty( node1, n1prop2, index( "prop2" ), 1 );
-        xaCon.getWriteTransaction().nodeAddProperty( node1, n1prop3, index( "prop3" ), true );
-
-        long n2prop1 = pStore.nextId();
-        long n2prop2 = pStore.nextId();
-        long n2prop3 = pStore.nextId();
-        xaCon.getWriteTransaction().nodeAddProperty( node2, n2prop1, index( "prop1" ), "string2" );
-        xaCon.getWriteTransaction().nodeAddProperty( node2, n2prop2, index( "prop2" ), 2 );
-        xaCon.getWriteTransaction().nodeAddProperty( node2, n2prop3, index( "prop3" ), false );
+        long n1prop1 = xaCon.getWriteTransaction().nodeAddProperty( node1, index( "prop1" ), "string1" ).getId();
+        long n1prop2 = xaCon.getWriteTransaction().nodeAddProperty( node1, index( "prop2" ), 1 ).getId();
+        long n1prop3 = xaCon.getWriteTransaction().nodeAddProperty( node1, index( "prop3" ), true ).getId();
+
+        long n2prop1 = xaCon.getWriteTransaction().nodeAddProperty( node2, index( "prop1" ), "string2" ).getId();
+        long n2prop2 = xaCon.getWriteTransaction().nodeAddProperty( node2, index( "prop2" ), 2 ).getId();
+        long n2prop3 = xaCon.getWriteTransaction().nodeAddProperty( node2, index( "prop3" ), false ).getId();
 
         int relType1 = (int) ds.nextId( RelationshipType.class );
         xaCon.getWriteTransaction().createRelationshipType( relType1, "relationshiptype1" );
@@ -286,18 +287,12 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         xaCon.getWriteTransaction().relationshipCreate( rel1, relType1, node1, node2 );
         long rel2 = ds.nextId( Relationship.class );
         xaCon.getWriteTransaction().relationshipCreate( rel2, relType2, node2, node1 );
-        long r1prop1 = pStore.nextId();
-        long r1prop2 = pStore.nextId();
-        long r1prop3 = pStore.nextId();
-        xaCon.getWriteTransaction().relAddProperty( rel1, r1prop1, index( "prop1" ), "string1" );
-        xaCon.getWriteTransaction().relAddProperty( rel1, r1prop2, index( "prop2" ), 1 );
-        xaCon.getWriteTransaction().relAddProperty( rel1, r1prop3, index( "prop3" ), true );
-        long r2prop1 = pStore.nextId();
-        long r2prop2 = pStore.nextId();
-        long r2prop3 = pStore.nextId();
-        xaCon.getWriteTransaction().relAddProperty( rel2, r2prop1, index( "prop1" ), "string2" );
-        xaCon.getWriteTransaction().relAddProperty( rel2, r2prop2, index( "prop2" ), 2 );
-        xaCon.getWriteTransaction().relAddProperty( rel2, r2prop3, index( "prop3" ), false );
+        long r1prop1 = xaCon.getWriteTransaction().relAddProperty( rel1, index( "prop1" ), "string1" ).getId();
+        long r1prop2 = xaCon.getWriteTransaction().relAddProperty( rel1, index( "prop2" ), 1 ).getId();
+        long r1prop3 = xaCon.getWriteTransaction().relAddProperty( rel1, index( "prop3" ), true ).getId();
+        long r2prop1 = xaCon.getWriteTransaction().relAddProperty( rel2, index( "prop1" ), "string2" ).getId();
+        long r2prop2 = xaCon.getWriteTransaction().relAddProperty( rel2, index( "prop2" ), 2 ).getId();
+        long r2prop3 = xaCon.getWriteTransaction().relAddProperty( rel2, index( "prop3" ), false ).getId();
         commitTx();
         ds.close();
 
@@ -344,7 +339,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         {
             nodeIds[i] = ds.nextId( Node.class );
             xaCon.getWriteTransaction().nodeCreate( nodeIds[i] );
-            xaCon.getWriteTransaction().nodeAddProperty( nodeIds[i], pStore.nextId(),
+            xaCon.getWriteTransaction().nodeAddProperty( nodeIds[i],
                 index( "nisse" ), new Integer( 10 - i ) );
         }
         for ( int i = 0; i < 2; i++ )
@@ -385,11 +380,11 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         return new CombiningIterable<RelationshipRecord>( list );
     }
 
-    private Object getValue( PropertyRecord propertyRecord ) throws IOException
+    private Object getValue( PropertyBlock block ) throws IOException
     {
         try
         {
-            return propertyRecord.getType().getValue( propertyRecord, pStore );
+            return block.getType().getValue( block, pStore );
         }
         catch ( InvalidRecordException ex )
         {
@@ -407,8 +402,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = pStore.getPropertyBlock( id ).newPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor( 
@@ -478,8 +472,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = pStore.getPropertyBlock( id ).newPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor(
@@ -549,8 +542,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = pStore.getPropertyBlock( id ).newPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor(
@@ -594,8 +586,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = pStore.getPropertyBlock( id ).newPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor(
@@ -669,8 +660,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = pStore.getPropertyBlock( id ).newPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor(
@@ -722,8 +712,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = pStore.getPropertyBlock( id ).newPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor(
@@ -773,8 +762,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = pStore.getPropertyBlock( id ).newPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor(
@@ -817,8 +805,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         for ( int keyId : props.keySet() )
         {
             long id = props.get( keyId ).getId();
-            PropertyRecord record = pStore.getRecord( id );
-            PropertyData data = record.newPropertyData();
+            PropertyData data = pStore.getPropertyBlock( id ).newPropertyData( id );
             if ( data.getId() == prop1 )
             {
                 assertEquals( "prop1", MyPropertyIndex.getIndexFor(
@@ -872,7 +859,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         {
             nodeIds[i] = ds.nextId( Node.class );
             xaCon.getWriteTransaction().nodeCreate( nodeIds[i] );
-            xaCon.getWriteTransaction().nodeAddProperty( nodeIds[i], pStore.nextId(),
+            xaCon.getWriteTransaction().nodeAddProperty( nodeIds[i],
                 index( "nisse" ), new Integer( 10 - i ) );
         }
         for ( int i = 0; i < 2; i++ )
@@ -906,7 +893,7 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         {
             nodeIds[i] = ds.nextId( Node.class );
             xaCon.getWriteTransaction().nodeCreate( nodeIds[i] );
-            xaCon.getWriteTransaction().nodeAddProperty( nodeIds[i], pStore.nextId(),
+            xaCon.getWriteTransaction().nodeAddProperty( nodeIds[i],
                 index( "nisse" ), new Integer( 10 - i ) );
         }
         for ( int i = 0; i < 2; i++ )
@@ -987,9 +974,8 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         startTx();
         long nodeId = ds.nextId( Node.class );
         xaCon.getWriteTransaction().nodeCreate( nodeId );
-        long propertyId = pStore.nextId();
-        xaCon.getWriteTransaction().nodeAddProperty( nodeId, propertyId, index( "nisse" ),
-            new Integer( 10 ) );
+        long propertyId = xaCon.getWriteTransaction().nodeAddProperty( nodeId,
+            index( "nisse" ), new Integer( 10 ) ).getId();
         commitTx();
         ds.close();
         initializeStores();
@@ -1001,6 +987,73 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         ds.close();
     }
 
+    @Test
+    public void testLoadChainFollowsRecordsNotInUse() throws Exception
+    {
+        initializeStores();
+        startTx();
+        int relType1 = (int) ds.nextId( RelationshipType.class );
+        xaCon.getWriteTransaction().createRelationshipType( relType1, "relationshiptype1" );
+        long hub = ds.nextId( Node.class );
+        xaCon.getWriteTransaction().nodeCreate( hub );
+        long relIds[] = new long[5];
+        for ( int i = 0; i < relIds.length; i++ )
+        {
+            long other = ds.nextId( Node.class );
+            xaCon.getWriteTransaction().nodeCreate( other );
+            relIds[i] = ds.nextId( Relationship.class );
+            xaCon.getWriteTransaction().relationshipCreate( relIds[i], relType1, hub, other );
+        }
+        commitTx();
+        ds.close();
+
+        // a record in the middle of the chain, not in use but still linked,
+        // as seen by a reader racing with the deletion of that relationship
+        RandomAccessFile relFile = new RandomAccessFile(
+                file( "neo.relationshipstore.db" ), "rw" );
+        try
+        {
+            relFile.seek( relIds[2] * RelationshipStore.RECORD_SIZE );
+            relFile.write( Record.NOT_IN_USE.byteValue() );
+        }
+        finally
+        {
+            relFile.close();
+        }
+
+        NeoStore neoStore = new NeoStore( MapUtil.map(
+                IdGeneratorFactory.class, ID_GENERATOR_FACTORY,
+                FileSystemAbstraction.class, CommonFactories.defaultFileSystemAbstraction(),
+                "store_dir", path(),
+                "neo_store", file( "neo" ) ) );
+        try
+        {
+            RelationshipStore relStore = neoStore.getRelationshipStore();
+            final List<Long> loaded = new ArrayList<Long>();
+            RelationshipChainVisitor visitor = new RelationshipChainVisitor()
+            {
+                public void visit( long relId, int type, long firstNode,
+                        long secondNode, DirectionWrapper direction )
+                {
+                    loaded.add( relId );
+                }
+            };
+            long position = neoStore.getNodeStore().getRecord( hub ).getNextRel();
+            position = relStore.loadChain( hub, position, 3, visitor );
+            assertEquals( 3, loaded.size() );
+            position = relStore.loadChain( hub, position, 3, visitor );
+            assertEquals( Record.NO_NEXT_RELATIONSHIP.intValue(), position );
+            Set<Long> expected = new HashSet<Long>( Arrays.asList( relIds[0],
+                    relIds[1], relIds[3], relIds[4] ) );
+            assertEquals( expected, new HashSet<Long>( loaded ) );
+            assertEquals( 4, loaded.size() );
+        }
+        finally
+        {
+            neoStore.close();
+        }
+    }
+
     @Test
     public void testSetBlockSize() throws Exception
     {
@@ -1016,4 +1069,50 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         assertEquals( 302 + 13, pStore.getArrayBlockSize() );
         ds.close();
     }
+
+    @Test
+    public void testRebuildIdGenerators() throws Exception
+    {
+        initializeStores();
+        startTx();
+        long nodeIds[] = new long[10];
+        for ( int i = 0; i < nodeIds.length; i++ )
+        {
+            nodeIds[i] = ds.nextId( Node.class );
+            xaCon.getWriteTransaction().nodeCreate( nodeIds[i] );
+        }
+        commitTx();
+        startTx();
+        for ( int i : new int[] { 2, 3, 4, 9 } )
+        {
+            xaCon.getWriteTransaction().nodeDelete( nodeIds[i] );
+        }
+        commitTx();
+        ds.close();
+
+        NeoStore neoStore = new NeoStore( MapUtil.map(
+                IdGeneratorFactory.class, ID_GENERATOR_FACTORY,
+                FileSystemAbstraction.class, CommonFactories.defaultFileSystemAbstraction(),
+                "store_dir", path(),
+                "neo_store", file( "neo" ) ) );
+        try
+        {
+            neoStore.rebuildIdGenerators();
+            NodeStore nodeStore = neoStore.getNodeStore();
+            // the deleted node at the end is dropped, the others are reused
+            assertEquals( nodeIds[8] + 1, nodeStore.getHighId() );
+            Set<Long> reused = new HashSet<Long>();
+            for ( int i = 0; i < 3; i++ )
+            {
+                reused.add( nodeStore.nextId() );
+            }
+            assertEquals( new HashSet<Long>( Arrays.asList( nodeIds[2],
+                    nodeIds[3], nodeIds[4] ) ), reused );
+            assertEquals( nodeIds[9], nodeStore.nextId() );
+        }
+        finally
+        {
+            neoStore.close();
+        }
+    }
 }
@@ -151,7 +151,7 @@ public class TestShortString
     @SuppressWarnings( "boxing" )
     protected void assertCanEncode( String string )
     {
-        PropertyRecord target = new PropertyRecord( 0 );
+        PropertyBlock target = new PropertyBlock();
         assertTrue( "Could not encode \"" + string + "\"", ShortString.encode( string, target ) );
         long encoded = target.getPropBlock();
         String decoded = ShortString.decode( encoded );
@@ -162,10 +162,10 @@ public class TestShortString
 
     protected void assertCannotEncode( String string )
     {
-        PropertyRecord target = new PropertyRecord( 0 );
+        PropertyBlock target = new PropertyBlock();
         long expected = target.getPropBlock();
         assertFalse( "Should not be able to encode \"" + string + "\"", ShortString.encode( string, target ) );
-        assertEquals( "PropertyRecord was changed even though encoding failed", expected, target.getPropBlock() );
+        assertEquals( "PropertyBlock was changed even though encoding failed", expected, target.getPropBlock() );
     }
 
     // === Micro benchmarking === [includes random tests]
@@ -221,7 +221,7 @@ public class TestShortString
 
     private static String roundtrip( String string )
     {
-        PropertyRecord target = new PropertyRecord( 0 );
+        PropertyBlock target = new PropertyBlock();
         if ( ShortString.encode( string, target ) ) return ShortString.decode( target.getPropBlock() );
         return null;
     }
@@ -19,12 +19,15 @@
  */
 package org.neo4j.kernel.impl.nioneo.store;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
 import static org.neo4j.helpers.collection.MapUtil.stringMap;
 import static org.neo4j.kernel.Config.ALLOW_STORE_UPGRADE;
 import static org.neo4j.kernel.Config.ARRAY_BLOCK_SIZE;
+import static org.neo4j.kernel.Config.DENSE_NODE_THRESHOLD;
 import static org.neo4j.kernel.Config.KEEP_LOGICAL_LOGS;
 import static org.neo4j.kernel.Config.STRING_BLOCK_SIZE;
 import static org.neo4j.kernel.impl.AbstractNeo4jTestCase.deleteFileOrDirectory;
@@ -34,15 +37,21 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.TransactionFailureException;
 import org.neo4j.helpers.UTF8;
+import org.neo4j.helpers.collection.IteratorUtil;
 import org.neo4j.helpers.collection.MapUtil;
 import org.neo4j.kernel.CommonFactories;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
@@ -234,6 +243,263 @@ public class TestUpgradeStore
         }
     }
     
+    @Test
+    public void makeSureNodeStoreKeepsPlainRecordFormatWithoutDenseNodes() throws Exception
+    {
+        String path = path( 21 );
+        long[] nodeIds = createChainOfNodes( path, 10 );
+
+        assertChainOfNodes( path, nodeIds, stringMap() );
+        assertFalse( new File( path, "neostore.relationshipgroupstore.db" ).exists() );
+        File store = new File( path, "neostore.nodestore.db" );
+        int versionLength = UTF8.encode( "NodeStore v0.9.9" ).length;
+        assertEquals( "NodeStore v0.9.9", readVersion( store, versionLength ) );
+        assertEquals( 0, ( store.length() - versionLength ) % NodeStore.RECORD_SIZE );
+    }
+
+    @Test
+    public void makeSureDenseNodesCantBeEnabledIfNotExplicitlyToldTo()
+            throws Exception
+    {
+        String path = path( 15 );
+        new EmbeddedGraphDatabase( path ).shutdown();
+        GraphDatabaseService db = null;
+        try
+        {
+            db = new EmbeddedGraphDatabase( path, stringMap( DENSE_NODE_THRESHOLD, "10" ) );
+            fail( "Shouldn't be able to upgrade if not told to" );
+        }
+        catch ( TransactionFailureException e )
+        {
+            if ( !( e.getCause() instanceof IllegalStoreVersionException ) )
+            {
+                throw e;
+            }
+            // Good
+        }
+        finally
+        {
+            if ( db != null )
+            {
+                db.shutdown();
+            }
+        }
+        assertFalse( new File( path, "neostore.relationshipgroupstore.db" ).exists() );
+    }
+
+    @Test
+    public void makeSureNodeStoreIsUpgradedWhenDenseNodesAreEnabled() throws Exception
+    {
+        String path = path( 16 );
+        long[] nodeIds = createChainOfNodes( path, 100 );
+
+        assertChainOfNodes( path, nodeIds, stringMap( ALLOW_STORE_UPGRADE, "true",
+                DENSE_NODE_THRESHOLD, "10" ) );
+        assertTrue( new File( path, "neostore.relationshipgroupstore.db" ).exists() );
+        assertFalse( new File( path, "neostore.nodestore.db.upgrade-backup" ).exists() );
+        File store = new File( path, "neostore.nodestore.db" );
+        int versionLength = UTF8.encode( "NodeStore v0.A.0" ).length;
+        assertEquals( "NodeStore v0.A.0", readVersion( store, versionLength ) );
+        assertEquals( 0, ( store.length() - versionLength ) % NodeStore.DENSE_RECORD_SIZE );
+
+        // the store keeps the dense format without the threshold set
+        assertChainOfNodes( path, nodeIds, stringMap() );
+    }
+
+    @Test
+    public void makeSureInterruptedNodeStoreUpgradeIsRestartedFromBackup() throws Exception
+    {
+        String path = path( 19 );
+        long[] nodeIds = createChainOfNodes( path, 100 );
+
+        // as left by an upgrade that died half way through the rewrite
+        RelationshipGroupStore.createStore( new File( path,
+                "neostore.relationshipgroupstore.db" ).getPath(),
+                CommonFactories.defaultIdGeneratorFactory() );
+        File store = new File( path, "neostore.nodestore.db" );
+        File backup = new File( path, "neostore.nodestore.db.upgrade-backup" );
+        FileChannel source = new RandomAccessFile( store, "r" ).getChannel();
+        FileChannel target = new RandomAccessFile( backup, "rw" ).getChannel();
+        target.transferFrom( source, 0, source.size() );
+        source.close();
+        target.close();
+        FileChannel channel = new RandomAccessFile( store, "rw" ).getChannel();
+        channel.write( ByteBuffer.allocate( (int) channel.size() / 2 ),
+                channel.size() / 2 );
+        channel.close();
+
+        assertChainOfNodes( path, nodeIds, stringMap( ALLOW_STORE_UPGRADE, "true" ) );
+        assertFalse( backup.exists() );
+    }
+
+    private long[] createChainOfNodes( String path, int count )
+    {
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path );
+        Transaction tx = db.beginTx();
+        long[] nodeIds = new long[count];
+        Node previous = null;
+        for ( int i = 0; i < count; i++ )
+        {
+            Node node = db.createNode();
+            node.setProperty( "name", "node" + i );
+            if ( previous != null )
+            {
+                previous.createRelationshipTo( node, withName( "NEXT" ) );
+            }
+            nodeIds[i] = node.getId();
+            previous = node;
+        }
+        tx.success();
+        tx.finish();
+        db.shutdown();
+        return nodeIds;
+    }
+
+    private void assertChainOfNodes( String path, long[] nodeIds, Map<String, String> config )
+    {
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path, config );
+        try
+        {
+            for ( int i = 0; i < nodeIds.length; i++ )
+            {
+                Node node = db.getNodeById( nodeIds[i] );
+                assertEquals( "node" + i, node.getProperty( "name" ) );
+                assertEquals( i == 0 || i == nodeIds.length - 1 ? 1 : 2,
+                        IteratorUtil.count( node.getRelationships() ) );
+            }
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    private String readVersion( File store, int versionLength ) throws IOException
+    {
+        FileChannel channel = new RandomAccessFile( store, "r" ).getChannel();
+        try
+        {
+            ByteBuffer version = ByteBuffer.allocate( versionLength );
+            channel.read( version, channel.size() - versionLength );
+            return UTF8.decode( version.array() );
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void makeSurePropertyStoreWithOldRecordFormatCantBeUpgradedIfNotExplicitlyToldTo()
+            throws Exception
+    {
+        String path = path( 17 );
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path );
+        Transaction tx = db.beginTx();
+        db.createNode().setProperty( "name", "node" );
+        tx.success();
+        tx.finish();
+        db.shutdown();
+        setOldPropertyRecordFormat( path );
+        assertCannotStart( path, "Shouldn't be able to upgrade if not told to" );
+    }
+
+    @Test
+    public void makeSurePropertyStoreWithOldRecordFormatCanBeUpgraded() throws Exception
+    {
+        String path = path( 18 );
+        String longString = "a string that is far too long to be encoded as a short string";
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path );
+        Transaction tx = db.beginTx();
+        Node[] nodes = new Node[20];
+        for ( int i = 0; i < nodes.length; i++ )
+        {
+            nodes[i] = db.createNode();
+            for ( int j = 0; j < i % 7; j++ )
+            {
+                nodes[i].setProperty( "key" + j, i * 10 + j );
+            }
+            nodes[i].setProperty( "name", longString + i );
+            nodes[i].setProperty( "array", new int[] { i, i + 1 } );
+            if ( i > 0 )
+            {
+                nodes[i - 1].createRelationshipTo( nodes[i], withName( "NEXT" ) )
+                        .setProperty( "weight", i );
+            }
+        }
+        // leaves holes in the chains
+        nodes[5].removeProperty( "key1" );
+        nodes[6].removeProperty( "name" );
+        tx.success();
+        tx.finish();
+        db.shutdown();
+        setOldPropertyRecordFormat( path );
+
+        db = new EmbeddedGraphDatabase( path, stringMap( ALLOW_STORE_UPGRADE, "true" ) );
+        try
+        {
+            for ( int i = 0; i < nodes.length; i++ )
+            {
+                Node node = db.getNodeById( nodes[i].getId() );
+                for ( int j = 0; j < i % 7; j++ )
+                {
+                    if ( i != 5 || j != 1 )
+                    {
+                        assertEquals( i * 10 + j, node.getProperty( "key" + j ) );
+                    }
+                }
+                if ( i != 6 )
+                {
+                    assertEquals( longString + i, node.getProperty( "name" ) );
+                }
+                assertEquals( i + 1, ( (int[]) node.getProperty( "array" ) )[1] );
+                int expectedCount = i % 7 + ( i == 5 || i == 6 ? 1 : 2 );
+                assertEquals( expectedCount, IteratorUtil.count( node.getPropertyKeys() ) );
+                if ( i > 0 )
+                {
+                    assertEquals( i, node.getSingleRelationship( withName( "NEXT" ),
+                            Direction.INCOMING ).getProperty( "weight" ) );
+                }
+            }
+        }
+        finally
+        {
+            db.shutdown();
+        }
+        assertFalse( new File( path, "neostore.propertystore.db.unpacked" ).exists() );
+        assertCanStart( path );
+    }
+
+    @Test
+    public void makeSurePropertyStoreIsntUpgradedIfNotShutDownCleanly() throws Exception
+    {
+        String path = path( 20 );
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path );
+        Transaction tx = db.beginTx();
+        db.createNode().setProperty( "name", "node" );
+        tx.success();
+        tx.finish();
+        db.shutdown();
+        setOldPropertyRecordFormat( path );
+        markLogicalLogAsActive( path );
+
+        try
+        {
+            db = new EmbeddedGraphDatabase( path, stringMap( ALLOW_STORE_UPGRADE, "true" ) );
+            db.shutdown();
+            fail( "Shouldn't be able to upgrade a store that needs recovery" );
+        }
+        catch ( TransactionFailureException e )
+        {
+            if ( !( e.getCause() instanceof IllegalStoreVersionException ) )
+            {
+                throw e;
+            }
+            // Good
+        }
+        assertFalse( new File( path, "neostore.propertystore.db.unpacked" ).exists() );
+    }
+
     private void assertCannotStart( String path, String failMessage )
     {
         GraphDatabaseService db = null;
@@ -285,6 +551,94 @@ public class TestUpgradeStore
         channel.close();
     }
 
+    // rewrites the property store to the format with one property per
+    // record, the first property of each record keeps the id of the record
+    // so that the nodes and relationships don't have to be changed
+    private void markLogicalLogAsActive( String path ) throws IOException
+    {
+        FileChannel channel = new RandomAccessFile( new File( path,
+                "nioneo_logical.log.active" ), "rw" ).getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate( 4 );
+        buffer.asCharBuffer().put( '1' );
+        channel.write( buffer );
+        channel.close();
+    }
+
+    private void setOldPropertyRecordFormat( String path ) throws IOException
+    {
+        File file = new File( path, "neostore.propertystore.db" );
+        FileChannel channel = new RandomAccessFile( file, "rw" ).getChannel();
+        int versionLength = UTF8.encode( "PropertyStore v0.9.9" ).length;
+        int records = (int) ( ( channel.size() - versionLength ) / PropertyStore.RECORD_SIZE );
+        ByteBuffer current = ByteBuffer.allocate( records * PropertyStore.RECORD_SIZE );
+        channel.read( current, 0 );
+        current.flip();
+        long[][] blocks = new long[records][];
+        long[] prev = new long[records];
+        long[] next = new long[records];
+        List<long[]> oldIds = new ArrayList<long[]>();
+        long nextOldId = records;
+        for ( int i = 0; i < records; i++ )
+        {
+            current.position( i * PropertyStore.RECORD_SIZE );
+            boolean inUse = current.get() == Record.IN_USE.byteValue();
+            current.get();
+            prev[i] = current.getInt();
+            next[i] = current.getInt();
+            List<Long> ids = new ArrayList<Long>();
+            blocks[i] = new long[PropertyStore.BLOCKS_PER_RECORD * 3];
+            for ( int j = 0; j < PropertyStore.BLOCKS_PER_RECORD; j++ )
+            {
+                blocks[i][j * 3] = current.get();
+                blocks[i][j * 3 + 1] = current.getInt();
+                blocks[i][j * 3 + 2] = current.getLong();
+                if ( inUse && blocks[i][j * 3] != 0 )
+                {
+                    ids.add( ids.isEmpty() ? i : nextOldId++ );
+                }
+            }
+            long[] idArray = new long[ids.size()];
+            for ( int j = 0; j < idArray.length; j++ )
+            {
+                idArray[j] = ids.get( j );
+            }
+            oldIds.add( idArray );
+        }
+        ByteBuffer old = ByteBuffer.allocate( (int) nextOldId * 25 + versionLength );
+        for ( int i = 0; i < records; i++ )
+        {
+            long[] ids = oldIds.get( i );
+            int slot = 0;
+            for ( int j = 0; j < ids.length; j++ )
+            {
+                while ( blocks[i][slot * 3] == 0 )
+                {
+                    slot++;
+                }
+                long prevId = j > 0 ? ids[j - 1] : prev[i] == -1 ? -1 :
+                        last( oldIds.get( (int) prev[i] ) );
+                long nextId = j < ids.length - 1 ? ids[j + 1] : next[i];
+                old.position( (int) ids[j] * 25 );
+                old.put( Record.IN_USE.byteValue() ).putInt( (int) blocks[i][slot * 3] )
+                        .putInt( (int) blocks[i][slot * 3 + 1] ).putLong( blocks[i][slot * 3 + 2] )
+                        .putInt( (int) prevId ).putInt( (int) nextId );
+                slot++;
+            }
+        }
+        old.position( (int) nextOldId * 25 );
+        old.put( UTF8.encode( "PropertyStore v0.9.9" ) );
+        old.flip();
+        channel.truncate( 0 );
+        channel.write( old, 0 );
+        channel.close();
+        new File( path, "neostore.propertystore.db.id" ).delete();
+    }
+
+    private static long last( long[] ids )
+    {
+        return ids[ids.length - 1];
+    }
+
     private void setBlockSize( File file, int blockSize, String oldVersionToSet ) throws IOException
     {
         FileChannel channel = new RandomAccessFile( file, "rw" ).getChannel();
@@ -254,6 +254,16 @@ public class TestXa extends AbstractNeo4jTestCase
         {
             assertTrue( file.delete() );
         }
+        file = new File( file( "neo.relationshipgroupstore.db" ) );
+        if ( file.exists() )
+        {
+            assertTrue( file.delete() );
+        }
+        file = new File( file( "neo.relationshipgroupstore.db.id" ) );
+        if ( file.exists() )
+        {
+            assertTrue( file.delete() );
+        }
         file = new File( file( "neo.relationshiptypestore.db" ) );
         if ( file.exists() )
         {
@@ -406,18 +416,16 @@ public class TestXa extends AbstractNeo4jTestCase
         xaCon.getWriteTransaction().nodeCreate( node1 );
         long node2 = ds.nextId( Node.class );
         xaCon.getWriteTransaction().nodeCreate( node2 );
-        long n1prop1 = ds.nextId( PropertyStore.class );
-        xaCon.getWriteTransaction().nodeAddProperty( node1, n1prop1,
-            index( "prop1" ), "string1" );
+        long n1prop1 = xaCon.getWriteTransaction().nodeAddProperty( node1,
+            index( "prop1" ), "string1" ).getId();
         xaCon.getWriteTransaction().nodeLoadProperties( node1, false );
         int relType1 = (int) ds.nextId( RelationshipType.class );
         xaCon.getWriteTransaction().createRelationshipType( relType1,
             "relationshiptype1" );
         long rel1 = ds.nextId( Relationship.class );
         xaCon.getWriteTransaction().relationshipCreate( rel1, relType1, node1, node2 );
-        long r1prop1 = ds.nextId( PropertyStore.class );
-        xaCon.getWriteTransaction().relAddProperty( rel1, r1prop1,
-            index( "prop1" ), "string1" );
+        long r1prop1 = xaCon.getWriteTransaction().relAddProperty( rel1,
+            index( "prop1" ), "string1" ).getId();
         xaCon.getWriteTransaction().nodeChangeProperty( node1, n1prop1, "string2" );
         xaCon.getWriteTransaction().relChangeProperty( rel1, r1prop1, "string2" );
         xaCon.getWriteTransaction().nodeRemoveProperty( node1, n1prop1 );
@@ -469,17 +477,15 @@ public class TestXa extends AbstractNeo4jTestCase
         xaCon.getWriteTransaction().nodeCreate( node1 );
         long node2 = ds.nextId( Node.class );
         xaCon.getWriteTransaction().nodeCreate( node2 );
-        long n1prop1 = ds.nextId( PropertyStore.class );
-        xaCon.getWriteTransaction().nodeAddProperty( node1, n1prop1,
-            index( "prop1" ), "string1" );
+        long n1prop1 = xaCon.getWriteTransaction().nodeAddProperty( node1,
+            index( "prop1" ), "string1" ).getId();
         int relType1 = (int) ds.nextId( RelationshipType.class );
         xaCon.getWriteTransaction().createRelationshipType( relType1,
             "relationshiptype1" );
         long rel1 = ds.nextId( Relationship.class );
         xaCon.getWriteTransaction().relationshipCreate( rel1, relType1, node1, node2 );
-        long r1prop1 = ds.nextId( PropertyStore.class );
-        xaCon.getWriteTransaction().relAddProperty( rel1, r1prop1,
-            index( "prop1" ), "string1" );
+        long r1prop1 = xaCon.getWriteTransaction().relAddProperty( rel1,
+            index( "prop1" ), "string1" ).getId();
         xaCon.getWriteTransaction().nodeChangeProperty( node1, n1prop1, "string2" );
         xaCon.getWriteTransaction().relChangeProperty( rel1, r1prop1,
             "string2" );
@@ -511,17 +517,15 @@ public class TestXa extends AbstractNeo4jTestCase
         xaCon.getWriteTransaction().nodeCreate( node1 );
         long node2 = ds.nextId( Node.class );
         xaCon.getWriteTransaction().nodeCreate( node2 );
-        long n1prop1 = ds.nextId( PropertyStore.class );
-        xaCon.getWriteTransaction().nodeAddProperty( node1, n1prop1,
-            index( "prop1" ), "string1" );
+        long n1prop1 = xaCon.getWriteTransaction().nodeAddProperty( node1,
+            index( "prop1" ), "string1" ).getId();
         int relType1 = (int) ds.nextId( RelationshipType.class );
         xaCon.getWriteTransaction().createRelationshipType( relType1,
             "relationshiptype1" );
         long rel1 = ds.nextId( Relationship.class );
         xaCon.getWriteTransaction().relationshipCreate( rel1, relType1, node1, node2 );
-        long r1prop1 = ds.nextId( PropertyStore.class );
-        xaCon.getWriteTransaction().relAddProperty( rel1, r1prop1,
-            index( "prop1" ), "string1" );
+        long r1prop1 = xaCon.getWriteTransaction().relAddProperty( rel1,
+            index( "prop1" ), "string1" ).getId();
         xaCon.getWriteTransaction().nodeChangeProperty( node1, n1prop1, "string2" );
         xaCon.getWriteTransaction().relChangeProperty( rel1, r1prop1,
             "string2" );
@@ -601,9 +605,8 @@ public class TestXa extends AbstractNeo4jTestCase
         xaCon.getWriteTransaction().nodeCreate( node1 );
         long node2 = ds.nextId( Node.class );
         xaCon.getWriteTransaction().nodeCreate( node2 );
-        long n1prop1 = ds.nextId( PropertyStore.class );
-        xaCon.getWriteTransaction().nodeAddProperty( node1, n1prop1,
-            index( "prop1" ), "string value 1" );
+        long n1prop1 = xaCon.getWriteTransaction().nodeAddProperty( node1,
+            index( "prop1" ), "string value 1" ).getId();
         xaRes.end( xid, XAResource.TMSUCCESS );
         xaRes.prepare( xid );
         copyLogicalLog( path() );
@@ -611,7 +614,7 @@ public class TestXa extends AbstractNeo4jTestCase
         ds.close();
         deleteLogicalLogIfExist();
         renameCopiedLogicalLog( path() );
-        truncateLogicalLog( 188 ); // master (w/ shortstring) says 155
+        truncateLogicalLog( 252 ); // master (w/ shortstring) says 155
         ds = newNeoStore();
 //        ds = new NeoStoreXaDataSource( file( "neo" ), file( "nioneo_logical.log" ),
 //            lockManager, lockReleaser );
@@ -631,9 +634,8 @@ public class TestXa extends AbstractNeo4jTestCase
         xaCon.getWriteTransaction().nodeCreate( node1 );
         long node2 = ds.nextId( Node.class );
         xaCon.getWriteTransaction().nodeCreate( node2 );
-        long n1prop1 = ds.nextId( PropertyStore.class );
-        xaCon.getWriteTransaction().nodeAddProperty( node1, n1prop1,
-            index( "prop1" ), "string value 1" );
+        long n1prop1 = xaCon.getWriteTransaction().nodeAddProperty( node1,
+            index( "prop1" ), "string value 1" ).getId();
         xaRes.end( xid, XAResource.TMSUCCESS );
         xaRes.prepare( xid );
         xaRes.commit( xid, false );
@@ -641,7 +643,7 @@ public class TestXa extends AbstractNeo4jTestCase
         ds.close();
         deleteLogicalLogIfExist();
         renameCopiedLogicalLog( path() );
-        truncateLogicalLog( 224 ); // master (w/ shortstring) says 171
+        truncateLogicalLog( 288 ); // master (w/ shortstring) says 171
         ds = newNeoStore();
 //        ds = new NeoStoreXaDataSource( file( "neo" ), file( "nioneo_logical.log" ),
 //             lockManager, lockReleaser );
@@ -674,17 +676,15 @@ public class TestXa extends AbstractNeo4jTestCase
         xaCon.getWriteTransaction().nodeCreate( node1 );
         long node2 = ds.nextId( Node.class );
         xaCon.getWriteTransaction().nodeCreate( node2 );
-        long n1prop1 = ds.nextId( PropertyStore.class );
-        xaCon.getWriteTransaction().nodeAddProperty( node1, n1prop1,
-            index( "prop1" ), "string1" );
+        long n1prop1 = xaCon.getWriteTransaction().nodeAddProperty( node1,
+            index( "prop1" ), "string1" ).getId();
         xaCon.getWriteTransaction().nodeLoadProperties( node1, false );
         int relType1 = (int) ds.nextId( RelationshipType.class );
         xaCon.getWriteTransaction().createRelationshipType( relType1, "relationshiptype1" );
         long rel1 = ds.nextId( Relationship.class );
         xaCon.getWriteTransaction().relationshipCreate( rel1, relType1, node1, node2 );
-        long r1prop1 = ds.nextId( PropertyStore.class );
-        xaCon.getWriteTransaction().relAddProperty( rel1, r1prop1,
-            index( "prop1" ), "string1" );
+        long r1prop1 = xaCon.getWriteTransaction().relAddProperty( rel1,
+            index( "prop1" ), "string1" ).getId();
         xaCon.getWriteTransaction().nodeChangeProperty( node1, n1prop1, "string2" );
         xaCon.getWriteTransaction().relChangeProperty( rel1, r1prop1,
             "string2" );
@@ -0,0 +1,325 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.DeadlockDetectedException;
+
+public class TestStripedLockManager
+{
+    private LockManager lm;
+
+    @Before
+    public void createLockManager()
+    {
+        lm = new StripedLockManager( new PlaceboTm(), 4 );
+    }
+
+    @Test
+    public void testNullAndUnknownResources() throws Exception
+    {
+        try
+        {
+            lm.getReadLock( null );
+            fail( "Null parameter should throw exception" );
+        }
+        catch ( IllegalResourceException e )
+        { // good
+        }
+        try
+        {
+            lm.getWriteLock( null );
+            fail( "Null parameter should throw exception" );
+        }
+        catch ( IllegalResourceException e )
+        { // good
+        }
+        try
+        {
+            lm.releaseReadLock( "resource", null );
+            fail( "Invalid release should throw exception" );
+        }
+        catch ( LockNotFoundException e )
+        { // good
+        }
+        lm.getReadLock( "resource" );
+        try
+        {
+            lm.releaseWriteLock( "resource", null );
+            fail( "Invalid release should throw exception" );
+        }
+        catch ( LockNotFoundException e )
+        { // good
+        }
+        lm.releaseReadLock( "resource", null );
+        try
+        {
+            lm.releaseReadLock( "resource", null );
+            fail( "Invalid release should throw exception" );
+        }
+        catch ( LockNotFoundException e )
+        { // good
+        }
+    }
+
+    @Test
+    public void testReentrantLocks() throws Exception
+    {
+        Object resource = new Object();
+        lm.getWriteLock( resource );
+        lm.getReadLock( resource );
+        lm.getWriteLock( resource );
+        lm.getReadLock( resource );
+        lm.releaseReadLock( resource, null );
+        lm.releaseWriteLock( resource, null );
+        lm.releaseReadLock( resource, null );
+        lm.releaseWriteLock( resource, null );
+        // upgrading our own read lock doesn't have to wait
+        lm.getReadLock( resource );
+        lm.getWriteLock( resource );
+        lm.releaseWriteLock( resource, null );
+        lm.releaseReadLock( resource, null );
+    }
+
+    @Test
+    public void testReadLocksAreShared() throws Exception
+    {
+        final Object resource = new Object();
+        lm.getReadLock( resource );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread other = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    lm.getReadLock( resource );
+                    lm.releaseReadLock( resource, null );
+                }
+                catch ( Throwable t )
+                {
+                    failure.set( t );
+                }
+            }
+        };
+        other.start();
+        other.join( 5000 );
+        assertFalse( "Read lock should not wait on another read lock",
+            other.isAlive() );
+        assertEquals( null, failure.get() );
+        lm.releaseReadLock( resource, null );
+    }
+
+    @Test
+    public void testWriteLockWaitsForRelease() throws Exception
+    {
+        final Object resource = new Object();
+        lm.getReadLock( resource );
+        final CountDownLatch acquired = new CountDownLatch( 1 );
+        Thread other = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                lm.getWriteLock( resource );
+                acquired.countDown();
+                lm.releaseWriteLock( resource, null );
+            }
+        };
+        other.start();
+        assertFalse( acquired.await( 200, TimeUnit.MILLISECONDS ) );
+        lm.releaseReadLock( resource, null );
+        assertTrue( acquired.await( 5, TimeUnit.SECONDS ) );
+        other.join();
+    }
+
+    @Test
+    public void testDeadlockIsDetected() throws Exception
+    {
+        final Object r1 = "r1";
+        final Object r2 = "r2";
+        final CountDownLatch bothLocked = new CountDownLatch( 2 );
+        final AtomicInteger deadlocks = new AtomicInteger();
+        Thread[] threads = new Thread[2];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            final Object first = i == 0 ? r1 : r2;
+            final Object second = i == 0 ? r2 : r1;
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    lm.getWriteLock( first );
+                    try
+                    {
+                        bothLocked.countDown();
+                        bothLocked.await();
+                        lm.getWriteLock( second );
+                        lm.releaseWriteLock( second, null );
+                    }
+                    catch ( DeadlockDetectedException e )
+                    {
+                        deadlocks.incrementAndGet();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        Thread.interrupted();
+                    }
+                    finally
+                    {
+                        lm.releaseWriteLock( first, null );
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join( 5000 );
+            assertFalse( "Deadlock not detected", thread.isAlive() );
+        }
+        assertEquals( 1, deadlocks.get() );
+        assertEquals( 1, lm.getDetectedDeadlockCount() );
+    }
+
+    @Test
+    public void testUpgradeDeadlockIsDetected() throws Exception
+    {
+        final Object resource = new Object();
+        final CountDownLatch bothLocked = new CountDownLatch( 2 );
+        final AtomicInteger deadlocks = new AtomicInteger();
+        Thread[] threads = new Thread[2];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    lm.getReadLock( resource );
+                    try
+                    {
+                        bothLocked.countDown();
+                        bothLocked.await();
+                        lm.getWriteLock( resource );
+                        lm.releaseWriteLock( resource, null );
+                    }
+                    catch ( DeadlockDetectedException e )
+                    {
+                        deadlocks.incrementAndGet();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        Thread.interrupted();
+                    }
+                    finally
+                    {
+                        lm.releaseReadLock( resource, null );
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join( 5000 );
+            assertFalse( "Deadlock not detected", thread.isAlive() );
+        }
+        assertEquals( 1, deadlocks.get() );
+    }
+
+    @Test
+    public void testStressMultipleThreads() throws Exception
+    {
+        final Object[] resources = new Object[16];
+        for ( int i = 0; i < resources.length; i++ )
+        {
+            resources[i] = "resource" + i;
+        }
+        final int[] counters = new int[resources.length];
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[8];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            final long seed = i;
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    Random random = new Random( seed );
+                    try
+                    {
+                        for ( int round = 0; round < 2000; round++ )
+                        {
+                            int first = random.nextInt( resources.length );
+                            int second = random.nextInt( resources.length );
+                            lm.getWriteLock( resources[first] );
+                            try
+                            {
+                                counters[first]++;
+                                lm.getReadLock( resources[second] );
+                                lm.releaseReadLock( resources[second], null );
+                            }
+                            catch ( DeadlockDetectedException e )
+                            { // expected now and then, just back off
+                            }
+                            finally
+                            {
+                                lm.releaseWriteLock( resources[first], null );
+                            }
+                        }
+                    }
+                    catch ( Throwable t )
+                    {
+                        failure.set( t );
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join( 60000 );
+            assertFalse( "Stress threads didn't finish", thread.isAlive() );
+        }
+        assertEquals( null, failure.get() );
+        int total = 0;
+        for ( int count : counters )
+        {
+            total += count;
+        }
+        assertEquals( threads.length * 2000, total );
+    }
+}
@@ -20,6 +20,8 @@
 package org.neo4j.kernel.impl.transaction;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -27,10 +29,14 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
 import org.neo4j.kernel.impl.transaction.TxLog.Record;
+import org.neo4j.kernel.impl.transaction.xaframework.GroupCommit;
 
 public class TestTxLog
 {
@@ -187,6 +193,174 @@ public class TestTxLog
         }
     }
 
+    private void deleteFiles( String... names )
+    {
+        for ( String name : names )
+        {
+            File file = new File( name );
+            if ( file.exists() )
+            {
+                file.delete();
+            }
+        }
+    }
+
+    private Thread commitInThread( final TxLog txLog, final byte globalId[],
+        final AtomicReference<Throwable> failure )
+    {
+        Thread committer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    txLog.markAsCommitting( globalId );
+                }
+                catch ( Throwable t )
+                {
+                    failure.set( t );
+                }
+            }
+        };
+        committer.start();
+        return committer;
+    }
+
+    @Test
+    public void testSwitchLogWhileCommitIsBeingForced() throws Exception
+    {
+        final String otherFile = file( "tx_test_log_2.tx" );
+        deleteFiles( txFile(), otherFile );
+        try
+        {
+            // the committer leads the group commit and waits for others to
+            // join before it forces, while the log is switched
+            final TxLog txLog = new TxLog( txFile(), new GroupCommit( 500, 100 ) );
+            byte globalId[] = new byte[64];
+            txLog.txStart( globalId );
+            txLog.addBranch( globalId, new byte[45] );
+            AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            Thread committer = commitInThread( txLog, globalId, failure );
+            Thread.sleep( 100 );
+
+            Thread switcher = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        txLog.switchToLogFile( otherFile );
+                    }
+                    catch ( IOException e )
+                    {
+                        throw new RuntimeException( e );
+                    }
+                }
+            };
+            switcher.start();
+            switcher.join( 10000 );
+            committer.join( 10000 );
+            assertFalse( "Log switch didn't finish", switcher.isAlive() );
+            assertFalse( "Commit didn't finish", committer.isAlive() );
+            assertNull( failure.get() );
+
+            List<?> lists[] = getRecordLists( txLog.getDanglingRecords() );
+            assertEquals( 1, lists.length );
+            assertEquals( 3, lists[0].size() );
+            assertEquals( TxLog.MARK_COMMIT, ((Record) lists[0].get( 2 )).getType() );
+            txLog.close();
+        }
+        finally
+        {
+            deleteFiles( txFile(), otherFile );
+        }
+    }
+
+    @Test
+    public void testSwitchLogsWhileCommitting() throws Exception
+    {
+        final String otherFile = file( "tx_test_log_2.tx" );
+        deleteFiles( txFile(), otherFile );
+        try
+        {
+            final TxLog txLog = new TxLog( txFile(), new GroupCommit( 1, 100 ) );
+            final AtomicBoolean done = new AtomicBoolean();
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            final AtomicInteger commits = new AtomicInteger();
+            List<Thread> committers = new ArrayList<Thread>();
+            for ( int i = 0; i < 4; i++ )
+            {
+                final byte id = (byte) i;
+                Thread committer = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            for ( int tx = 0; !done.get(); tx++ )
+                            {
+                                byte globalId[] = new byte[] { id, (byte) tx, (byte) (tx >> 8), (byte) (tx >> 16) };
+                                txLog.txStart( globalId );
+                                txLog.addBranch( globalId, new byte[] { 1 } );
+                                txLog.markAsCommitting( globalId );
+                                txLog.txDone( globalId );
+                                commits.incrementAndGet();
+                            }
+                        }
+                        catch ( Throwable t )
+                        {
+                            failure.set( t );
+                        }
+                    }
+                };
+                committer.start();
+                committers.add( committer );
+            }
+
+            Thread switcher = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = 0; i < 50; i++ )
+                        {
+                            txLog.switchToLogFile( i % 2 == 0 ? otherFile : txFile() );
+                            Thread.sleep( 2 );
+                        }
+                    }
+                    catch ( Throwable t )
+                    {
+                        failure.set( t );
+                    }
+                }
+            };
+            switcher.start();
+            switcher.join( 30000 );
+            done.set( true );
+            for ( Thread committer : committers )
+            {
+                committer.join( 10000 );
+                assertFalse( "Commit didn't finish", committer.isAlive() );
+            }
+            assertFalse( "Log switches didn't finish", switcher.isAlive() );
+            assertNull( failure.get() );
+            assertTrue( commits.get() > 0 );
+
+            txLog.force();
+            assertEquals( 0, getRecordLists( txLog.getDanglingRecords() ).length );
+            txLog.close();
+        }
+        finally
+        {
+            deleteFiles( txFile(), otherFile );
+        }
+    }
+
     @Test
     public void testTxRecovery()
     {
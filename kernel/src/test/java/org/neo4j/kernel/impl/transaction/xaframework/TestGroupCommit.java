@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.AbstractGraphDatabase;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+public class TestGroupCommit
+{
+    private static final String PATH = "target/test-data/group-commit";
+
+    @Before
+    public void cleanDb() throws Exception
+    {
+        FileUtils.deleteRecursively( new File( PATH ) );
+    }
+
+    @Test
+    public void commitsWaitForAForceOfTheirTicket() throws Exception
+    {
+        final GroupCommit groupCommit = new GroupCommit( 0, 100 );
+        final AtomicLong forcedUpTo = new AtomicLong();
+        final AtomicLong written = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final GroupCommit.Forcer forcer = new GroupCommit.Forcer()
+        {
+            public void force() throws IOException
+            {
+                long target = written.get();
+                try
+                {
+                    Thread.sleep( 2 );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                forcedUpTo.set( Math.max( forcedUpTo.get(), target ) );
+            }
+        };
+        Thread[] threads = new Thread[10];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int round = 0; round < 100; round++ )
+                        {
+                            long ticket;
+                            synchronized ( written )
+                            {
+                                ticket = groupCommit.written();
+                                written.set( ticket );
+                            }
+                            groupCommit.awaitForced( ticket, forcer );
+                            assertTrue( forcedUpTo.get() >= ticket );
+                        }
+                    }
+                    catch ( Throwable t )
+                    {
+                        failure.set( t );
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertEquals( null, failure.get() );
+        assertEquals( 1000, groupCommit.getCommitCount() );
+        assertTrue( "Expected forces to be shared, was " + groupCommit,
+            groupCommit.getForceCount() < 1000 );
+        assertTrue( groupCommit.getCommitsPerForce() > 1 );
+    }
+
+    @Test
+    public void leaderWaitsForBatchToFillUp() throws Exception
+    {
+        final GroupCommit groupCommit = new GroupCommit( 10000, 2 );
+        final AtomicInteger forces = new AtomicInteger();
+        final GroupCommit.Forcer forcer = new GroupCommit.Forcer()
+        {
+            public void force()
+            {
+                forces.incrementAndGet();
+            }
+        };
+        final long first = groupCommit.written();
+        final CountDownLatch done = new CountDownLatch( 1 );
+        Thread leader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    groupCommit.awaitForced( first, forcer );
+                    done.countDown();
+                }
+                catch ( IOException e )
+                {
+                    throw new RuntimeException( e );
+                }
+            }
+        };
+        leader.start();
+        Thread.sleep( 100 );
+        assertEquals( 1, done.getCount() );
+        long second = groupCommit.written();
+        groupCommit.awaitForced( second, forcer );
+        leader.join( 5000 );
+        assertFalse( leader.isAlive() );
+        assertEquals( 1, forces.get() );
+        assertEquals( 2, groupCommit.getCommitCount() );
+    }
+
+    @Test
+    public void failedForceIsRetriedByNextCommitter() throws Exception
+    {
+        GroupCommit groupCommit = new GroupCommit( 0, 10 );
+        final AtomicInteger attempts = new AtomicInteger();
+        GroupCommit.Forcer failingOnce = new GroupCommit.Forcer()
+        {
+            public void force() throws IOException
+            {
+                if ( attempts.incrementAndGet() == 1 )
+                {
+                    throw new IOException( "Simulated" );
+                }
+            }
+        };
+        long ticket = groupCommit.written();
+        try
+        {
+            groupCommit.awaitForced( ticket, failingOnce );
+            fail( "Should have failed" );
+        }
+        catch ( IOException e )
+        { // good
+        }
+        assertEquals( 0, groupCommit.getCommitCount() );
+        groupCommit.awaitForced( ticket, failingOnce );
+        assertEquals( 2, attempts.get() );
+        assertEquals( 1, groupCommit.getCommitCount() );
+    }
+
+    @Test
+    public void concurrentTransactionsWithGroupCommit() throws Exception
+    {
+        final AbstractGraphDatabase db = new EmbeddedGraphDatabase( PATH,
+            stringMap( Config.GROUP_COMMIT, "true" ) );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[8];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int round = 0; round < 50; round++ )
+                        {
+                            Transaction tx = db.beginTx();
+                            try
+                            {
+                                db.createNode().setProperty( "round", round );
+                                tx.success();
+                            }
+                            finally
+                            {
+                                tx.finish();
+                            }
+                        }
+                    }
+                    catch ( Throwable t )
+                    {
+                        failure.set( t );
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertEquals( null, failure.get() );
+        GroupCommit groupCommit = db.getConfig().getTxModule().getXaDataSourceManager()
+            .getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME ).getXaContainer()
+            .getLogicalLog().getGroupCommit();
+        assertEquals( threads.length * 50, groupCommit.getCommitCount() );
+        db.shutdown();
+
+        AbstractGraphDatabase restarted = new EmbeddedGraphDatabase( PATH );
+        int count = 0;
+        for ( Node node : restarted.getAllNodes() )
+        {
+            if ( node.hasProperty( "round" ) )
+            {
+                count++;
+            }
+        }
+        restarted.shutdown();
+        assertEquals( threads.length * 50, count );
+    }
+}
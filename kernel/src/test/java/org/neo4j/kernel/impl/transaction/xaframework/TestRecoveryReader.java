@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import javax.transaction.xa.Xid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.impl.transaction.XidImpl;
+import org.neo4j.kernel.impl.util.BufferedFileChannel;
+
+public class TestRecoveryReader
+{
+    private static final String LOG = "target/var/recovery-reader.log";
+    private static final int CORRUPT = -1;
+
+    private FileChannel channel;
+
+    @Before
+    public void createLog() throws Exception
+    {
+        File file = new File( LOG );
+        file.getParentFile().mkdirs();
+        file.delete();
+        channel = new RandomAccessFile( file, "rw" ).getChannel();
+    }
+
+    @After
+    public void closeLog() throws Exception
+    {
+        channel.close();
+        new File( LOG ).delete();
+    }
+
+    @Test
+    public void handsOverAllEntriesInLogOrder() throws Exception
+    {
+        LogBuffer buffer = new DirectLogBuffer( channel, ByteBuffer.allocate( 64 ) );
+        long[] startPositions = new long[3];
+        for ( int i = 0; i < 3; i++ )
+        {
+            startPositions[i] = channel.position();
+            writeTx( buffer, i, i );
+        }
+
+        RecoveryReader reader = newReader();
+        Thread thread = start( reader );
+        for ( int i = 0; i < 3; i++ )
+        {
+            LogEntry.Start start = (LogEntry.Start) reader.take();
+            assertEquals( i, start.getIdentifier() );
+            assertEquals( startPositions[i], start.getStartPosition() );
+            LogEntry.Command command = (LogEntry.Command) reader.take();
+            assertEquals( i, ((DummyCommand) command.getXaCommand()).value );
+            LogEntry.OnePhaseCommit commit = (LogEntry.OnePhaseCommit) reader.take();
+            assertEquals( i + 1, commit.getTxId() );
+            assertEquals( i, ((LogEntry.Done) reader.take()).getIdentifier() );
+        }
+        assertNull( reader.take() );
+        thread.join();
+        assertEquals( channel.size(), reader.getLastEntryPos() );
+    }
+
+    @Test
+    public void lastEntryPosIsEndOfLastCompleteEntryOfTruncatedLog() throws Exception
+    {
+        LogBuffer buffer = new DirectLogBuffer( channel, ByteBuffer.allocate( 64 ) );
+        writeTx( buffer, 0, 0 );
+        LogIoUtils.writeStart( buffer, 1, xid( 1 ) );
+        LogIoUtils.writeCommand( buffer, 1, new DummyCommand( 1 ) );
+        long endOfCommand = channel.position();
+        LogIoUtils.writeCommit( false, buffer, 1, 2, -1 );
+        // cut the commit entry in half
+        channel.truncate( endOfCommand + 5 );
+
+        RecoveryReader reader = newReader();
+        Thread thread = start( reader );
+        int entries = 0;
+        while ( reader.take() != null )
+        {
+            entries++;
+        }
+        thread.join();
+        assertEquals( 6, entries );
+        assertEquals( endOfCommand, reader.getLastEntryPos() );
+    }
+
+    @Test
+    public void readFailureIsRethrownAfterTheEntriesReadBeforeIt() throws Exception
+    {
+        LogBuffer buffer = new DirectLogBuffer( channel, ByteBuffer.allocate( 64 ) );
+        writeTx( buffer, 0, 0 );
+        LogIoUtils.writeStart( buffer, 1, xid( 1 ) );
+        long endOfStart = channel.position();
+        LogIoUtils.writeCommand( buffer, 1, new DummyCommand( CORRUPT ) );
+
+        RecoveryReader reader = newReader();
+        Thread thread = start( reader );
+        for ( int i = 0; i < 5; i++ )
+        {
+            assertTrue( reader.take() != null );
+        }
+        try
+        {
+            reader.take();
+            fail( "Should have rethrown the failure to read the command" );
+        }
+        catch ( IOException e )
+        {   // Good
+            assertEquals( "Corrupt command", e.getMessage() );
+        }
+        thread.join();
+        assertEquals( endOfStart, reader.getLastEntryPos() );
+    }
+
+    @Test
+    public void stopEndsReaderWaitingForTheApplyingThread() throws Exception
+    {
+        LogBuffer buffer = new DirectLogBuffer( channel, ByteBuffer.allocate( 64 ) );
+        for ( int i = 0; i < RecoveryReader.READ_AHEAD * 3; i++ )
+        {
+            LogIoUtils.writeDone( buffer, i );
+        }
+
+        RecoveryReader reader = newReader();
+        Thread thread = start( reader );
+        assertEquals( 0, reader.take().getIdentifier() );
+        // the applying thread fails here, the reader has a full queue
+        Thread.sleep( 200 );
+        reader.stop();
+        thread.join( 5000 );
+        assertFalse( "Reader still running after stop", thread.isAlive() );
+        assertTrue( reader.getLastEntryPos() < channel.size() );
+    }
+
+    private RecoveryReader newReader() throws IOException
+    {
+        channel.position( 0 );
+        return new RecoveryReader( new BufferedFileChannel( channel, 1024 ),
+            ByteBuffer.allocate( 256 ), new DummyCommandFactory(), LOG );
+    }
+
+    private Thread start( RecoveryReader reader )
+    {
+        Thread thread = new Thread( reader, "Recovery reader[" + LOG + "]" );
+        thread.start();
+        return thread;
+    }
+
+    private void writeTx( LogBuffer buffer, int identifier, int value ) throws IOException
+    {
+        LogIoUtils.writeStart( buffer, identifier, xid( identifier ) );
+        LogIoUtils.writeCommand( buffer, identifier, new DummyCommand( value ) );
+        LogIoUtils.writeCommit( false, buffer, identifier, identifier + 1, -1 );
+        LogIoUtils.writeDone( buffer, identifier );
+    }
+
+    private Xid xid( int identifier )
+    {
+        return new XidImpl( new byte[] { (byte) identifier }, new byte[] { 1 } );
+    }
+
+    private static class DummyCommand extends XaCommand
+    {
+        private final int value;
+
+        DummyCommand( int value )
+        {
+            this.value = value;
+        }
+
+        @Override
+        public void execute()
+        {
+        }
+
+        @Override
+        public void writeToFile( LogBuffer buffer ) throws IOException
+        {
+            buffer.putInt( value );
+        }
+    }
+
+    private static class DummyCommandFactory extends XaCommandFactory
+    {
+        @Override
+        public XaCommand readCommand( ReadableByteChannel byteChannel,
+            ByteBuffer buffer ) throws IOException
+        {
+            buffer.clear();
+            buffer.limit( 4 );
+            if ( byteChannel.read( buffer ) != 4 )
+            {
+                return null;
+            }
+            buffer.flip();
+            int value = buffer.getInt();
+            if ( value == CORRUPT )
+            {
+                throw new IOException( "Corrupt command" );
+            }
+            return new DummyCommand( value );
+        }
+    }
+}
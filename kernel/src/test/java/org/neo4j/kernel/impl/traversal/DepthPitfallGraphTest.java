@@ -19,19 +19,27 @@
  */
 package org.neo4j.kernel.impl.traversal;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.traversal.Evaluators;
+import org.neo4j.graphdb.traversal.TraversalBranch;
 import org.neo4j.graphdb.traversal.TraversalDescription;
 import org.neo4j.graphdb.traversal.Traverser;
+import org.neo4j.graphdb.traversal.UniquenessFactory;
+import org.neo4j.graphdb.traversal.UniquenessFilter;
 import org.neo4j.kernel.Traversal;
 import org.neo4j.kernel.Uniqueness;
 
@@ -124,9 +132,151 @@ public class DepthPitfallGraphTest extends AbstractTestBase
         testAllNodesAreReturnedOnce( Traversal.description().breadthFirst() );
     }
 
+    @Test
+    public void testAllNodesAreReturnedOnceWithBitmapDepthFirst() throws Exception
+    {
+        // a highest id lower than the ids in use makes the bitmap grow
+        testAllNodesAreReturnedOnce( Traversal.description().depthFirst(), 1 );
+    }
+
+    @Test
+    public void testAllNodesAreReturnedOnceWithBitmapBreadthFirst() throws Exception
+    {
+        testAllNodesAreReturnedOnce( Traversal.description().breadthFirst(), 1 );
+    }
+
+    @Test
+    public void testAllNodesAreReturnedOncePooledDepthFirst() throws Exception
+    {
+        testAllNodesAreReturnedOnce( Traversal.description().order(
+                Traversal.pooledDepthFirst() ) );
+    }
+
+    @Test
+    public void testAllNodesAreReturnedOncePooledBreadthFirst() throws Exception
+    {
+        testAllNodesAreReturnedOnce( Traversal.description().order(
+                Traversal.pooledBreadthFirst() ) );
+    }
+
+    @Test
+    public void testOrderedParallelBreadthFirstKeepsSamePathsAsBreadthFirst()
+            throws Exception
+    {
+        TraversalDescription description = Traversal.description().uniqueness(
+                Uniqueness.NODE_GLOBAL );
+        List<String> expected = paths( description.breadthFirst().traverse(
+                node( "1" ) ) );
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            // a task per branch so that the branches of a depth are loaded
+            // at the same time
+            description = description.order( new ParallelBreadthFirstOrdering(
+                    executor, true, 1 ) );
+            for ( int i = 0; i < 20; i++ )
+            {
+                assertEquals( expected, paths( description.traverse( node( "1" ) ) ) );
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPooledDepthFirstPathsStayValidAfterTraversal() throws Exception
+    {
+        // the pool entries of the paths are freed and reused while traversing
+        List<Path> paths = new ArrayList<Path>();
+        for ( Path path : Traversal.description().order( Traversal.pooledDepthFirst() )
+                .uniqueness( Uniqueness.NODE_PATH ).traverse( node( "1" ) ) )
+        {
+            paths.add( path );
+        }
+        Representation<Path> representation = new NodePathRepresentation(
+                NAME_PROPERTY_REPRESENTATION );
+        List<String> actual = new ArrayList<String>();
+        for ( Path path : paths )
+        {
+            actual.add( representation.represent( path ) );
+        }
+        assertEquals( paths( Traversal.description().depthFirst().uniqueness(
+                Uniqueness.NODE_PATH ).traverse( node( "1" ) ) ), actual );
+    }
+
+    @Test
+    public void testPooledBranchesExpandLikeOtherBranchesDepthFirst() throws Exception
+    {
+        assertEquals( parentsWhenChecked( Traversal.description().depthFirst() ),
+                parentsWhenChecked( Traversal.description().order(
+                        Traversal.pooledDepthFirst() ) ) );
+    }
+
+    @Test
+    public void testPooledBranchesExpandLikeOtherBranchesBreadthFirst() throws Exception
+    {
+        assertEquals( parentsWhenChecked( Traversal.description().breadthFirst() ),
+                parentsWhenChecked( Traversal.description().order(
+                        Traversal.pooledBreadthFirst() ) ) );
+    }
+
+    /**
+     * @return the name, evaluation and number of expanded relationships of
+     * the parent of every branch checked for uniqueness.
+     */
+    private List<String> parentsWhenChecked( TraversalDescription description )
+    {
+        final List<String> parents = new ArrayList<String>();
+        UniquenessFactory recording = new UniquenessFactory()
+        {
+            public UniquenessFilter create( Object optionalParameter )
+            {
+                final UniquenessFilter filter = Uniqueness.NODE_GLOBAL.create( null );
+                return new UniquenessFilter()
+                {
+                    public boolean checkFirst( TraversalBranch branch )
+                    {
+                        return filter.checkFirst( branch );
+                    }
+
+                    public boolean check( TraversalBranch branch )
+                    {
+                        TraversalBranch parent = branch.parent();
+                        parents.add( parent.node().getProperty( "name" ) + ":" +
+                                parent.evaluation() + ":" + parent.expanded() );
+                        return filter.check( branch );
+                    }
+                };
+            }
+        };
+        expectNodes( description.uniqueness( recording ).traverse( node( "1" ) ),
+                "1", "2", "3", "4", "5", "6" );
+        return parents;
+    }
+
+    private List<String> paths( Traverser traverser )
+    {
+        Representation<Path> representation = new NodePathRepresentation(
+                NAME_PROPERTY_REPRESENTATION );
+        List<String> paths = new ArrayList<String>();
+        for ( Path path : traverser )
+        {
+            paths.add( representation.represent( path ) );
+        }
+        return paths;
+    }
+
     private void testAllNodesAreReturnedOnce( TraversalDescription traversal )
     {
-        Traverser traverser = traversal.uniqueness( Uniqueness.NODE_GLOBAL ).traverse(
+        testAllNodesAreReturnedOnce( traversal, null );
+    }
+
+    private void testAllNodesAreReturnedOnce( TraversalDescription traversal,
+            Object highestId )
+    {
+        Traverser traverser = traversal.uniqueness( Uniqueness.NODE_GLOBAL, highestId ).traverse(
                 node( "1" ) );
 
         expectNodes( traverser, "1", "2", "3", "4", "5", "6" );
@@ -218,6 +368,20 @@ public class DepthPitfallGraphTest extends AbstractTestBase
         testAllUniqueNodePathsAreReturned( Traversal.description().breadthFirst() );
     }
 
+    @Test
+    public void testAllUniqueNodePathsAreReturnedPooledDepthFirst() throws Exception
+    {
+        testAllUniqueNodePathsAreReturned( Traversal.description().order(
+                Traversal.pooledDepthFirst() ) );
+    }
+
+    @Test
+    public void testAllUniqueNodePathsAreReturnedPooledBreadthFirst() throws Exception
+    {
+        testAllUniqueNodePathsAreReturned( Traversal.description().order(
+                Traversal.pooledBreadthFirst() ) );
+    }
+
     private void testAllUniqueNodePathsAreReturned( TraversalDescription description )
             throws Exception
     {
@@ -239,6 +403,20 @@ public class DepthPitfallGraphTest extends AbstractTestBase
         testAllUniqueRelationshipPathsAreReturned( Traversal.description().breadthFirst() );
     }
 
+    @Test
+    public void testAllUniqueRelationshipPathsAreReturnedPooledDepthFirst() throws Exception
+    {
+        testAllUniqueRelationshipPathsAreReturned( Traversal.description().order(
+                Traversal.pooledDepthFirst() ) );
+    }
+
+    @Test
+    public void testAllUniqueRelationshipPathsAreReturnedPooledBreadthFirst() throws Exception
+    {
+        testAllUniqueRelationshipPathsAreReturned( Traversal.description().order(
+                Traversal.pooledBreadthFirst() ) );
+    }
+
     private void testAllUniqueRelationshipPathsAreReturned( TraversalDescription description )
             throws Exception
     {
@@ -264,6 +442,20 @@ public class DepthPitfallGraphTest extends AbstractTestBase
         canPruneTraversalAtSpecificDepth( Traversal.description().breadthFirst() );
     }
 
+    @Test
+    public void canPruneTraversalAtSpecificDepthPooledDepthFirst()
+    {
+        canPruneTraversalAtSpecificDepth( Traversal.description().order(
+                Traversal.pooledDepthFirst() ) );
+    }
+
+    @Test
+    public void canPruneTraversalAtSpecificDepthPooledBreadthFirst()
+    {
+        canPruneTraversalAtSpecificDepth( Traversal.description().order(
+                Traversal.pooledBreadthFirst() ) );
+    }
+
     private void canPruneTraversalAtSpecificDepth( TraversalDescription description )
     {
         Traverser traverser = description.uniqueness(
@@ -284,6 +476,20 @@ public class DepthPitfallGraphTest extends AbstractTestBase
         canPreFilterNodes( Traversal.description().breadthFirst() );
     }
 
+    @Test
+    public void canPreFilterNodesPooledDepthFirst()
+    {
+        canPreFilterNodes( Traversal.description().order(
+                Traversal.pooledDepthFirst() ) );
+    }
+
+    @Test
+    public void canPreFilterNodesPooledBreadthFirst()
+    {
+        canPreFilterNodes( Traversal.description().order(
+                Traversal.pooledBreadthFirst() ) );
+    }
+
     private void canPreFilterNodes( TraversalDescription description )
     {
         Traverser traverser = description.uniqueness(
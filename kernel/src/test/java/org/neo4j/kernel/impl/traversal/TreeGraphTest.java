@@ -20,22 +20,30 @@
 package org.neo4j.kernel.impl.traversal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.traversal.Evaluation;
+import org.neo4j.graphdb.traversal.Evaluator;
 import org.neo4j.graphdb.traversal.Traverser;
+import org.neo4j.helpers.collection.ClosableIterator;
 import org.neo4j.kernel.Traversal;
 
 public class TreeGraphTest extends AbstractTestBase
@@ -170,6 +178,166 @@ public class TreeGraphTest extends AbstractTestBase
         assertLevels( traverser, levels );
     }
 
+    @Test
+    public void testPooledDepthFirstReturnsSameOrderAsDepthFirst()
+    {
+        Traverser expected = Traversal.description().depthFirst().traverse(
+                node( "1" ) );
+        Traverser traverser = Traversal.description().order(
+                Traversal.pooledDepthFirst() ).traverse( node( "1" ) );
+        assertEquals( names( expected ), names( traverser ) );
+    }
+
+    @Test
+    public void testPooledBreadthFirstReturnsSameOrderAsBreadthFirst()
+    {
+        Traverser expected = Traversal.description().breadthFirst().traverse(
+                node( "1" ) );
+        Traverser traverser = Traversal.description().order(
+                Traversal.pooledBreadthFirst() ).traverse( node( "1" ) );
+        assertEquals( names( expected ), names( traverser ) );
+    }
+
+    @Test
+    public void testOrderedParallelBreadthFirstReturnsSameOrderAsBreadthFirst()
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            Traverser expected = Traversal.description().breadthFirst().traverse(
+                    node( "1" ) );
+            Traverser traverser = Traversal.description().parallelBreadthFirst(
+                    executor, true ).traverse( node( "1" ) );
+            assertEquals( names( expected ), names( traverser ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnorderedParallelBreadthFirst()
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            Traverser traverser = Traversal.description().parallelBreadthFirst(
+                    executor, false ).traverse( node( "1" ) );
+            Stack<Set<String>> levels = new Stack<Set<String>>();
+            levels.push( new HashSet<String>( Arrays.asList( "5", "6", "7", "8",
+                    "9", "A", "B", "C", "D" ) ) );
+            levels.push( new HashSet<String>( Arrays.asList( "2", "3", "4" ) ) );
+            levels.push( new HashSet<String>( Arrays.asList( "1" ) ) );
+            assertLevels( traverser, levels );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelBreadthFirstCallsEvaluatorOneAtATime()
+    {
+        final AtomicInteger calling = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        Evaluator evaluator = new Evaluator()
+        {
+            public Evaluation evaluate( Path path )
+            {
+                if ( calling.incrementAndGet() > 1 )
+                {
+                    overlaps.incrementAndGet();
+                }
+                try
+                {
+                    Thread.sleep( 5 );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                calling.decrementAndGet();
+                return path.length() < 1 ? Evaluation.INCLUDE_AND_CONTINUE :
+                        Evaluation.INCLUDE_AND_PRUNE;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            Traverser traverser = Traversal.description().evaluator( evaluator )
+                    .parallelBreadthFirst( executor, false ).traverse( node( "1" ) );
+            assertEquals( new HashSet<String>( Arrays.asList( "1", "2", "3", "4" ) ),
+                    new HashSet<String>( names( traverser ) ) );
+            assertEquals( 0, overlaps.get() );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelBreadthFirstEvaluatesInTraversingThread()
+    {
+        final Thread traversing = Thread.currentThread();
+        final AtomicInteger otherThreads = new AtomicInteger();
+        Evaluator evaluator = new Evaluator()
+        {
+            public Evaluation evaluate( Path path )
+            {
+                if ( Thread.currentThread() != traversing )
+                {
+                    otherThreads.incrementAndGet();
+                }
+                return Evaluation.INCLUDE_AND_CONTINUE;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            Traverser traverser = Traversal.description().evaluator( evaluator )
+                    .parallelBreadthFirst( executor, false ).traverse( node( "1" ) );
+            assertEquals( 13, names( traverser ).size() );
+            assertEquals( 0, otherThreads.get() );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testClosedParallelBreadthFirstReturnsNoMorePositions()
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            Iterator<Path> paths = Traversal.description().parallelBreadthFirst(
+                    executor, true ).traverse( node( "1" ) ).iterator();
+            assertEquals( "1", paths.next().endNode().getProperty( "name" ) );
+            assertEquals( "2", paths.next().endNode().getProperty( "name" ) );
+            assertTrue( paths instanceof ClosableIterator );
+            ( (ClosableIterator<Path>) paths ).close();
+            assertFalse( paths.hasNext() );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private List<String> names( Traverser traverser )
+    {
+        List<String> names = new ArrayList<String>();
+        for ( Node node : traverser.nodes() )
+        {
+            names.add( (String) node.getProperty( "name" ) );
+        }
+        return names;
+    }
+
     private int expectedDepth( int i )
     {
         assertTrue( i < 13 );
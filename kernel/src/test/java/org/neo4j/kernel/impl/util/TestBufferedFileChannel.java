@@ -35,7 +35,29 @@ public class TestBufferedFileChannel
     public void testCorrectness() throws Exception
     {
         File file = createBigTempFile( 1 );
-        FileChannel channel = new BufferedFileChannel( new RandomAccessFile( file, "r" ).getChannel() );
+        assertReadsStripedBytes( new BufferedFileChannel( new RandomAccessFile( file, "r" ).getChannel() ) );
+        file.delete();
+    }
+
+    @Test
+    public void testCorrectnessWithBufferLargerThanFile() throws Exception
+    {
+        File file = createBigTempFile( 1 );
+        assertReadsStripedBytes( new BufferedFileChannel( new RandomAccessFile( file, "r" ).getChannel(),
+                1024*1024*2 ) );
+        file.delete();
+    }
+
+    @Test
+    public void testCorrectnessWithSmallBuffer() throws Exception
+    {
+        File file = createBigTempFile( 1 );
+        assertReadsStripedBytes( new BufferedFileChannel( new RandomAccessFile( file, "r" ).getChannel(), 7 ) );
+        file.delete();
+    }
+
+    private void assertReadsStripedBytes( FileChannel channel ) throws IOException
+    {
         ByteBuffer buffer = ByteBuffer.allocateDirect( 15 );
         int counter = 0;
         int loopCounter = 0;
@@ -54,7 +76,6 @@ public class TestBufferedFileChannel
             loopCounter++;
         }
         channel.close();
-        file.delete();
     }
     
     @Test
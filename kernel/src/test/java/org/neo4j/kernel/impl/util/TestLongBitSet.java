@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestLongBitSet
+{
+    @Test
+    public void testAddContains()
+    {
+        LongBitSet set = new LongBitSet( 10 );
+        assertTrue( set.isEmpty() );
+        assertTrue( set.add( 0 ) );
+        assertTrue( set.add( 63 ) );
+        assertTrue( set.add( 64 ) );
+        assertFalse( set.add( 63 ) );
+        assertEquals( 3, set.size() );
+        assertTrue( set.contains( 64 ) );
+        assertFalse( set.contains( 1 ) );
+        assertFalse( set.contains( 100000 ) );
+        set.clear();
+        assertTrue( set.isEmpty() );
+        assertFalse( set.contains( 0 ) );
+    }
+
+    @Test
+    public void testGrowsPastHighestValue()
+    {
+        LongBitSet set = new LongBitSet( 0 );
+        assertTrue( set.add( 63 ) );
+        assertFalse( set.contains( 64 ) );
+        assertTrue( set.add( 64 ) );
+        assertTrue( set.add( 127 ) );
+        assertTrue( set.add( 128 ) );
+        // further than twice the current words
+        assertTrue( set.add( 64 * 10 + 1 ) );
+        assertFalse( set.add( 64 ) );
+        assertEquals( 5, set.size() );
+        for ( long value = 0; value < 64 * 11; value++ )
+        {
+            boolean expected = value == 63 || value == 64 || value == 127 ||
+                value == 128 || value == 64 * 10 + 1;
+            assertEquals( "" + value, expected, set.contains( value ) );
+        }
+        assertFalse( set.contains( Long.MAX_VALUE ) );
+    }
+
+    @Test
+    public void testValueAboveLastWordIsRefused()
+    {
+        LongBitSet set = new LongBitSet( 0 );
+        try
+        {
+            set.add( ((long) Integer.MAX_VALUE) << 6 );
+            fail( "Should not be able to add a value beyond the last word" );
+        }
+        catch ( IllegalArgumentException e )
+        { // Good
+        }
+        assertTrue( set.isEmpty() );
+        assertTrue( set.add( 0 ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testLargestLongIsRefused()
+    {
+        new LongBitSet( 0 ).add( Long.MAX_VALUE );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testHighestValueAboveLastWordIsRefused()
+    {
+        new LongBitSet( ((long) Integer.MAX_VALUE) << 6 );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testNegativeValue()
+    {
+        new LongBitSet().add( -1 );
+    }
+
+    @Test
+    public void testSameAsHashSet()
+    {
+        Random random = new Random( 1234 );
+        LongBitSet set = new LongBitSet( 100 );
+        Set<Long> expected = new HashSet<Long>();
+        for ( int i = 0; i < 100000; i++ )
+        {
+            long value = random.nextInt( 50000 );
+            assertEquals( expected.add( value ), set.add( value ) );
+        }
+        assertEquals( expected.size(), set.size() );
+        for ( long value = 0; value < 50000; value++ )
+        {
+            assertEquals( expected.contains( value ), set.contains( value ) );
+        }
+    }
+}
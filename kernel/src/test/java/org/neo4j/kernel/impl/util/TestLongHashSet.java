@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestLongHashSet
+{
+    @Test
+    public void testAddContainsRemove()
+    {
+        LongHashSet set = new LongHashSet();
+        assertTrue( set.isEmpty() );
+        assertTrue( set.add( 0 ) );
+        assertTrue( set.add( -1 ) );
+        assertTrue( set.add( Long.MAX_VALUE ) );
+        assertFalse( set.add( 0 ) );
+        assertEquals( 3, set.size() );
+        assertTrue( set.contains( -1 ) );
+        assertFalse( set.contains( 1 ) );
+        assertTrue( set.remove( -1 ) );
+        assertFalse( set.remove( -1 ) );
+        assertFalse( set.contains( -1 ) );
+        assertEquals( 2, set.size() );
+        set.clear();
+        assertTrue( set.isEmpty() );
+        assertFalse( set.contains( 0 ) );
+    }
+
+    @Test
+    public void testSameAsHashSet()
+    {
+        Random random = new Random( 1234 );
+        LongHashSet set = new LongHashSet( 4 );
+        Set<Long> expected = new HashSet<Long>();
+        for ( int i = 0; i < 100000; i++ )
+        {
+            long value = random.nextInt( 5000 );
+            if ( random.nextInt( 3 ) == 0 )
+            {
+                assertEquals( expected.remove( value ), set.remove( value ) );
+            }
+            else
+            {
+                assertEquals( expected.add( value ), set.add( value ) );
+            }
+        }
+        assertEquals( expected.size(), set.size() );
+        for ( long value = 0; value < 5000; value++ )
+        {
+            assertEquals( expected.contains( value ), set.contains( value ) );
+        }
+    }
+}
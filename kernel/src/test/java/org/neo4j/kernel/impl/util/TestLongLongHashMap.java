@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestLongLongHashMap
+{
+    @Test
+    public void testPutGetRemove()
+    {
+        LongLongHashMap map = new LongLongHashMap();
+        assertTrue( map.put( 1, 10 ) );
+        assertTrue( map.put( -1, -10 ) );
+        assertFalse( map.put( 1, 11 ) );
+        assertEquals( 2, map.size() );
+        assertEquals( 11, map.get( 1, -1 ) );
+        assertEquals( -1, map.get( 2, -1 ) );
+        assertTrue( map.containsKey( -1 ) );
+        assertTrue( map.remove( -1 ) );
+        assertFalse( map.remove( -1 ) );
+        assertFalse( map.containsKey( -1 ) );
+        map.clear();
+        assertTrue( map.isEmpty() );
+    }
+
+    @Test
+    public void testSameAsHashMap()
+    {
+        Random random = new Random( 1234 );
+        LongLongHashMap map = new LongLongHashMap( 4 );
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        for ( int i = 0; i < 100000; i++ )
+        {
+            long key = random.nextInt( 5000 );
+            if ( random.nextInt( 3 ) == 0 )
+            {
+                assertEquals( expected.remove( key ) != null, map.remove( key ) );
+            }
+            else
+            {
+                assertEquals( expected.put( key, (long) i ) == null, map.put( key, i ) );
+            }
+        }
+        assertEquals( expected.size(), map.size() );
+        for ( long key = 0; key < 5000; key++ )
+        {
+            Long value = expected.get( key );
+            assertEquals( value != null ? value : -1, map.get( key, -1 ) );
+        }
+    }
+}
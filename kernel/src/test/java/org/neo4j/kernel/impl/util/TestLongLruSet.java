@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestLongLruSet
+{
+    @Test
+    public void testEvictsLeastRecentlyUsed()
+    {
+        LongLruSet set = new LongLruSet( 3 );
+        assertTrue( set.add( 1 ) );
+        assertTrue( set.add( 2 ) );
+        assertTrue( set.add( 3 ) );
+        // makes 1 the most recently used, so 2 is evicted next
+        assertFalse( set.add( 1 ) );
+        assertTrue( set.add( 4 ) );
+        assertEquals( 3, set.size() );
+        assertFalse( set.contains( 2 ) );
+        assertTrue( set.contains( 1 ) );
+        assertTrue( set.contains( 3 ) );
+        assertTrue( set.contains( 4 ) );
+        assertTrue( set.add( 2 ) );
+        assertFalse( set.contains( 3 ) );
+    }
+
+    @Test
+    public void testSizeOne()
+    {
+        LongLruSet set = new LongLruSet( 1 );
+        assertTrue( set.add( 7 ) );
+        assertFalse( set.add( 7 ) );
+        assertTrue( set.add( 8 ) );
+        assertFalse( set.contains( 7 ) );
+        assertEquals( 1, set.size() );
+    }
+
+    @Test
+    public void testSameAsAccessOrderedMap()
+    {
+        final int maxSize = 2000;
+        Map<Long,Object> expected = new LinkedHashMap<Long,Object>( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Long,Object> eldest )
+            {
+                return size() > maxSize;
+            }
+        };
+        LongLruSet set = new LongLruSet( maxSize );
+        Random random = new Random( 1234 );
+        for ( int i = 0; i < 200000; i++ )
+        {
+            long value = random.nextInt( 5000 );
+            boolean added = expected.get( value ) == null;
+            if ( added )
+            {
+                expected.put( value, Boolean.TRUE );
+            }
+            assertEquals( added, set.add( value ) );
+        }
+        assertEquals( expected.size(), set.size() );
+        for ( long value = 0; value < 5000; value++ )
+        {
+            assertEquals( expected.containsKey( value ), set.contains( value ) );
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestLongObjectHashMap
+{
+    @Test
+    public void testPutGetRemove()
+    {
+        LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+        assertNull( map.put( 1, "one" ) );
+        assertNull( map.put( -1, "minus one" ) );
+        assertEquals( "one", map.put( 1, "uno" ) );
+        assertEquals( 2, map.size() );
+        assertEquals( "uno", map.get( 1 ) );
+        assertTrue( map.containsKey( -1 ) );
+        assertNull( map.get( 2 ) );
+        assertEquals( "minus one", map.remove( -1 ) );
+        assertNull( map.remove( -1 ) );
+        assertFalse( map.containsKey( -1 ) );
+        map.clear();
+        assertTrue( map.isEmpty() );
+        assertNull( map.get( 1 ) );
+    }
+
+    @Test
+    public void testSameAsHashMap()
+    {
+        Random random = new Random( 1234 );
+        LongObjectHashMap<Integer> map = new LongObjectHashMap<Integer>( 4 );
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        for ( int i = 0; i < 100000; i++ )
+        {
+            long key = random.nextInt( 5000 );
+            if ( random.nextInt( 3 ) == 0 )
+            {
+                assertEquals( expected.remove( key ), map.remove( key ) );
+            }
+            else
+            {
+                assertEquals( expected.put( key, i ), map.put( key, i ) );
+            }
+        }
+        assertEquals( expected.size(), map.size() );
+        for ( long key = 0; key < 5000; key++ )
+        {
+            assertEquals( expected.get( key ), map.get( key ) );
+        }
+    }
+}
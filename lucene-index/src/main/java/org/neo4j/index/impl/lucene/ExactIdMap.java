@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * In memory key/value to entity id lookup for an exact index being bulk
+ * built by a {@link LuceneBatchInserterIndex}, so that lookups during the
+ * import don't have to make the index writers flush and reopen readers.
+ * <p>
+ * Each distinct key/value pair is kept once in an open addressing table,
+ * pointing to a chain of its entity ids which are held in primitive
+ * arrays. Removing an entity doesn't touch the chains, instead entries
+ * added before the removal are skipped when read.
+ */
+class ExactIdMap
+{
+    private static final int NO_ENTRY = -1;
+
+    // key/value table, heads[slot] is the last entry added for keys[slot]
+    private String[] keys = new String[1024];
+    private int[] heads = new int[1024];
+    private int keyCount;
+
+    // entries, the index of an entry is also its sequence number
+    private long[] ids = new long[1024];
+    private int[] next = new int[1024];
+    private int entryCount;
+
+    // entity id -> first entry index that's valid for it, for removed entities
+    private long[] removedIds = new long[16];
+    private int[] validFrom = new int[16];
+    private int removedCount;
+
+    ExactIdMap()
+    {
+        Arrays.fill( removedIds, -1 );
+    }
+
+    private static String combine( String key, String value )
+    {
+        return key + '\u0000' + value;
+    }
+
+    private static int hash( Object key, int mask )
+    {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int hash( long id, int mask )
+    {
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private int keySlot( String combined )
+    {
+        int mask = keys.length - 1;
+        int slot = hash( combined, mask );
+        while ( keys[slot] != null && !keys[slot].equals( combined ) )
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    void add( String key, String value, long entityId )
+    {
+        if ( entryCount == ids.length )
+        {
+            ids = Arrays.copyOf( ids, ids.length * 2 );
+            next = Arrays.copyOf( next, next.length * 2 );
+        }
+        if ( (keyCount + 1) * 2 > keys.length )
+        {
+            growKeys();
+        }
+        String combined = combine( key, value );
+        int slot = keySlot( combined );
+        if ( keys[slot] == null )
+        {
+            keys[slot] = combined;
+            heads[slot] = NO_ENTRY;
+            keyCount++;
+        }
+        ids[entryCount] = entityId;
+        next[entryCount] = heads[slot];
+        heads[slot] = entryCount++;
+    }
+
+    private void growKeys()
+    {
+        String[] oldKeys = keys;
+        int[] oldHeads = heads;
+        keys = new String[oldKeys.length * 2];
+        heads = new int[oldHeads.length * 2];
+        for ( int i = 0; i < oldKeys.length; i++ )
+        {
+            if ( oldKeys[i] != null )
+            {
+                int slot = keySlot( oldKeys[i] );
+                keys[slot] = oldKeys[i];
+                heads[slot] = oldHeads[i];
+            }
+        }
+    }
+
+    /**
+     * Forgets all the key/value pairs added for <CODE>entityId</CODE> so far.
+     */
+    void remove( long entityId )
+    {
+        if ( (removedCount + 1) * 2 > removedIds.length )
+        {
+            growRemoved();
+        }
+        int slot = removedSlot( entityId );
+        if ( removedIds[slot] == -1 )
+        {
+            removedIds[slot] = entityId;
+            removedCount++;
+        }
+        validFrom[slot] = entryCount;
+    }
+
+    private int removedSlot( long entityId )
+    {
+        int mask = removedIds.length - 1;
+        int slot = hash( entityId, mask );
+        while ( removedIds[slot] != -1 && removedIds[slot] != entityId )
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void growRemoved()
+    {
+        long[] oldIds = removedIds;
+        int[] oldValidFrom = validFrom;
+        removedIds = new long[oldIds.length * 2];
+        validFrom = new int[oldValidFrom.length * 2];
+        Arrays.fill( removedIds, -1 );
+        for ( int i = 0; i < oldIds.length; i++ )
+        {
+            if ( oldIds[i] != -1 )
+            {
+                int slot = removedSlot( oldIds[i] );
+                removedIds[slot] = oldIds[i];
+                validFrom[slot] = oldValidFrom[i];
+            }
+        }
+    }
+
+    private boolean isValid( int entry )
+    {
+        if ( removedCount == 0 )
+        {
+            return true;
+        }
+        int slot = removedSlot( ids[entry] );
+        return removedIds[slot] == -1 || entry >= validFrom[slot];
+    }
+
+    /**
+     * Returns the ids of the entities which have <CODE>value</CODE> for
+     * <CODE>key</CODE>.
+     */
+    Collection<Long> get( String key, String value )
+    {
+        int slot = keySlot( combine( key, value ) );
+        if ( keys[slot] == null )
+        {
+            return Collections.emptySet();
+        }
+        Set<Long> result = new HashSet<Long>();
+        for ( int entry = heads[slot]; entry != NO_ENTRY; entry = next[entry] )
+        {
+            if ( isValid( entry ) )
+            {
+                result.add( ids[entry] );
+            }
+        }
+        return result;
+    }
+}
@@ -20,24 +20,30 @@
 package org.neo4j.index.impl.lucene;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.lucene.search.IndexSearcher;
 
+/**
+ * A reference counted {@link IndexSearcher}. The {@link LuceneDataSource}
+ * holds one reference for as long as the searcher is the current one for
+ * its index, and every query holds one for as long as its hits are being
+ * read. When the data source swaps in a refreshed searcher it
+ * {@link #detachOrClose() detaches} from this one, and the searcher is
+ * closed when the last query using it is done with it.
+ */
 class IndexSearcherRef
 {
     private final IndexIdentifier identifier;
     private final IndexSearcher searcher;
-    private final AtomicInteger refCount = new AtomicInteger( 0 );
+    // starts at one, the reference held by the data source
+    private final AtomicInteger refCount = new AtomicInteger( 1 );
+    private final AtomicBoolean detached = new AtomicBoolean();
     private volatile boolean isClosed;
-    
-    /**
-     * We need this because we only want to close the reader/searcher if
-     * it has been detached... i.e. the {@link LuceneDataSource} no longer
-     * has any reference to it, only an iterator out in the client has a ref.
-     * And when that client calls close() it should be closed.
-     */
-    private volatile boolean detached;
+    // set while the data source reopens this searcher, see isRefreshing()
+    private volatile boolean refreshing;
+    private volatile boolean refreshFailed;
     
     public IndexSearcherRef( IndexIdentifier identifier, IndexSearcher searcher )
     {
@@ -55,47 +61,114 @@ class IndexSearcherRef
         return identifier;
     }
 
+    /**
+     * Whether or not the data source is reopening this searcher. The index
+     * is no longer marked as changed by then, so a query has to wait for the
+     * reopened searcher to see the changes committed before it.
+     */
+    boolean isRefreshing()
+    {
+        return refreshing;
+    }
+
+    void setRefreshing( boolean refreshing )
+    {
+        this.refreshing = refreshing;
+    }
+
+    /**
+     * Whether or not the last attempt to reopen this searcher failed, in
+     * which case it doesn't see the latest changes of the index.
+     */
+    boolean isRefreshFailed()
+    {
+        return refreshFailed;
+    }
+
+    void setRefreshFailed( boolean refreshFailed )
+    {
+        this.refreshFailed = refreshFailed;
+    }
+
+    /**
+     * Acquires a reference, unless the searcher has already been closed
+     * (which can only happen once it has been detached).
+     *
+     * @return {@code true} if a reference was acquired, it must be released
+     * with {@link #close()}.
+     */
+    boolean tryIncRef()
+    {
+        while ( true )
+        {
+            int count = this.refCount.get();
+            if ( count <= 0 )
+            {
+                return false;
+            }
+            if ( this.refCount.compareAndSet( count, count + 1 ) )
+            {
+                return true;
+            }
+        }
+    }
+
     void incRef()
     {
-        this.refCount.incrementAndGet();
+        if ( !tryIncRef() )
+        {
+            throw new IllegalStateException( "Searcher for " + identifier + " has been closed" );
+        }
     }
     
-    public void dispose() throws IOException
+    /**
+     * Closes the searcher right away, no matter if it's still in use.
+     */
+    public synchronized void dispose() throws IOException
     {
         if ( !this.isClosed )
         {
+            this.refCount.set( 0 );
             this.searcher.close();
             this.searcher.getIndexReader().close();
             this.isClosed = true;
         }
     }
     
+    /**
+     * Releases the reference held by the data source, the searcher is closed
+     * now if no query uses it, or else when the last one is done with it.
+     */
     public void detachOrClose() throws IOException
     {
-        if ( this.refCount.get() == 0 )
+        if ( this.detached.compareAndSet( false, true ) )
         {
-            dispose();
-        }
-        else
-        {
-            this.detached = true;
+            release();
         }
     }
     
+    /**
+     * Releases a reference acquired with {@link #tryIncRef()}.
+     *
+     * @return {@code true} if this closed the searcher.
+     */
     public boolean close() throws IOException
     {
-        if ( this.isClosed || this.refCount.get() == 0 )
+        if ( this.isClosed )
         {
             return true;
         }
-        
-        boolean reallyClosed = false;
-        if ( this.refCount.decrementAndGet() <= 0 && this.detached )
+        return release();
+    }
+
+    private boolean release() throws IOException
+    {
+        if ( this.refCount.decrementAndGet() == 0 )
         {
             dispose();
-            reallyClosed = true;
+            return true;
         }
-        return reallyClosed;
+        return false;
     }
     
     boolean closeStrict()
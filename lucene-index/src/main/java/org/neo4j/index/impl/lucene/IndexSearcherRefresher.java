@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * Reopens the index searchers of a {@link LuceneDataSource} in the
+ * background, so that queries never have to wait for a searcher to be
+ * reopened after a commit. Searchers are refreshed every
+ * {@link Config#INDEX_SEARCHER_REFRESH_INTERVAL} milliseconds and, if
+ * {@link Config#INDEX_SEARCHER_REFRESH_COMMITS} is set, as soon as an index
+ * has seen that many commits since its searcher was last refreshed.
+ */
+class IndexSearcherRefresher extends Thread
+{
+    private final LuceneDataSource dataSource;
+    private final StringLogger msgLog;
+    private final long intervalNanos;
+    private final int maxCommits;
+    private final ConcurrentMap<IndexIdentifier, AtomicInteger> commits =
+            new ConcurrentHashMap<IndexIdentifier, AtomicInteger>();
+    private final AtomicBoolean refreshRequested = new AtomicBoolean();
+    private volatile boolean done = false;
+
+    IndexSearcherRefresher( LuceneDataSource dataSource, StringLogger msgLog,
+            long intervalMillis, int maxCommits )
+    {
+        super( "IndexSearcherRefresher[" + LuceneDataSource.DEFAULT_NAME + "]" );
+        setDaemon( true );
+        this.dataSource = dataSource;
+        this.msgLog = msgLog;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos( intervalMillis );
+        this.maxCommits = maxCommits;
+    }
+
+    /**
+     * @return a started refresher if one is configured in {@code params},
+     * otherwise {@code null}.
+     */
+    static IndexSearcherRefresher fromConfig( LuceneDataSource dataSource, Map<?, ?> params,
+            StringLogger msgLog )
+    {
+        long interval = parse( params.get( Config.INDEX_SEARCHER_REFRESH_INTERVAL ) );
+        if ( interval <= 0 )
+        {
+            return null;
+        }
+        int maxCommits = (int) parse( params.get( Config.INDEX_SEARCHER_REFRESH_COMMITS ) );
+        IndexSearcherRefresher refresher = new IndexSearcherRefresher( dataSource, msgLog, interval, maxCommits );
+        refresher.start();
+        return refresher;
+    }
+
+    private static long parse( Object value )
+    {
+        if ( value == null )
+        {
+            return 0;
+        }
+        if ( value instanceof Number )
+        {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong( value.toString().trim() );
+    }
+
+    /**
+     * Called after a transaction has written to the index of
+     * {@code identifier}.
+     */
+    void committed( IndexIdentifier identifier )
+    {
+        if ( maxCommits <= 0 )
+        {
+            return;
+        }
+        AtomicInteger count = commits.get( identifier );
+        if ( count == null )
+        {
+            AtomicInteger newCount = new AtomicInteger();
+            count = commits.putIfAbsent( identifier, newCount );
+            count = count != null ? count : newCount;
+        }
+        if ( count.incrementAndGet() >= maxCommits )
+        {
+            count.set( 0 );
+            if ( refreshRequested.compareAndSet( false, true ) )
+            {
+                LockSupport.unpark( this );
+            }
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        while ( !done )
+        {
+            LockSupport.parkNanos( this, intervalNanos );
+            if ( done )
+            {
+                break;
+            }
+            refreshRequested.set( false );
+            commits.clear();
+            try
+            {
+                dataSource.refreshIndexSearchers();
+            }
+            catch ( RuntimeException e )
+            {
+                if ( !done )
+                {
+                    msgLog.logMessage( "Couldn't refresh index searchers", e, true );
+                }
+            }
+        }
+    }
+
+    void shutdown()
+    {
+        done = true;
+        LockSupport.unpark( this );
+        try
+        {
+            join();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.interrupted();
+        }
+    }
+}
@@ -256,6 +256,15 @@ abstract class IndexType
     abstract Query deletionQuery( long entityId, String key, Object value );
     
     abstract Query get( String key, Object value );
+
+    /**
+     * Returns <CODE>true</CODE> for the built in "exact" type, where
+     * {@link #get(String, Object)} only matches the exact string value.
+     */
+    boolean isExact()
+    {
+        return this == EXACT;
+    }
     
     TxData newTxData( LuceneIndex index )
     {
@@ -22,6 +22,7 @@ package org.neo4j.index.impl.lucene;
 import static org.neo4j.index.impl.lucene.LuceneDataSource.LUCENE_VERSION;
 import static org.neo4j.index.impl.lucene.LuceneDataSource.getDirectory;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -29,6 +30,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Fieldable;
@@ -36,9 +41,12 @@ import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.neo4j.graphdb.index.BatchInserterIndex;
 import org.neo4j.graphdb.index.IndexHits;
 import org.neo4j.helpers.Pair;
@@ -46,10 +54,26 @@ import org.neo4j.index.lucene.ValueContext;
 import org.neo4j.kernel.impl.batchinsert.BatchInserter;
 import org.neo4j.kernel.impl.batchinsert.BatchInserterImpl;
 import org.neo4j.kernel.impl.cache.LruCache;
+import org.neo4j.kernel.impl.util.FileUtils;
 import org.neo4j.kernel.impl.util.IoPrimitiveUtils;
 
+/**
+ * A {@link BatchInserterIndex} writing straight to a Lucene index.
+ * <p>
+ * If the provider was created with a number of bulk writers the index is
+ * built in bulk: documents are partitioned by entity id over that many
+ * {@link IndexWriter}s, each writing its own segments to a directory of its
+ * own on a thread of its own. At {@link #shutdown()} the partitions are
+ * optimized in parallel and then added to the index with
+ * {@link IndexWriter#addIndexes(Directory...)}. Lookups with
+ * {@link #get(String, Object)} on exact indexes created this session are
+ * answered from an {@link ExactIdMap} while the import runs.
+ */
 class LuceneBatchInserterIndex implements BatchInserterIndex
 {
+    private static final int BULK_QUEUE_SIZE = 10000;
+    private static final Object END = new Object();
+
     private final IndexIdentifier identifier;
     private final IndexType type;
     
@@ -60,6 +84,8 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
     private Map<String, LruCache<String, Collection<Long>>> cache;
     private int updateCount;
     private int commitBatchSize = 500000;
+    private BulkPartition[] partitions;
+    private ExactIdMap exactIds;
 
     LuceneBatchInserterIndex( LuceneBatchInserterIndexProvider provider,
             BatchInserter inserter, IndexIdentifier identifier, Map<String, String> config )
@@ -70,6 +96,14 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
         this.identifier = identifier;
         this.type = IndexType.getIndexType( identifier, config );
         this.writer = instantiateWriter( storeDir.first() );
+        if ( provider.bulkWriters > 0 )
+        {
+            this.partitions = startPartitions( storeDir.first(), provider.bulkWriters );
+            if ( createdNow && type.isExact() )
+            {
+                this.exactIds = new ExactIdMap();
+            }
+        }
     }
     
     /**
@@ -94,6 +128,11 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
                 Object value = entry.getValue();
                 addSingleProperty(entityId, document, key, value);
             }
+            if ( partitions != null )
+            {
+                partitionFor( entityId ).put( document );
+                return;
+            }
             writer.addDocument( document );
             if ( ++updateCount == commitBatchSize )
             {
@@ -120,6 +159,12 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
                 // when adding to the index.
                 addToCache( entityId, key, oneValue );
             }
+            if ( exactIds != null )
+            {
+                // keyed by the string form, like the cache, so that numeric
+                // values are found by get as well
+                exactIds.add( key, oneValue.toString(), entityId );
+            }
         }
     }
 
@@ -183,8 +228,20 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
     {
         try
         {
-            removeFromCache( entityId );
-            writer.deleteDocuments( type.idTermQuery( entityId ) );
+            if ( this.cache != null )
+            {
+                removeFromCache( entityId );
+            }
+            if ( exactIds != null )
+            {
+                exactIds.remove( entityId );
+            }
+            Query deletion = type.idTermQuery( entityId );
+            writer.deleteDocuments( deletion );
+            if ( partitions != null )
+            {
+                partitionFor( entityId ).put( deletion );
+            }
             add( entityId, properties );
         }
         catch ( IOException e )
@@ -244,6 +301,86 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
         }
     }
     
+    private BulkPartition[] startPartitions( String directory, int count )
+    {
+        File indexDirectory = LuceneDataSource.getFileDirectory( directory, identifier );
+        BulkPartition[] result = new BulkPartition[count];
+        try
+        {
+            for ( int i = 0; i < count; i++ )
+            {
+                File partitionDirectory = new File( indexDirectory, "bulk-" + i );
+                FileUtils.deleteRecursively( partitionDirectory );
+                IndexWriterConfig writerConfig = new IndexWriterConfig( LUCENE_VERSION, type.analyzer );
+                writerConfig.setRAMBufferSizeMB( Math.max( writerConfig.getRAMBufferSizeMB(),
+                        determineGoodBufferSize( writerConfig.getRAMBufferSizeMB() ) / count ) );
+                result[i] = new BulkPartition( i, partitionDirectory,
+                        new IndexWriter( FSDirectory.open( partitionDirectory ), writerConfig ) );
+                result[i].start();
+            }
+            return result;
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    private BulkPartition partitionFor( long entityId )
+    {
+        return partitions[(int) (entityId % partitions.length)];
+    }
+
+    private IndexReader openBulkReader() throws IOException
+    {
+        IndexReader[] readers = new IndexReader[partitions.length + 1];
+        readers[0] = IndexReader.open( writer, true );
+        for ( int i = 0; i < partitions.length; i++ )
+        {
+            partitions[i].sync();
+            readers[i + 1] = IndexReader.open( partitions[i].writer, true );
+        }
+        return new MultiReader( readers );
+    }
+
+    private void finishPartitions()
+    {
+        try
+        {
+            for ( BulkPartition partition : partitions )
+            {
+                partition.put( END );
+            }
+            Directory[] directories = new Directory[partitions.length];
+            for ( int i = 0; i < partitions.length; i++ )
+            {
+                partitions[i].join();
+                partitions[i].checkFailure();
+                directories[i] = FSDirectory.open( partitions[i].directory );
+            }
+            writer.addIndexes( directories );
+            for ( int i = 0; i < partitions.length; i++ )
+            {
+                directories[i].close();
+                FileUtils.deleteRecursively( partitions[i].directory );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.interrupted();
+            throw new RuntimeException( e );
+        }
+        finally
+        {
+            partitions = null;
+            exactIds = null;
+        }
+    }
+
     private double determineGoodBufferSize( double atLeast )
     {
         double heapHint = (double)(Runtime.getRuntime().maxMemory()/(1024*1024*14));
@@ -275,7 +412,8 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
                     result.getIndexReader().close();
                     result.close();
                 }
-                IndexReader newReader = IndexReader.open( writer, true );
+                IndexReader newReader = partitions != null ? openBulkReader() :
+                        IndexReader.open( writer, true );
                 result = new IndexSearcher( newReader );
                 writerModified = false;
             }
@@ -295,7 +433,8 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
     {
         try
         {
-            if ( this.writer != null )
+            // bulk built indexes have their partitions optimized instead
+            if ( this.writer != null && partitions == null )
             {
                 this.writer.optimize( true );
             }
@@ -355,6 +494,10 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
 
     public IndexHits<Long> get( String key, Object value )
     {
+        if ( exactIds != null )
+        {
+            return new ConstantScoreIterator<Long>( exactIds.get( key, value.toString() ), Float.NaN );
+        }
         IndexHits<Long> cached = getFromCache( key, value );
         return cached != null ? cached : query( type.get( key, value ), key, value );
     }
@@ -372,6 +515,10 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
     public void shutdown()
     {
         closeSearcher();
+        if ( partitions != null )
+        {
+            finishPartitions();
+        }
         closeWriter();
     }
     
@@ -388,6 +535,102 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
 //        }
     }
     
+    /**
+     * Writes the documents of one partition of a bulk built index, in the
+     * order they're put, to an index writer of its own.
+     */
+    private static class BulkPartition extends Thread
+    {
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>( BULK_QUEUE_SIZE );
+        private final File directory;
+        private final IndexWriter writer;
+        private volatile Throwable failure;
+
+        BulkPartition( int number, File directory, IndexWriter writer )
+        {
+            super( "LuceneBatchInserterIndex[bulk-" + number + "]" );
+            setDaemon( true );
+            this.directory = directory;
+            this.writer = writer;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                Object item;
+                while ( (item = queue.take()) != END )
+                {
+                    if ( item instanceof Document )
+                    {
+                        writer.addDocument( (Document) item );
+                    }
+                    else if ( item instanceof Query )
+                    {
+                        writer.deleteDocuments( (Query) item );
+                    }
+                    else
+                    {
+                        ((CountDownLatch) item).countDown();
+                    }
+                }
+                writer.optimize( true );
+                writer.close();
+            }
+            catch ( Throwable t )
+            {
+                failure = t;
+                LuceneUtil.close( writer );
+            }
+        }
+
+        void put( Object item )
+        {
+            try
+            {
+                while ( !queue.offer( item, 100, TimeUnit.MILLISECONDS ) )
+                {
+                    checkFailure();
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.interrupted();
+                throw new RuntimeException( e );
+            }
+        }
+
+        /**
+         * Waits until everything put so far has been written.
+         */
+        void sync()
+        {
+            CountDownLatch latch = new CountDownLatch( 1 );
+            put( latch );
+            try
+            {
+                while ( !latch.await( 100, TimeUnit.MILLISECONDS ) )
+                {
+                    checkFailure();
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.interrupted();
+                throw new RuntimeException( e );
+            }
+        }
+
+        void checkFailure()
+        {
+            if ( failure != null )
+            {
+                throw new RuntimeException( getName() + " failed", failure );
+            }
+        }
+    }
+
     public void setCacheCapacity( String key, int size )
     {
         if ( this.cache == null )
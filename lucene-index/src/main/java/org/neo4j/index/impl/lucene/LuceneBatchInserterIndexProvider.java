@@ -51,10 +51,31 @@ public class LuceneBatchInserterIndexProvider implements BatchInserterIndexProvi
     final IndexStore indexStore;
     final EntityType nodeEntityType;
     final EntityType relationshipEntityType;
+    final int bulkWriters;
 
     public LuceneBatchInserterIndexProvider( final BatchInserter inserter )
     {
+        this( inserter, 0 );
+    }
+
+    /**
+     * Creates a provider whose indexes are built in bulk, by
+     * <CODE>bulkWriters</CODE> index writers in parallel which are merged
+     * into the index at {@link #shutdown()}. While building, exact indexes
+     * created by this provider are looked up in memory instead of in Lucene.
+     *
+     * @param inserter the batch inserter to index entities of.
+     * @param bulkWriters the number of index writers per index, or 0 to
+     * write each index with a single writer.
+     */
+    public LuceneBatchInserterIndexProvider( final BatchInserter inserter, int bulkWriters )
+    {
+        if ( bulkWriters < 0 )
+        {
+            throw new IllegalArgumentException( "bulkWriters=" + bulkWriters );
+        }
         this.inserter = inserter;
+        this.bulkWriters = bulkWriters;
         this.indexStore = ((BatchInserterImpl) inserter).getIndexStore();
         this.nodeEntityType = new EntityType()
         {
@@ -32,6 +32,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -78,6 +79,7 @@ import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
 import org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLog;
 import org.neo4j.kernel.impl.transaction.xaframework.XaTransaction;
 import org.neo4j.kernel.impl.transaction.xaframework.XaTransactionFactory;
+import org.neo4j.kernel.impl.util.StringLogger;
 
 /**
  * An {@link XaDataSource} optimized for the {@link LuceneIndexImplementation}.
@@ -125,10 +127,11 @@ public class LuceneDataSource extends LogBackedXaDataSource
 
     public static final Analyzer KEYWORD_ANALYZER = new KeywordAnalyzer();
 
+    // the flag of a writer is set when it has changes its searcher doesn't see
     private final Map<IndexIdentifier,Pair<IndexWriter, AtomicBoolean>> indexWriters =
-        new HashMap<IndexIdentifier,Pair<IndexWriter, AtomicBoolean>>();
+        new ConcurrentHashMap<IndexIdentifier,Pair<IndexWriter, AtomicBoolean>>();
     private final Map<IndexIdentifier,IndexSearcherRef> indexSearchers =
-        new HashMap<IndexIdentifier,IndexSearcherRef>();
+        new ConcurrentHashMap<IndexIdentifier,IndexSearcherRef>();
 
     private final XaContainer xaContainer;
     private final String baseStorePath;
@@ -136,8 +139,10 @@ public class LuceneDataSource extends LogBackedXaDataSource
     final IndexStore indexStore;
     final IndexProviderStore providerStore;
     private final IndexTypeCache typeCache;
-    private boolean closed;
+    private volatile boolean closed;
     private final Cache caching;
+    private final IndexSearcherRefresher refresher;
+    private final StringLogger msgLog;
     EntityType nodeEntityType;
     EntityType relationshipEntityType;
     final Map<IndexIdentifier, LuceneIndex<? extends PropertyContainer>> indexes =
@@ -156,6 +161,7 @@ public class LuceneDataSource extends LogBackedXaDataSource
         super( params );
         caching = new Cache();
         String storeDir = (String) params.get( "store_dir" );
+        this.msgLog = StringLogger.getLogger( storeDir );
         this.baseStorePath = getStoreDir( storeDir ).first();
         cleanWriteLocks( baseStorePath );
         this.indexStore = (IndexStore) params.get( IndexStore.class );
@@ -225,6 +231,7 @@ public class LuceneDataSource extends LogBackedXaDataSource
             setKeepLogicalLogsIfSpecified( (String) params.get( Config.KEEP_LOGICAL_LOGS ), DEFAULT_NAME );
             setLogicalLogAtCreationTime( xaContainer.getLogicalLog() );
         }
+        refresher = isReadOnly ? null : IndexSearcherRefresher.fromConfig( this, params, msgLog );
     }
 
     IndexType getType( IndexIdentifier identifier )
@@ -283,6 +290,10 @@ public class LuceneDataSource extends LogBackedXaDataSource
     @Override
     public void close()
     {
+        if ( refresher != null )
+        {
+            refresher.shutdown();
+        }
         synchronized ( this )
         {
             if ( closed )
@@ -421,24 +432,16 @@ public class LuceneDataSource extends LogBackedXaDataSource
      * {@code null}.
      * @throws IOException if there's a problem with the index.
      */
-    private IndexSearcherRef refreshSearcher( IndexSearcherRef searcher )
+    private IndexSearcherRef refreshSearcher( IndexSearcherRef searcher ) throws IOException
     {
-        try
-        {
-            IndexReader reader = searcher.getSearcher().getIndexReader();
-            IndexReader reopened = reader.reopen();
-            if ( reopened != reader )
-            {
-                IndexSearcher newSearcher = new IndexSearcher( reopened );
-                searcher.detachOrClose();
-                return new IndexSearcherRef( searcher.getIdentifier(), newSearcher );
-            }
-            return null;
-        }
-        catch ( IOException e )
+        IndexReader reader = searcher.getSearcher().getIndexReader();
+        IndexReader reopened = reader.reopen();
+        if ( reopened != reader )
         {
-            throw new RuntimeException( e );
+            IndexSearcher newSearcher = new IndexSearcher( reopened );
+            return new IndexSearcherRef( searcher.getIdentifier(), newSearcher );
         }
+        return null;
     }
 
     static File getFileDirectory( String storeDir, byte entityType )
@@ -477,40 +480,155 @@ public class LuceneDataSource extends LogBackedXaDataSource
         return TopFieldCollector.create( sorting, n, false, true, false, true );
     }
 
-    synchronized IndexSearcherRef getIndexSearcher( IndexIdentifier identifier, boolean incRef )
+    /**
+     * Returns the current searcher of an index. Unless searchers are
+     * refreshed in the background, see {@link IndexSearcherRefresher}, it is
+     * first reopened if the index has changed since it was opened. Only the
+     * index being reopened is locked while that happens, queries on it wait
+     * for the reopened searcher so that they see what was committed before.
+     * If the searcher couldn't be reopened in the background it is reopened
+     * here too, so that the failure is thrown instead of stale results
+     * being returned.
+     *
+     * @param incRef whether or not to acquire a reference to the searcher,
+     * which must then be released with {@link IndexSearcherRef#close()}.
+     */
+    IndexSearcherRef getIndexSearcher( IndexIdentifier identifier, boolean incRef )
     {
-        try
+        while ( true )
         {
             IndexSearcherRef searcher = indexSearchers.get( identifier );
-            if ( searcher == null )
+            Pair<IndexWriter, AtomicBoolean> writer = indexWriters.get( identifier );
+            if ( searcher == null || writer == null || searcher.isRefreshFailed() ||
+                    ( refresher == null && ( writer.other().get() || searcher.isRefreshing() ) ) )
             {
-                IndexWriter writer = getIndexWriter( identifier );
-                IndexReader reader = IndexReader.open( writer, true );
-                IndexSearcher indexSearcher = new IndexSearcher( reader );
-                searcher = new IndexSearcherRef( identifier, indexSearcher );
-                indexSearchers.put( identifier, searcher );
+                searcher = refreshIndexSearcher( identifier );
             }
-            else
+            if ( !incRef || searcher.tryIncRef() )
             {
-                Pair<IndexWriter, AtomicBoolean> writer = indexWriters.get( identifier );
-                if ( writer != null && writer.other().compareAndSet( true, false ) )
+                return searcher;
+            }
+            // it was replaced by a refreshed searcher and closed meanwhile
+        }
+    }
+
+    /**
+     * Returns the searcher of an index, reopened if the index has changed
+     * since it was opened. Used when committing, where the latest changes
+     * must be seen no matter how the searchers are refreshed otherwise.
+     */
+    IndexSearcherRef getFreshIndexSearcher( IndexIdentifier identifier )
+    {
+        return refreshIndexSearcher( identifier );
+    }
+
+    /**
+     * Reopens the searchers of all indexes that have changed since their
+     * searchers were opened, called by the {@link IndexSearcherRefresher}.
+     */
+    void refreshIndexSearchers()
+    {
+        for ( Map.Entry<IndexIdentifier, Pair<IndexWriter, AtomicBoolean>> entry : indexWriters.entrySet() )
+        {
+            if ( entry.getValue().other().get() && indexSearchers.containsKey( entry.getKey() ) )
+            {
+                getReadLock();
+                try
                 {
-                    searcher = refreshSearcher( searcher );
-                    if ( searcher != null )
-                    {
-                        indexSearchers.put( identifier, searcher );
-                    }
+                    refreshIndexSearcher( entry.getKey(), entry.getValue() );
+                }
+                catch ( RuntimeException e )
+                {
+                    // queries on it reopen it themselves and get the failure
+                    msgLog.logMessage( "Couldn't refresh the searcher of " + entry.getKey(), e, true );
+                }
+                finally
+                {
+                    releaseReadLock();
                 }
             }
-            if ( incRef )
+        }
+    }
+
+    private IndexSearcherRef refreshIndexSearcher( IndexIdentifier identifier )
+    {
+        while ( true )
+        {
+            IndexSearcherRef searcher = refreshIndexSearcher( identifier, getWriter( identifier ) );
+            if ( searcher != null )
             {
-                searcher.incRef();
+                return searcher;
             }
-            return searcher;
+            // the writer was closed meanwhile
         }
-        catch ( IOException e )
+    }
+
+    /**
+     * Opens the searcher of an index, or reopens it if the index has changed,
+     * and makes it the current one. The searcher it replaces is closed once
+     * the queries using it are done.
+     *
+     * @return the current searcher, or {@code null} if {@code writer} is no
+     * longer the writer of the index.
+     */
+    private IndexSearcherRef refreshIndexSearcher( IndexIdentifier identifier,
+            Pair<IndexWriter, AtomicBoolean> writer )
+    {
+        synchronized ( writer )
         {
-            throw new RuntimeException( e );
+            if ( indexWriters.get( identifier ) != writer )
+            {
+                return null;
+            }
+            try
+            {
+                IndexSearcherRef searcher = indexSearchers.get( identifier );
+                if ( searcher == null )
+                {
+                    writer.other().set( false );
+                    IndexReader reader = IndexReader.open( writer.first(), true );
+                    searcher = new IndexSearcherRef( identifier, new IndexSearcher( reader ) );
+                    indexSearchers.put( identifier, searcher );
+                }
+                else if ( writer.other().get() )
+                {
+                    // marked before the flag is cleared, so that a query
+                    // which sees it cleared waits for the reopened searcher
+                    searcher.setRefreshing( true );
+                    writer.other().set( false );
+                    IndexSearcherRef refreshed = null;
+                    boolean success = false;
+                    try
+                    {
+                        refreshed = refreshSearcher( searcher );
+                        success = true;
+                    }
+                    finally
+                    {
+                        if ( !success )
+                        {
+                            // still stale, the next query tries again
+                            writer.other().set( true );
+                        }
+                        if ( refreshed == null )
+                        {
+                            searcher.setRefreshFailed( !success );
+                            searcher.setRefreshing( false );
+                        }
+                    }
+                    if ( refreshed != null )
+                    {
+                        indexSearchers.put( identifier, refreshed );
+                        searcher.detachOrClose();
+                        searcher = refreshed;
+                    }
+                }
+                return searcher;
+            }
+            catch ( IOException e )
+            {
+                throw new RuntimeException( e );
+            }
         }
     }
 
@@ -520,12 +638,16 @@ public class LuceneDataSource extends LogBackedXaDataSource
         return new LuceneTransaction( identifier, logicalLog, this );
     }
 
-    synchronized void invalidateIndexSearcher( IndexIdentifier identifier )
+    void invalidateIndexSearcher( IndexIdentifier identifier )
     {
         Pair<IndexWriter, AtomicBoolean> writer = indexWriters.get( identifier );
         if ( writer != null )
         {
             writer.other().set( true );
+            if ( refresher != null )
+            {
+                refresher.committed( identifier );
+            }
         }
     }
 
@@ -566,14 +688,29 @@ public class LuceneDataSource extends LogBackedXaDataSource
         }
     }
 
-    synchronized IndexWriter getIndexWriter( IndexIdentifier identifier )
+    IndexWriter getIndexWriter( IndexIdentifier identifier )
+    {
+        return getWriter( identifier ).first();
+    }
+
+    private Pair<IndexWriter, AtomicBoolean> getWriter( IndexIdentifier identifier )
+    {
+        Pair<IndexWriter, AtomicBoolean> writer = indexWriters.get( identifier );
+        if ( writer != null && !closed )
+        {
+            return writer;
+        }
+        return createWriter( identifier );
+    }
+
+    private synchronized Pair<IndexWriter, AtomicBoolean> createWriter( IndexIdentifier identifier )
     {
         if ( closed ) throw new IllegalStateException( "Index has been shut down" );
 
         Pair<IndexWriter, AtomicBoolean> writer = indexWriters.get( identifier );
         if ( writer != null )
         {
-            return writer.first();
+            return writer;
         }
 
         try
@@ -597,7 +734,7 @@ public class LuceneDataSource extends LogBackedXaDataSource
 //            writer.setMergeFactor( 8 );
 
             indexWriters.put( identifier, writer );
-            return writer.first();
+            return writer;
         }
         catch ( IOException e )
         {
@@ -665,16 +802,20 @@ public class LuceneDataSource extends LogBackedXaDataSource
     {
         try
         {
-            IndexSearcherRef searcher = indexSearchers.remove( identifier );
             Pair<IndexWriter, AtomicBoolean> writer = indexWriters.remove( identifier );
-            if ( searcher != null )
-            {
-                searcher.dispose();
-            }
             if ( writer != null )
             {
+                // wait for any refresh of the searcher to finish
+                synchronized ( writer )
+                {
+                    closeSearcher( identifier );
+                }
                 writer.first().close();
             }
+            else
+            {
+                closeSearcher( identifier );
+            }
         }
         catch ( IOException e )
         {
@@ -682,6 +823,15 @@ public class LuceneDataSource extends LogBackedXaDataSource
         }
     }
 
+    private void closeSearcher( IndexIdentifier identifier ) throws IOException
+    {
+        IndexSearcherRef searcher = indexSearchers.remove( identifier );
+        if ( searcher != null )
+        {
+            searcher.dispose();
+        }
+    }
+
     LruCache<String,Collection<Long>> getFromCache( IndexIdentifier identifier, String key )
     {
         return caching.get( identifier, key );
@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.index.Neo4jTestCase;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+public class TestIndexSearcherRefresh
+{
+    private GraphDatabaseService newDb( String name, String... config )
+    {
+        String storeDir = "target/var/refresh-" + name;
+        Neo4jTestCase.deleteFileOrDirectory( new File( storeDir ) );
+        return new EmbeddedGraphDatabase( storeDir, MapUtil.stringMap( config ) );
+    }
+
+    private Node createIndexedNode( GraphDatabaseService db, Index<Node> index, int value )
+    {
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node node = db.createNode();
+            index.add( node, "key", value );
+            tx.success();
+            return node;
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    @Test
+    public void backgroundRefreshMakesCommitsVisible() throws Exception
+    {
+        GraphDatabaseService db = newDb( "background", Config.INDEX_SEARCHER_REFRESH_INTERVAL, "20" );
+        try
+        {
+            Index<Node> index = db.index().forNodes( "nodes" );
+            assertEquals( null, index.get( "key", 1 ).getSingle() );
+            Node node = createIndexedNode( db, index, 1 );
+
+            long end = System.currentTimeMillis() + 10000;
+            Node found = null;
+            while ( found == null && System.currentTimeMillis() < end )
+            {
+                found = index.get( "key", 1 ).getSingle();
+                Thread.sleep( 10 );
+            }
+            assertEquals( node, found );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void queriesSeeCommitsWhileOtherQueriesRun() throws Exception
+    {
+        final GraphDatabaseService db = newDb( "concurrent" );
+        try
+        {
+            final Index<Node> index = db.index().forNodes( "nodes" );
+            final AtomicBoolean done = new AtomicBoolean();
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            List<Thread> readers = new ArrayList<Thread>();
+            for ( int i = 0; i < 4; i++ )
+            {
+                Thread reader = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            while ( !done.get() )
+                            {
+                                IndexHits<Node> hits = index.query( "key", "*" );
+                                while ( hits.hasNext() )
+                                {
+                                    hits.next();
+                                }
+                            }
+                        }
+                        catch ( Throwable t )
+                        {
+                            failure.set( t );
+                        }
+                    }
+                };
+                reader.start();
+                readers.add( reader );
+            }
+
+            for ( int i = 0; i < 100; i++ )
+            {
+                Node node = createIndexedNode( db, index, i );
+                assertEquals( node, index.get( "key", i ).getSingle() );
+            }
+            done.set( true );
+            for ( Thread reader : readers )
+            {
+                reader.join();
+            }
+            assertEquals( null, failure.get() );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void queriesSeeFailureToRefreshInBackground() throws Exception
+    {
+        String storeDir = "target/var/refresh-failure";
+        GraphDatabaseService db = newDb( "failure", Config.INDEX_SEARCHER_REFRESH_INTERVAL, "3600000" );
+        try
+        {
+            Index<Node> index = db.index().forNodes( "nodes" );
+            assertEquals( null, index.get( "key", 1 ).getSingle() );
+            createIndexedNode( db, index, 1 );
+
+            // the searcher reads from the writer, so it can't be reopened
+            // once the writer is closed
+            LuceneIndex<Node> luceneIndex = (LuceneIndex<Node>) index;
+            LuceneDataSource dataSource = luceneIndex.service.dataSource();
+            dataSource.getIndexWriter( luceneIndex.getIdentifier() ).close();
+            dataSource.refreshIndexSearchers();
+            try
+            {
+                index.get( "key", 1 ).getSingle();
+                fail( "Should not return results of a searcher which couldn't be refreshed" );
+            }
+            catch ( AlreadyClosedException e )
+            { // Good
+            }
+        }
+        finally
+        {
+            db.shutdown();
+        }
+        boolean logged = false;
+        for ( String line : IteratorUtil.asIterable( new File( storeDir, StringLogger.DEFAULT_NAME ) ) )
+        {
+            logged |= line.contains( "Couldn't refresh the searcher of Index[nodes,Node]" );
+        }
+        assertTrue( logged );
+    }
+
+    private IndexSearcherRef newSearcherRef() throws Exception
+    {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter( dir, new IndexWriterConfig(
+                LuceneDataSource.LUCENE_VERSION, LuceneDataSource.KEYWORD_ANALYZER ) );
+        writer.commit();
+        writer.close();
+        return new IndexSearcherRef( null, new IndexSearcher( IndexReader.open( dir, true ) ) );
+    }
+
+    @Test
+    public void detachedSearcherIsClosedByLastReference() throws Exception
+    {
+        IndexSearcherRef searcher = newSearcherRef();
+        assertTrue( searcher.tryIncRef() );
+        assertTrue( searcher.tryIncRef() );
+
+        searcher.detachOrClose();
+        assertFalse( searcher.close() );
+        assertTrue( searcher.tryIncRef() );
+        assertFalse( searcher.close() );
+        assertTrue( searcher.close() );
+        assertFalse( searcher.tryIncRef() );
+    }
+
+    @Test
+    public void unreferencedSearcherIsClosedWhenDetached() throws Exception
+    {
+        IndexSearcherRef searcher = newSearcherRef();
+        searcher.detachOrClose();
+        assertFalse( searcher.tryIncRef() );
+        searcher.detachOrClose();
+    }
+}
@@ -388,6 +388,103 @@ public class TestLuceneBatchInsert
         inserter.shutdown();
     }
 
+    @Test
+    public void bulkBuildExactIndex() throws Exception
+    {
+        String path = new File( PATH, "10" ).getAbsolutePath();
+        BatchInserter inserter = new BatchInserterImpl( path );
+        BatchInserterIndexProvider provider = new LuceneBatchInserterIndexProvider(
+                inserter, 3 );
+        BatchInserterIndex index = provider.nodeIndex( "users", EXACT_CONFIG );
+        Map<Integer, Long> ids = new HashMap<Integer, Long>();
+        for ( int i = 0; i < 100; i++ )
+        {
+            long id = inserter.createNode( null );
+            index.add( id, map( "name", "Joe" + i, "other", "Schmoe" ) );
+            ids.put( i, id );
+        }
+        // answered from memory, without a flush
+        assertContains( index.get( "name", "Joe5" ), ids.get( 5 ) );
+        assertEquals( 100, index.get( "other", "Schmoe" ).size() );
+        index.updateOrAdd( ids.get( 5 ), map( "name", "Jack" ) );
+        assertContains( index.get( "name", "Joe5" ) );
+        assertContains( index.get( "name", "Jack" ), ids.get( 5 ) );
+        assertEquals( 99, index.get( "other", "Schmoe" ).size() );
+        index.flush();
+        assertContains( index.query( "name", "Joe1*" ), ids.get( 1 ), ids.get( 10 ),
+                ids.get( 11 ), ids.get( 12 ), ids.get( 13 ), ids.get( 14 ), ids.get( 15 ),
+                ids.get( 16 ), ids.get( 17 ), ids.get( 18 ), ids.get( 19 ) );
+        provider.shutdown();
+        inserter.shutdown();
+
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path );
+        Index<Node> dbIndex = db.index().forNodes( "users" );
+        for ( int i = 0; i < 100; i++ )
+        {
+            if ( i != 5 )
+            {
+                assertContains( dbIndex.get( "name", "Joe" + i ),
+                        db.getNodeById( ids.get( i ) ) );
+            }
+        }
+        assertContains( dbIndex.get( "name", "Joe5" ) );
+        assertContains( dbIndex.get( "name", "Jack" ), db.getNodeById( ids.get( 5 ) ) );
+        db.shutdown();
+    }
+
+    @Test
+    public void bulkBuildExactIndexWithNumericValues()
+    {
+        String path = new File( PATH, "12" ).getAbsolutePath();
+        BatchInserter inserter = new BatchInserterImpl( path );
+        BatchInserterIndexProvider provider = new LuceneBatchInserterIndexProvider(
+                inserter, 2 );
+        BatchInserterIndex index = provider.nodeIndex( "ages", EXACT_CONFIG );
+        Map<Integer, Long> ids = new HashMap<Integer, Long>();
+        for ( int i = 0; i < 10; i++ )
+        {
+            long id = inserter.createNode( null );
+            index.add( id, map( "age", numeric( i ) ) );
+            ids.put( i, id );
+        }
+        assertContains( index.get( "age", 5 ), ids.get( 5 ) );
+        assertContains( index.get( "age", numeric( 5 ) ), ids.get( 5 ) );
+        assertContains( index.get( "age", 10 ) );
+        provider.shutdown();
+        inserter.shutdown();
+
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path );
+        Index<Node> dbIndex = db.index().forNodes( "ages" );
+        assertContains( dbIndex.query( "age", newIntRange( "age", 4, 5, true, true ) ),
+                db.getNodeById( ids.get( 4 ) ), db.getNodeById( ids.get( 5 ) ) );
+        db.shutdown();
+    }
+
+    @Test
+    public void bulkBuildFulltextIndex()
+    {
+        String path = new File( PATH, "11" ).getAbsolutePath();
+        BatchInserter inserter = new BatchInserterImpl( path );
+        BatchInserterIndexProvider provider = new LuceneBatchInserterIndexProvider(
+                inserter, 2 );
+        BatchInserterIndex index = provider.nodeIndex( "users",
+                stringMap( "type", "fulltext" ) );
+        long id1 = inserter.createNode( null );
+        index.add( id1, map( "name", "Mattias Persson" ) );
+        long id2 = inserter.createNode( null );
+        index.add( id2, map( "name", "Lars PerssoN" ) );
+        index.flush();
+        assertContains( index.query( "name", "persson" ), id1, id2 );
+        provider.shutdown();
+        inserter.shutdown();
+
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path );
+        Index<Node> dbIndex = db.index().forNodes( "users" );
+        assertContains( dbIndex.query( "name", "persson" ),
+                db.getNodeById( id1 ), db.getNodeById( id2 ) );
+        db.shutdown();
+    }
+
     private enum EdgeType implements RelationshipType
     {
         KNOWS
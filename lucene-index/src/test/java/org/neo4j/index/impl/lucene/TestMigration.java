@@ -43,6 +43,7 @@ import org.neo4j.graphdb.index.Index;
 import org.neo4j.graphdb.index.IndexManager;
 import org.neo4j.helpers.collection.MapUtil;
 import org.neo4j.index.Neo4jTestCase;
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.kernel.impl.index.IndexStore;
 
@@ -104,7 +105,8 @@ public class TestMigration
             bos.flush();
             bos.close();
         }
-        return new EmbeddedGraphDatabase( path.getAbsolutePath() );
+        return new EmbeddedGraphDatabase( path.getAbsolutePath(),
+                MapUtil.stringMap( Config.ALLOW_STORE_UPGRADE, "true" ) );
     }
 
     private void verifyConfiguration( GraphDatabaseService db, Index<? extends PropertyContainer> index, Map<String, String> config )
@@ -19,6 +19,8 @@
  */
 package org.neo4j.server.rest.repr;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -53,6 +55,25 @@ public final class ListRepresentation extends Representation
         return format.complete( writer );
     }
 
+    /**
+     * Writes the items of this list to <code>output</code> one at a time as
+     * they are serialized, if the format supports it, so that the whole list
+     * is never held in memory.
+     */
+    @Override
+    void serialize( RepresentationFormat format, URI baseUri, ExtensionInjector extensions,
+            OutputStream output ) throws IOException
+    {
+        ListWriter writer = format.serializeList( type, output );
+        if ( writer == null )
+        {
+            super.serialize( format, baseUri, extensions, output );
+            return;
+        }
+        serialize( new ListSerializer( writer, baseUri, extensions ) );
+        writer.done();
+    }
+
     void serialize( ListSerializer serializer )
     {
         for ( Representation repr : content )
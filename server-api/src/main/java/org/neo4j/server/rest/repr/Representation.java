@@ -19,6 +19,8 @@
  */
 package org.neo4j.server.rest.repr;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 
 public abstract class Representation
@@ -81,6 +83,16 @@ public abstract class Representation
     abstract String serialize( RepresentationFormat format, URI baseUri,
             ExtensionInjector extensions ) ;
 
+    /**
+     * Writes this representation to <code>output</code>. Representations
+     * that can't be streamed are serialized into a string first.
+     */
+    void serialize( RepresentationFormat format, URI baseUri, ExtensionInjector extensions,
+            OutputStream output ) throws IOException
+    {
+        output.write( serialize( format, baseUri, extensions ).getBytes( "UTF-8" ) );
+    }
+
     abstract void addTo( ListSerializer serializer );
 
     abstract void putTo( MappingSerializer serializer, String key );
@@ -19,6 +19,8 @@
  */
 package org.neo4j.server.rest.repr;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 
@@ -70,6 +72,26 @@ public abstract class RepresentationFormat implements InputFormat
 
     protected abstract ListWriter serializeList( String type );
 
+    ListWriter serializeList( RepresentationType type, OutputStream output ) throws IOException
+    {
+        if ( type.listName == null )
+            throw new IllegalStateException( "Invalid list type: " + type );
+        return serializeList( type.listName, output );
+    }
+
+    /**
+     * Returns a {@link ListWriter} that writes the list straight to
+     * <code>output</code> as its items are added, instead of collecting it
+     * for {@link #complete(ListWriter)}. The list has been written in full
+     * once {@link ListWriter#done()} has been invoked on the returned writer.
+     * Formats that can't stream lists return <code>null</code>, which is
+     * what this default implementation does.
+     */
+    protected ListWriter serializeList( String type, OutputStream output ) throws IOException
+    {
+        return null;
+    }
+
     MappingWriter serializeMapping( RepresentationType type )
     {
         return serializeMapping( type.valueName );
@@ -31,9 +31,14 @@ import org.neo4j.graphdb.Node;
 import org.neo4j.kernel.impl.annotations.Documented;
 import org.neo4j.server.rest.domain.JsonHelper;
 import org.neo4j.server.rest.domain.JsonParseException;
+import org.neo4j.server.rest.repr.OutputFormat;
 
+import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.UniformInterfaceException;
+import com.sun.jersey.api.client.filter.ClientFilter;
 
 public class BatchOperationFunctionalTest extends AbstractRestFunctionalTestBase
 {
@@ -380,6 +385,62 @@ public class BatchOperationFunctionalTest extends AbstractRestFunctionalTestBase
 
     }
     
+    @SuppressWarnings( "unchecked" )
+    @Test
+    public void shouldStreamResultsWhenAskedTo() throws Exception {
+
+        String jsonString = "[" + "{ " + "\"method\":\"POST\"," + "\"to\":\"/node\", " + "\"id\":0, "
+                + "\"body\":{ \"age\":1 }" + "}," + "{ " + "\"method\":\"PUT\"," + "\"to\":\"{0}/properties/name\", "
+                + "\"body\":\"bob\"" + "}," + "{ " + "\"method\":\"GET\"," + "\"to\":\"{0}\", " + "\"id\":2" + "}" + "]";
+
+        JaxRsResponse response = streamingRequest().post(batchUri(), jsonString);
+
+        assertEquals(200, response.getStatus());
+
+        List<Map<String, Object>> results = JsonHelper.jsonToList(response.getEntity());
+
+        assertEquals(3, results.size());
+        String location = (String) results.get(0).get("location");
+        assertTrue(location.length() > 0);
+        assertEquals(location + "/properties/name", results.get(1).get("from"));
+        assertEquals(2, results.get(2).get("id"));
+        Map<String, Object> body = (Map<String, Object>) results.get(2).get("body");
+        assertEquals("bob", ((Map<String, Object>) body.get("data")).get("name"));
+    }
+
+    @Test
+    public void shouldRollbackAllAndReportFailureWhenStreaming() throws Exception {
+
+        String jsonString = "[" + "{ " + "\"method\":\"POST\"," + "\"to\":\"/node\", " + "\"body\":{ \"age\":1 }"
+                + "}," + "{ " + "\"method\":\"GET\"," + "\"to\":\"/node/123456789\", " + "\"id\":1" + "}" + "]";
+
+        int originalNodeCount = countNodes();
+
+        JaxRsResponse response = streamingRequest().post(batchUri(), jsonString);
+
+        List<Map<String, Object>> results = JsonHelper.jsonToList(response.getEntity());
+
+        assertEquals(2, results.size());
+        assertEquals(1, results.get(1).get("id"));
+        assertEquals(404, results.get(1).get("status"));
+        assertEquals(originalNodeCount, countNodes());
+    }
+
+    private RestRequest streamingRequest()
+    {
+        Client client = Client.create();
+        client.addFilter( new ClientFilter()
+        {
+            @Override
+            public ClientResponse handle( ClientRequest request ) throws ClientHandlerException
+            {
+                request.getHeaders().add( OutputFormat.STREAM_HEADER, "true" );
+                return getNext().handle( request );
+            }
+        } );
+        return new RestRequest( null, client );
+    }
+
     private int countNodes()
     {
         int count = 0;
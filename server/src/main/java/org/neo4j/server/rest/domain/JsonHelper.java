@@ -20,11 +20,13 @@
 package org.neo4j.server.rest.domain;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+import org.codehaus.jackson.JsonEncoding;
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.neo4j.server.rest.web.PropertyValueException;
@@ -92,6 +94,20 @@ public class JsonHelper
         return jsonObject;
     }
 
+    /**
+     * Creates a generator writing UTF-8 encoded JSON, formatted the same way
+     * as by {@link #createJsonFrom(Object)}, to <code>output</code>. Closing
+     * the generator flushes it but leaves <code>output</code> open.
+     */
+    public static JsonGenerator createJsonGenerator( OutputStream output ) throws IOException
+    {
+        JsonGenerator generator = OBJECT_MAPPER.getJsonFactory()
+                .createJsonGenerator( output, JsonEncoding.UTF8 )
+                .useDefaultPrettyPrinter();
+        generator.disable( JsonGenerator.Feature.AUTO_CLOSE_TARGET );
+        return generator;
+    }
+
     public static String createJsonFrom( Object data ) throws JsonBuildRuntimeException
     {
         try
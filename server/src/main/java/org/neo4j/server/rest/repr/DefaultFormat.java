@@ -19,6 +19,8 @@
  */
 package org.neo4j.server.rest.repr;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.Collection;
 import java.util.List;
@@ -60,6 +62,12 @@ public class DefaultFormat extends RepresentationFormat
         return inner.serializeList( type );
     }
 
+    @Override
+    protected ListWriter serializeList( String type, OutputStream output ) throws IOException
+    {
+        return inner.serializeList( type, output );
+    }
+
     @Override
     protected MappingWriter serializeMapping( String type )
     {
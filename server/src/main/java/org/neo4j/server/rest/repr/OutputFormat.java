@@ -19,6 +19,8 @@
  */
 package org.neo4j.server.rest.repr;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 
@@ -27,19 +29,41 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 public class OutputFormat
 {
+    /**
+     * Request header asking for lists to be streamed, with chunked transfer
+     * encoding, when set to <code>true</code>. The memory used for a list
+     * then doesn't grow with its size, but an error while writing it can't
+     * be reported with a proper status since the response has already begun.
+     */
+    public static final String STREAM_HEADER = "X-Stream";
+
     private static final String UTF8 = "UTF-8";
     private final RepresentationFormat format;
     private final ExtensionInjector extensions;
     private final URI baseUri;
+    private final boolean streaming;
 
     public OutputFormat( RepresentationFormat format, URI baseUri, ExtensionInjector extensions )
+    {
+        this( format, baseUri, extensions, false );
+    }
+
+    /**
+     * @param streaming whether lists should be written to the response as
+     * they are serialized rather than being serialized in full first, see
+     * {@link #STREAM_HEADER}.
+     */
+    public OutputFormat( RepresentationFormat format, URI baseUri, ExtensionInjector extensions,
+            boolean streaming )
     {
         this.format = format;
         this.baseUri = baseUri;
         this.extensions = extensions;
+        this.streaming = streaming;
     }
 
     public final Response ok( Representation representation )
@@ -97,6 +121,13 @@ public class OutputFormat
 
     protected Response response( ResponseBuilder response, Representation representation )
     {
+        if ( streaming && representation instanceof ListRepresentation )
+        {
+            return response.entity( stream( representation ) )
+                    .header( HttpHeaders.CONTENT_ENCODING, UTF8 )
+                    .type( getMediaType() )
+                    .build();
+        }
         String entity = format( representation );
         byte[] entityAsBytes;
         try
@@ -113,6 +144,18 @@ public class OutputFormat
                 .build();
     }
 
+    private StreamingOutput stream( final Representation representation )
+    {
+        return new StreamingOutput()
+        {
+            @Override
+            public void write( OutputStream output ) throws IOException
+            {
+                representation.serialize( format, baseUri, extensions, output );
+            }
+        };
+    }
+
     public MediaType getMediaType()
     {
         return format.mediaType;
@@ -44,7 +44,8 @@ public final class OutputFormatProvider extends AbstractInjectableProvider<Outpu
         {
             return repository.outputFormat( context.getRequest()
                     .getAcceptableMediaTypes(), context.getRequest()
-                    .getBaseUri() );
+                    .getBaseUri(), "true".equalsIgnoreCase( context.getRequest()
+                    .getHeaderValue( OutputFormat.STREAM_HEADER ) ) );
         }
         catch ( MediaTypeNotSupportedException e )
         {
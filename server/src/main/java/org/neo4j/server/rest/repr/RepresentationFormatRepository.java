@@ -45,17 +45,22 @@ public final class RepresentationFormatRepository
     }
 
     public OutputFormat outputFormat( List<MediaType> acceptable, URI baseUri )
+    {
+        return outputFormat( acceptable, baseUri, false );
+    }
+
+    public OutputFormat outputFormat( List<MediaType> acceptable, URI baseUri, boolean streaming )
     {
         for ( MediaType type : acceptable )
         {
             RepresentationFormat format = formats.get( type );
             if ( format != null )
             {
-                return new OutputFormat( format, baseUri, injector );
+                return new OutputFormat( format, baseUri, injector, streaming );
             }
         }
 
-        return new OutputFormat( useDefault( acceptable ), baseUri, injector );
+        return new OutputFormat( useDefault( acceptable ), baseUri, injector, streaming );
     }
 
     public InputFormat inputFormat( MediaType type )
@@ -19,6 +19,8 @@
  */
 package org.neo4j.server.rest.repr.formats;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -49,6 +51,12 @@ public class JsonFormat extends RepresentationFormat
         return new ListWrappingWriter( new ArrayList<Object>() );
     }
 
+    @Override
+    protected ListWriter serializeList( String type, OutputStream output ) throws IOException
+    {
+        return new StreamingListWriter( JsonHelper.createJsonGenerator( output ) );
+    }
+
     @Override
     protected String complete( ListWriter serializer )
     {
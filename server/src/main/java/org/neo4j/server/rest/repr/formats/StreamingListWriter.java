@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.rest.repr.formats;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.neo4j.server.rest.domain.JsonBuildRuntimeException;
+import org.neo4j.server.rest.repr.ListWriter;
+import org.neo4j.server.rest.repr.MappingWriter;
+
+/**
+ * Writes a JSON array straight to a {@link JsonGenerator} as the items are
+ * added, instead of collecting them like {@link ListWrappingWriter} does.
+ * A nested list or mapping is ended when the next item is added, if it
+ * hasn't been ended by then.
+ */
+public class StreamingListWriter extends ListWriter
+{
+    private final JsonGenerator generator;
+    private final boolean root;
+    private StreamingListWriter openList;
+    private StreamingMappingWriter openMapping;
+    private boolean ended;
+
+    public StreamingListWriter( JsonGenerator generator )
+    {
+        this( generator, true );
+    }
+
+    StreamingListWriter( JsonGenerator generator, boolean root )
+    {
+        this.generator = generator;
+        this.root = root;
+        try
+        {
+            generator.writeStartArray();
+        }
+        catch ( IOException e )
+        {
+            throw new JsonBuildRuntimeException( e );
+        }
+    }
+
+    @Override
+    protected ListWriter newList( String type )
+    {
+        endOpenChild();
+        openList = new StreamingListWriter( generator, false );
+        return openList;
+    }
+
+    @Override
+    protected MappingWriter newMapping( String type )
+    {
+        endOpenChild();
+        openMapping = new StreamingMappingWriter( generator );
+        return openMapping;
+    }
+
+    @Override
+    protected void writeValue( String type, Object value )
+    {
+        endOpenChild();
+        try
+        {
+            generator.writeObject( value );
+        }
+        catch ( IOException e )
+        {
+            throw new JsonBuildRuntimeException( e );
+        }
+    }
+
+    @Override
+    protected void done()
+    {
+        end();
+        if ( root )
+        {
+            try
+            {
+                generator.close();
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+    }
+
+    void end()
+    {
+        if ( ended )
+        {
+            return;
+        }
+        endOpenChild();
+        try
+        {
+            generator.writeEndArray();
+        }
+        catch ( IOException e )
+        {
+            throw new JsonBuildRuntimeException( e );
+        }
+        ended = true;
+    }
+
+    private void endOpenChild()
+    {
+        if ( openList != null )
+        {
+            openList.end();
+            openList = null;
+        }
+        if ( openMapping != null )
+        {
+            openMapping.end();
+            openMapping = null;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.rest.repr.formats;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.neo4j.server.rest.domain.JsonBuildRuntimeException;
+import org.neo4j.server.rest.repr.ListWriter;
+import org.neo4j.server.rest.repr.MappingWriter;
+
+/**
+ * Writes a JSON object straight to a {@link JsonGenerator} as the entries
+ * are added, as part of a list written by a {@link StreamingListWriter}.
+ */
+public class StreamingMappingWriter extends MappingWriter
+{
+    private final JsonGenerator generator;
+    private StreamingListWriter openList;
+    private StreamingMappingWriter openMapping;
+    private boolean ended;
+
+    StreamingMappingWriter( JsonGenerator generator )
+    {
+        this.generator = generator;
+        try
+        {
+            generator.writeStartObject();
+        }
+        catch ( IOException e )
+        {
+            throw new JsonBuildRuntimeException( e );
+        }
+    }
+
+    @Override
+    protected ListWriter newList( String type, String key )
+    {
+        writeFieldName( key );
+        openList = new StreamingListWriter( generator, false );
+        return openList;
+    }
+
+    @Override
+    protected MappingWriter newMapping( String type, String key )
+    {
+        writeFieldName( key );
+        openMapping = new StreamingMappingWriter( generator );
+        return openMapping;
+    }
+
+    @Override
+    protected void writeValue( String type, String key, Object value )
+    {
+        writeFieldName( key );
+        try
+        {
+            generator.writeObject( value );
+        }
+        catch ( IOException e )
+        {
+            throw new JsonBuildRuntimeException( e );
+        }
+    }
+
+    private void writeFieldName( String key )
+    {
+        endOpenChild();
+        try
+        {
+            generator.writeFieldName( key );
+        }
+        catch ( IOException e )
+        {
+            throw new JsonBuildRuntimeException( e );
+        }
+    }
+
+    @Override
+    protected void done()
+    {
+        end();
+    }
+
+    void end()
+    {
+        if ( ended )
+        {
+            return;
+        }
+        endOpenChild();
+        try
+        {
+            generator.writeEndObject();
+        }
+        catch ( IOException e )
+        {
+            throw new JsonBuildRuntimeException( e );
+        }
+        ended = true;
+    }
+
+    private void endOpenChild()
+    {
+        if ( openList != null )
+        {
+            openList.end();
+            openList = null;
+        }
+        if ( openMapping != null )
+        {
+            openMapping.end();
+            openMapping = null;
+        }
+    }
+}
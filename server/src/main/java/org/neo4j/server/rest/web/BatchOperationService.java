@@ -21,30 +21,54 @@ package org.neo4j.server.rest.web;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.kernel.AbstractGraphDatabase;
 import org.neo4j.server.database.Database;
+import org.neo4j.server.rest.domain.JsonHelper;
+import org.neo4j.server.rest.paging.LeaseManager;
 import org.neo4j.server.rest.repr.BatchOperationResults;
 import org.neo4j.server.rest.repr.InputFormat;
 import org.neo4j.server.rest.repr.OutputFormat;
 import org.neo4j.server.rest.repr.formats.StreamingJsonUtils;
 import org.neo4j.server.web.WebServer;
 
+/**
+ * Performs a list of jobs, each one a call to the REST API, in one
+ * transaction.
+ * <p>
+ * If the request has the {@link OutputFormat#STREAM_HEADER} set, the result
+ * of each job is written to the response as soon as the job is done, and
+ * the jobs operating on single nodes, relationships and their properties are
+ * handed straight to {@link RestfulGraphDatabase} instead of being sent
+ * through the web server. Other jobs are sent through the web server as
+ * usual. Since the response has then already begun when a job fails, the
+ * failure is reported as a last entry in the result list, with the
+ * <code>status</code> of the job, rather than as the status of the
+ * response.
+ */
 @Path( "/batch" )
 public class BatchOperationService
 {
@@ -53,24 +77,42 @@ public class BatchOperationService
     private static final String METHOD_KEY = "method";
     private static final String BODY_KEY = "body";
     private static final String TO_KEY = "to";
+    private static final String LOCATION_KEY = "location";
+    private static final String FROM_KEY = "from";
+    private static final String STATUS_KEY = "status";
+    private static final String MESSAGE_KEY = "message";
     
     private static final JsonFactory jsonFactory = new JsonFactory(); 
     
     private final OutputFormat output;
+    private final InputFormat input;
     private final WebServer webServer;
     private final Database database;
+    private final LeaseManager leaseManager;
 
     public BatchOperationService( @Context Database database, @Context WebServer webServer, @Context InputFormat input,
-            @Context OutputFormat output )
+            @Context OutputFormat output, @Context LeaseManager leaseManager )
     {
         this.output = output;
+        this.input = input;
         this.webServer = webServer;
         this.database = database;
+        this.leaseManager = leaseManager;
     }
 
     @POST
-    public Response performBatchOperations( @Context UriInfo uriInfo, InputStream body )
+    public Response performBatchOperations( @Context UriInfo uriInfo, @Context HttpHeaders httpHeaders,
+            InputStream body )
     {
+        if ( isStreaming( httpHeaders ) )
+        {
+            return Response.ok()
+                    .entity( streamBatchOperations( uriInfo, body ) )
+                    .header( HttpHeaders.CONTENT_ENCODING, "UTF-8" )
+                    .type( MediaType.APPLICATION_JSON )
+                    .build();
+        }
+
         AbstractGraphDatabase db = database.graph;
 
         Transaction tx = db.beginTx();
@@ -80,34 +122,10 @@ public class BatchOperationService
             
             BatchOperationResults results = new BatchOperationResults();
             
-            JsonToken token;
-            String field;
-            String jobMethod, jobPath, jobBody;
-            Integer jobId;
-            
-            // TODO: Perhaps introduce a simple DSL for 
-            // deserializing streamed JSON?
-            while( (token = jp.nextToken()) != null) {
-                 if(token == JsonToken.START_OBJECT) {
-                     jobMethod = jobPath = jobBody = "";
-                     jobId = null;
-                     while( (token = jp.nextToken()) != JsonToken.END_OBJECT && token != null) {
-                         field = jp.getText();
-                         token = jp.nextToken();
-                         if(field.equals(METHOD_KEY)) {
-                             jobMethod = jp.getText().toUpperCase();
-                         } else if(field.equals(TO_KEY)) {
-                             jobPath = jp.getText();
-                         } else if(field.equals(ID_KEY)) {
-                             jobId = jp.getIntValue();
-                         } else if(field.equals(BODY_KEY)) {
-                             jobBody = StreamingJsonUtils.readCurrentValueAsString(jp, token);
-                         }
-                     }
-
-                     // Read one job description. Execute it.
-                     performJob(results, uriInfo, jobMethod, jobPath, jobBody, jobId);
-                 }
+            Job job;
+            while ( ( job = readJob( jp ) ) != null )
+            {
+                performJob( results, uriInfo, job.method, job.path, job.body, job.id );
             }
 
             Response res = Response.ok()
@@ -132,14 +150,67 @@ public class BatchOperationService
         }
     }
 
+    private static boolean isStreaming( HttpHeaders httpHeaders )
+    {
+        List<String> values = httpHeaders.getRequestHeader( OutputFormat.STREAM_HEADER );
+        return values != null && !values.isEmpty() && Boolean.parseBoolean( values.get( 0 ) );
+    }
+
+    private static class Job
+    {
+        String method = "";
+        String path = "";
+        String body = "";
+        Integer id;
+    }
+
+    /**
+     * Reads the next job description from <code>jp</code>.
+     *
+     * @return the job, or <code>null</code> if there are no more jobs.
+     */
+    private static Job readJob( JsonParser jp ) throws IOException
+    {
+        // TODO: Perhaps introduce a simple DSL for 
+        // deserializing streamed JSON?
+        JsonToken token;
+        while ( ( token = jp.nextToken() ) != null )
+        {
+            if ( token == JsonToken.START_OBJECT )
+            {
+                Job job = new Job();
+                while ( ( token = jp.nextToken() ) != JsonToken.END_OBJECT && token != null )
+                {
+                    String field = jp.getText();
+                    token = jp.nextToken();
+                    if ( field.equals( METHOD_KEY ) )
+                    {
+                        job.method = jp.getText().toUpperCase();
+                    }
+                    else if ( field.equals( TO_KEY ) )
+                    {
+                        job.path = jp.getText();
+                    }
+                    else if ( field.equals( ID_KEY ) )
+                    {
+                        job.id = jp.getIntValue();
+                    }
+                    else if ( field.equals( BODY_KEY ) )
+                    {
+                        job.body = StreamingJsonUtils.readCurrentValueAsString( jp, token );
+                    }
+                }
+                return job;
+            }
+        }
+        return null;
+    }
+
     private void performJob( BatchOperationResults results, UriInfo uriInfo, String method, String path, String body, Integer id )
             throws IOException, ServletException
     {
         
 
-        InternalJettyServletRequest req = new InternalJettyServletRequest();
-        InternalJettyServletResponse res = new InternalJettyServletResponse();
-
         // Replace {[ID]} placeholders with location values
         Map<Integer, String> locations = results.getLocations();
         path = replaceLocationPlaceholders( path, locations );
@@ -147,10 +218,7 @@ public class BatchOperationService
 
         URI targetUri = calculateTargetUri( uriInfo, path );
 
-        req.setup( method, targetUri.toString(), body );
-        res.setup();
-
-        webServer.invokeDirectly( targetUri.getPath(), req, res );
+        InternalJettyServletResponse res = invokeThroughWebServer( method, targetUri, body );
 
         if ( is2XXStatusCode( res.getStatus() ) )
         {
@@ -164,6 +232,243 @@ public class BatchOperationService
         }
     }
 
+    private InternalJettyServletResponse invokeThroughWebServer( String method, URI targetUri, String body )
+            throws IOException, ServletException
+    {
+        InternalJettyServletRequest req = new InternalJettyServletRequest();
+        InternalJettyServletResponse res = new InternalJettyServletResponse();
+
+        req.setup( method, targetUri.toString(), body );
+        res.setup();
+
+        webServer.invokeDirectly( targetUri.getPath(), req, res );
+        return res;
+    }
+
+    private StreamingOutput streamBatchOperations( final UriInfo uriInfo, final InputStream body )
+    {
+        return new StreamingOutput()
+        {
+            @Override
+            public void write( OutputStream stream ) throws IOException, WebApplicationException
+            {
+                JsonGenerator results = JsonHelper.createJsonGenerator( stream );
+                results.writeStartArray();
+                try
+                {
+                    performJobs( uriInfo, body, results );
+                }
+                catch ( Exception e )
+                {
+                    writeFailure( results, null, Status.BAD_REQUEST.getStatusCode(), e.getMessage() );
+                }
+                results.writeEndArray();
+                results.close();
+            }
+        };
+    }
+
+    /**
+     * Performs the jobs in <code>body</code> in one transaction, writing the
+     * result of each to <code>results</code>. Stops at the first job that
+     * fails, rolling back the transaction.
+     */
+    private void performJobs( UriInfo uriInfo, InputStream body, JsonGenerator results ) throws Exception
+    {
+        RestfulGraphDatabase rest = new RestfulGraphDatabase( uriInfo, database, input, output, leaseManager );
+        Map<Integer, String> locations = new HashMap<Integer, String>();
+        Transaction tx = database.graph.beginTx();
+        try
+        {
+            JsonParser jp = jsonFactory.createJsonParser( body );
+            Job job;
+            while ( ( job = readJob( jp ) ) != null )
+            {
+                job.path = replaceLocationPlaceholders( job.path, locations );
+                job.body = replaceLocationPlaceholders( job.body, locations );
+                URI targetUri = calculateTargetUri( uriInfo, job.path );
+
+                int status;
+                String entity;
+                String location;
+                Response response = invokeDirectly( rest, uriInfo.getBaseUri(), targetUri, job );
+                if ( response != null )
+                {
+                    status = response.getStatus();
+                    entity = entityOf( response );
+                    Object locationHeader = response.getMetadata().getFirst( "Location" );
+                    location = locationHeader != null ? locationHeader.toString() : null;
+                }
+                else
+                {
+                    InternalJettyServletResponse res = invokeThroughWebServer( job.method, targetUri, job.body );
+                    status = res.getStatus();
+                    entity = res.getOutputStream().toString();
+                    location = res.getHeader( "Location" );
+                }
+
+                if ( !is2XXStatusCode( status ) )
+                {
+                    tx.failure();
+                    writeFailure( results, job, status, entity );
+                    return;
+                }
+                if ( job.id != null && location != null )
+                {
+                    locations.put( job.id, location );
+                }
+                writeResult( results, job, entity, location );
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    /**
+     * Calls the method of <code>rest</code> that the job would have been
+     * dispatched to by the web server, if the job operates on a single node,
+     * relationship or their properties.
+     *
+     * @return the response of the call, or <code>null</code> if the job is
+     * of any other kind.
+     */
+    private static Response invokeDirectly( RestfulGraphDatabase rest, URI baseUri, URI targetUri, Job job )
+    {
+        String path = targetUri.getPath();
+        String basePath = baseUri.getPath();
+        if ( targetUri.getQuery() != null || !path.startsWith( basePath ) ||
+             targetUri.getRawPath().toUpperCase().contains( "%2F" ) )
+        {
+            return null;
+        }
+        String[] segments = path.substring( basePath.length() ).split( "/" );
+        if ( segments.length < 2 )
+        {
+            if ( segments.length == 1 && segments[0].equals( "node" ) && job.method.equals( "POST" ) )
+            {
+                return rest.createNode( job.body );
+            }
+            return null;
+        }
+
+        long id;
+        try
+        {
+            id = Long.parseLong( segments[1] );
+        }
+        catch ( NumberFormatException e )
+        {
+            return null;
+        }
+        String method = job.method;
+        if ( segments[0].equals( "node" ) )
+        {
+            switch ( segments.length )
+            {
+            case 2:
+                if ( method.equals( "GET" ) ) return rest.getNode( id );
+                if ( method.equals( "DELETE" ) ) return rest.deleteNode( id );
+                return null;
+            case 3:
+                if ( segments[2].equals( "relationships" ) )
+                {
+                    return method.equals( "POST" ) ? rest.createRelationship( id, job.body ) : null;
+                }
+                if ( !segments[2].equals( "properties" ) ) return null;
+                if ( method.equals( "GET" ) ) return rest.getAllNodeProperties( id );
+                if ( method.equals( "PUT" ) ) return rest.setAllNodeProperties( id, job.body );
+                if ( method.equals( "DELETE" ) ) return rest.deleteAllNodeProperties( id );
+                return null;
+            case 4:
+                if ( !segments[2].equals( "properties" ) ) return null;
+                String key = segments[3];
+                if ( method.equals( "GET" ) ) return rest.getNodeProperty( id, key );
+                if ( method.equals( "PUT" ) ) return rest.setNodeProperty( id, key, job.body );
+                if ( method.equals( "DELETE" ) ) return rest.deleteNodeProperty( id, key );
+                return null;
+            }
+        }
+        else if ( segments[0].equals( "relationship" ) )
+        {
+            switch ( segments.length )
+            {
+            case 2:
+                if ( method.equals( "GET" ) ) return rest.getRelationship( id );
+                if ( method.equals( "DELETE" ) ) return rest.deleteRelationship( id );
+                return null;
+            case 3:
+                if ( !segments[2].equals( "properties" ) ) return null;
+                if ( method.equals( "GET" ) ) return rest.getAllRelationshipProperties( id );
+                if ( method.equals( "PUT" ) ) return rest.setAllRelationshipProperties( id, job.body );
+                if ( method.equals( "DELETE" ) ) return rest.deleteAllRelationshipProperties( id );
+                return null;
+            case 4:
+                if ( !segments[2].equals( "properties" ) ) return null;
+                String key = segments[3];
+                if ( method.equals( "GET" ) ) return rest.getRelationshipProperty( id, key );
+                if ( method.equals( "PUT" ) ) return rest.setRelationshipProperty( id, key, job.body );
+                if ( method.equals( "DELETE" ) ) return rest.deleteRelationshipProperty( id, key );
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static String entityOf( Response response ) throws UnsupportedEncodingException
+    {
+        Object entity = response.getEntity();
+        if ( entity == null )
+        {
+            return "";
+        }
+        if ( entity instanceof byte[] )
+        {
+            return new String( (byte[]) entity, "UTF-8" );
+        }
+        return entity.toString();
+    }
+
+    private static void writeResult( JsonGenerator results, Job job, String body, String location )
+            throws IOException
+    {
+        results.writeStartObject();
+        if ( job.id != null )
+        {
+            results.writeNumberField( ID_KEY, job.id );
+        }
+        if ( location != null )
+        {
+            results.writeStringField( LOCATION_KEY, location );
+        }
+        if ( body != null && body.length() != 0 )
+        {
+            results.writeFieldName( BODY_KEY );
+            results.writeRawValue( body );
+        }
+        results.writeStringField( FROM_KEY, job.path );
+        results.writeEndObject();
+    }
+
+    private static void writeFailure( JsonGenerator results, Job job, int status, String message )
+            throws IOException
+    {
+        results.writeStartObject();
+        if ( job != null )
+        {
+            if ( job.id != null )
+            {
+                results.writeNumberField( ID_KEY, job.id );
+            }
+            results.writeStringField( FROM_KEY, job.path );
+        }
+        results.writeNumberField( STATUS_KEY, status );
+        results.writeStringField( MESSAGE_KEY, message );
+        results.writeEndObject();
+    }
+
     private URI calculateTargetUri( UriInfo serverUriInfo, String requestedPath )
     {
         URI baseUri = serverUriInfo.getBaseUri();
@@ -182,15 +487,63 @@ public class BatchOperationService
         return baseUri.resolve( "." + requestedPath );
     }
 
-    private String replaceLocationPlaceholders( String str, Map<Integer, String> locations )
+    /**
+     * Replaces each <code>{[ID]}</code> in <code>str</code> with the location
+     * of the resource created by the job with that id, in one pass over the
+     * string.
+     */
+    static String replaceLocationPlaceholders( String str, Map<Integer, String> locations )
     {
-        // TODO: Potential memory-hog on big requests, write smarter
-        // implementation.
-        for ( Integer jobId : locations.keySet() )
+        if ( locations.isEmpty() )
+        {
+            return str;
+        }
+        StringBuilder result = null;
+        int copied = 0;
+        for ( int start = str.indexOf( '{' ); start != -1; start = str.indexOf( '{', start + 1 ) )
+        {
+            int end = start + 1;
+            if ( end < str.length() && str.charAt( end ) == '-' )
+            {
+                end++;
+            }
+            int digits = end;
+            while ( end < str.length() && Character.isDigit( str.charAt( end ) ) )
+            {
+                end++;
+            }
+            if ( end == digits || end == str.length() || str.charAt( end ) != '}' )
+            {
+                continue;
+            }
+            String location;
+            try
+            {
+                location = locations.get( Integer.valueOf( str.substring( start + 1, end ) ) );
+            }
+            catch ( NumberFormatException e )
+            {
+                continue;
+            }
+            if ( location == null )
+            {
+                continue;
+            }
+            if ( result == null )
+            {
+                result = new StringBuilder( str.length() + location.length() );
+            }
+            result.append( str, copied, start )
+                    .append( location );
+            copied = end + 1;
+            start = end;
+        }
+        if ( result == null )
         {
-            str = str.replace( "{" + jobId + "}", locations.get( jobId ) );
+            return str;
         }
-        return str;
+        return result.append( str, copied, str.length() )
+                .toString();
     }
 
     private boolean is2XXStatusCode( int statusCode )
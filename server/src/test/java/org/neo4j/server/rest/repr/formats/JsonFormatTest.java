@@ -21,10 +21,13 @@ package org.neo4j.server.rest.repr.formats;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.Collections;
 
+import javax.ws.rs.core.StreamingOutput;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.neo4j.server.rest.domain.JsonHelper;
@@ -131,4 +134,49 @@ public class JsonFormatTest
                 JsonHelper.createJsonFrom( Collections.singletonMap( "nested",
                         Collections.singletonMap( "data", "expected data" ) ) ), entity );
     }
+
+    @Test
+    public void streamsListOfStrings() throws Exception
+    {
+        ListRepresentation list = ListRepresentation.strings( "hello", "world" );
+        assertEquals( json.format( list ), stream( list ) );
+    }
+
+    @Test
+    public void streamsListOfObjectsWithNestedObjectsAndLists() throws Exception
+    {
+        ListRepresentation list = new ListRepresentation( "nesting", Arrays.asList( nesting( "first" ),
+                nesting( "second" ) ) );
+        assertEquals( JsonHelper.readJson( json.format( list ) ), JsonHelper.readJson( stream( list ) ) );
+    }
+
+    private MappingRepresentation nesting( final String name )
+    {
+        return new MappingRepresentation( "nesting" )
+        {
+            @Override
+            protected void serialize( MappingSerializer serializer )
+            {
+                serializer.putString( "name", name );
+                serializer.putMapping( "nested", new MappingRepresentation( "data" )
+                {
+                    @Override
+                    protected void serialize( MappingSerializer nested )
+                    {
+                        nested.putString( "data", "expected data" );
+                    }
+                } );
+                serializer.putList( "numbers", ListRepresentation.numbers( 1, 2, 3 ) );
+                serializer.putUri( "URL", "subpath" );
+            }
+        };
+    }
+
+    private String stream( ListRepresentation list ) throws Exception
+    {
+        OutputFormat streaming = new OutputFormat( new JsonFormat(), new URI( "http://localhost/" ), null, true );
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ( (StreamingOutput) streaming.ok( list ).getEntity() ).write( output );
+        return output.toString( "UTF-8" );
+    }
 }